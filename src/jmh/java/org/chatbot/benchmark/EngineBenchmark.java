@@ -0,0 +1,109 @@
+package org.chatbot.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.chatbot.ai.IntentDetector;
+import org.chatbot.configuration.FlowConfigService;
+import org.chatbot.configuration.FlowRegistry;
+import org.chatbot.conversationMessage.service.ConversationMessageService;
+import org.chatbot.conversationMessage.service.RecentMessageCache;
+import org.chatbot.engine.ChatFlowEngine;
+import org.chatbot.engine.ConversationStateService;
+import org.chatbot.engine.InMemoryConversationStateStore;
+import org.chatbot.engine.IntentCascade;
+import org.chatbot.engine.KeywordMatcher;
+import org.chatbot.engine.SessionSequencer;
+import org.chatbot.flow.FlowCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// One user turn through ChatFlowEngine.onUserMessage on a synthetic flow: state lookup, keyword or intent
+// resolution, chain flattening and state update. Persistence is a no-op and the intent detector answers
+// "no intent" immediately, so DETECT_RESPONSE_INTENT turns resolve through the intent keywords. Sessions are
+// spread over the flow's wait points, so every turn works on a different block.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class EngineBenchmark {
+
+    private static final int SESSIONS = 1024;
+    private static final int MESSAGES = 4096;
+
+    @Param({"10", "1000", "10000"})
+    public int blocks;
+
+    @Param({"1", "100", "1000"})
+    public int keywords;
+
+    private ChatFlowEngine engine;
+    private String[] sessions;
+    private String[] messages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticFlow.quietLogging();
+        FlowConfigService flowConfigService =
+                new FlowConfigService(null, event -> { }, 0, FlowCompiler.DEFAULT_MAX_HOPS);
+        flowConfigService.setFlow(SyntheticFlow.create(blocks, keywords));
+        ConversationMessageService noPersistence = new ConversationMessageService(null, null,
+                RecentMessageCache.disabled(), null, new SimpleMeterRegistry()) {
+            @Override
+            public void saveUserMessage(String sessionId, String content, String blockId) {
+            }
+
+            @Override
+            public void saveBotMessage(String sessionId, String content, String blockId) {
+            }
+        };
+        IntentDetector noIntent = new IntentDetector() {
+            @Override
+            public Optional<String> detectIntent(String userText, List<String> intents) {
+                return Optional.empty();
+            }
+        };
+        FlowRegistry flows = new FlowRegistry(flowConfigService, null, event -> { }, "flow", 1);
+        engine = new ChatFlowEngine(flows,
+                new ConversationStateService(new InMemoryConversationStateStore(1_800_000, 100_000), "conversation-id",
+                        ""),
+                new KeywordMatcher(), noPersistence, noIntent, Runnable::run, new SessionSequencer(100),
+                new IntentCascade(null, false, 1.0, 1.0), new SimpleMeterRegistry());
+        sessions = new String[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions[i] = "session-" + i;
+            engine.start(sessions[i]);
+            // Move the sessions apart so turns do not all hit the first wait point.
+            int steps = i % Math.min(64, Math.max(1, blocks / 2));
+            for (int t = 0; t < steps; t++) {
+                engine.onUserMessage(sessions[i], "hello");
+            }
+        }
+        messages = SyntheticFlow.messages(MESSAGES, keywords, 7);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public List<String> onUserMessage(Cursor cursor) {
+        int i = cursor.next++;
+        return engine.onUserMessage(sessions[i & (SESSIONS - 1)], messages[i & (MESSAGES - 1)]);
+    }
+}
@@ -0,0 +1,131 @@
+package org.chatbot.benchmark;
+
+import org.chatbot.engine.KeywordMatcher;
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
+import org.chatbot.flow.IntentTarget;
+import org.chatbot.flow.KeywordAutomaton;
+import org.chatbot.flow.Transition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The lookups a turn is made of, measured on their own on a synthetic flow:
+// keyword routes (KeywordMatcher.resolve), intent options (detected name first, then the intent keywords, then
+// the fallback, like ChatFlowEngine) and finding a block by id in the JSON Flow and in the CompiledFlow.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MatcherBenchmark {
+
+    private static final int MESSAGES = 4096;
+
+    @Param({"10", "1000", "10000"})
+    public int blocks;
+
+    @Param({"1", "100", "1000"})
+    public int keywords;
+
+    private Flow flow;
+    private CompiledFlow compiled;
+    private CompiledBlock waitBlock;
+    private CompiledBlock intentBlock;
+    private final KeywordMatcher matcher = new KeywordMatcher();
+    private String[] messages;
+    private String[] detectedIntents;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticFlow.quietLogging();
+        flow = SyntheticFlow.create(blocks, keywords);
+        compiled = FlowCompiler.compile(flow);
+        CompiledBlock waitBlock = null;
+        CompiledBlock intentBlock = null;
+        for (int i = 0; i < compiled.size(); i++) {
+            CompiledBlock b = compiled.block(i);
+            if (waitBlock == null && b.type() == BlockType.WAIT_FOR_RESPONSE) {
+                waitBlock = b;
+            }
+            if (intentBlock == null && b.type() == BlockType.DETECT_RESPONSE_INTENT) {
+                intentBlock = b;
+            }
+        }
+        this.waitBlock = waitBlock;
+        this.intentBlock = intentBlock;
+        messages = SyntheticFlow.messages(MESSAGES, keywords, 11);
+        // Half of the turns have an answer from the detector, the rest resolve through keywords.
+        detectedIntents = new String[MESSAGES];
+        for (int i = 0; i < MESSAGES; i += 2) {
+            detectedIntents[i] = "intent" + (i % SyntheticFlow.GROUPS);
+        }
+        // Ids spread over the whole flow, so the linear Flow.byId scan pays its average cost.
+        ids = new String[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            Block b = flow.getBlocks().get((int) ((long) i * flow.getBlocks().size() / MESSAGES));
+            ids[i] = b.id();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next() {
+            return next++ & (MESSAGES - 1);
+        }
+    }
+
+    @Benchmark
+    public Transition keywordMatcherResolve(Cursor cursor) {
+        return matcher.resolve(waitBlock, messages[cursor.next()]);
+    }
+
+    @Benchmark
+    public Transition intentOptionsResolve(Cursor cursor) {
+        if (intentBlock == null) {
+            return null;
+        }
+        int i = cursor.next();
+        String detected = detectedIntents[i];
+        if (detected != null) {
+            IntentTarget option = intentBlock.intentByName(detected);
+            if (option != null) {
+                return option.target();
+            }
+        }
+        int option = intentBlock.intentKeywords().firstMatch(messages[i]);
+        if (option != KeywordAutomaton.NO_MATCH) {
+            return intentBlock.intentOptions().get(option).target();
+        }
+        return intentBlock.fallback();
+    }
+
+    @Benchmark
+    public Block flowById(Cursor cursor) {
+        return flow.byId(ids[cursor.next()]);
+    }
+
+    @Benchmark
+    public CompiledBlock compiledFlowById(Cursor cursor) {
+        return compiled.byId(ids[cursor.next()]);
+    }
+}
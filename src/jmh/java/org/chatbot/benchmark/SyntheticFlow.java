@@ -0,0 +1,103 @@
+package org.chatbot.benchmark;
+
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.IntentOption;
+import org.chatbot.flow.MatchSpec;
+import org.chatbot.flow.MatchType;
+import org.chatbot.flow.Route;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Generated flows and user messages for the benchmarks.
+// A flow of n blocks is n / 2 wait points, each followed by a WRITE_MESSAGE answer that leads to the next wait
+// point, so a conversation walks through the whole flow. Wait points alternate between WAIT_FOR_RESPONSE with
+// KEYWORD routes and DETECT_RESPONSE_INTENT with intent options; both spread the same keywordsPerBlock keywords
+// over four routes / intents and have a fallback. Keywords are one or two customer-support words.
+final class SyntheticFlow {
+
+    static final int GROUPS = 4;
+
+    private static final String[] WORDS = {
+            "price", "cost", "refund", "invoice", "delivery", "shipping", "tracking", "order", "cancel", "return",
+            "warranty", "discount", "coupon", "payment", "card", "subscription", "upgrade", "downgrade", "account",
+            "password", "login", "email", "address", "hours", "opening", "weekend", "holiday", "store", "location",
+            "manager", "complaint", "damaged", "missing", "exchange", "size", "color", "stock", "availability",
+            "premium", "basic", "plan", "trial", "contract", "support", "agent", "callback", "receipt", "tax"
+    };
+
+    private static final String[] TEMPLATES = {
+            "Hi, %s please",
+            "could you tell me something about %s?",
+            "I have a question regarding %s and my account",
+            "Hello there. I was wondering what the %s situation is for my last purchase, thanks!"
+    };
+
+    private SyntheticFlow() {
+    }
+
+    // The engine logs every fallback at INFO; outside Spring logback would print (and time) all of them.
+    static void quietLogging() {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+
+    static String keyword(int i) {
+        String first = WORDS[i % WORDS.length];
+        return i < WORDS.length ? first : first + " " + WORDS[(i / WORDS.length) % WORDS.length];
+    }
+
+    static Flow create(int blocks, int keywordsPerBlock) {
+        int waitPoints = Math.max(1, blocks / 2);
+        List<List<String>> keywordsPerGroup = new ArrayList<>();
+        for (int g = 0; g < GROUPS; g++) {
+            keywordsPerGroup.add(new ArrayList<>());
+        }
+        for (int k = 0; k < keywordsPerBlock; k++) {
+            keywordsPerGroup.get(k % GROUPS).add(keyword(k));
+        }
+        List<Block> result = new ArrayList<>(waitPoints * 2 + 1);
+        for (int w = 0; w < waitPoints; w++) {
+            String wait = "wait" + w;
+            String answer = "answer" + w;
+            String following = "wait" + ((w + 1) % waitPoints);
+            if (w % 2 == 0) {
+                List<Route> routes = new ArrayList<>();
+                for (int g = 0; g < GROUPS; g++) {
+                    if (!keywordsPerGroup.get(g).isEmpty()) {
+                        routes.add(new Route(new MatchSpec(MatchType.KEYWORD, keywordsPerGroup.get(g)), answer));
+                    }
+                }
+                routes.add(new Route(new MatchSpec(MatchType.FALLBACK, null), answer));
+                result.add(new Block(wait, BlockType.WAIT_FOR_RESPONSE, null, null, routes, null, null));
+            } else {
+                List<IntentOption> intents = new ArrayList<>();
+                for (int g = 0; g < GROUPS; g++) {
+                    intents.add(new IntentOption("intent" + g, keywordsPerGroup.get(g), answer));
+                }
+                result.add(new Block(wait, BlockType.DETECT_RESPONSE_INTENT, null, null, null, intents, answer));
+            }
+            result.add(new Block(answer, BlockType.WRITE_MESSAGE, "Answer " + w, following, null, null, null));
+        }
+        result.add(new Block("greeting", BlockType.WRITE_MESSAGE, "Hello!", "wait0", null, null, null));
+        return new Flow("greeting", result);
+    }
+
+    // Realistic messages: most contain one of the keywords somewhere in a sentence, every fifth contains none.
+    static String[] messages(int count, int keywordsPerBlock, long seed) {
+        Random random = new Random(seed);
+        String[] messages = new String[count];
+        for (int i = 0; i < count; i++) {
+            String template = TEMPLATES[random.nextInt(TEMPLATES.length)];
+            String topic = i % 5 == 4 ? "the weather" : keyword(random.nextInt(Math.max(1, keywordsPerBlock)));
+            messages[i] = String.format(template, topic);
+        }
+        return messages;
+    }
+}
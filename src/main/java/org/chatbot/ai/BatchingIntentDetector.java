@@ -0,0 +1,145 @@
+package org.chatbot.ai;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// IntentDetector decorator that merges concurrent OpenAI calls into one request.
+// The first call opens a batch; calls arriving within windowMillis join it. The batch is sent when the window
+// closes or as soon as it holds maxBatchSize calls, as one multi-item classification, and every caller's
+// future is completed with its own entry of the answer. A batch of one is sent as a normal single request.
+// If the request fails, or its answer cannot be matched to the items, every caller's future fails with the same
+// exception instance, so ResilientIntentDetector counts the request once and a cache in front stores nothing.
+@Slf4j
+public class BatchingIntentDetector implements IntentDetector {
+
+    // Snapshot of the batching counters.
+    public record Stats(long requests, long batches, long largestBatch) {}
+
+    private record Pending(String userText, List<String> intents, CompletableFuture<Optional<String>> result) {}
+
+    private final OpenAIIntentDetector delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService timer;
+    private final Object lock = new Object();
+    private List<Pending> current = new ArrayList<>();
+    private ScheduledFuture<?> windowClose;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile long largestBatch;
+
+    public BatchingIntentDetector(OpenAIIntentDetector delegate, long windowMillis, int maxBatchSize) {
+        this.delegate = delegate;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "intent-batcher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Blocks until the batch this call joins has been answered.
+    @Override
+    public Optional<String> detectIntent(String userText, List<String> intents) {
+        return detectIntentAsync(userText, intents).join();
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectIntentAsync(String userText, List<String> intents) {
+        if (userText == null || intents == null || intents.isEmpty()) {
+            return delegate.detectIntentAsync(userText, intents);
+        }
+        Pending pending = new Pending(userText, List.copyOf(intents), new CompletableFuture<>());
+        requests.incrementAndGet();
+        List<Pending> full = null;
+        synchronized (lock) {
+            current.add(pending);
+            if (current.size() >= maxBatchSize) {
+                full = takeCurrent();
+            } else if (current.size() == 1) {
+                windowClose = timer.schedule(this::flushWindow, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return pending.result();
+    }
+
+    // Must hold lock.
+    private List<Pending> takeCurrent() {
+        List<Pending> batch = current;
+        current = new ArrayList<>();
+        if (windowClose != null) {
+            windowClose.cancel(false);
+            windowClose = null;
+        }
+        return batch;
+    }
+
+    private void flushWindow() {
+        List<Pending> batch;
+        synchronized (lock) {
+            batch = current.isEmpty() ? null : takeCurrent();
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        batches.incrementAndGet();
+        if (batch.size() > largestBatch) {
+            largestBatch = batch.size();
+        }
+        if (batch.size() == 1) {
+            Pending only = batch.get(0);
+            delegate.detectIntentAsync(only.userText(), only.intents()).whenComplete((intent, error) -> {
+                if (error != null) {
+                    only.result().completeExceptionally(error);
+                } else {
+                    only.result().complete(intent);
+                }
+            });
+            return;
+        }
+        List<String> texts = new ArrayList<>(batch.size());
+        List<List<String>> intents = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            texts.add(p.userText());
+            intents.add(p.intents());
+        }
+        delegate.detectIntentsAsync(texts, intents).whenComplete((results, error) -> {
+            for (int i = 0; i < batch.size(); i++) {
+                if (error != null) {
+                    batch.get(i).result().completeExceptionally(error);
+                } else {
+                    batch.get(i).result().complete(results.get(i));
+                }
+            }
+        });
+    }
+
+    public Stats stats() {
+        return new Stats(requests.get(), batches.get(), largestBatch);
+    }
+
+    // Sends whatever is still waiting for its window and stops the timer thread.
+    @Override
+    public void close() {
+        flushWindow();
+        timer.shutdownNow();
+        delegate.close();
+    }
+}
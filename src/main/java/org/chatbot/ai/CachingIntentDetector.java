@@ -0,0 +1,174 @@
+package org.chatbot.ai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.configuration.FlowActivatedEvent;
+import org.springframework.context.event.EventListener;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// IntentDetector decorator that remembers recent answers of the delegate.
+// Entries are keyed by the normalized user text plus the set of candidate intents, kept in LRU order
+// up to maxSize and expire after a TTL. "No intent" answers are cached too, with their own (shorter) TTL.
+// The whole cache is dropped when a new flow is activated, because intents may have changed.
+@Slf4j
+public class CachingIntentDetector implements IntentDetector {
+
+    // Snapshot of the cache counters.
+    public record Stats(long hits, long misses, long evictions, long expirations, int size) {}
+
+    private record Key(String text, Set<String> intents) {}
+
+    private record Entry(Optional<String> intent, long expiresAtNanos) {}
+
+    private final IntentDetector delegate;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public CachingIntentDetector(IntentDetector delegate, int maxSize, long ttlMillis, long negativeTtlMillis) {
+        this(delegate, maxSize, ttlMillis, negativeTtlMillis, System::nanoTime);
+    }
+
+    CachingIntentDetector(IntentDetector delegate, int maxSize, long ttlMillis, long negativeTtlMillis, LongSupplier nanoClock) {
+        this.delegate = delegate;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.nanoClock = nanoClock;
+        // Access-ordered, so the eldest entry is always the least recently used one.
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > CachingIntentDetector.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public Optional<String> detectIntent(String userText, List<String> intents) {
+        if (userText == null || intents == null || intents.isEmpty()) {
+            return delegate.detectIntent(userText, intents);
+        }
+        Key key = keyOf(userText, intents);
+        Entry cached = lookup(key);
+        if (cached != null) {
+            return cached.intent();
+        }
+        // The remote call runs outside the lock; concurrent misses for the same key may both reach the delegate.
+        Optional<String> result = delegate.detectIntent(userText, intents);
+        store(key, result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectIntentAsync(String userText, List<String> intents) {
+        if (userText == null || intents == null || intents.isEmpty()) {
+            return delegate.detectIntentAsync(userText, intents);
+        }
+        Key key = keyOf(userText, intents);
+        Entry cached = lookup(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.intent());
+        }
+        return delegate.detectIntentAsync(userText, intents)
+                .thenApply(result -> {
+                    store(key, result);
+                    return result;
+                });
+    }
+
+    private static Key keyOf(String userText, List<String> intents) {
+        return new Key(normalize(userText), new HashSet<>(intents));
+    }
+
+    // Returns the live entry for key and counts a hit, or counts a miss and returns null.
+    private Entry lookup(Key key) {
+        long now = nanoClock.getAsLong();
+        synchronized (entries) {
+            Entry cached = entries.get(key);
+            if (cached != null) {
+                if (now - cached.expiresAtNanos() < 0) {
+                    hits.increment();
+                    return cached;
+                }
+                entries.remove(key);
+                expirations.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void store(Key key, Optional<String> result) {
+        long ttl = result.isPresent() ? ttlNanos : negativeTtlNanos;
+        if (ttl > 0) {
+            synchronized (entries) {
+                entries.put(key, new Entry(result, nanoClock.getAsLong() + ttl));
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @EventListener
+    public void onFlowActivated(FlowActivatedEvent event) {
+        invalidateAll();
+        log.info("Intent cache cleared after flow change");
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), size);
+    }
+
+    // Lowercase, trimmed, runs of whitespace collapsed to one space.
+    static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString();
+    }
+}
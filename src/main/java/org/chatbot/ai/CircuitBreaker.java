@@ -0,0 +1,79 @@
+package org.chatbot.ai;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Consecutive-failure circuit breaker for the intent endpoint.
+// CLOSED: calls go through; failureThreshold failures in a row open the circuit.
+// OPEN: calls are refused for openMillis. HALF_OPEN: a single trial call decides between CLOSED and OPEN again.
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+    private long opened;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis, LongSupplier nanoClock) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    // True if a call may be made now. A threshold of 0 or less disables the breaker.
+    public synchronized boolean tryAcquire() {
+        if (failureThreshold <= 0 || state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openedAtNanos < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (trialInFlight) {
+            return false;
+        }
+        trialInFlight = true;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAtNanos = nanoClock.getAsLong();
+            opened++;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    // How many times the circuit has opened.
+    public synchronized long timesOpened() {
+        return opened;
+    }
+}
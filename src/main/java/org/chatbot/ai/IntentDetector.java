@@ -2,10 +2,26 @@ package org.chatbot.ai;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 //Detects the intent in the user's text.
 public interface IntentDetector {
 
     //Finds the most suitable intent from the list.
     Optional<String> detectIntent(String userText, List<String> intents);
-}
\ No newline at end of file
+
+    //Non-blocking variant of detectIntent. Implementations that do remote I/O should override it;
+    //the default simply runs detectIntent on the calling thread.
+    default CompletableFuture<Optional<String>> detectIntentAsync(String userText, List<String> intents) {
+        try {
+            return CompletableFuture.completedFuture(detectIntent(userText, intents));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    //Releases threads or connections. Decorators close their delegate too, so closing the outermost detector
+    //(which Spring does for the intentDetector bean through its inferred close method) closes the whole chain.
+    default void close() {
+    }
+}
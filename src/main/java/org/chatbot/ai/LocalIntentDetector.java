@@ -0,0 +1,143 @@
+package org.chatbot.ai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.configuration.FlowActivatedEvent;
+import org.chatbot.configuration.FlowConfigService;
+import org.chatbot.flow.Block;
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.IntentOption;
+import org.chatbot.flow.IntentTarget;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// In-process IntentDetector: no network, answers in microseconds.
+// When a flow is activated, one NgramIntentModel is trained for every DETECT_RESPONSE_INTENT block, from the names,
+// keywords and optional examples of its intents (legacy INTENT routes only have their names). Models belong to a
+// block of one CompiledFlow: the cascade looks them up by the block itself, and detectIntent by the candidate list
+// the engine passes, which is that block's own list instance. Blocks of other flows, such as flows selected by
+// name (FlowRegistry), therefore find no model even if their intents have the same names, and go on to the next
+// stage; they are never classified with the training data of another flow.
+// Training happens when the flow is activated, never while a message waits for it.
+// Selected with chatbot.intent.detector=local.
+@Component
+@Slf4j
+public class LocalIntentDetector implements IntentDetector {
+
+    // byBlock is indexed like the blocks of flow; byCandidates maps each block's candidate list (by identity)
+    // to its model.
+    private record Models(CompiledFlow flow, NgramIntentModel[] byBlock,
+                          Map<List<String>, NgramIntentModel> byCandidates) {}
+
+    private final FlowConfigService flowConfigService;
+    private final double minScore;
+    private volatile Models models;
+
+    public LocalIntentDetector(FlowConfigService flowConfigService,
+                               @Value("${chatbot.intent.local.min-score:0.3}") double minScore) {
+        this.flowConfigService = flowConfigService;
+        this.minScore = minScore;
+        // The flow loaded at startup is activated before this listener exists.
+        this.models = train(flowConfigService.getCompiledFlow());
+    }
+
+    // The intent with the highest score, if that score reaches min-score.
+    @Override
+    public Optional<String> detectIntent(String userText, List<String> intents) {
+        if (userText == null || intents == null || intents.isEmpty()) {
+            return Optional.empty();
+        }
+        NgramIntentModel model = models.byCandidates().get(intents);
+        NgramIntentModel.Prediction prediction = model == null ? null : model.predict(userText);
+        return prediction != null && prediction.score() >= minScore ? Optional.of(prediction.name()) : Optional.empty();
+    }
+
+    // Best intent of block with its score (no threshold applied), or null if block has no model or no overlap.
+    public NgramIntentModel.Prediction predict(String userText, CompiledBlock block) {
+        if (userText == null || block == null) {
+            return null;
+        }
+        Models current = models;
+        CompiledFlow flow = current.flow();
+        if (flow == null || block.index() >= flow.size() || flow.block(block.index()) != block) {
+            return null;
+        }
+        NgramIntentModel model = current.byBlock()[block.index()];
+        return model == null ? null : model.predict(userText);
+    }
+
+    // Models are only trained for the active flow.
+    @EventListener
+    public void onFlowActivated(FlowActivatedEvent event) {
+        if (event.current() == flowConfigService.getCompiledFlow()) {
+            models = train(event.current());
+        }
+    }
+
+    private static Models train(CompiledFlow flow) {
+        if (flow == null) {
+            return new Models(null, new NgramIntentModel[0], Map.of());
+        }
+        long start = System.nanoTime();
+        NgramIntentModel[] byBlock = new NgramIntentModel[flow.size()];
+        Map<List<String>, NgramIntentModel> byCandidates = new IdentityHashMap<>();
+        int features = 0;
+        for (int i = 0; i < flow.size(); i++) {
+            CompiledBlock block = flow.block(i);
+            List<String> candidates = candidates(block);
+            if (candidates.isEmpty()) {
+                continue;
+            }
+            NgramIntentModel model = NgramIntentModel.train(candidates, phrases(block, candidates));
+            features += model.features();
+            byBlock[i] = model;
+            byCandidates.put(candidates, model);
+        }
+        log.info("Local intent models trained. models={}, features={}, tookMs={}",
+                byCandidates.size(), features, (System.nanoTime() - start) / 1_000_000);
+        return new Models(flow, byBlock, byCandidates);
+    }
+
+    // The list the engine passes to the detector for block.
+    private static List<String> candidates(CompiledBlock block) {
+        if (block.hasIntentOptions()) {
+            return block.intentNames();
+        }
+        return block.hasRoutes() ? block.routeIntents() : List.of();
+    }
+
+    private static List<List<String>> phrases(CompiledBlock block, List<String> candidates) {
+        List<List<String>> phrases = new ArrayList<>(candidates.size());
+        for (String candidate : candidates) {
+            List<String> own = new ArrayList<>();
+            own.add(candidate);
+            phrases.add(own);
+        }
+        if (!block.hasIntentOptions()) {
+            return phrases;
+        }
+        Map<String, List<String>> examples = new HashMap<>();
+        Block source = block.source();
+        for (IntentOption option : source.intents()) {
+            if (option != null && option.name() != null && option.examples() != null) {
+                examples.computeIfAbsent(option.name(), k -> new ArrayList<>()).addAll(option.examples());
+            }
+        }
+        for (IntentTarget option : block.intentOptions()) {
+            int i = candidates.indexOf(option.name());
+            if (i >= 0) {
+                phrases.get(i).addAll(option.keywords());
+                phrases.get(i).addAll(examples.getOrDefault(option.name(), List.of()));
+            }
+        }
+        return phrases;
+    }
+}
@@ -0,0 +1,73 @@
+package org.chatbot.ai;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// IntentDetector decorator that times every detection of the delegate as chatbot.intent.detection, tagged with
+// the detector and the outcome: HIT (an intent was returned), NONE (no intent, the engine falls back to
+// keywords) or ERROR (the call failed). The timers are registered up front, so recording does not allocate.
+public class MeteredIntentDetector implements IntentDetector {
+
+    private final IntentDetector delegate;
+    private final Timer hit;
+    private final Timer none;
+    private final Timer error;
+
+    public MeteredIntentDetector(IntentDetector delegate, String detector, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.hit = timer(registry, detector, "HIT");
+        this.none = timer(registry, detector, "NONE");
+        this.error = timer(registry, detector, "ERROR");
+    }
+
+    private static Timer timer(MeterRegistry registry, String detector, String outcome) {
+        return Timer.builder("chatbot.intent.detection")
+                .description("Intent detection latency by outcome")
+                .tag("detector", detector)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    @Override
+    public Optional<String> detectIntent(String userText, List<String> intents) {
+        long start = System.nanoTime();
+        Optional<String> result;
+        try {
+            result = delegate.detectIntent(userText, intents);
+        } catch (RuntimeException e) {
+            record(null, e, start);
+            throw e;
+        }
+        record(result, null, start);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectIntentAsync(String userText, List<String> intents) {
+        long start = System.nanoTime();
+        CompletableFuture<Optional<String>> result;
+        try {
+            result = delegate.detectIntentAsync(userText, intents);
+        } catch (RuntimeException e) {
+            record(null, e, start);
+            throw e;
+        }
+        return result.whenComplete((intent, e) -> record(intent, e, start));
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private void record(Optional<String> intent, Throwable e, long startNanos) {
+        Timer timer = e != null ? error : intent != null && intent.isPresent() ? hit : none;
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,268 @@
+package org.chatbot.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Character trigram TF-IDF classifier for one set of candidate intents.
+// Every training phrase of an intent (its name, keywords, examples) is a TF-IDF vector; idf is computed over
+// intents, so trigrams shared by all intents carry little weight. A message scores the cosine similarity with
+// its nearest phrase, and the intent of that phrase wins. tf is sublinear (1 + ln tf) on both sides.
+// Text is lowercased, everything that is not a letter or digit becomes a word boundary, and words are padded
+// with spaces so trigrams also capture word starts and ends.
+// All model data lives in primitive arrays (an open-addressing trigram table and a CSR inverted index) and
+// prediction works in per-thread scratch buffers, so classifying does not allocate per token.
+public final class NgramIntentModel {
+
+    // Best intent for a message: its index in the candidate list, name and cosine score in [0, 1].
+    public record Prediction(int intent, String name, double score) {}
+
+    private static final class Scratch {
+        long[] grams = new long[64];
+        int[] touched = new int[64];
+        int[] counts = new int[0];
+        double[] dots = new double[0];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final String[] names;
+    // Trigram key -> feature index; 0 marks an empty slot (no real key is 0).
+    private final long[] keys;
+    private final int[] featureOf;
+    private final int mask;
+    private final float[] idf;
+    // Postings of feature f: postingPhrase / postingWeight in [postingStart[f], postingStart[f + 1]).
+    private final int[] postingStart;
+    private final int[] postingPhrase;
+    private final float[] postingWeight;
+    private final int[] phraseIntent;
+    private final double[] phraseNorm;
+    // Weight given to query trigrams the model has never seen; they only lower the score.
+    private final double unseenIdf;
+
+    private NgramIntentModel(String[] names, long[] keys, int[] featureOf, float[] idf, int[] postingStart,
+                             int[] postingPhrase, float[] postingWeight, int[] phraseIntent, double[] phraseNorm,
+                             double unseenIdf) {
+        this.names = names;
+        this.keys = keys;
+        this.featureOf = featureOf;
+        this.mask = keys.length - 1;
+        this.idf = idf;
+        this.postingStart = postingStart;
+        this.postingPhrase = postingPhrase;
+        this.postingWeight = postingWeight;
+        this.phraseIntent = phraseIntent;
+        this.phraseNorm = phraseNorm;
+        this.unseenIdf = unseenIdf;
+    }
+
+    // phrases.get(i) is the training data of names.get(i); null and blank phrases are ignored.
+    public static NgramIntentModel train(List<String> names, List<List<String>> phrases) {
+        int intents = names.size();
+        Map<Long, Integer> featureIndex = new HashMap<>();
+        List<Map<Integer, Integer>> termCounts = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        List<Set<Integer>> intentFeatures = new ArrayList<>(intents);
+        Scratch scratch = new Scratch();
+        for (int i = 0; i < intents; i++) {
+            Set<Integer> seen = new HashSet<>();
+            List<String> intentPhrases = phrases.get(i);
+            if (intentPhrases != null) {
+                for (String phrase : intentPhrases) {
+                    if (phrase == null || phrase.isBlank()) {
+                        continue;
+                    }
+                    int n = trigrams(phrase, scratch);
+                    if (n == 0) {
+                        continue;
+                    }
+                    Map<Integer, Integer> counts = new HashMap<>();
+                    for (int k = 0; k < n; k++) {
+                        Integer f = featureIndex.computeIfAbsent(scratch.grams[k], key -> featureIndex.size());
+                        counts.merge(f, 1, Integer::sum);
+                        seen.add(f);
+                    }
+                    termCounts.add(counts);
+                    owners.add(i);
+                }
+            }
+            intentFeatures.add(seen);
+        }
+
+        int features = featureIndex.size();
+        int[] df = new int[features];
+        for (Set<Integer> seen : intentFeatures) {
+            for (int f : seen) {
+                df[f]++;
+            }
+        }
+        float[] idf = new float[features];
+        for (int f = 0; f < features; f++) {
+            idf[f] = (float) (Math.log((1.0 + intents) / (1.0 + df[f])) + 1.0);
+        }
+
+        int phrasesCount = termCounts.size();
+        int[] postingStart = new int[features + 1];
+        for (Map<Integer, Integer> counts : termCounts) {
+            for (int f : counts.keySet()) {
+                postingStart[f + 1]++;
+            }
+        }
+        for (int f = 0; f < features; f++) {
+            postingStart[f + 1] += postingStart[f];
+        }
+        int[] fill = postingStart.clone();
+        int[] postingPhrase = new int[postingStart[features]];
+        float[] postingWeight = new float[postingStart[features]];
+        int[] phraseIntent = new int[phrasesCount];
+        double[] phraseNorm = new double[phrasesCount];
+        for (int p = 0; p < phrasesCount; p++) {
+            double norm = 0;
+            for (Map.Entry<Integer, Integer> e : termCounts.get(p).entrySet()) {
+                int f = e.getKey();
+                float w = (float) ((1.0 + Math.log(e.getValue())) * idf[f]);
+                postingPhrase[fill[f]] = p;
+                postingWeight[fill[f]++] = w;
+                norm += (double) w * w;
+            }
+            phraseIntent[p] = owners.get(p);
+            phraseNorm[p] = Math.sqrt(norm);
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(4, features * 2) - 1) << 1;
+        long[] keys = new long[capacity];
+        int[] featureOf = new int[capacity];
+        for (Map.Entry<Long, Integer> e : featureIndex.entrySet()) {
+            int slot = slot(e.getKey(), capacity - 1);
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            keys[slot] = e.getKey();
+            featureOf[slot] = e.getValue();
+        }
+        return new NgramIntentModel(names.toArray(new String[0]), keys, featureOf, idf, postingStart,
+                postingPhrase, postingWeight, phraseIntent, phraseNorm, Math.log(1.0 + intents) + 1.0);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public int features() {
+        return idf.length;
+    }
+
+    // Best scoring intent, or null if the message shares no trigram with any intent.
+    public Prediction predict(CharSequence text) {
+        if (text == null || names.length == 0) {
+            return null;
+        }
+        Scratch s = SCRATCH.get();
+        if (s.counts.length < idf.length) {
+            s.counts = new int[idf.length];
+        }
+        if (s.dots.length < phraseIntent.length) {
+            s.dots = new double[phraseIntent.length];
+        }
+        int n = trigrams(text, s);
+        if (s.touched.length < n) {
+            s.touched = new int[s.grams.length];
+        }
+        int[] counts = s.counts;
+        int touched = 0;
+        int unseen = 0;
+        for (int k = 0; k < n; k++) {
+            int f = feature(s.grams[k]);
+            if (f < 0) {
+                unseen++;
+            } else if (counts[f]++ == 0) {
+                s.touched[touched++] = f;
+            }
+        }
+        double[] dots = s.dots;
+        double queryNorm = unseen * unseenIdf * unseenIdf;
+        for (int t = 0; t < touched; t++) {
+            int f = s.touched[t];
+            double q = (1.0 + Math.log(counts[f])) * idf[f];
+            counts[f] = 0;
+            queryNorm += q * q;
+            for (int p = postingStart[f]; p < postingStart[f + 1]; p++) {
+                dots[postingPhrase[p]] += q * postingWeight[p];
+            }
+        }
+        int best = -1;
+        double bestScore = 0;
+        for (int p = 0; p < phraseIntent.length; p++) {
+            if (dots[p] > 0) {
+                double score = dots[p] / phraseNorm[p];
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = phraseIntent[p];
+                }
+            }
+            dots[p] = 0;
+        }
+        if (best < 0) {
+            return null;
+        }
+        return new Prediction(best, names[best], Math.min(1.0, bestScore / Math.sqrt(queryNorm)));
+    }
+
+    private int feature(long key) {
+        int slot = slot(key, mask);
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                return featureOf[slot];
+            }
+            if (k == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    // Writes the trigram keys of the normalized, space-padded text into s.grams and returns how many there are.
+    // A key packs the three chars into one long, so distinct trigrams never collide.
+    static int trigrams(CharSequence text, Scratch s) {
+        long[] grams = s.grams;
+        int count = 0;
+        char a = 0;
+        char b = ' ';
+        int emitted = 1;
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char c;
+            if (i == length) {
+                c = ' ';
+            } else {
+                char raw = text.charAt(i);
+                c = Character.isLetterOrDigit(raw) ? Character.toLowerCase(raw) : ' ';
+            }
+            if (c == ' ' && b == ' ') {
+                continue;
+            }
+            if (emitted >= 2) {
+                if (count == grams.length) {
+                    grams = Arrays.copyOf(grams, grams.length * 2);
+                    s.grams = grams;
+                }
+                grams[count++] = ((long) a << 32) | ((long) b << 16) | c;
+            }
+            a = b;
+            b = c;
+            emitted++;
+        }
+        return count;
+    }
+}
@@ -3,6 +3,7 @@ package org.chatbot.ai;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -12,10 +13,15 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
 @Component
@@ -25,17 +31,25 @@ public class OpenAIIntentDetector implements IntentDetector {
     private final String apiKey;
     private final String model;
     private final String apiUrl;
+    private final Duration requestTimeout;
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
 
+    //Both timeouts turn a hung endpoint into a failed call instead of a turn that never completes.
+    @Autowired
     public OpenAIIntentDetector(
             @Value("${openai.api.key:}") String apiKey,
             @Value("${openai.api.model:gpt-3.5-turbo}") String model,
-            @Value("${openai.api.url:https://api.openai.com/v1/chat/completions}") String apiUrl) {
+            @Value("${openai.api.url:https://api.openai.com/v1/chat/completions}") String apiUrl,
+            @Value("${openai.api.connect-timeout-ms:2000}") long connectTimeoutMillis,
+            @Value("${openai.api.request-timeout-ms:5000}") long requestTimeoutMillis) {
         this.apiKey = apiKey;
         this.model = model;
         this.apiUrl = apiUrl;
-        this.httpClient = HttpClient.newHttpClient();
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
         this.objectMapper = new ObjectMapper();
     }
 
@@ -44,72 +58,203 @@ public class OpenAIIntentDetector implements IntentDetector {
     @Override
     public Optional<String> detectIntent(String userText, List<String> intents) {
         // Validate input and configuration.
-        if (apiKey == null || apiKey.isBlank() || userText == null || intents == null || intents.isEmpty()) {
+        if (!canDetect(userText, intents)) {
             return Optional.empty();
         }
         try {
-            // Build a prompt instructing the model to select one intent or NONE. The system message
-            // provides the classification rules, and the user message lists the possible intents and
-            // user text. The model is expected to respond with the exact intent name or "NONE".
-            String possibleIntents = String.join(", ", intents);
-            String systemMessage = "You are an intent classifier. You will be provided with a set of possible intents and a user message. " +
-                    "Return the name of the intent that best matches the user message. If none of the intents apply, return NONE.";
-            String userMessage = "Possible intents: " + possibleIntents + "\n" +
-                    "User message: " + userText + "\n" +
-                    "Intent:";
-
-            // Construct the request body according to OpenAI Chat API format.
-            Map<String, Object> body = new HashMap<>();
-            body.put("model", model);
-            // Build messages array: system and user messages.
-            List<Map<String, String>> messages = List.of(
-                    Map.of("role", "system", "content", systemMessage),
-                    Map.of("role", "user", "content", userMessage)
-            );
-            body.put("messages", messages);
-            body.put("max_tokens", 10);
-            body.put("temperature", 0);
-
-            String jsonBody = objectMapper.writeValueAsString(body);
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiUrl))
-                    .header("Authorization", "Bearer " + apiKey)
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
-                    .build();
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            int status = response.statusCode();
-            if (status >= 200 && status < 300) {
-                JsonNode root = objectMapper.readTree(response.body());
-                JsonNode choices = root.path("choices");
-                if (choices.isArray() && choices.size() > 0) {
-                    // Chat completions return "message" with "content"; Fallback to "text" for older API.
-                    JsonNode first = choices.get(0);
-                    JsonNode messageNode = first.path("message");
-                    String content;
-                    if (messageNode.isObject()) {
-                        content = messageNode.path("content").asText();
-                    } else {
-                        content = first.path("text").asText();
+            HttpResponse<String> response = httpClient.send(buildRequest(userText, intents), HttpResponse.BodyHandlers.ofString());
+            return parseResponse(response, intents);
+        } catch (IOException | InterruptedException e) {
+            log.warn("OpenAI intent detection failed: {}", e.getMessage());
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+        }
+        return Optional.empty();
+    }
+
+    //Same as detectIntent, but uses HttpClient.sendAsync so no thread waits for the response.
+    //Unlike detectIntent, a failed call (I/O error, timeout, non-2xx status) fails the future, so decorators
+    //can tell failures from "no intent".
+    @Override
+    public CompletableFuture<Optional<String>> detectIntentAsync(String userText, List<String> intents) {
+        if (!canDetect(userText, intents)) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        HttpRequest request;
+        try {
+            request = buildRequest(userText, intents);
+        } catch (IOException e) {
+            log.warn("OpenAI intent detection failed: {}", e.getMessage());
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    try {
+                        return parseResponse(response, intents);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
                     }
-                    if (content != null) {
-                        String intent = content.trim();
-                        // Normalize and check if the response matches one of the candidate intents.
-                        for (String candidate : intents) {
-                            if (candidate.equalsIgnoreCase(intent)) {
-                                return Optional.of(candidate);
-                            }
-                        }
-                        // If the model responded with NONE or something else, return empty.
+                })
+                .whenComplete((intent, e) -> logFailure("OpenAI intent detection failed: {}", e));
+    }
+
+    //Classifies several messages, each against its own candidate intents, with a single chat completion.
+    //The result has one entry per message; an entry is empty where the model answered NONE or no candidate.
+    //Fails like detectIntentAsync if the call itself fails, and with an IOException if the answer is not one entry
+    //per message, since then no entry can be trusted.
+    //Used by BatchingIntentDetector to merge concurrent calls into one HTTP request.
+    public CompletableFuture<List<Optional<String>>> detectIntentsAsync(List<String> userTexts, List<List<String>> intents) {
+        List<Optional<String>> none = Collections.nCopies(userTexts.size(), Optional.empty());
+        if (apiKey == null || apiKey.isBlank() || userTexts.isEmpty()) {
+            return CompletableFuture.completedFuture(none);
+        }
+        HttpRequest request;
+        try {
+            request = buildBatchRequest(userTexts, intents);
+        } catch (IOException e) {
+            log.warn("OpenAI batch intent detection failed: {}", e.getMessage());
+            return CompletableFuture.completedFuture(none);
+        }
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    try {
+                        return parseBatchResponse(response, intents);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
                     }
+                })
+                .whenComplete((results, e) -> logFailure("OpenAI batch intent detection failed: {}", e));
+    }
+
+    private static void logFailure(String message, Throwable e) {
+        if (e != null) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            log.warn(message, cause.toString());
+        }
+    }
+
+    private boolean canDetect(String userText, List<String> intents) {
+        return apiKey != null && !apiKey.isBlank() && userText != null && intents != null && !intents.isEmpty();
+    }
+
+    private HttpRequest buildRequest(String userText, List<String> intents) throws IOException {
+        // Build a prompt instructing the model to select one intent or NONE. The system message
+        // provides the classification rules, and the user message lists the possible intents and
+        // user text. The model is expected to respond with the exact intent name or "NONE".
+        String possibleIntents = String.join(", ", intents);
+        String systemMessage = "You are an intent classifier. You will be provided with a set of possible intents and a user message. " +
+                "Return the name of the intent that best matches the user message. If none of the intents apply, return NONE.";
+        String userMessage = "Possible intents: " + possibleIntents + "\n" +
+                "User message: " + userText + "\n" +
+                "Intent:";
+
+        // Construct the request body according to OpenAI Chat API format.
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", model);
+        // Build messages array: system and user messages.
+        List<Map<String, String>> messages = List.of(
+                Map.of("role", "system", "content", systemMessage),
+                Map.of("role", "user", "content", userMessage)
+        );
+        body.put("messages", messages);
+        body.put("max_tokens", 10);
+        body.put("temperature", 0);
+
+        String jsonBody = objectMapper.writeValueAsString(body);
+        return HttpRequest.newBuilder()
+                .uri(URI.create(apiUrl))
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Content-Type", "application/json")
+                .timeout(requestTimeout)
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private HttpRequest buildBatchRequest(List<String> userTexts, List<List<String>> intents) throws IOException {
+        // Same rules as the single request, but for numbered items, answered with one JSON array.
+        String systemMessage = "You are an intent classifier. You will be provided with numbered items, each with a set of possible intents " +
+                "and a user message. For every item return the name of the intent that best matches its user message, or NONE if none of " +
+                "its intents apply. Answer only with a JSON array of strings, one entry per item, in item order.";
+        StringBuilder userMessage = new StringBuilder();
+        for (int i = 0; i < userTexts.size(); i++) {
+            userMessage.append("Item ").append(i + 1).append('\n')
+                    .append("Possible intents: ").append(String.join(", ", intents.get(i))).append('\n')
+                    .append("User message: ").append(userTexts.get(i)).append("\n\n");
+        }
+        userMessage.append("Intents:");
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", model);
+        body.put("messages", List.of(
+                Map.of("role", "system", "content", systemMessage),
+                Map.of("role", "user", "content", userMessage.toString())
+        ));
+        // Room for one short intent name per item plus the JSON punctuation.
+        body.put("max_tokens", 8 + 12 * userTexts.size());
+        body.put("temperature", 0);
+
+        String jsonBody = objectMapper.writeValueAsString(body);
+        return HttpRequest.newBuilder()
+                .uri(URI.create(apiUrl))
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Content-Type", "application/json")
+                .timeout(requestTimeout)
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private List<Optional<String>> parseBatchResponse(HttpResponse<String> response, List<List<String>> intents) throws IOException {
+        List<Optional<String>> results = new ArrayList<>(Collections.nCopies(intents.size(), Optional.empty()));
+        String content = responseContent(response);
+        int start = content == null ? -1 : content.indexOf('[');
+        int end = content == null ? -1 : content.lastIndexOf(']');
+        if (start < 0 || end < start) {
+            throw new IOException("OpenAI batch answer is not a JSON array: " + content);
+        }
+        JsonNode answers = objectMapper.readTree(content.substring(start, end + 1));
+        if (!answers.isArray() || answers.size() != intents.size()) {
+            // Entries can no longer be matched to items reliably.
+            throw new IOException("OpenAI batch answer has " + answers.size() + " entries for " + intents.size() + " items");
+        }
+        for (int i = 0; i < answers.size(); i++) {
+            results.set(i, matchIntent(answers.get(i).asText(), intents.get(i)));
+        }
+        return results;
+    }
+
+    private Optional<String> parseResponse(HttpResponse<String> response, List<String> intents) throws IOException {
+        String content = responseContent(response);
+        // If the model responded with NONE or something else, return empty.
+        return content == null ? Optional.empty() : matchIntent(content, intents);
+    }
+
+    //Text of the first choice, or null if the response has no choices. Non-2xx responses are failures.
+    private String responseContent(HttpResponse<String> response) throws IOException {
+        int status = response.statusCode();
+        if (status >= 200 && status < 300) {
+            JsonNode root = objectMapper.readTree(response.body());
+            JsonNode choices = root.path("choices");
+            if (choices.isArray() && choices.size() > 0) {
+                // Chat completions return "message" with "content"; Fallback to "text" for older API.
+                JsonNode first = choices.get(0);
+                JsonNode messageNode = first.path("message");
+                if (messageNode.isObject()) {
+                    return messageNode.path("content").asText();
                 }
-            } else {
-                // Non-successful response; log status and body for diagnostics
-                System.err.println("OpenAI API call returned status " + status + " with body: " + response.body());
+                return first.path("text").asText();
+            }
+            return null;
+        }
+        // Non-successful response; keep status and body for diagnostics
+        throw new IOException("OpenAI API call returned status " + status + " with body: " + response.body());
+    }
+
+    // Normalize and check if the answer matches one of the candidate intents.
+    private static Optional<String> matchIntent(String answer, List<String> intents) {
+        String intent = answer.trim();
+        for (String candidate : intents) {
+            if (candidate.equalsIgnoreCase(intent)) {
+                return Optional.of(candidate);
             }
-        } catch (IOException | InterruptedException e) {
-            log.warn("OpenAI intent detection failed: {}", e.getMessage());
-            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
         }
         return Optional.empty();
     }
@@ -0,0 +1,176 @@
+package org.chatbot.ai;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// IntentDetector decorator that keeps a slow or failing endpoint from stalling chat turns.
+// - Latency budget: if no answer arrives within budgetMillis the call fails with a TimeoutException, so the engine
+//   falls back to keywords / the block fallback straight away. The late answer is ignored.
+// - Circuit breaker: failed calls and calls slower than slowCallMillis count as failures; while the circuit is
+//   open the endpoint is not called at all and every detection fails immediately with a RejectedExecutionException.
+// Both fallbacks fail rather than answer "no intent", so a CachingIntentDetector in front does not remember them.
+// A failure shared by several calls, such as a failed BatchingIntentDetector request, counts once for the breaker.
+// - Hedging (hedgeDelayMillis > 0): if the first call has not answered after the hedge delay, a second identical
+//   call is sent and whichever answers first wins.
+@Slf4j
+public class ResilientIntentDetector implements IntentDetector {
+
+    // Snapshot of the decorator counters.
+    public record Stats(long calls, long shortCircuited, long budgetExceeded, long hedges, long failures,
+                        long slowCalls, CircuitBreaker.State breakerState) {}
+
+    private final IntentDetector delegate;
+    private final long budgetNanos;
+    private final long slowCallNanos;
+    private final long hedgeDelayNanos;
+    private final CircuitBreaker breaker;
+    private final ScheduledThreadPoolExecutor timer;
+    // Failures already counted by the breaker, by identity; entries go away with the exceptions.
+    private final Set<Throwable> countedFailures = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder budgetExceeded = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder slowCalls = new LongAdder();
+
+    public ResilientIntentDetector(IntentDetector delegate, long budgetMillis, long slowCallMillis,
+                                   long hedgeDelayMillis, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis > 0 ? slowCallMillis : budgetMillis);
+        this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis);
+        this.breaker = breaker;
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "intent-deadline");
+            t.setDaemon(true);
+            return t;
+        });
+        // Cancelled timers leave the queue at once instead of when they would have run.
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    // Blocks for at most the latency budget; the fallbacks are thrown wrapped in a CompletionException.
+    @Override
+    public Optional<String> detectIntent(String userText, List<String> intents) {
+        return detectIntentAsync(userText, intents).join();
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> detectIntentAsync(String userText, List<String> intents) {
+        if (userText == null || intents == null || intents.isEmpty()) {
+            return delegate.detectIntentAsync(userText, intents);
+        }
+        if (!breaker.tryAcquire()) {
+            shortCircuited.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Intent detection circuit is open"));
+        }
+        CompletableFuture<Optional<String>> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        attempt(userText, intents, result, outstanding);
+        ScheduledFuture<?> hedge = null;
+        ScheduledFuture<?> budget = null;
+        if (hedgeDelayNanos > 0) {
+            hedge = timer.schedule(() -> {
+                // Only hedge while the first call is still running and the endpoint is considered healthy.
+                if (!result.isDone() && breaker.state() == CircuitBreaker.State.CLOSED) {
+                    outstanding.incrementAndGet();
+                    hedges.increment();
+                    attempt(userText, intents, result, outstanding);
+                }
+            }, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        }
+        if (budgetNanos > 0) {
+            budget = timer.schedule(() -> {
+                // Counted before completing so callers observing the fallback also see it in stats().
+                budgetExceeded.increment();
+                if (!result.completeExceptionally(new TimeoutException("Intent detection exceeded its "
+                        + TimeUnit.NANOSECONDS.toMillis(budgetNanos) + " ms budget"))) {
+                    budgetExceeded.decrement();
+                } else {
+                    log.warn("Intent detection exceeded its {} ms budget, falling back", TimeUnit.NANOSECONDS.toMillis(budgetNanos));
+                }
+            }, budgetNanos, TimeUnit.NANOSECONDS);
+        }
+        if (hedge != null || budget != null) {
+            // Answered calls must not leave their timers in the queue until they expire.
+            ScheduledFuture<?> hedgeTask = hedge;
+            ScheduledFuture<?> budgetTask = budget;
+            result.whenComplete((intent, error) -> {
+                if (hedgeTask != null) {
+                    hedgeTask.cancel(false);
+                }
+                if (budgetTask != null) {
+                    budgetTask.cancel(false);
+                }
+            });
+        }
+        return result;
+    }
+
+    // One call to the delegate; its outcome feeds the breaker even if the result was already decided.
+    private void attempt(String userText, List<String> intents, CompletableFuture<Optional<String>> result,
+                         AtomicInteger outstanding) {
+        calls.increment();
+        long start = System.nanoTime();
+        CompletableFuture<Optional<String>> call;
+        try {
+            call = delegate.detectIntentAsync(userText, intents);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((intent, error) -> {
+            long took = System.nanoTime() - start;
+            if (error != null) {
+                failures.increment();
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (countedFailures.add(cause)) {
+                    breaker.onFailure();
+                }
+                // Fail only once no other attempt can still answer.
+                if (outstanding.decrementAndGet() == 0) {
+                    result.completeExceptionally(error);
+                }
+                return;
+            }
+            if (slowCallNanos > 0 && took > slowCallNanos) {
+                slowCalls.increment();
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+            result.complete(intent);
+        });
+    }
+
+    // Timers still waiting to run; answered calls leave none behind.
+    int pendingTimers() {
+        return timer.getQueue().size();
+    }
+
+    public Stats stats() {
+        return new Stats(calls.sum(), shortCircuited.sum(), budgetExceeded.sum(), hedges.sum(), failures.sum(),
+                slowCalls.sum(), breaker.state());
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        delegate.close();
+    }
+}
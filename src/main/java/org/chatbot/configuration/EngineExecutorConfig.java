@@ -0,0 +1,45 @@
+package org.chatbot.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+//Executor for chat engine work that must not run on the STOMP inbound threads
+//(persisting messages and continuing a turn once the intent detector answers).
+//Uses a bounded platform thread pool, or one virtual thread per task when
+//spring.threads.virtual.enabled=true and the application runs on Java 21+.
+@Configuration
+public class EngineExecutorConfig {
+
+    public static final String ENGINE_EXECUTOR = "chatEngineExecutor";
+
+    @Bean(name = ENGINE_EXECUTOR)
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public AsyncTaskExecutor chatEngineExecutor(
+            @Value("${chatbot.engine.executor.core-size:0}") int coreSize,
+            @Value("${chatbot.engine.executor.queue-capacity:10000}") int queueCapacity) {
+        int size = coreSize > 0 ? coreSize : Runtime.getRuntime().availableProcessors() * 2;
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("chat-engine-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
+        return executor;
+    }
+
+    //Blocking JPA and HTTP calls only park a virtual thread, so no pool size has to be tuned.
+    @Bean(name = ENGINE_EXECUTOR)
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public AsyncTaskExecutor virtualChatEngineExecutor() {
+        SimpleAsyncTaskExecutor executor = WebSocketConfig.virtualThreadExecutor("chat-engine-");
+        executor.setTaskTerminationTimeout(10_000);
+        return executor;
+    }
+}
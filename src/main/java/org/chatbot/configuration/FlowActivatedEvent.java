@@ -0,0 +1,8 @@
+package org.chatbot.configuration;
+
+import org.chatbot.flow.CompiledFlow;
+
+// Published by FlowConfigService every time a new flow becomes active, and by FlowRegistry when a cached named
+// flow is replaced by a new upload.
+// previous is null for the first flow, current is null if the flow was cleared.
+public record FlowActivatedEvent(CompiledFlow previous, CompiledFlow current) {}
@@ -1,11 +1,20 @@
 package org.chatbot.configuration;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.chatbot.fileEntity.service.FileEntityService;
+import org.chatbot.flow.CompiledFlow;
 import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowAnalyzer;
+import org.chatbot.flow.FlowCompiler;
+import org.chatbot.flow.FlowReport;
+import org.chatbot.flow.FlowValidationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
@@ -13,19 +22,38 @@ import java.util.Optional;
 //Service that keeps the active flow in memory.
 //On startup, it loads the JSON configuration from the database, deserializes it into a Flow object, and caches it.
 //Using the setFlow(...) method, the flow can be changed at runtime.
+//Every flow is compiled into an immutable CompiledFlow, which is what the engine walks at runtime.
+//A FlowActivatedEvent is published after each change so caches tied to the flow can reset.
+//Every flow is checked by FlowAnalyzer first; a flow with errors is rejected with a FlowValidationException.
+//The active file loaded on startup is the exception: it may predate the analyzer, and refusing it would leave
+//the node without a flow, so its errors are logged and it is compiled anyway (see compileStored).
 @Service
 @Slf4j
 public class FlowConfigService {
 
     private final FileEntityService fileEntityService;
+    private final ApplicationEventPublisher eventPublisher;
     private final ObjectMapper mapper;
+    // Max edit distance of typo-tolerant keyword matching, 0 = exact keywords only.
+    private final int fuzzyMaxDistance;
+    // Most WRITE_MESSAGE messages a single turn may send.
+    private final int maxHops;
 
     // Active configuration of the chatbot.
     // volatile ensures that all threads see the latest version of Flow.
     private volatile Flow current;
+    private volatile CompiledFlow compiled;
+    // meta.name of the file the active flow came from; null for flows set with setFlow.
+    private volatile String activeName;
 
-    public FlowConfigService(FileEntityService fileEntityService) {
+    @Autowired
+    public FlowConfigService(FileEntityService fileEntityService, ApplicationEventPublisher eventPublisher,
+                             @Value("${chatbot.keywords.fuzzy.max-distance:0}") int fuzzyMaxDistance,
+                             @Value("${chatbot.flow.max-hops:100}") int maxHops) {
         this.fileEntityService = fileEntityService;
+        this.eventPublisher = eventPublisher;
+        this.fuzzyMaxDistance = fuzzyMaxDistance;
+        this.maxHops = maxHops;
         this.mapper = new ObjectMapper()
                 .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     }
@@ -34,13 +62,67 @@ public class FlowConfigService {
         return current;
     }
 
+    public CompiledFlow getCompiledFlow() {
+        return compiled;
+    }
+
+    public String getActiveName() {
+        return activeName;
+    }
+
     public void setFlow(Flow flow) {
-        this.current = flow;
-        String startId = (flow != null) ? flow.getStartBlockId() : null;
-        int blocks = (flow != null && flow.getBlocks() != null) ? flow.getBlocks().size() : 0;
+        activate(flow != null ? compile(flow) : null, null);
+    }
+
+    // Checks and compiles a flow with this service's settings without activating it, e.g. to reject an upload
+    // before it is saved. Throws FlowValidationException if the analyzer finds errors.
+    public CompiledFlow compile(Flow flow) {
+        FlowReport report = FlowAnalyzer.analyze(flow, maxHops);
+        if (report.hasErrors()) {
+            throw new FlowValidationException(report);
+        }
+        for (FlowReport.Issue warning : report.warnings()) {
+            log.warn("Flow warning {} in block '{}': {}", warning.code(), warning.blockId(), warning.detail());
+        }
+        return FlowCompiler.compile(flow, fuzzyMaxDistance, maxHops);
+    }
+
+    // Compiles the stored active file. Its analyzer errors are logged instead of thrown: the file was accepted
+    // when it was uploaded, possibly before the analyzer existed, and the compiler accepts any flow, so serving it
+    // beats serving nothing.
+    private CompiledFlow compileStored(Flow flow) {
+        FlowReport report = FlowAnalyzer.analyze(flow, maxHops);
+        for (FlowReport.Issue error : report.errors()) {
+            log.error("Active flow error {} in block '{}': {}", error.code(), error.blockId(), error.detail());
+        }
+        if (report.hasErrors()) {
+            log.error("Active flow has {} error(s) and is served anyway; upload a fixed version",
+                    report.errors().size());
+        }
+        for (FlowReport.Issue warning : report.warnings()) {
+            log.warn("Flow warning {} in block '{}': {}", warning.code(), warning.blockId(), warning.detail());
+        }
+        return FlowCompiler.compile(flow, fuzzyMaxDistance, maxHops);
+    }
+
+    // Activates a flow returned by compile(...), uploaded under name.
+    public void activate(CompiledFlow flow, String name) {
+        // Compiled before publishing so readers never see a Flow without its compiled graph.
+        CompiledFlow previous = this.compiled;
+        this.activeName = name;
+        this.compiled = flow;
+        this.current = (flow != null) ? flow.source() : null;
+        eventPublisher.publishEvent(new FlowActivatedEvent(previous, this.compiled));
+        String startId = (current != null) ? current.getStartBlockId() : null;
+        int blocks = (flow != null) ? flow.size() : 0;
         log.info("Active chatbot flow set. startBlockId={}, blocks={}", startId, blocks);
     }
 
+    // Stored files were validated when they were uploaded, so the plain data binding is enough here.
+    Flow read(String json) throws JsonProcessingException {
+        return mapper.readValue(json, Flow.class);
+    }
+
     //Loads the active Flow at application startup.
     @PostConstruct
     public void loadActiveOnStartup() {
@@ -50,8 +132,7 @@ public class FlowConfigService {
                 log.warn("No active chatbot flow found on startup.");
                 return;
             }
-            Flow flow = mapper.readValue(activeJson.get(), Flow.class);
-            setFlow(flow);
+            activate(compileStored(read(activeJson.get())), fileEntityService.getActiveName().orElse(null));
         } catch (Exception e) {
             log.error("Failed to load active chatbot flow on startup", e);
         }
@@ -0,0 +1,248 @@
+package org.chatbot.configuration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.fileEntity.service.FileEntityService;
+import org.chatbot.flow.CompiledFlow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+//Compiled flows by name, so one node can serve the flows of several brands (tenants).
+//A WebSocket session selects its flow with a header of the STOMP CONNECT frame (chatbot.flows.header), whose value
+//is the meta.name of an uploaded file; sessions without the header use the active flow of FlowConfigService.
+//Named flows are loaded on first use from the newest file with that name and kept in a cache of at most
+//chatbot.flows.max-cached flows; when it is full, the least recently used flow is evicted. Unknown names are
+//remembered for a short while in a separate bounded map, so a bad header does not hit the database on every
+//message and a client cycling through made-up names cannot evict the compiled flows of real tenants.
+//The cache is an immutable map replaced on every change (copy-on-write): lookups never lock. Each name is read
+//and compiled by a single loader outside the lock, other sessions asking for the same name wait for its result;
+//only publishing the result and replacements are serialized.
+@Service
+@Slf4j
+public class FlowRegistry {
+
+    public record Stats(int cached, long hits, long loads, long evictions, int sessions) {}
+
+    private static final class Entry {
+        final CompiledFlow flow;
+        volatile long lastAccessNanos;
+
+        Entry(CompiledFlow flow, long now) {
+            this.flow = flow;
+            this.lastAccessNanos = now;
+        }
+    }
+
+    // Longer values cannot be the name of a stored file.
+    private static final int MAX_NAME_LENGTH = 255;
+    // How long, and for how many names at most, a name without a valid flow is answered without a database read.
+    private static final long MISSING_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_MISSING = 1024;
+
+    private final FlowConfigService flowConfigService;
+    private final FileEntityService fileEntityService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final String header;
+    private final int maxCached;
+    private final LongSupplier nanoClock;
+
+    // Flow name selected by each connected session that sent the header.
+    private final Map<String, String> sessionFlows = new ConcurrentHashMap<>();
+    // Never modified after it is published.
+    private volatile Map<String, Entry> flows = Map.of();
+    private final Object writeLock = new Object();
+    // Name -> nanoClock time until which it is known to have no valid flow.
+    private final Map<String, Long> missing = new ConcurrentHashMap<>();
+    // Loads in progress; a load only caches its result if its future is still registered here.
+    private final Map<String, CompletableFuture<CompiledFlow>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public FlowRegistry(FlowConfigService flowConfigService,
+                        FileEntityService fileEntityService,
+                        ApplicationEventPublisher eventPublisher,
+                        @Value("${chatbot.flows.header:flow}") String header,
+                        @Value("${chatbot.flows.max-cached:64}") int maxCached) {
+        this(flowConfigService, fileEntityService, eventPublisher, header, maxCached, System::nanoTime);
+    }
+
+    FlowRegistry(FlowConfigService flowConfigService, FileEntityService fileEntityService,
+                 ApplicationEventPublisher eventPublisher, String header, int maxCached, LongSupplier nanoClock) {
+        this.flowConfigService = flowConfigService;
+        this.fileEntityService = fileEntityService;
+        this.eventPublisher = eventPublisher;
+        this.header = header;
+        this.maxCached = Math.max(1, maxCached);
+        this.nanoClock = nanoClock;
+    }
+
+    // Flow of the session: the one named in its CONNECT header, otherwise the active flow. Null if there is none.
+    public CompiledFlow forSession(String sessionId) {
+        String name = sessionId == null ? null : sessionFlows.get(sessionId);
+        return name == null ? flowConfigService.getCompiledFlow() : byName(name);
+    }
+
+    // Newest valid flow uploaded under name, or null.
+    public CompiledFlow byName(String name) {
+        Entry entry = flows.get(name);
+        if (entry != null) {
+            entry.lastAccessNanos = nanoClock.getAsLong();
+            hits.increment();
+            return entry.flow;
+        }
+        Long missingUntil = missing.get(name);
+        if (missingUntil != null) {
+            if (missingUntil - nanoClock.getAsLong() > 0) {
+                hits.increment();
+                return null;
+            }
+            missing.remove(name, missingUntil);
+        }
+        return load(name);
+    }
+
+    // meta.name of the session's flow: the one it selected with its CONNECT header, otherwise the active one.
+    // Null if the active flow was not uploaded as a file.
+    public String flowName(String sessionId) {
+        String name = sessionId == null ? null : sessionFlows.get(sessionId);
+        return name != null ? name : flowConfigService.getActiveName();
+    }
+
+    public void selectFlow(String sessionId, String name) {
+        if (sessionId == null) {
+            return;
+        }
+        String trimmed = name == null ? "" : name.trim();
+        if (trimmed.isEmpty() || trimmed.length() > MAX_NAME_LENGTH) {
+            sessionFlows.remove(sessionId);
+        } else {
+            sessionFlows.put(sessionId, trimmed);
+        }
+    }
+
+    // A new version of name was uploaded. If the flow is cached it is replaced and a FlowActivatedEvent is
+    // published, so the positions of its sessions move to the new version; otherwise it is loaded on first use.
+    public void replace(String name, CompiledFlow flow) {
+        if (name == null) {
+            return;
+        }
+        Entry previous;
+        synchronized (writeLock) {
+            // A name that was unknown is now known, and a load that read the file before the upload must not
+            // cache the old version.
+            missing.remove(name);
+            loading.remove(name);
+            previous = flows.get(name);
+            if (previous == null) {
+                return;
+            }
+            publish(name, new Entry(flow, nanoClock.getAsLong()));
+        }
+        eventPublisher.publishEvent(new FlowActivatedEvent(previous.flow, flow));
+    }
+
+    @EventListener
+    public void onConnect(SessionConnectEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String name = accessor.getFirstNativeHeader(header);
+        if (name != null) {
+            selectFlow(accessor.getSessionId(), name);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        if (event.getSessionId() != null) {
+            sessionFlows.remove(event.getSessionId());
+        }
+    }
+
+    // The first caller reads and compiles the file; concurrent callers for the same name join its future, so the
+    // file is read once, and lookups of other names are not blocked by the database read.
+    private CompiledFlow load(String name) {
+        CompletableFuture<CompiledFlow> future = new CompletableFuture<>();
+        CompletableFuture<CompiledFlow> running = loading.putIfAbsent(name, future);
+        if (running != null) {
+            return running.join();
+        }
+        CompiledFlow flow = null;
+        try {
+            String json = fileEntityService.getLatestJson(name).orElse(null);
+            if (json != null) {
+                flow = flowConfigService.compile(flowConfigService.read(json));
+            }
+        } catch (Exception e) {
+            log.error("Failed to load chatbot flow '{}'", name, e);
+        }
+        if (flow == null) {
+            log.warn("No valid chatbot flow named '{}'", name);
+        }
+        loads.increment();
+        synchronized (writeLock) {
+            // Not registered any more if replace() ran meanwhile: the flow read here may be outdated.
+            if (loading.remove(name, future)) {
+                if (flow != null) {
+                    publish(name, new Entry(flow, nanoClock.getAsLong()));
+                } else {
+                    remember(name);
+                }
+            }
+        }
+        future.complete(flow);
+        return flow;
+    }
+
+    // Caller holds writeLock. When the map is full, expired names are dropped first and, if that is not enough,
+    // all of them; this only costs a database read per name that is asked for again.
+    private void remember(String name) {
+        long now = nanoClock.getAsLong();
+        if (missing.size() >= MAX_MISSING) {
+            missing.values().removeIf(until -> until - now <= 0);
+            if (missing.size() >= MAX_MISSING) {
+                missing.clear();
+            }
+        }
+        missing.put(name, now + MISSING_TTL_NANOS);
+    }
+
+    // Caller holds writeLock. Copies the map with the new entry and evicts the least recently used others;
+    // with a cache of a few dozen flows the linear scan is cheaper than keeping an access order.
+    private void publish(String name, Entry entry) {
+        Map<String, Entry> copy = new HashMap<>(flows);
+        copy.put(name, entry);
+        while (copy.size() > maxCached) {
+            String oldest = null;
+            long oldestAccess = 0;
+            for (Map.Entry<String, Entry> e : copy.entrySet()) {
+                long access = e.getValue().lastAccessNanos;
+                if (!e.getKey().equals(name) && (oldest == null || access - oldestAccess < 0)) {
+                    oldest = e.getKey();
+                    oldestAccess = access;
+                }
+            }
+            copy.remove(oldest);
+            evictions.increment();
+        }
+        flows = copy;
+    }
+
+    public Stats stats() {
+        return new Stats(flows.size(), hits.sum(), loads.sum(), evictions.sum(), sessionFlows.size());
+    }
+}
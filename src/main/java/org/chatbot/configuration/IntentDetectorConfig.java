@@ -0,0 +1,96 @@
+package org.chatbot.configuration;
+
+import org.chatbot.ai.BatchingIntentDetector;
+import org.chatbot.ai.CachingIntentDetector;
+import org.chatbot.ai.CircuitBreaker;
+import org.chatbot.ai.IntentDetector;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.chatbot.ai.LocalIntentDetector;
+import org.chatbot.ai.MeteredIntentDetector;
+import org.chatbot.ai.OpenAIIntentDetector;
+import org.chatbot.ai.ResilientIntentDetector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+//Builds the IntentDetector used by the engine: the OpenAI detector, optionally wrapped in decorators
+//(outermost first): cache -> latency budget / circuit breaker / hedging -> micro-batching -> OpenAI.
+//With chatbot.intent.detector=local the in-process LocalIntentDetector is used instead and nothing leaves the JVM.
+//Every detection that reaches the detector is timed by MeteredIntentDetector (inside the cache, so the cache stays
+//the bean and keeps receiving FlowActivatedEvent); the counters of the decorators are exported as meters too.
+//The decorators are not beans themselves: Spring calls close() on the returned detector at shutdown (inferred
+//destroy method), and each decorator closes its delegate, which stops the batching and budget timer threads.
+@Configuration
+public class IntentDetectorConfig {
+
+    //Cache: answers by normalized text and candidate intents. Enabled unless chatbot.intent.cache.enabled=false.
+    //Batching: concurrent calls within chatbot.intent.batch.window-ms share one OpenAI request. Off by default.
+    //Resilience: each detection gets chatbot.intent.budget-ms before the engine falls back to keywords, and a
+    //circuit breaker stops calling OpenAI after repeated failures or slow calls. Optional hedged requests.
+    //Only cache misses reach the endpoint, so repeated questions are never sent again.
+    @Bean
+    @Primary
+    public IntentDetector intentDetector(
+            OpenAIIntentDetector openAIIntentDetector,
+            LocalIntentDetector localIntentDetector,
+            @Value("${chatbot.intent.detector:openai}") String detectorType,
+            @Value("${chatbot.intent.batch.enabled:false}") boolean batchEnabled,
+            @Value("${chatbot.intent.batch.window-ms:20}") long batchWindowMillis,
+            @Value("${chatbot.intent.batch.max-size:16}") int batchMaxSize,
+            @Value("${chatbot.intent.budget-ms:1500}") long budgetMillis,
+            @Value("${chatbot.intent.slow-call-ms:0}") long slowCallMillis,
+            @Value("${chatbot.intent.hedge-delay-ms:0}") long hedgeDelayMillis,
+            @Value("${chatbot.intent.breaker.failure-threshold:5}") int breakerFailureThreshold,
+            @Value("${chatbot.intent.breaker.open-ms:30000}") long breakerOpenMillis,
+            @Value("${chatbot.intent.cache.enabled:true}") boolean cacheEnabled,
+            @Value("${chatbot.intent.cache.max-size:10000}") int maxSize,
+            @Value("${chatbot.intent.cache.ttl-ms:600000}") long ttlMillis,
+            @Value("${chatbot.intent.cache.negative-ttl-ms:60000}") long negativeTtlMillis,
+            MeterRegistry meterRegistry) {
+        if ("local".equalsIgnoreCase(detectorType)) {
+            return new MeteredIntentDetector(localIntentDetector, "local", meterRegistry);
+        }
+        IntentDetector detector = openAIIntentDetector;
+        if (batchEnabled) {
+            BatchingIntentDetector batching = new BatchingIntentDetector(openAIIntentDetector, batchWindowMillis, batchMaxSize);
+            FunctionCounter.builder("chatbot.intent.batches", batching, b -> b.stats().batches())
+                    .description("OpenAI requests sent for micro-batches")
+                    .register(meterRegistry);
+            detector = batching;
+        }
+        ResilientIntentDetector resilient = new ResilientIntentDetector(detector, budgetMillis, slowCallMillis,
+                hedgeDelayMillis, new CircuitBreaker(breakerFailureThreshold, breakerOpenMillis));
+        bindResilience(resilient, meterRegistry);
+        detector = new MeteredIntentDetector(resilient, "openai", meterRegistry);
+        if (cacheEnabled) {
+            CachingIntentDetector cache = new CachingIntentDetector(detector, maxSize, ttlMillis, negativeTtlMillis);
+            FunctionCounter.builder("chatbot.intent.cache.requests", cache, c -> c.stats().hits())
+                    .tag("result", "hit").register(meterRegistry);
+            FunctionCounter.builder("chatbot.intent.cache.requests", cache, c -> c.stats().misses())
+                    .tag("result", "miss").register(meterRegistry);
+            FunctionCounter.builder("chatbot.intent.cache.evicted", cache, c -> c.stats().evictions())
+                    .tag("reason", "size").register(meterRegistry);
+            FunctionCounter.builder("chatbot.intent.cache.evicted", cache, c -> c.stats().expirations())
+                    .tag("reason", "expired").register(meterRegistry);
+            Gauge.builder("chatbot.intent.cache.size", cache, c -> c.stats().size()).register(meterRegistry);
+            detector = cache;
+        }
+        return detector;
+    }
+
+    //Detections answered with "no intent" without (or without waiting for) OpenAI, by reason.
+    private static void bindResilience(ResilientIntentDetector resilient, MeterRegistry registry) {
+        FunctionCounter.builder("chatbot.intent.fallbacks", resilient, r -> r.stats().budgetExceeded())
+                .tag("reason", "budget_exceeded").register(registry);
+        FunctionCounter.builder("chatbot.intent.fallbacks", resilient, r -> r.stats().shortCircuited())
+                .tag("reason", "circuit_open").register(registry);
+        FunctionCounter.builder("chatbot.intent.hedges", resilient, r -> r.stats().hedges()).register(registry);
+        Gauge.builder("chatbot.intent.breaker.open", resilient,
+                        r -> r.stats().breakerState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("1 while the OpenAI circuit breaker is open or half-open")
+                .register(registry);
+    }
+}
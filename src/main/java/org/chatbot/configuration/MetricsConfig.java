@@ -0,0 +1,145 @@
+package org.chatbot.configuration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.chatbot.conversationMessage.service.ConversationMessageWriteBehind;
+import org.chatbot.conversationMessage.service.ConversationRetentionJob;
+import org.chatbot.conversationMessage.service.RecentMessageCache;
+import org.chatbot.engine.ConversationStateService;
+import org.chatbot.engine.IntentCascade;
+import org.chatbot.engine.SessionSequencer;
+import org.chatbot.fileEntity.service.ActiveConfigCache;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.TimeUnit;
+
+//Exports the counters the chatbot components already keep (their stats() snapshots) as Micrometer meters.
+//They are read when the registry is scraped, so nothing is added to the conversation hot path.
+//Timers that are recorded per turn live in the components themselves (ChatFlowEngine, ConversationMessageService,
+//MeteredIntentDetector). Everything is available at /actuator/prometheus.
+@Configuration
+public class MetricsConfig {
+
+    //Executors whose queue depth is exported as chatbot.executor.queued, by channel.
+    private static final String[][] EXECUTORS = {
+            {"inbound", "clientInboundChannelExecutor"},
+            {"outbound", "clientOutboundChannelExecutor"},
+            {"broker", "brokerChannelExecutor"},
+            {"engine", EngineExecutorConfig.ENGINE_EXECUTOR}
+    };
+
+    @Bean
+    public MeterBinder chatbotMeters(ConversationStateService stateService,
+                                     IntentCascade cascade,
+                                     SessionSequencer sequencer,
+                                     ConversationMessageWriteBehind writeBehind,
+                                     FlowRegistry flowRegistry,
+                                     ActiveConfigCache activeConfigCache,
+                                     RecentMessageCache recentMessages,
+                                     ConversationRetentionJob retentionJob,
+                                     ApplicationContext context) {
+        return registry -> {
+            Gauge.builder("chatbot.sessions.active", stateService, s -> s.stats().sessions())
+                    .description("Sessions with conversation state")
+                    .register(registry);
+            FunctionCounter.builder("chatbot.sessions.evicted", stateService, s -> s.stats().idleEvictions())
+                    .tag("reason", "idle").register(registry);
+            FunctionCounter.builder("chatbot.sessions.evicted", stateService, s -> s.stats().sizeEvictions())
+                    .tag("reason", "size").register(registry);
+            FunctionCounter.builder("chatbot.sessions.evicted", stateService, s -> s.stats().disconnects())
+                    .tag("reason", "disconnect").register(registry);
+
+            Gauge.builder("chatbot.engine.sessions.busy", sequencer, SessionSequencer::activeSessions)
+                    .description("Sessions with a turn running or queued")
+                    .register(registry);
+            FunctionCounter.builder("chatbot.engine.turns.rejected", sequencer, SessionSequencer::rejected)
+                    .register(registry);
+
+            FunctionCounter.builder("chatbot.intent.resolved", cascade, c -> c.stats().keyword())
+                    .tag("stage", "keyword").register(registry);
+            FunctionCounter.builder("chatbot.intent.resolved", cascade, c -> c.stats().local())
+                    .tag("stage", "local").register(registry);
+            FunctionCounter.builder("chatbot.intent.resolved", cascade, c -> c.stats().llm())
+                    .tag("stage", "llm").register(registry);
+            FunctionCounter.builder("chatbot.intent.resolved", cascade, c -> c.stats().fallback())
+                    .tag("stage", "fallback").register(registry);
+            FunctionCounter.builder("chatbot.intent.detector.calls", cascade, c -> c.stats().detectorCalls())
+                    .register(registry);
+
+            Gauge.builder("chatbot.message.queued", writeBehind, w -> w.stats().queueDepth())
+                    .description("Messages waiting in the write-behind buffer")
+                    .register(registry);
+            FunctionCounter.builder("chatbot.message.dropped", writeBehind, w -> w.stats().dropped())
+                    .register(registry);
+            FunctionTimer.builder("chatbot.message.flush", writeBehind,
+                            w -> w.stats().batches(), w -> w.stats().totalFlushNanos(), TimeUnit.NANOSECONDS)
+                    .description("Write-behind batches written to the database")
+                    .register(registry);
+            TimeGauge.builder("chatbot.message.flush.max", writeBehind, TimeUnit.NANOSECONDS,
+                            w -> w.stats().maxFlushNanos())
+                    .description("Slowest write-behind batch since startup")
+                    .register(registry);
+
+            Gauge.builder("chatbot.flows.cached", flowRegistry, f -> f.stats().cached())
+                    .description("Named flows in the compiled flow cache")
+                    .register(registry);
+            FunctionCounter.builder("chatbot.flows.lookups", flowRegistry, f -> f.stats().hits())
+                    .tag("result", "hit").register(registry);
+            FunctionCounter.builder("chatbot.flows.lookups", flowRegistry, f -> f.stats().loads())
+                    .tag("result", "load").register(registry);
+            FunctionCounter.builder("chatbot.flows.evicted", flowRegistry, f -> f.stats().evictions())
+                    .register(registry);
+
+            FunctionCounter.builder("chatbot.config.cache.loads", activeConfigCache, c -> c.stats().loads())
+                    .description("Times GET /api/config read the active file from the database")
+                    .register(registry);
+
+            Gauge.builder("chatbot.history.recent.sessions", recentMessages, r -> r.stats().sessions())
+                    .description("Sessions with recent messages in memory")
+                    .register(registry);
+            Gauge.builder("chatbot.history.recent.size", recentMessages, r -> r.stats().bytes())
+                    .description("Estimated size of the recent messages in memory")
+                    .baseUnit("bytes")
+                    .register(registry);
+            FunctionCounter.builder("chatbot.history.recent.reads", recentMessages, r -> r.stats().hits())
+                    .tag("result", "hit").register(registry);
+            FunctionCounter.builder("chatbot.history.recent.reads", recentMessages, r -> r.stats().misses())
+                    .tag("result", "miss").register(registry);
+            Gauge.builder("chatbot.history.recent.hit.ratio", recentMessages, r -> r.stats().hitRatio())
+                    .description("Share of transcript reads served from memory since startup")
+                    .register(registry);
+            FunctionCounter.builder("chatbot.history.recent.evicted", recentMessages, r -> r.stats().idleEvictions())
+                    .tag("reason", "idle").register(registry);
+            FunctionCounter.builder("chatbot.history.recent.evicted", recentMessages, r -> r.stats().sizeEvictions())
+                    .tag("reason", "size").register(registry);
+
+            FunctionCounter.builder("chatbot.retention.sessions.archived", retentionJob, r -> r.stats().sessionsArchived())
+                    .register(registry);
+            FunctionCounter.builder("chatbot.retention.messages.deleted", retentionJob, r -> r.stats().messagesDeleted())
+                    .register(registry);
+            FunctionCounter.builder("chatbot.retention.failures", retentionJob, r -> r.stats().failures())
+                    .description("Conversations the retention job failed to archive")
+                    .register(registry);
+
+            for (String[] executor : EXECUTORS) {
+                String beanName = executor[1];
+                Gauge.builder("chatbot.executor.queued", context, c -> queueDepth(c, beanName))
+                        .description("Tasks waiting for a thread; always 0 with virtual threads, which do not queue")
+                        .tag("channel", executor[0])
+                        .register(registry);
+            }
+        };
+    }
+
+    //Looked up on every scrape: the channel executors are created by the STOMP configuration after this binder.
+    private static double queueDepth(ApplicationContext context, String beanName) {
+        Object executor = context.containsBean(beanName) ? context.getBean(beanName) : null;
+        return executor instanceof ThreadPoolTaskExecutor pool ? pool.getQueueSize() : 0;
+    }
+}
@@ -1,19 +1,34 @@
 package org.chatbot.configuration;
 
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.*;
 
 //WebSocket/STOMP configuration.
 //Creates a real-time client-server connection.
+//With spring.threads.virtual.enabled=true on Java 21+, the client inbound/outbound channels run every
+//message on its own virtual thread instead of Spring's fixed platform thread pools.
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final boolean virtualThreads;
+
+    public WebSocketConfig(Environment environment) {
+        this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+    }
+
     //Registers the endpoint "/ws" for WebSocket connections with SockJS support.
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws").withSockJS();
+        // Hand messages of one session to the inbound channel one at a time, in the order they arrived.
+        // Neither the pooled nor the virtual-thread executor gives that on its own.
+        registry.setPreserveReceiveOrder(true);
     }
 
     //Defines the messaging paths: "/app" for incoming messages and "/user/queue/replies" for replies.
@@ -22,5 +37,29 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.enableSimpleBroker("/queue");
         registry.setApplicationDestinationPrefixes("/app");
         registry.setUserDestinationPrefix("/user");
+        if (virtualThreads) {
+            // Same for replies: frames to one session are sent in the order they were published.
+            registry.setPreservePublishOrder(true);
+        }
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.executor(virtualThreadExecutor("ws-inbound-"));
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.executor(virtualThreadExecutor("ws-outbound-"));
+        }
+    }
+
+    static SimpleAsyncTaskExecutor virtualThreadExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        return executor;
     }
 }
@@ -0,0 +1,6 @@
+package org.chatbot.conversationMessage.model;
+
+import java.time.Instant;
+
+// When the messages of a ConversationArchive were written, without its LONGBLOB data.
+public record ArchiveSpan(Long id, Instant firstMessageAt, Instant lastMessageAt) {}
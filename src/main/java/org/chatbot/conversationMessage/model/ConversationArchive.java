@@ -0,0 +1,53 @@
+package org.chatbot.conversationMessage.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+// The archived messages of one session, moved out of conversation_messages by the retention job.
+// data is gzip'd NDJSON, one MessageView per line in (createdAt, id) order. Messages archived later are appended
+// as another gzip member, which GZIPInputStream reads as one stream.
+@Entity
+@Table(name = "conversation_archives",
+        indexes = @Index(name = "idx_conversation_archives_session", columnList = "session_id", unique = true))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConversationArchive {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String sessionId;
+
+    @Column(nullable = false)
+    private Integer messageCount;
+
+    @Column(nullable = false)
+    private Instant firstMessageAt;
+
+    @Column(nullable = false)
+    private Instant lastMessageAt;
+
+    // Highest conversation_messages id in the archive; rows up to it can be deleted.
+    @Column(nullable = false)
+    private Long maxMessageId;
+
+    @Column(nullable = false)
+    private Instant archivedAt;
+
+    @Lob
+    @Column(nullable = false, columnDefinition = "LONGBLOB")
+    private byte[] data;
+
+    // Checked on every append, so two nodes archiving the same session cannot both overwrite it; the default
+    // covers rows written before the column existed.
+    @Version
+    @Column(columnDefinition = "BIGINT DEFAULT 0")
+    private Long version;
+}
@@ -6,7 +6,12 @@ import lombok.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "conversation_messages")
+// The history API reads a session's transcript or a block's messages in (createdAt, id) order, so both indexes
+// end with created_at; InnoDB appends the primary key to every secondary index, which covers the id tie-break.
+@Table(name = "conversation_messages", indexes = {
+        @Index(name = "idx_conversation_messages_session_created", columnList = "session_id, created_at"),
+        @Index(name = "idx_conversation_messages_block_created", columnList = "block_id, created_at")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -30,6 +35,11 @@ public class ConversationMessage {
     @Column
     private String blockId;
 
+    // meta.name of the flow the session was on (see FlowRegistry.flowName), the active one included; null for
+    // messages written before the column existed.
+    @Column(name = "flow_name")
+    private String flowName;
+
     @Column(nullable = false)
     private Instant createdAt;
 }
\ No newline at end of file
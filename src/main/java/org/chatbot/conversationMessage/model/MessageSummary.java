@@ -0,0 +1,6 @@
+package org.chatbot.conversationMessage.model;
+
+import java.time.Instant;
+
+// A conversation message without its content, for listings that do not need the LONGTEXT column.
+public record MessageSummary(Long id, String sessionId, String sender, String blockId, Instant createdAt) {}
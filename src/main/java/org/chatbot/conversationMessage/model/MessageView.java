@@ -0,0 +1,17 @@
+package org.chatbot.conversationMessage.model;
+
+import java.time.Instant;
+
+// A conversation message with its content, as returned by the history API.
+public record MessageView(Long id, String sessionId, String sender, String blockId, String flowName, Instant createdAt,
+                          String content) {
+
+    public static MessageView of(ConversationMessage message) {
+        return new MessageView(message.getId(), message.getSessionId(), message.getSender(), message.getBlockId(),
+                message.getFlowName(), message.getCreatedAt(), message.getContent());
+    }
+
+    public MessageSummary summary() {
+        return new MessageSummary(id, sessionId, sender, blockId, createdAt);
+    }
+}
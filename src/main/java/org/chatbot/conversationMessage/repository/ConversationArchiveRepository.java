@@ -0,0 +1,19 @@
+package org.chatbot.conversationMessage.repository;
+
+import org.chatbot.conversationMessage.model.ArchiveSpan;
+import org.chatbot.conversationMessage.model.ConversationArchive;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ConversationArchiveRepository extends JpaRepository<ConversationArchive, Long> {
+    Optional<ConversationArchive> findBySessionId(String sessionId);
+
+    @Query("select new org.chatbot.conversationMessage.model.ArchiveSpan(a.id, a.firstMessageAt, a.lastMessageAt)"
+            + " from ConversationArchive a where a.sessionId = :sessionId")
+    Optional<ArchiveSpan> findSpanBySessionId(@Param("sessionId") String sessionId);
+}
@@ -0,0 +1,78 @@
+package org.chatbot.conversationMessage.repository;
+
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+// Inserts many conversation messages with a single JDBC batch.
+// Hibernate cannot batch inserts for IDENTITY ids, so this goes straight through JdbcTemplate and
+// copies the generated ids back onto the entities afterwards.
+@Repository
+public class ConversationMessageBatchWriter {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO conversation_messages (session_id, sender, content, block_id, flow_name, created_at)"
+                    + " VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public ConversationMessageBatchWriter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // Hibernate stores Instant columns in UTC, so bind the timestamp the same way.
+    private static Calendar utc() {
+        return Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    }
+
+    public void insertAll(List<ConversationMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        KeyHolder keys = new GeneratedKeyHolder();
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                con -> con.prepareStatement(INSERT_SQL, new String[]{"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ConversationMessage m = messages.get(i);
+                        ps.setString(1, m.getSessionId());
+                        ps.setString(2, m.getSender());
+                        ps.setString(3, m.getContent());
+                        ps.setString(4, m.getBlockId());
+                        ps.setString(5, m.getFlowName());
+                        ps.setTimestamp(6, Timestamp.from(m.getCreatedAt()), utc());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return messages.size();
+                    }
+                },
+                keys));
+        List<Map<String, Object>> generated = keys.getKeyList();
+        if (generated.size() == messages.size()) {
+            for (int i = 0; i < messages.size(); i++) {
+                Object id = generated.get(i).values().stream().findFirst().orElse(null);
+                if (id instanceof Number n) {
+                    messages.get(i).setId(n.longValue());
+                }
+            }
+        }
+    }
+}
@@ -1,9 +1,97 @@
 package org.chatbot.conversationMessage.repository;
 
 import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.chatbot.conversationMessage.model.MessageSummary;
+import org.chatbot.conversationMessage.model.MessageView;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.util.List;
+
+// The history queries seek instead of using offsets: each page starts after the (createdAt, id) of the last row
+// of the previous one, so page N costs as much as page 1. The redundant "createdAt >= :afterAt" gives the
+// database a plain range on the (sessionId, createdAt) / (blockId, createdAt) index; the OR only breaks ties
+// between messages with the same timestamp. For the first page afterAt is the start of the range and afterId -1.
+// The newest-first variants seek the other way, before (beforeAt, beforeId), down to from.
 @Repository
 public interface ConversationMessageRepository extends JpaRepository<ConversationMessage, Long> {
-}
\ No newline at end of file
+
+    String SESSION_SEEK = " from ConversationMessage m where m.sessionId = :key"
+            + " and m.createdAt >= :afterAt and m.createdAt < :to"
+            + " and (m.createdAt > :afterAt or m.id > :afterId)"
+            + " order by m.createdAt, m.id";
+
+    String BLOCK_SEEK = " from ConversationMessage m where m.blockId = :key"
+            + " and m.createdAt >= :afterAt and m.createdAt < :to"
+            + " and (m.createdAt > :afterAt or m.id > :afterId)"
+            + " order by m.createdAt, m.id";
+
+    String SESSION_SEEK_DESC = " from ConversationMessage m where m.sessionId = :key"
+            + " and m.createdAt <= :beforeAt and m.createdAt >= :from"
+            + " and (m.createdAt < :beforeAt or m.id < :beforeId)"
+            + " order by m.createdAt desc, m.id desc";
+
+    String BLOCK_SEEK_DESC = " from ConversationMessage m where m.blockId = :key"
+            + " and m.createdAt <= :beforeAt and m.createdAt >= :from"
+            + " and (m.createdAt < :beforeAt or m.id < :beforeId)"
+            + " order by m.createdAt desc, m.id desc";
+
+    @Query("select new org.chatbot.conversationMessage.model.MessageSummary(m.id, m.sessionId, m.sender, m.blockId, m.createdAt)"
+            + SESSION_SEEK)
+    List<MessageSummary> findSessionSummaries(@Param("key") String sessionId, @Param("afterAt") Instant afterAt,
+                                              @Param("afterId") long afterId, @Param("to") Instant to, Limit limit);
+
+    @Query("select new org.chatbot.conversationMessage.model.MessageView(m.id, m.sessionId, m.sender, m.blockId, m.flowName, m.createdAt, m.content)"
+            + SESSION_SEEK)
+    List<MessageView> findSessionMessages(@Param("key") String sessionId, @Param("afterAt") Instant afterAt,
+                                          @Param("afterId") long afterId, @Param("to") Instant to, Limit limit);
+
+    @Query("select new org.chatbot.conversationMessage.model.MessageSummary(m.id, m.sessionId, m.sender, m.blockId, m.createdAt)"
+            + BLOCK_SEEK)
+    List<MessageSummary> findBlockSummaries(@Param("key") String blockId, @Param("afterAt") Instant afterAt,
+                                            @Param("afterId") long afterId, @Param("to") Instant to, Limit limit);
+
+    @Query("select new org.chatbot.conversationMessage.model.MessageView(m.id, m.sessionId, m.sender, m.blockId, m.flowName, m.createdAt, m.content)"
+            + BLOCK_SEEK)
+    List<MessageView> findBlockMessages(@Param("key") String blockId, @Param("afterAt") Instant afterAt,
+                                        @Param("afterId") long afterId, @Param("to") Instant to, Limit limit);
+
+    @Query("select new org.chatbot.conversationMessage.model.MessageSummary(m.id, m.sessionId, m.sender, m.blockId, m.createdAt)"
+            + SESSION_SEEK_DESC)
+    List<MessageSummary> findSessionSummariesBefore(@Param("key") String sessionId, @Param("beforeAt") Instant beforeAt,
+                                                    @Param("beforeId") long beforeId, @Param("from") Instant from,
+                                                    Limit limit);
+
+    @Query("select new org.chatbot.conversationMessage.model.MessageView(m.id, m.sessionId, m.sender, m.blockId, m.flowName, m.createdAt, m.content)"
+            + SESSION_SEEK_DESC)
+    List<MessageView> findSessionMessagesBefore(@Param("key") String sessionId, @Param("beforeAt") Instant beforeAt,
+                                                @Param("beforeId") long beforeId, @Param("from") Instant from,
+                                                Limit limit);
+
+    @Query("select new org.chatbot.conversationMessage.model.MessageSummary(m.id, m.sessionId, m.sender, m.blockId, m.createdAt)"
+            + BLOCK_SEEK_DESC)
+    List<MessageSummary> findBlockSummariesBefore(@Param("key") String blockId, @Param("beforeAt") Instant beforeAt,
+                                                  @Param("beforeId") long beforeId, @Param("from") Instant from,
+                                                  Limit limit);
+
+    @Query("select new org.chatbot.conversationMessage.model.MessageView(m.id, m.sessionId, m.sender, m.blockId, m.flowName, m.createdAt, m.content)"
+            + BLOCK_SEEK_DESC)
+    List<MessageView> findBlockMessagesBefore(@Param("key") String blockId, @Param("beforeAt") Instant beforeAt,
+                                              @Param("beforeId") long beforeId, @Param("from") Instant from,
+                                              Limit limit);
+
+    // Retention: the oldest rows by id, which is the order they were written in.
+    @Query("select new org.chatbot.conversationMessage.model.MessageSummary(m.id, m.sessionId, m.sender, m.blockId, m.createdAt)"
+            + " from ConversationMessage m where m.id > :afterId order by m.id")
+    List<MessageSummary> findOldest(@Param("afterId") long afterId, Limit limit);
+
+    @Query("select max(m.createdAt) from ConversationMessage m where m.sessionId = :sessionId")
+    Instant findLatestCreatedAt(@Param("sessionId") String sessionId);
+
+    @Query("select m.id from ConversationMessage m where m.sessionId = :sessionId and m.id <= :maxId order by m.id")
+    List<Long> findIdsUpTo(@Param("sessionId") String sessionId, @Param("maxId") long maxId, Limit limit);
+}
@@ -0,0 +1,220 @@
+package org.chatbot.conversationMessage.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.conversationMessage.model.ArchiveSpan;
+import org.chatbot.conversationMessage.model.ConversationArchive;
+import org.chatbot.conversationMessage.model.MessageView;
+import org.chatbot.conversationMessage.repository.ConversationArchiveRepository;
+import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Moves the messages of a session from conversation_messages into its ConversationArchive, and reads them back.
+// The archive is written first, in its own transaction, and the rows it covers are deleted afterwards in batches
+// of batch-size ids, each in a short transaction of its own, so the table is never locked for a whole session.
+// If the deletes are interrupted, the next run finds the rest of the rows again: rows already in the archive
+// (id <= maxMessageId) are only deleted, newer ones are appended.
+// Two nodes may archive the same session at once. The archive is versioned and its session unique, so only one
+// of them saves it; the other gets a concurrency or integrity failure from the save and deletes nothing, because
+// only the rows of an archive known to be committed are ever deleted.
+@Service
+@Slf4j
+public class ConversationArchiveService {
+
+    // Messages read from conversation_messages per query while building an archive.
+    private static final int READ_PAGE_SIZE = 500;
+
+    private final ConversationMessageRepository messageRepository;
+    private final ConversationArchiveRepository archiveRepository;
+    // Instants as ISO-8601 strings whatever the application mapper does, so archives stay readable.
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
+    private final int batchSize;
+
+    @Autowired
+    public ConversationArchiveService(ConversationMessageRepository messageRepository,
+                                      ConversationArchiveRepository archiveRepository,
+                                      ObjectMapper objectMapper,
+                                      @Value("${chatbot.retention.batch-size:500}") int batchSize) {
+        this.messageRepository = messageRepository;
+        this.archiveRepository = archiveRepository;
+        this.writer = objectMapper.writerFor(MessageView.class)
+                .without(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.reader = objectMapper.readerFor(MessageView.class);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    // Archives every message of the session and deletes them from conversation_messages.
+    // Returns the number of rows deleted. Throws OptimisticLockingFailureException or
+    // DataIntegrityViolationException, having deleted nothing, if another node saved the archive first.
+    public int archive(String sessionId) {
+        ConversationArchive archive = archiveRepository.findBySessionId(sessionId).orElse(null);
+        long archivedUpTo = archive == null ? -1 : archive.getMaxMessageId();
+        List<MessageView> fresh = new ArrayList<>();
+        Instant afterAt = Instant.EPOCH;
+        long afterId = -1;
+        while (true) {
+            List<MessageView> page = messageRepository.findSessionMessages(sessionId, afterAt, afterId,
+                    ConversationHistoryService.END_OF_TIME, Limit.of(READ_PAGE_SIZE));
+            for (MessageView message : page) {
+                if (message.id() > archivedUpTo) {
+                    fresh.add(message);
+                }
+            }
+            if (page.size() < READ_PAGE_SIZE) {
+                break;
+            }
+            MessageView last = page.get(page.size() - 1);
+            afterAt = last.createdAt();
+            afterId = last.id();
+        }
+        if (!fresh.isEmpty()) {
+            archive = archiveRepository.save(append(archive, sessionId, fresh));
+        }
+        if (archive == null) {
+            return 0;
+        }
+        int deleted = 0;
+        List<Long> ids;
+        do {
+            ids = messageRepository.findIdsUpTo(sessionId, archive.getMaxMessageId(), Limit.of(batchSize));
+            if (!ids.isEmpty()) {
+                messageRepository.deleteAllByIdInBatch(ids);
+                deleted += ids.size();
+            }
+        } while (ids.size() == batchSize);
+        return deleted;
+    }
+
+    // Archived messages of the session in (createdAt, id) order; empty if it has no archive.
+    public List<MessageView> read(String sessionId) {
+        List<MessageView> messages = archiveRepository.findBySessionId(sessionId)
+                .map(archive -> decode(archive.getData()))
+                .orElse(List.of());
+        if (messages.size() > 1) {
+            // Each appended member is in order, but may overlap the previous one in time.
+            messages = new ArrayList<>(messages);
+            messages.sort(Comparator.comparing(MessageView::createdAt).thenComparingLong(MessageView::id));
+        }
+        return messages;
+    }
+
+    // At most limit archived messages of the session that match filter, the first ones in order. Archives whose
+    // span does not overlap [from, to] are skipped without loading their data; the others are decoded one message
+    // at a time, keeping only the best limit messages.
+    public List<MessageView> read(String sessionId, Instant from, Instant to, Predicate<MessageView> filter,
+                                  Comparator<MessageView> order, int limit) {
+        ArchiveSpan span = archiveRepository.findSpanBySessionId(sessionId).orElse(null);
+        if (span == null || span.lastMessageAt().isBefore(from) || span.firstMessageAt().isAfter(to)) {
+            return List.of();
+        }
+        byte[] data = archiveRepository.findById(span.id()).map(ConversationArchive::getData).orElse(null);
+        if (data == null) {
+            return List.of();
+        }
+        // Head is the worst message kept, dropped when a better one arrives.
+        PriorityQueue<MessageView> best = new PriorityQueue<>(order.reversed());
+        try {
+            forEach(new ByteArrayInputStream(data), message -> {
+                if (filter.test(message)) {
+                    best.add(message);
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<MessageView> messages = new ArrayList<>(best);
+        messages.sort(order);
+        return messages;
+    }
+
+    private ConversationArchive append(ConversationArchive archive, String sessionId, List<MessageView> messages) {
+        byte[] member = encode(messages);
+        MessageView first = messages.get(0);
+        MessageView last = messages.get(messages.size() - 1);
+        long maxId = messages.stream().mapToLong(MessageView::id).max().orElseThrow();
+        if (archive == null) {
+            return ConversationArchive.builder()
+                    .sessionId(sessionId)
+                    .messageCount(messages.size())
+                    .firstMessageAt(first.createdAt())
+                    .lastMessageAt(last.createdAt())
+                    .maxMessageId(maxId)
+                    .archivedAt(Instant.now())
+                    .data(member)
+                    .build();
+        }
+        byte[] data = new byte[archive.getData().length + member.length];
+        System.arraycopy(archive.getData(), 0, data, 0, archive.getData().length);
+        System.arraycopy(member, 0, data, archive.getData().length, member.length);
+        archive.setData(data);
+        archive.setMessageCount(archive.getMessageCount() + messages.size());
+        // Appended members may overlap the archive in time, so the span only ever widens.
+        if (first.createdAt().isBefore(archive.getFirstMessageAt())) {
+            archive.setFirstMessageAt(first.createdAt());
+        }
+        if (last.createdAt().isAfter(archive.getLastMessageAt())) {
+            archive.setLastMessageAt(last.createdAt());
+        }
+        archive.setMaxMessageId(Math.max(archive.getMaxMessageId(), maxId));
+        archive.setArchivedAt(Instant.now());
+        return archive;
+    }
+
+    byte[] encode(List<MessageView> messages) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            for (MessageView message : messages) {
+                writer.writeValue(gzip, message);
+                gzip.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // Decodes an archive one message at a time, for exports that must not hold a whole archive.
+    public void forEach(InputStream data, Consumer<MessageView> action) throws IOException {
+        try (MappingIterator<MessageView> it = reader.readValues(new GZIPInputStream(data))) {
+            while (it.hasNextValue()) {
+                action.accept(it.nextValue());
+            }
+        }
+    }
+
+    List<MessageView> decode(byte[] data) {
+        try (MappingIterator<MessageView> it = reader.readValues(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+            return it.readAll();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.chatbot.conversationMessage.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.conversationMessage.model.MessageView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+// Writes conversation messages to a stream as NDJSON or CSV, for exports of any size.
+// Rows are read with a forward-only JDBC query and fetch-size rows per round trip, and each row is written out
+// as soon as it is read, so memory use does not depend on how many rows are exported. Archived conversations
+// (see ConversationArchiveService) are optionally appended, decoded one message at a time.
+// MySQL Connector/J reads whole result sets into memory unless the URL has useCursorFetch=true; without it the
+// driver is switched to row-by-row streaming instead.
+@Service
+@Slf4j
+public class ConversationExportService {
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    // flow null: every message, otherwise only those of sessions on the flow with that meta.name (see
+    // ConversationMessage.flowName). archived: also export conversations moved to conversation_archives.
+    public record Filter(Instant from, Instant to, String flow, boolean archived) {}
+
+    static final String CSV_HEADER = "id,sessionId,sender,blockId,flowName,createdAt,content";
+
+    private static final String MESSAGES_SQL =
+            "SELECT id, session_id, sender, block_id, flow_name, created_at, content FROM conversation_messages"
+                    + " WHERE created_at >= ? AND created_at < ?";
+
+    private static final String ARCHIVES_SQL =
+            "SELECT data FROM conversation_archives WHERE last_message_at >= ? AND first_message_at < ? ORDER BY id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ConversationArchiveService archiveService;
+    private final int fetchSize;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private volatile Integer effectiveFetchSize;
+    private final Counter exportedRows;
+    private final Timer exportTimer;
+
+    @Autowired
+    public ConversationExportService(DataSource dataSource,
+                                     PlatformTransactionManager transactionManager,
+                                     ConversationArchiveService archiveService,
+                                     @Value("${chatbot.export.fetch-size:1000}") int fetchSize,
+                                     MeterRegistry meterRegistry) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.archiveService = archiveService;
+        this.fetchSize = Math.max(1, fetchSize);
+        this.exportedRows = Counter.builder("chatbot.export.rows")
+                .description("Conversation messages written by exports")
+                .register(meterRegistry);
+        this.exportTimer = Timer.builder("chatbot.export.duration")
+                .description("Time to stream one export")
+                .register(meterRegistry);
+    }
+
+    // Hibernate stores Instant columns in UTC, so bind and read them the same way.
+    private static Calendar utc() {
+        return Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    }
+
+    // Writes every message in [from, to) in id order, then the matching archived ones; returns the number written.
+    // out is flushed but not closed.
+    public long export(Filter filter, Format format, OutputStream out) throws IOException {
+        RowWriter writer = format == Format.CSV ? new CsvWriter(out) : new NdjsonWriter(out, jsonFactory);
+        long start = System.nanoTime();
+        long[] count = new long[1];
+        try {
+            writer.begin();
+            transactionTemplate.executeWithoutResult(status -> {
+                int rows = fetchSize();
+                exportMessages(filter, rows, writer, count);
+                if (filter.archived()) {
+                    exportArchives(filter, rows, writer, count);
+                }
+            });
+            writer.end();
+        } catch (UncheckedIOException e) {
+            // The client went away, or the connection broke while writing.
+            throw e.getCause();
+        } finally {
+            exportedRows.increment(count[0]);
+            exportTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return count[0];
+    }
+
+    private void exportMessages(Filter filter, int rows, RowWriter writer, long[] count) {
+        StringBuilder sql = new StringBuilder(MESSAGES_SQL);
+        if (filter.flow() != null) {
+            sql.append(" AND flow_name = ?");
+        }
+        sql.append(" ORDER BY id");
+        Calendar utc = utc();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(rows);
+            ps.setTimestamp(1, Timestamp.from(filter.from()), utc);
+            ps.setTimestamp(2, Timestamp.from(filter.to()), utc);
+            if (filter.flow() != null) {
+                ps.setString(3, filter.flow());
+            }
+            return ps;
+        }, (ResultSet rs) -> {
+            try {
+                writer.write(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
+                        rs.getTimestamp(6, utc).toInstant(), rs.getString(7));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count[0]++;
+        });
+    }
+
+    private void exportArchives(Filter filter, int rows, RowWriter writer, long[] count) {
+        Calendar utc = utc();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(ARCHIVES_SQL, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(rows);
+            ps.setTimestamp(1, Timestamp.from(filter.from()), utc);
+            ps.setTimestamp(2, Timestamp.from(filter.to()), utc);
+            return ps;
+        }, (ResultSet rs) -> {
+            try {
+                archiveService.forEach(rs.getBinaryStream(1), message -> {
+                    if (message.createdAt().isBefore(filter.from()) || !message.createdAt().isBefore(filter.to())
+                            || (filter.flow() != null && !filter.flow().equals(message.flowName()))) {
+                        return;
+                    }
+                    write(writer, message);
+                    count[0]++;
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static void write(RowWriter writer, MessageView m) {
+        try {
+            writer.write(m.id(), m.sessionId(), m.sender(), m.blockId(), m.flowName(), m.createdAt(), m.content());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Resolved on the first export: the configured fetch size, or row-by-row streaming for MySQL without cursors.
+    private int fetchSize() {
+        Integer resolved = effectiveFetchSize;
+        if (resolved == null) {
+            resolved = jdbcTemplate.execute((ConnectionCallback<Integer>) con -> {
+                String product = con.getMetaData().getDatabaseProductName();
+                String url = con.getMetaData().getURL();
+                boolean mysql = product != null && product.toLowerCase().contains("mysql");
+                return mysql && (url == null || !url.contains("useCursorFetch=true")) ? Integer.MIN_VALUE : fetchSize;
+            });
+            effectiveFetchSize = resolved;
+        }
+        return resolved;
+    }
+
+    private interface RowWriter {
+        void begin() throws IOException;
+
+        void write(long id, String sessionId, String sender, String blockId, String flowName, Instant createdAt,
+                   String content) throws IOException;
+
+        void end() throws IOException;
+    }
+
+    // One JSON object per line, with the field names of MessageView and of the archives.
+    private static final class NdjsonWriter implements RowWriter {
+        private final JsonGenerator json;
+
+        NdjsonWriter(OutputStream out, JsonFactory factory) throws IOException {
+            this.json = factory.createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void write(long id, String sessionId, String sender, String blockId, String flowName, Instant createdAt,
+                          String content) throws IOException {
+            json.writeStartObject();
+            json.writeNumberField("id", id);
+            json.writeStringField("sessionId", sessionId);
+            json.writeStringField("sender", sender);
+            json.writeStringField("blockId", blockId);
+            json.writeStringField("flowName", flowName);
+            json.writeStringField("createdAt", createdAt.toString());
+            json.writeStringField("content", content);
+            json.writeEndObject();
+            json.writeRaw('\n');
+        }
+
+        @Override
+        public void end() throws IOException {
+            json.close();
+        }
+    }
+
+    // RFC 4180: fields with commas, quotes or line breaks are quoted, quotes doubled; null is an empty field.
+    private static final class CsvWriter implements RowWriter {
+        private final Writer out;
+
+        CsvWriter(OutputStream out) {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        }
+
+        @Override
+        public void begin() throws IOException {
+            out.write(CSV_HEADER);
+            out.write("\r\n");
+        }
+
+        @Override
+        public void write(long id, String sessionId, String sender, String blockId, String flowName, Instant createdAt,
+                          String content) throws IOException {
+            out.write(Long.toString(id));
+            field(sessionId);
+            field(sender);
+            field(blockId);
+            field(flowName);
+            field(createdAt.toString());
+            field(content);
+            out.write("\r\n");
+        }
+
+        private void field(String value) throws IOException {
+            out.write(',');
+            if (value == null) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.flush();
+        }
+    }
+}
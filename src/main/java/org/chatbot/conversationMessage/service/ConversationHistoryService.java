@@ -0,0 +1,232 @@
+package org.chatbot.conversationMessage.service;
+
+import org.chatbot.conversationMessage.model.MessageSummary;
+import org.chatbot.conversationMessage.model.MessageView;
+import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+// Read side of the conversation messages: a session's transcript and the messages written at a block, oldest
+// first (or newest first with descending), optionally limited to [from, to). Results come in pages of at most
+// max-page-size; a page that is not the last one has a next cursor, which is passed back as "after" to get the
+// following page (keyset pagination).
+// Without content=true only the MessageSummary columns are read, not the LONGTEXT content.
+// Transcript pages are served from the RecentMessageCache when it holds everything they need, which covers the
+// latest messages of active sessions; older pages, and sessions the cache no longer holds, come from the database.
+// Transcripts of sessions moved out by the retention job are read from their archive (merged with any rows that
+// are still in the table); block queries only cover messages that are still in the table.
+// Pages served from the cache do not touch the database at all; only the database and archive reads run in a
+// read-only transaction.
+@Service
+public class ConversationHistoryService {
+
+    // Later than any stored message, and still a valid DATETIME in MySQL.
+    public static final Instant END_OF_TIME = Instant.parse("9999-12-31T23:59:59Z");
+
+    public record Query(Instant from, Instant to, String after, Integer limit, boolean content, boolean descending) {
+
+        public static Query all() {
+            return new Query(null, null, null, null, false, false);
+        }
+    }
+
+    // next is null on the last page.
+    public record Page<T>(List<T> items, String next) {}
+
+    // Position after which the next page starts: the (createdAt, id) of the last row returned.
+    record Cursor(Instant createdAt, long id) {
+
+        String encode() {
+            String raw = createdAt.getEpochSecond() + "." + createdAt.getNano() + "." + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        static Cursor decode(String token) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII).split("\\.");
+                if (parts.length != 3) {
+                    throw new IllegalArgumentException();
+                }
+                return new Cursor(Instant.ofEpochSecond(Long.parseLong(parts[0]), Long.parseLong(parts[1])),
+                        Long.parseLong(parts[2]));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid history cursor: " + token);
+            }
+        }
+    }
+
+    private final ConversationMessageRepository repository;
+    private final RecentMessageCache recentMessages;
+    private final ConversationArchiveService archiveService;
+    private final TransactionTemplate readOnly;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+
+    @Autowired
+    public ConversationHistoryService(ConversationMessageRepository repository,
+                                      RecentMessageCache recentMessages,
+                                      ConversationArchiveService archiveService,
+                                      PlatformTransactionManager transactionManager,
+                                      @Value("${chatbot.history.page-size:100}") int defaultPageSize,
+                                      @Value("${chatbot.history.max-page-size:1000}") int maxPageSize) {
+        this.repository = repository;
+        this.recentMessages = recentMessages;
+        this.archiveService = archiveService;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.maxPageSize = Math.max(1, maxPageSize);
+        this.defaultPageSize = Math.min(Math.max(1, defaultPageSize), this.maxPageSize);
+    }
+
+    // Messages of one session.
+    public Page<?> transcript(String sessionId, Query query) {
+        requireKey(sessionId, "sessionId");
+        Range range = range(query);
+        List<MessageView> recent = query.descending()
+                ? recentMessages.before(sessionId, range.at, range.id, range.from, range.fetch.max())
+                : recentMessages.after(sessionId, range.at, range.id, range.to, range.fetch.max());
+        if (recent != null) {
+            return query.content()
+                    ? page(recent, range.size, MessageView::createdAt, MessageView::id)
+                    : page(recent.stream().map(MessageView::summary).toList(), range.size,
+                            MessageSummary::createdAt, MessageSummary::id);
+        }
+        return readOnly.execute(status -> fromDatabase(sessionId, query, range));
+    }
+
+    private Page<?> fromDatabase(String sessionId, Query query, Range range) {
+        Comparator<MessageView> order = order(query.descending());
+        List<MessageView> archived = query.descending()
+                ? archiveService.read(sessionId, range.from, range.at, m -> inRange(m, range, true), order,
+                        range.fetch.max())
+                : archiveService.read(sessionId, range.at, range.to, m -> inRange(m, range, false), order,
+                        range.fetch.max());
+        if (!archived.isEmpty()) {
+            return withArchive(sessionId, query, range, archived, order);
+        }
+        if (query.content()) {
+            return page(query.descending()
+                            ? repository.findSessionMessagesBefore(sessionId, range.at, range.id, range.from, range.fetch)
+                            : repository.findSessionMessages(sessionId, range.at, range.id, range.to, range.fetch),
+                    range.size, MessageView::createdAt, MessageView::id);
+        }
+        return page(query.descending()
+                        ? repository.findSessionSummariesBefore(sessionId, range.at, range.id, range.from, range.fetch)
+                        : repository.findSessionSummaries(sessionId, range.at, range.id, range.to, range.fetch),
+                range.size, MessageSummary::createdAt, MessageSummary::id);
+    }
+
+    // Messages written while sessions were at one block.
+    @Transactional(readOnly = true)
+    public Page<?> atBlock(String blockId, Query query) {
+        requireKey(blockId, "blockId");
+        Range range = range(query);
+        if (query.content()) {
+            return page(query.descending()
+                            ? repository.findBlockMessagesBefore(blockId, range.at, range.id, range.from, range.fetch)
+                            : repository.findBlockMessages(blockId, range.at, range.id, range.to, range.fetch),
+                    range.size, MessageView::createdAt, MessageView::id);
+        }
+        return page(query.descending()
+                        ? repository.findBlockSummariesBefore(blockId, range.at, range.id, range.from, range.fetch)
+                        : repository.findBlockSummaries(blockId, range.at, range.id, range.to, range.fetch),
+                range.size, MessageSummary::createdAt, MessageSummary::id);
+    }
+
+    // The page from the archived messages of the page (at most one page of them, already filtered by range) and the
+    // rows still in the table, which overlap while the retention job is deleting the rows of the archive.
+    private Page<?> withArchive(String sessionId, Query query, Range range, List<MessageView> archived,
+                                Comparator<MessageView> order) {
+        List<MessageView> live = query.descending()
+                ? repository.findSessionMessagesBefore(sessionId, range.at, range.id, range.from, range.fetch)
+                : repository.findSessionMessages(sessionId, range.at, range.id, range.to, range.fetch);
+        Set<Long> ids = new HashSet<>();
+        List<MessageView> merged = new ArrayList<>();
+        for (MessageView message : live) {
+            ids.add(message.id());
+            merged.add(message);
+        }
+        for (MessageView message : archived) {
+            if (!ids.contains(message.id())) {
+                merged.add(message);
+            }
+        }
+        merged.sort(order);
+        List<MessageView> rows = merged.subList(0, Math.min(merged.size(), range.fetch.max()));
+        return query.content()
+                ? page(rows, range.size, MessageView::createdAt, MessageView::id)
+                : page(rows.stream().map(MessageView::summary).toList(), range.size,
+                        MessageSummary::createdAt, MessageSummary::id);
+    }
+
+    private static Comparator<MessageView> order(boolean descending) {
+        Comparator<MessageView> order = Comparator.comparing(MessageView::createdAt).thenComparingLong(MessageView::id);
+        return descending ? order.reversed() : order;
+    }
+
+    private static boolean inRange(MessageView message, Range range, boolean descending) {
+        int c = message.createdAt().compareTo(range.at);
+        int position = c != 0 ? c : Long.compare(message.id(), range.id);
+        return descending
+                ? position < 0 && !message.createdAt().isBefore(range.from)
+                : position > 0 && message.createdAt().isBefore(range.to);
+    }
+
+    // Bounds and seek position of one page query: the page starts after (at, id), or before it when descending.
+    // fetch is one more than size, to know whether a next page exists.
+    private record Range(Instant from, Instant to, Instant at, long id, int size, Limit fetch) {}
+
+    private Range range(Query query) {
+        Instant from = query.from() == null ? Instant.EPOCH : query.from();
+        Instant to = query.to() == null ? END_OF_TIME : query.to();
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        int size = query.limit() == null ? defaultPageSize : Math.min(Math.max(1, query.limit()), maxPageSize);
+        Cursor cursor = query.after() == null || query.after().isBlank() ? null : Cursor.decode(query.after().trim());
+        Instant at;
+        long id;
+        // A cursor outside the range (e.g. with a narrower range than the previous page) starts at its edge instead.
+        if (query.descending()) {
+            boolean inRange = cursor != null && cursor.createdAt().isBefore(to);
+            at = inRange ? cursor.createdAt() : to;
+            id = inRange ? cursor.id() : Long.MIN_VALUE;
+        } else {
+            boolean inRange = cursor != null && !cursor.createdAt().isBefore(from);
+            at = inRange ? cursor.createdAt() : from;
+            id = inRange ? cursor.id() : -1;
+        }
+        return new Range(from, to, at, id, size, Limit.of(size + 1));
+    }
+
+    private static <T> Page<T> page(List<T> rows, int size, Function<T, Instant> createdAt, ToLongFunction<T> id) {
+        if (rows.size() <= size) {
+            return new Page<>(rows, null);
+        }
+        List<T> items = rows.subList(0, size);
+        T last = items.get(size - 1);
+        return new Page<>(List.copyOf(items), new Cursor(createdAt.apply(last), id.applyAsLong(last)).encode());
+    }
+
+    private static void requireKey(String key, String name) {
+        if (key == null || key.isBlank()) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+    }
+}
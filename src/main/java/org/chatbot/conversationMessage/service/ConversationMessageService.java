@@ -1,18 +1,41 @@
 package org.chatbot.conversationMessage.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.chatbot.configuration.FlowRegistry;
 import org.chatbot.conversationMessage.model.ConversationMessage;
 import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class ConversationMessageService {
 
     private final ConversationMessageRepository repository;
+    private final ConversationMessageWriteBehind writeBehind;
+    private final RecentMessageCache recentMessages;
+    // Tells which named flow a session uses, so exports can be limited to one flow (tenant).
+    private final FlowRegistry flowRegistry;
+    // Time the caller spends saving one message: the insert, or only the enqueue with write-behind.
+    private final Timer saveTimer;
 
-    public ConversationMessageService(ConversationMessageRepository repository) {
+    @Autowired
+    public ConversationMessageService(ConversationMessageRepository repository,
+                                      ConversationMessageWriteBehind writeBehind,
+                                      RecentMessageCache recentMessages,
+                                      FlowRegistry flowRegistry,
+                                      MeterRegistry meterRegistry) {
         this.repository = repository;
+        this.writeBehind = writeBehind;
+        this.recentMessages = recentMessages;
+        this.flowRegistry = flowRegistry;
+        this.saveTimer = Timer.builder("chatbot.message.save")
+                .description("Time to save one conversation message")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
     }
 
     public void saveUserMessage(String sessionId, String content, String blockId) {
@@ -21,9 +44,10 @@ public class ConversationMessageService {
                 .sender("USER")
                 .content(content)
                 .blockId(blockId)
+                .flowName(flowRegistry.flowName(sessionId))
                 .createdAt(Instant.now())
                 .build();
-        repository.save(msg);
+        save(msg);
     }
 
     public void saveBotMessage(String sessionId, String content, String blockId) {
@@ -32,8 +56,24 @@ public class ConversationMessageService {
                 .sender("BOT")
                 .content(content)
                 .blockId(blockId)
+                .flowName(flowRegistry.flowName(sessionId))
                 .createdAt(Instant.now())
                 .build();
-        repository.save(msg);
+        save(msg);
     }
-}
\ No newline at end of file
+
+    // With write-behind enabled the message is queued and written in a later batch, which adds it to the
+    // RecentMessageCache once it is stored; otherwise it is added right after the insert.
+    private void save(ConversationMessage msg) {
+        long start = System.nanoTime();
+        try {
+            if (writeBehind.isEnabled()) {
+                writeBehind.submit(msg);
+            } else {
+                recentMessages.append(repository.save(msg));
+            }
+        } finally {
+            saveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
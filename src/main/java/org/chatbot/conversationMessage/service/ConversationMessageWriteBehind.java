@@ -0,0 +1,267 @@
+package org.chatbot.conversationMessage.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.chatbot.conversationMessage.repository.ConversationMessageBatchWriter;
+import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Optional write-behind buffer for conversation messages.
+// When enabled, messages are put in a bounded queue and a single background thread writes them
+// in JDBC batches, either when batch-size messages are waiting or flush-interval-ms after the first one.
+// What happens when the queue is full is controlled by the backpressure setting.
+// If a batch fails (the batch insert runs in one transaction, so nothing of it is stored) its messages are
+// saved one by one, so a single bad row or a short outage does not lose the whole batch.
+@Component
+@Slf4j
+public class ConversationMessageWriteBehind {
+
+    public enum Backpressure {
+        // Wait up to offer-timeout-ms for space, then write on the calling thread.
+        BLOCK,
+        // Write on the calling thread straight away.
+        CALLER_RUNS,
+        // Discard the message and count it as dropped.
+        DROP
+    }
+
+    // Snapshot of the buffer metrics.
+    public record Stats(int queueDepth, long enqueued, long flushed, long dropped, long failed,
+                        long batches, long lastFlushNanos, long maxFlushNanos, long totalFlushNanos) {}
+
+    private final ConversationMessageBatchWriter batchWriter;
+    private final ConversationMessageRepository repository;
+    private final RecentMessageCache recentMessages;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long offerTimeoutMillis;
+    private final Backpressure backpressure;
+    private final BlockingQueue<ConversationMessage> queue;
+    private final Thread flusher;
+    private volatile boolean running;
+    // submit() holds the read lock while it checks running and enqueues, shutdown() the write lock while it
+    // clears running, so no message is queued after shutdown() has drained the queue.
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    // Guards polling: shutdown() interrupts the flusher only while it waits in poll(), never inside a JDBC call.
+    private final Object pollLock = new Object();
+    private boolean polling;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+
+    @Autowired
+    public ConversationMessageWriteBehind(
+            ConversationMessageBatchWriter batchWriter,
+            ConversationMessageRepository repository,
+            RecentMessageCache recentMessages,
+            @Value("${chatbot.messages.write-behind.enabled:false}") boolean enabled,
+            @Value("${chatbot.messages.write-behind.capacity:10000}") int capacity,
+            @Value("${chatbot.messages.write-behind.batch-size:200}") int batchSize,
+            @Value("${chatbot.messages.write-behind.flush-interval-ms:50}") long flushIntervalMillis,
+            @Value("${chatbot.messages.write-behind.offer-timeout-ms:100}") long offerTimeoutMillis,
+            @Value("${chatbot.messages.write-behind.backpressure:BLOCK}") Backpressure backpressure) {
+        this.batchWriter = batchWriter;
+        this.repository = repository;
+        this.recentMessages = recentMessages;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.offerTimeoutMillis = Math.max(0, offerTimeoutMillis);
+        this.backpressure = backpressure;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.flusher = new Thread(this::runFlusher, "message-write-behind");
+        this.flusher.setDaemon(true);
+        if (enabled) {
+            running = true;
+            flusher.start();
+            log.info("Message write-behind enabled. capacity={}, batchSize={}, flushIntervalMs={}, backpressure={}",
+                    capacity, this.batchSize, flushIntervalMillis, backpressure);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Queues the message for the next batch, applying the configured backpressure if the queue is full.
+    public void submit(ConversationMessage message) {
+        boolean stopped;
+        boolean accepted = false;
+        stateLock.readLock().lock();
+        try {
+            stopped = !running;
+            if (!stopped) {
+                accepted = offer(message);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (stopped) {
+            writeNow(message);
+        } else if (accepted) {
+            enqueued.incrementAndGet();
+        } else if (backpressure == Backpressure.DROP) {
+            dropped.incrementAndGet();
+            log.warn("Message write-behind queue is full, dropping message for session {}", message.getSessionId());
+        } else {
+            writeNow(message);
+        }
+    }
+
+    private boolean offer(ConversationMessage message) {
+        boolean accepted = queue.offer(message);
+        if (!accepted && backpressure == Backpressure.BLOCK && offerTimeoutMillis > 0) {
+            try {
+                accepted = queue.offer(message, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return accepted;
+    }
+
+    public Stats stats() {
+        return new Stats(queue.size(), enqueued.get(), flushed.get(), dropped.get(), failed.get(),
+                batches.get(), lastFlushNanos, maxFlushNanos, totalFlushNanos.get());
+    }
+
+    // Stops the background thread and writes everything that is still queued.
+    @PreDestroy
+    public void shutdown() {
+        stateLock.writeLock().lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        synchronized (pollLock) {
+            if (polling) {
+                flusher.interrupt();
+            }
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<ConversationMessage> rest = new ArrayList<>();
+        while (queue.drainTo(rest, batchSize) > 0) {
+            flush(rest);
+            rest.clear();
+        }
+        log.info("Message write-behind stopped. {}", stats());
+    }
+
+    private void runFlusher() {
+        List<ConversationMessage> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                ConversationMessage first = poll(flushIntervalNanos);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    ConversationMessage next = poll(remaining);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // shutdown() interrupts us; whatever is already in the batch is written below.
+                if (running) {
+                    continue;
+                }
+            }
+            flush(batch);
+            batch.clear();
+        }
+        flush(batch);
+    }
+
+    // Null once shutdown() has started, so the flusher writes its batch and stops instead of waiting again.
+    private ConversationMessage poll(long nanos) throws InterruptedException {
+        synchronized (pollLock) {
+            if (!running) {
+                return null;
+            }
+            polling = true;
+        }
+        try {
+            return queue.poll(nanos, TimeUnit.NANOSECONDS);
+        } finally {
+            synchronized (pollLock) {
+                polling = false;
+                // An interrupt that arrived after poll() returned must not abort the next insert.
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void flush(List<ConversationMessage> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            batchWriter.insertAll(batch);
+            flushed.addAndGet(batch.size());
+            recentMessages.appendAll(batch);
+        } catch (RuntimeException e) {
+            log.warn("Failed to write a batch of {} conversation messages, saving them one by one", batch.size(), e);
+            saveEach(batch);
+        }
+        long took = System.nanoTime() - startNanos;
+        batches.incrementAndGet();
+        totalFlushNanos.addAndGet(took);
+        lastFlushNanos = took;
+        if (took > maxFlushNanos) {
+            maxFlushNanos = took;
+        }
+    }
+
+    private void saveEach(List<ConversationMessage> batch) {
+        for (ConversationMessage message : batch) {
+            try {
+                writeNow(message);
+                flushed.incrementAndGet();
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                log.error("Failed to write conversation message for session {}", message.getSessionId(), e);
+            }
+        }
+    }
+
+    private void writeNow(ConversationMessage message) {
+        recentMessages.append(repository.save(message));
+    }
+}
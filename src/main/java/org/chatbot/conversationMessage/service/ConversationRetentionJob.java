@@ -0,0 +1,139 @@
+package org.chatbot.conversationMessage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.conversationMessage.model.MessageSummary;
+import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Moves conversations whose last message is older than max-age-days from conversation_messages into
+// conversation_archives (see ConversationArchiveService), every interval-ms while enabled.
+// Candidates are found by walking the table from its oldest rows in primary key order, scan-size rows per query,
+// until a row newer than the cutoff: the walk only touches old rows and needs no index on created_at. A session
+// with an old row but a newer last message is still active and is left for a later run.
+// At most max-sessions-per-run sessions are archived per run, so a large backlog is worked off over several runs.
+// With several nodes, two runs may pick the same session; the archive's unique session index and version let only
+// one of them write it, and the other skips the session without deleting anything.
+@Component
+@Slf4j
+public class ConversationRetentionJob {
+
+    public record Stats(long runs, long sessionsArchived, long messagesDeleted, long failures, long lastRunMillis) {}
+
+    private final ConversationMessageRepository messageRepository;
+    private final ConversationArchiveService archiveService;
+    private final boolean enabled;
+    private final Duration maxAge;
+    private final int scanSize;
+    private final int maxSessionsPerRun;
+    private final Clock clock;
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder sessionsArchived = new LongAdder();
+    private final LongAdder messagesDeleted = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong lastRunMillis = new AtomicLong();
+
+    @Autowired
+    public ConversationRetentionJob(ConversationMessageRepository messageRepository,
+                                    ConversationArchiveService archiveService,
+                                    @Value("${chatbot.retention.enabled:false}") boolean enabled,
+                                    @Value("${chatbot.retention.max-age-days:90}") int maxAgeDays,
+                                    @Value("${chatbot.retention.scan-size:1000}") int scanSize,
+                                    @Value("${chatbot.retention.max-sessions-per-run:10000}") int maxSessionsPerRun) {
+        this(messageRepository, archiveService, enabled, Duration.ofDays(maxAgeDays), scanSize, maxSessionsPerRun,
+                Clock.systemUTC());
+    }
+
+    ConversationRetentionJob(ConversationMessageRepository messageRepository, ConversationArchiveService archiveService,
+                             boolean enabled, Duration maxAge, int scanSize, int maxSessionsPerRun, Clock clock) {
+        this.messageRepository = messageRepository;
+        this.archiveService = archiveService;
+        this.enabled = enabled;
+        this.maxAge = maxAge;
+        this.scanSize = Math.max(1, scanSize);
+        this.maxSessionsPerRun = Math.max(1, maxSessionsPerRun);
+        this.clock = clock;
+        if (enabled) {
+            log.info("Conversation retention enabled. maxAge={}, scanSize={}, maxSessionsPerRun={}",
+                    maxAge, this.scanSize, this.maxSessionsPerRun);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chatbot.retention.interval-ms:3600000}",
+            initialDelayString = "${chatbot.retention.initial-delay-ms:300000}")
+    public void scheduledRun() {
+        if (enabled) {
+            run();
+        }
+    }
+
+    // One pass over the old rows; returns the number of sessions archived.
+    public int run() {
+        long start = System.currentTimeMillis();
+        Instant cutoff = clock.instant().minus(maxAge);
+        Set<String> seen = new HashSet<>();
+        int archived = 0;
+        long deleted = 0;
+        long afterId = -1;
+        scan:
+        while (archived < maxSessionsPerRun) {
+            List<MessageSummary> rows = messageRepository.findOldest(afterId, Limit.of(scanSize));
+            for (MessageSummary row : rows) {
+                if (!row.createdAt().isBefore(cutoff)) {
+                    break scan;
+                }
+                afterId = row.id();
+                if (!seen.add(row.sessionId())) {
+                    continue;
+                }
+                Instant latest = messageRepository.findLatestCreatedAt(row.sessionId());
+                if (latest == null || !latest.isBefore(cutoff)) {
+                    continue;
+                }
+                try {
+                    deleted += archiveService.archive(row.sessionId());
+                    archived++;
+                } catch (OptimisticLockingFailureException | DataIntegrityViolationException e) {
+                    log.info("Conversation {} was archived by another node, skipping", row.sessionId());
+                } catch (RuntimeException e) {
+                    failures.increment();
+                    log.error("Failed to archive conversation {}", row.sessionId(), e);
+                }
+                if (archived >= maxSessionsPerRun) {
+                    break scan;
+                }
+            }
+            if (rows.size() < scanSize) {
+                break;
+            }
+        }
+        runs.increment();
+        sessionsArchived.add(archived);
+        messagesDeleted.add(deleted);
+        lastRunMillis.set(System.currentTimeMillis() - start);
+        if (archived > 0) {
+            log.info("Archived {} conversations older than {} ({} messages) in {} ms",
+                    archived, cutoff, deleted, lastRunMillis.get());
+        }
+        return archived;
+    }
+
+    public Stats stats() {
+        return new Stats(runs.sum(), sessionsArchived.sum(), messagesDeleted.sum(), failures.sum(), lastRunMillis.get());
+    }
+}
@@ -0,0 +1,329 @@
+package org.chatbot.conversationMessage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.chatbot.conversationMessage.model.MessageView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// The latest messages of each session (the "hot tail"), so re-reading the end of an active conversation does not
+// query conversation_messages. Every session keeps a ring of its last size messages, in (createdAt, id) order.
+// Messages are added once they are in the database (see ConversationMessageService and the write-behind flush),
+// so the tail never shows a message the table does not have.
+// A tail knows whether older messages may exist outside it: tails created when the WebSocket connects start
+// complete, tails created by a write (after an eviction, or for messages saved outside a WebSocket session) and
+// tails that overflowed do not, and reads that could need those older messages return null so the caller
+// queries the database.
+// Tails idle for idle-ttl-ms are dropped by a sweep, and the least recently used ones are evicted once the
+// estimated size of all tails exceeds max-bytes.
+@Component
+@Slf4j
+public class RecentMessageCache {
+
+    public record Stats(int sessions, long messages, long bytes, long hits, long misses,
+                        long idleEvictions, long sizeEvictions) {
+
+        public double hitRatio() {
+            long reads = hits + misses;
+            return reads == 0 ? 0 : (double) hits / reads;
+        }
+    }
+
+    // Rough footprint of a message besides its content: MessageView, Long id, Instant and the ring slot.
+    // sessionId, sender, blockId and flowName are shared with the flow and the other messages of the session.
+    private static final long MESSAGE_OVERHEAD_BYTES = 40 + 16 + 24 + 8;
+    // Map node, Tail and the id String header, plus the ring array header.
+    private static final long TAIL_OVERHEAD_BYTES = 32 + 48 + 40 + 16;
+
+    private static final class Tail {
+        MessageView[] ring;
+        // Index of the oldest message in ring.
+        int head;
+        int count;
+        long bytes;
+        // Older messages of the session may be in the database but not in the ring.
+        boolean hasOlder;
+        // Set when the tail is evicted; writers that still hold it look it up again.
+        boolean dead;
+        volatile long lastAccessNanos;
+
+        Tail(boolean hasOlder, long now) {
+            this.hasOlder = hasOlder;
+            this.lastAccessNanos = now;
+            this.bytes = TAIL_OVERHEAD_BYTES;
+        }
+
+        MessageView at(int i) {
+            return ring[(head + i) % ring.length];
+        }
+
+        // Inserts message in order and returns the change in estimated bytes.
+        long add(MessageView message, int capacity) {
+            long delta = 0;
+            if (ring == null) {
+                ring = new MessageView[capacity];
+                delta += 4L * capacity;
+            }
+            if (count == ring.length) {
+                // Full: the oldest message makes room, unless the new one is older still.
+                if (compare(message, at(0)) < 0) {
+                    hasOlder = true;
+                    bytes += delta;
+                    return delta;
+                }
+                delta -= sizeOf(at(0));
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                count--;
+                hasOlder = true;
+            }
+            // Messages of a session are almost always written in order, so this rarely shifts anything.
+            int i = count;
+            while (i > 0 && compare(at(i - 1), message) > 0) {
+                ring[(head + i) % ring.length] = at(i - 1);
+                i--;
+            }
+            ring[(head + i) % ring.length] = message;
+            count++;
+            delta += sizeOf(message);
+            bytes += delta;
+            return delta;
+        }
+    }
+
+    private final int size;
+    private final long maxBytes;
+    private final long idleTtlNanos;
+    private final LongSupplier nanoClock;
+
+    private final Map<String, Tail> tails = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder idleEvictions = new LongAdder();
+    private final LongAdder sizeEvictions = new LongAdder();
+
+    // Keeps nothing: every read goes to the database.
+    public static RecentMessageCache disabled() {
+        return new RecentMessageCache(0, 0, 0);
+    }
+
+    @Autowired
+    public RecentMessageCache(@Value("${chatbot.history.recent.size:50}") int size,
+                              @Value("${chatbot.history.recent.max-bytes:67108864}") long maxBytes,
+                              @Value("${chatbot.history.recent.idle-ttl-ms:1800000}") long idleTtlMillis) {
+        this(size, maxBytes, idleTtlMillis, System::nanoTime);
+    }
+
+    RecentMessageCache(int size, long maxBytes, long idleTtlMillis, LongSupplier nanoClock) {
+        this.size = Math.max(0, size);
+        this.maxBytes = maxBytes;
+        this.idleTtlNanos = TimeUnit.MILLISECONDS.toNanos(idleTtlMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    public boolean isEnabled() {
+        return size > 0 && maxBytes > 0;
+    }
+
+    private static int compare(MessageView a, MessageView b) {
+        int c = a.createdAt().compareTo(b.createdAt());
+        return c != 0 ? c : Long.compare(a.id(), b.id());
+    }
+
+    private static int compare(MessageView a, Instant createdAt, long id) {
+        int c = a.createdAt().compareTo(createdAt);
+        return c != 0 ? c : Long.compare(a.id(), id);
+    }
+
+    private static long sizeOf(MessageView message) {
+        String content = message.content();
+        return MESSAGE_OVERHEAD_BYTES + (content == null ? 0 : 40 + 2L * content.length());
+    }
+
+    // A new WebSocket session has no messages yet, so its tail holds all of them until it overflows.
+    @EventListener
+    public void onConnect(SessionConnectEvent event) {
+        String sessionId = StompHeaderAccessor.wrap(event.getMessage()).getSessionId();
+        if (isEnabled() && sessionId != null) {
+            tails.computeIfAbsent(sessionId, id -> {
+                bytes.addAndGet(TAIL_OVERHEAD_BYTES);
+                return new Tail(false, nanoClock.getAsLong());
+            });
+        }
+    }
+
+    // Called with messages that have been written to the database; messages without an id are ignored.
+    public void append(ConversationMessage message) {
+        if (!isEnabled() || message == null || message.getId() == null || message.getSessionId() == null || message.getCreatedAt() == null) {
+            return;
+        }
+        MessageView view = MessageView.of(message);
+        long now = nanoClock.getAsLong();
+        while (true) {
+            Tail tail = tails.computeIfAbsent(message.getSessionId(), id -> {
+                bytes.addAndGet(TAIL_OVERHEAD_BYTES);
+                return new Tail(true, now);
+            });
+            long delta;
+            synchronized (tail) {
+                if (tail.dead) {
+                    continue;
+                }
+                delta = tail.add(view, size);
+                tail.lastAccessNanos = now;
+            }
+            if (bytes.addAndGet(delta) > maxBytes) {
+                evictOverflow();
+            }
+            return;
+        }
+    }
+
+    public void appendAll(List<ConversationMessage> messages) {
+        for (ConversationMessage message : messages) {
+            append(message);
+        }
+    }
+
+    // Up to max messages of the session after the position (afterAt, afterId) and before to, oldest first,
+    // or null if the tail does not hold everything after that position.
+    public List<MessageView> after(String sessionId, Instant afterAt, long afterId, Instant to, int max) {
+        Tail tail = isEnabled() ? tails.get(sessionId) : null;
+        if (tail == null) {
+            return miss();
+        }
+        List<MessageView> result = new ArrayList<>(Math.min(max, size));
+        synchronized (tail) {
+            if (tail.hasOlder && (tail.count == 0 || compare(tail.at(0), afterAt, afterId) > 0)) {
+                return miss();
+            }
+            for (int i = 0; i < tail.count && result.size() < max; i++) {
+                MessageView message = tail.at(i);
+                if (!message.createdAt().isBefore(to)) {
+                    break;
+                }
+                if (compare(message, afterAt, afterId) > 0) {
+                    result.add(message);
+                }
+            }
+        }
+        return hit(tail, result);
+    }
+
+    // Up to max messages of the session before the position (beforeAt, beforeId) and at or after from,
+    // newest first, or null if older messages the tail no longer holds could be among them.
+    public List<MessageView> before(String sessionId, Instant beforeAt, long beforeId, Instant from, int max) {
+        Tail tail = isEnabled() ? tails.get(sessionId) : null;
+        if (tail == null) {
+            return miss();
+        }
+        List<MessageView> result = new ArrayList<>(Math.min(max, size));
+        synchronized (tail) {
+            // Done once the page is full or the range starts within the tail.
+            boolean done = false;
+            for (int i = tail.count - 1; i >= 0 && !done; i--) {
+                MessageView message = tail.at(i);
+                if (message.createdAt().isBefore(from)) {
+                    done = true;
+                } else if (compare(message, beforeAt, beforeId) < 0) {
+                    result.add(message);
+                    done = result.size() == max;
+                }
+            }
+            if (!done && tail.hasOlder) {
+                return miss();
+            }
+        }
+        return hit(tail, result);
+    }
+
+    private List<MessageView> hit(Tail tail, List<MessageView> result) {
+        tail.lastAccessNanos = nanoClock.getAsLong();
+        hits.increment();
+        return result;
+    }
+
+    private List<MessageView> miss() {
+        if (isEnabled()) {
+            misses.increment();
+        }
+        return null;
+    }
+
+    @Scheduled(fixedDelayString = "${chatbot.history.recent.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        if (idleTtlNanos <= 0 || tails.isEmpty()) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        for (Map.Entry<String, Tail> e : tails.entrySet()) {
+            if (now - e.getValue().lastAccessNanos > idleTtlNanos && remove(e.getKey(), e.getValue())) {
+                idleEvictions.increment();
+            }
+        }
+    }
+
+    // Evicts the least recently used tails down to 90% of max-bytes, so the sort is amortized over many writes.
+    private void evictOverflow() {
+        synchronized (evictionLock) {
+            if (bytes.get() <= maxBytes) {
+                return;
+            }
+            long target = maxBytes - maxBytes / 10;
+            // Access times are copied first: they keep changing while the candidates are sorted.
+            List<Candidate> candidates = new ArrayList<>(tails.size());
+            for (Map.Entry<String, Tail> e : tails.entrySet()) {
+                candidates.add(new Candidate(e.getKey(), e.getValue(), e.getValue().lastAccessNanos));
+            }
+            candidates.sort((a, b) -> Long.signum(a.lastAccessNanos() - b.lastAccessNanos()));
+            int evicted = 0;
+            for (int i = 0; i < candidates.size() && bytes.get() > target; i++) {
+                Candidate candidate = candidates.get(i);
+                if (remove(candidate.sessionId(), candidate.tail())) {
+                    evicted++;
+                }
+            }
+            sizeEvictions.add(evicted);
+        }
+    }
+
+    private record Candidate(String sessionId, Tail tail, long lastAccessNanos) {}
+
+    private boolean remove(String sessionId, Tail tail) {
+        synchronized (tail) {
+            if (tail.dead || !tails.remove(sessionId, tail)) {
+                return false;
+            }
+            tail.dead = true;
+            bytes.addAndGet(-tail.bytes);
+            return true;
+        }
+    }
+
+    public Stats stats() {
+        long messages = 0;
+        for (Tail tail : tails.values()) {
+            messages += tail.count;
+        }
+        return new Stats(tails.size(), messages, bytes.get(), hits.sum(), misses.sum(),
+                idleEvictions.sum(), sizeEvictions.sum());
+    }
+}
@@ -0,0 +1,27 @@
+package org.chatbot.conversationState.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+// Row written by JdbcConversationStateStore; mapped here so the table is created with the rest of the schema.
+@Entity
+@Table(name = "conversation_state", indexes = @Index(name = "idx_conversation_state_updated_at", columnList = "updated_at"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConversationState {
+
+    @Id
+    @Column(name = "session_id")
+    private String sessionId;
+
+    @Column(name = "block_id", nullable = false)
+    private String blockId;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+}
@@ -0,0 +1,303 @@
+package org.chatbot.conversationState.repository;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.engine.ConversationStateStore;
+import org.chatbot.engine.InMemoryConversationStateStore;
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.CompiledFlow;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Conversation state shared between nodes through the conversation_state table.
+// Reads are served by an in-memory near-cache and only go to the database on a miss. Writes only update the
+// near-cache and a map of pending changes; a background thread writes the latest change of every session in JDBC
+// batches every flush-interval-ms, so a session that moves several times between flushes costs one row write.
+// A STOMP session is served by one node at a time, so the near-cache of that node is always up to date; a client
+// that resumes its conversation id on this node is re-read from the database first (onResume).
+// Rows are not deleted when a WebSocket closes, so a client can resume its conversation id on any node; rows
+// that have not changed for row-ttl-ms are deleted by the sweep.
+@Repository
+@ConditionalOnProperty(name = "chatbot.state.store", havingValue = "jdbc")
+@Slf4j
+public class JdbcConversationStateStore implements ConversationStateStore {
+
+    private enum Dialect { MYSQL, H2, OTHER }
+
+    private static final String SELECT_SQL = "SELECT block_id FROM conversation_state WHERE session_id = ?";
+    private static final String MYSQL_UPSERT_SQL =
+            "INSERT INTO conversation_state (session_id, block_id, updated_at) VALUES (?, ?, ?) "
+                    + "ON DUPLICATE KEY UPDATE block_id = VALUES(block_id), updated_at = VALUES(updated_at)";
+    private static final String H2_UPSERT_SQL =
+            "MERGE INTO conversation_state (session_id, block_id, updated_at) KEY (session_id) VALUES (?, ?, ?)";
+    private static final String INSERT_SQL =
+            "INSERT INTO conversation_state (session_id, block_id, updated_at) VALUES (?, ?, ?)";
+    private static final String UPDATE_SQL =
+            "UPDATE conversation_state SET block_id = ?, updated_at = ? WHERE session_id = ?";
+    private static final String DELETE_EXPIRED_SQL = "DELETE FROM conversation_state WHERE updated_at < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final InMemoryConversationStateStore nearCache;
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+    private final Dialect dialect;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long rowTtlMillis;
+    private final Thread flusher;
+    private volatile boolean running;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    public JdbcConversationStateStore(
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${chatbot.state.idle-ttl-ms:1800000}") long idleTtlMillis,
+            @Value("${chatbot.state.max-sessions:100000}") int maxSessions,
+            @Value("${chatbot.state.jdbc.flush-interval-ms:100}") long flushIntervalMillis,
+            @Value("${chatbot.state.jdbc.batch-size:500}") int batchSize,
+            @Value("${chatbot.state.jdbc.row-ttl-ms:86400000}") long rowTtlMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.nearCache = new InMemoryConversationStateStore(idleTtlMillis, maxSessions);
+        this.dialect = detectDialect(jdbcTemplate);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        this.rowTtlMillis = rowTtlMillis;
+        this.flusher = new Thread(this::runFlusher, "conversation-state-writer");
+        this.flusher.setDaemon(true);
+        this.running = true;
+        flusher.start();
+        log.info("JDBC conversation state store enabled. dialect={}, flushIntervalMs={}, batchSize={}",
+                dialect, this.flushIntervalMillis, this.batchSize);
+    }
+
+    private static Dialect detectDialect(JdbcTemplate jdbcTemplate) {
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName());
+        if (product == null) {
+            return Dialect.OTHER;
+        }
+        String name = product.toLowerCase();
+        if (name.contains("mysql") || name.contains("mariadb")) {
+            return Dialect.MYSQL;
+        }
+        return name.contains("h2") ? Dialect.H2 : Dialect.OTHER;
+    }
+
+    // Hibernate stores Instant columns in UTC, so bind the timestamp the same way.
+    private static Calendar utc() {
+        return Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Override
+    public CompiledBlock get(String sessionId, CompiledFlow flow) {
+        CompiledBlock cached = nearCache.get(sessionId, flow);
+        if (cached != null) {
+            return cached;
+        }
+        // A change that has not been flushed yet is newer than the row.
+        String blockId = pending.get(sessionId);
+        if (blockId == null) {
+            loads.incrementAndGet();
+            blockId = jdbcTemplate.query(SELECT_SQL, rs -> rs.next() ? rs.getString(1) : null, sessionId);
+        }
+        CompiledBlock block = flow.byId(blockId);
+        if (block != null) {
+            nearCache.put(sessionId, flow, block);
+        }
+        return block;
+    }
+
+    @Override
+    public void put(String sessionId, CompiledFlow flow, CompiledBlock block) {
+        nearCache.put(sessionId, flow, block);
+        pending.put(sessionId, block.id());
+    }
+
+    // The row stays until it expires; a pending change is still written.
+    @Override
+    public void onDisconnect(String sessionId) {
+        nearCache.onDisconnect(sessionId);
+    }
+
+    @Override
+    public void onResume(String key) {
+        nearCache.remove(key);
+    }
+
+    // Rows keep block ids, so only the near-cache needs remapping.
+    @Override
+    public void onFlowActivated(CompiledFlow previous, CompiledFlow current) {
+        nearCache.onFlowActivated(previous, current);
+    }
+
+    // Idle sessions leave the near-cache after idle-ttl-ms; rows are deleted once they have not changed for
+    // row-ttl-ms.
+    @Override
+    public void evictIdle() {
+        nearCache.evictIdle();
+        if (rowTtlMillis > 0) {
+            Timestamp cutoff = Timestamp.from(Instant.now().minusMillis(rowTtlMillis));
+            int deleted = jdbcTemplate.update(DELETE_EXPIRED_SQL, ps -> ps.setTimestamp(1, cutoff, utc()));
+            if (deleted > 0) {
+                log.info("Deleted {} expired conversation state rows", deleted);
+            }
+        }
+    }
+
+    @Override
+    public Stats stats() {
+        return nearCache.stats();
+    }
+
+    public int pendingWrites() {
+        return pending.size();
+    }
+
+    public long writtenRows() {
+        return written.get();
+    }
+
+    public long failedWrites() {
+        return failed.get();
+    }
+
+    public long databaseLoads() {
+        return loads.get();
+    }
+
+    // Writes every pending change now. A change is only dropped from the pending map after it was written and
+    // only if it was not superseded meanwhile, so failed batches are retried on the next flush.
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, String>> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+        for (Map.Entry<String, String> e : pending.entrySet()) {
+            batch.add(Map.entry(e.getKey(), e.getValue()));
+            if (batch.size() == batchSize) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        write(batch);
+    }
+
+    private void write(List<Map.Entry<String, String>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.from(Instant.now());
+        try {
+            transactionTemplate.executeWithoutResult(status -> upsert(batch, now));
+        } catch (RuntimeException e) {
+            failed.addAndGet(batch.size());
+            log.error("Failed to write {} conversation state changes", batch.size(), e);
+            return;
+        }
+        for (Map.Entry<String, String> e : batch) {
+            pending.remove(e.getKey(), e.getValue());
+        }
+        written.addAndGet(batch.size());
+    }
+
+    private void upsert(List<Map.Entry<String, String>> rows, Timestamp now) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (dialect != Dialect.OTHER) {
+            jdbcTemplate.batchUpdate(dialect == Dialect.MYSQL ? MYSQL_UPSERT_SQL : H2_UPSERT_SQL,
+                    rowSetter(rows, now, false));
+            return;
+        }
+        // No portable upsert: update everything, then insert the rows that did not exist yet.
+        int[] counts = jdbcTemplate.batchUpdate(UPDATE_SQL, rowSetter(rows, now, true));
+        List<Map.Entry<String, String>> missing = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                missing.add(rows.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, rowSetter(missing, now, false));
+        }
+    }
+
+    private static BatchPreparedStatementSetter rowSetter(List<Map.Entry<String, String>> rows, Timestamp now, boolean update) {
+        return new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Map.Entry<String, String> row = rows.get(i);
+                if (update) {
+                    ps.setString(1, row.getValue());
+                    ps.setTimestamp(2, now, utc());
+                    ps.setString(3, row.getKey());
+                } else {
+                    ps.setString(1, row.getKey());
+                    ps.setString(2, row.getValue());
+                    ps.setTimestamp(3, now, utc());
+                }
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        };
+    }
+
+    // Stops the background thread and writes whatever is still pending.
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        log.info("JDBC conversation state store stopped. written={}, failed={}, pending={}",
+                written.get(), failed.get(), pending.size());
+    }
+
+    private void runFlusher() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+            } catch (InterruptedException e) {
+                // shutdown() interrupts us and does the final flush itself.
+                continue;
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.error("Conversation state flush failed", e);
+            }
+        }
+    }
+}
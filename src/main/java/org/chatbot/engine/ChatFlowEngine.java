@@ -1,233 +1,336 @@
 package org.chatbot.engine;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.chatbot.ai.IntentDetector;
-import org.chatbot.configuration.FlowConfigService;
+import org.chatbot.configuration.EngineExecutorConfig;
+import org.chatbot.configuration.FlowRegistry;
 import org.chatbot.conversationMessage.service.ConversationMessageService;
-import org.chatbot.flow.Block;
 import org.chatbot.flow.BlockType;
-import org.chatbot.flow.Flow;
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.IntentTarget;
+import org.chatbot.flow.KeywordAutomaton;
+import org.chatbot.flow.Transition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 // The chatbot's main logic – processes the conversation logic according to the JSON configuration.
 @Service
 @Slf4j
 public class ChatFlowEngine {
 
-    private final FlowConfigService flowConfigService;
+    // Flow of every session: the active flow, or the one its CONNECT header selected.
+    private final FlowRegistry flows;
     private final ConversationStateService stateService;
     private final KeywordMatcher keywordMatcher;
     private final IntentDetector intentDetector;
     private final ConversationMessageService messageService;
+    private final Executor executor;
+    private final SessionSequencer sequencer;
+    private final IntentCascade cascade;
+    // chatbot.turn timers by BlockType ordinal of the session's block; the last one is for sessions not started.
+    private final Timer[] turnTimers;
 
-    public ChatFlowEngine(FlowConfigService flowConfigService,
+    @Autowired
+    public ChatFlowEngine(FlowRegistry flows,
                           ConversationStateService stateService,
                           KeywordMatcher keywordMatcher,
                           ConversationMessageService messageService,
-                          IntentDetector intentDetector) {
-        this.flowConfigService = flowConfigService;
+                          IntentDetector intentDetector,
+                          @Qualifier(EngineExecutorConfig.ENGINE_EXECUTOR) Executor executor,
+                          SessionSequencer sequencer,
+                          IntentCascade cascade,
+                          MeterRegistry meterRegistry) {
+        this.flows = flows;
         this.stateService = stateService;
         this.keywordMatcher = keywordMatcher;
         this.messageService = messageService;
         this.intentDetector = intentDetector;
+        this.executor = executor;
+        this.sequencer = sequencer;
+        this.cascade = cascade;
+        this.turnTimers = turnTimers(meterRegistry);
+    }
+
+    // Timers are registered once, so recording a turn is a lookup by ordinal and never allocates tags.
+    private static Timer[] turnTimers(MeterRegistry registry) {
+        BlockType[] types = BlockType.values();
+        Timer[] timers = new Timer[types.length + 1];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = Timer.builder("chatbot.turn")
+                    .description("Time to process one user message, by type of the block the session was in")
+                    .tag("block.type", i < types.length ? types[i].name() : "NONE")
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+        return timers;
+    }
+
+    private void recordTurn(CompiledBlock current, long startNanos) {
+        int timer = current == null || current.type() == null ? turnTimers.length - 1 : current.type().ordinal();
+        turnTimers[timer].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
     }
 
     // Start a new conversation by sending the first messages to the chatbot according to the initial block.
     public List<String> start(String sessionId) {
-        Flow flow = flowConfigService.getFlow();
+        CompiledFlow flow = flows.forSession(sessionId);
         if (flow == null) {
             return Collections.emptyList();
         }
-        List<String> out = new ArrayList<>();
-        String nextId = flow.getStartBlockId();
-        while (nextId != null) {
-            Block b = flow.byId(nextId);
-            if (b == null) {
-                break;
-            }
-            if (b.type() == BlockType.WRITE_MESSAGE) {
-                if (b.message() != null) {
-                    out.add(b.message());
-                    messageService.saveBotMessage(sessionId, b.message(), b.id());
-                }
-                nextId = b.next();
-            } else if (b.type() == BlockType.WAIT_FOR_RESPONSE || b.type() == BlockType.DETECT_RESPONSE_INTENT) {
-                stateService.setCurrentBlock(sessionId, b.id());
-                break;
-            } else {
-                break;
-            }
-        }
-        return out;
+        return follow(sessionId, flow, flow.start());
+    }
+
+    // Non-blocking variant of start; the first messages are persisted on the engine executor.
+    public CompletableFuture<List<String>> startAsync(String sessionId) {
+        return startAsync(sessionId, replies -> { });
+    }
+
+    // Like startAsync(sessionId), and send receives the replies before the next turn of the session may start.
+    public CompletableFuture<List<String>> startAsync(String sessionId, Consumer<List<String>> send) {
+        return sequencer.submit(sessionId, () -> CompletableFuture.supplyAsync(() -> start(sessionId), executor)
+                .thenApply(replies -> sent(replies, send)));
     }
 
     // Processes an incoming message from the user and finds the next block in the conversation.
     public List<String> onUserMessage(String sessionId, String userText) {
-        Flow flow = flowConfigService.getFlow();
-        if (flow == null) {
-            return Collections.emptyList();
-        }
-        // If there is no current block, start a new conversation.
-        String currentBlockId = stateService.getCurrentBlock(sessionId);
-        if (currentBlockId == null) {
-            return start(sessionId);
-        }
-        Block current = flow.byId(currentBlockId);
-        if (current == null) {
-            return start(sessionId);
+        long start = System.nanoTime();
+        CompiledBlock current = null;
+        try {
+            CompiledFlow flow = flows.forSession(sessionId);
+            if (flow == null) {
+                return Collections.emptyList();
+            }
+            current = stateService.getCurrentBlock(sessionId, flow);
+            if (current == null) {
+                return start(sessionId);
+            }
+            return turn(sessionId, userText, flow, current);
+        } finally {
+            recordTurn(current, start);
         }
+    }
+
+    private List<String> turn(String sessionId, String userText, CompiledFlow flow, CompiledBlock current) {
         // Save the user's message in the history with the current block context.
         messageService.saveUserMessage(sessionId, userText, current.id());
-        String nextId;
+        Transition next;
 
         // Determine next block based on the current block type. For WAIT_FOR_RESPONSE we use keyword matching,
         // for DETECT_RESPONSE_INTENT we attempt to detect the user's intent via the configured detector.
         if (current.type() == BlockType.WAIT_FOR_RESPONSE) {
-            nextId = keywordMatcher.resolveNext(current, userText);
+            next = keywordMatcher.resolve(current, userText);
         } else if (current.type() == BlockType.DETECT_RESPONSE_INTENT) {
-            nextId = resolveNextForIntent(current, userText);
+            next = resolveNextForIntent(current, userText);
         } else {
-            nextId = null;
+            next = null;
         }
-        List<String> out = new ArrayList<>();
-        while (nextId != null) {
-            Block b = flow.byId(nextId);
-            if (b == null) {
-                break;
+        return follow(sessionId, flow, next);
+    }
+
+    // Non-blocking variant of onUserMessage. The turn runs on the engine executor, the intent detector is
+    // called through detectIntentAsync and the rest of the turn continues on the engine executor once it answers,
+    // so the calling (STOMP inbound) thread never waits for persistence or HTTP.
+    // Turns of one session are queued in the SessionSequencer and run strictly one after another.
+    public CompletableFuture<List<String>> onUserMessageAsync(String sessionId, String userText) {
+        return onUserMessageAsync(sessionId, userText, replies -> { });
+    }
+
+    // Replies must be sent through send rather than from a callback on the returned future: the sequencer starts
+    // the next turn from a callback on that future too, and callbacks of a CompletableFuture do not run in the
+    // order they were added, so the next turn's replies could overtake this one's. send runs as part of the turn.
+    public CompletableFuture<List<String>> onUserMessageAsync(String sessionId, String userText,
+                                                              Consumer<List<String>> send) {
+        return sequencer.submit(sessionId, () -> turnAsync(sessionId, userText).thenApply(replies -> sent(replies, send)));
+    }
+
+    private static List<String> sent(List<String> replies, Consumer<List<String>> send) {
+        send.accept(replies);
+        return replies;
+    }
+
+    // The turn is timed from when it starts (after earlier turns of the session) until its replies are ready,
+    // or until it fails.
+    private CompletableFuture<List<String>> turnAsync(String sessionId, String userText) {
+        long start = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> beginTurn(sessionId, userText, start), executor)
+                .thenCompose(Function.identity());
+    }
+
+    // The part of a turn up to the intent detector. The turn is recorded here, also when it throws, unless it
+    // goes on to wait for the detector; then it is recorded when that continuation completes.
+    private CompletableFuture<List<String>> beginTurn(String sessionId, String userText, long start) {
+        CompiledBlock current = null;
+        boolean continued = false;
+        try {
+            CompiledFlow flow = flows.forSession(sessionId);
+            if (flow == null) {
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            current = stateService.getCurrentBlock(sessionId, flow);
+            if (current == null) {
+                return CompletableFuture.completedFuture(start(sessionId));
             }
-            if (b.type() == BlockType.WRITE_MESSAGE) {
-                if (b.message() != null) {
-                    out.add(b.message());
-                    messageService.saveBotMessage(sessionId, b.message(), b.id());
-                }
-                nextId = b.next();
-            } else if (b.type() == BlockType.WAIT_FOR_RESPONSE || b.type() == BlockType.DETECT_RESPONSE_INTENT) {
-                stateService.setCurrentBlock(sessionId, b.id());
-                nextId = null;
-            } else {
-                nextId = null;
+            messageService.saveUserMessage(sessionId, userText, current.id());
+            if (current.type() == BlockType.DETECT_RESPONSE_INTENT) {
+                CompiledBlock block = current;
+                CompletableFuture<List<String>> replies = resolveNextForIntentAsync(current, userText)
+                        .thenApplyAsync(next -> follow(sessionId, flow, next), executor)
+                        .whenComplete((result, error) -> recordTurn(block, start));
+                continued = true;
+                return replies;
+            }
+            Transition next = current.type() == BlockType.WAIT_FOR_RESPONSE
+                    ? keywordMatcher.resolve(current, userText)
+                    : null;
+            return CompletableFuture.completedFuture(follow(sessionId, flow, next));
+        } finally {
+            if (!continued) {
+                recordTurn(current, start);
             }
         }
-        return out;
+    }
+
+    // Sends the pre-flattened WRITE_MESSAGE chain and moves the session to the block where it stops.
+    private List<String> follow(String sessionId, CompiledFlow flow, Transition transition) {
+        if (transition == null) {
+            return Collections.emptyList();
+        }
+        for (CompiledBlock b : transition.writes()) {
+            messageService.saveBotMessage(sessionId, b.message(), b.id());
+        }
+        if (transition.stop() != null) {
+            stateService.setCurrentBlock(sessionId, flow, transition.stop());
+        }
+        return transition.messages();
     }
 
     // Attempts to determine the user's intent through OpenAI; if unsuccessful, falls back to keywords.
-    private String resolveNextForIntent(Block block, String userText) {
-        if (block == null) {
-            return null;
+    // With the intent cascade enabled, confident keyword or local classifier matches skip the detector.
+    private Transition resolveNextForIntent(CompiledBlock block, String userText) {
+        IntentTarget cheap = cascade.resolveCheap(block, userText);
+        if (cheap != null) {
+            return cheap.target();
+        }
+        List<String> candidates = intentCandidates(block);
+        String intent = null;
+        if (!candidates.isEmpty()) {
+            cascade.recordDetectorCall();
+            try {
+                intent = detectedIntent(intentDetector.detectIntent(userText, candidates), null, userText);
+            } catch (Exception e) {
+                intent = detectedIntent(null, e, userText);
+            }
         }
+        return resolveDetectedIntent(block, userText, intent);
+    }
 
-        // There are two possible representations for DETECT_RESPONSE_INTENT blocks:
-        //  1) The older "routes" representation using Block.on with Route/MatchSpec entries.
-        //  2) The newer "intents" representation using Block.intents and Block.fallback.
+    // Same as resolveNextForIntent, but waits for the detector without blocking a thread.
+    private CompletableFuture<Transition> resolveNextForIntentAsync(CompiledBlock block, String userText) {
+        IntentTarget cheap = cascade.resolveCheap(block, userText);
+        if (cheap != null) {
+            return CompletableFuture.completedFuture(cheap.target());
+        }
+        List<String> candidates = intentCandidates(block);
+        if (candidates.isEmpty()) {
+            return CompletableFuture.completedFuture(resolveDetectedIntent(block, userText, null));
+        }
+        cascade.recordDetectorCall();
+        CompletableFuture<Optional<String>> detection;
+        try {
+            detection = intentDetector.detectIntentAsync(userText, candidates);
+        } catch (Exception e) {
+            detection = CompletableFuture.failedFuture(e);
+        }
+        return detection.handle((detected, error) ->
+                resolveDetectedIntent(block, userText, detectedIntent(detected, error, userText)));
+    }
 
-        // First handle the newer "intents" format if present. If intents are defined
-        // explicitly, they take precedence over the older format. Otherwise, fall
-        // back to processing the routes list.
-        if (block.intents() != null && !block.intents().isEmpty()) {
-            return resolveNextFromIntentOptions(block, userText);
+    // There are two possible representations for DETECT_RESPONSE_INTENT blocks:
+    //  1) The older "routes" representation using Block.on with Route/MatchSpec entries.
+    //  2) The newer "intents" representation using Block.intents and Block.fallback.
+    // If intents are defined explicitly, they take precedence over the older format.
+    private List<String> intentCandidates(CompiledBlock block) {
+        if (block.hasIntentOptions()) {
+            return block.intentNames();
         }
+        return block.hasRoutes() ? block.routeIntents() : List.of();
+    }
 
-        if (block.on() == null) {
+    private String detectedIntent(Optional<String> detected, Throwable error, String userText) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            log.warn("LLM intent detection failed: {}", cause.toString());
+            return null;
+        }
+        if (detected == null || detected.isEmpty()) {
+            log.info("LLM returned no intent for input '{}'", userText);
             return null;
         }
+        return detected.get();
+    }
 
-        List<String> candidateIntents = new ArrayList<>();
-        for (org.chatbot.flow.Route r : block.on()) {
-            var spec = r.match();
-            if (spec != null && spec.type() == org.chatbot.flow.MatchType.INTENT && spec.anyOf() != null) {
-                candidateIntents.addAll(spec.anyOf());
-            }
+    // Picks the next chain once the detector has answered (intent may be null).
+    private Transition resolveDetectedIntent(CompiledBlock block, String userText, String intent) {
+        if (block.hasIntentOptions()) {
+            return resolveNextFromIntentOptions(block, userText, intent);
         }
 
-        String intent = null;
-        if (!candidateIntents.isEmpty()) {
-            try {
-                var detected = intentDetector.detectIntent(userText, candidateIntents);
-                if (detected.isPresent()) {
-                    intent = detected.get();
-                } else {
-                    log.info("LLM returned no intent for input '{}'", userText);
-                }
-            } catch (Exception e) {
-                log.warn("LLM intent detection failed: {}", e.toString());
-                intent = null;
-            }
+        if (!block.hasRoutes()) {
+            return null;
         }
 
         if (intent == null || intent.isBlank()) {
             log.info("Falling back to keyword matcher for user input: '{}'", userText);
-            String keywordNext = keywordMatcher.resolveNext(block, userText);
+            Transition keywordNext = keywordMatcher.resolve(block, userText);
             if (keywordNext != null) {
                 return keywordNext;
             }
         }
 
         if (intent != null && !intent.isBlank()) {
-            for (org.chatbot.flow.Route r : block.on()) {
-                var spec = r.match();
-                if (spec != null && spec.type() == org.chatbot.flow.MatchType.INTENT && spec.anyOf() != null
-                        && spec.anyOf().contains(intent)) {
-                    return r.next();
-                }
+            IntentTarget route = block.routeForIntent(intent);
+            if (route != null) {
+                return route.target();
             }
         }
 
         log.info("No matching route found, using fallback for block '{}'", block.id());
-        return keywordMatcher.resolveNext(block, userText);
+        return keywordMatcher.resolve(block, userText);
     }
 
     // Finds the next block through the list of possible intents or fallback, if there is no match.
-    private String resolveNextFromIntentOptions(Block block, String userText) {
-
-        List<String> intentNames = new ArrayList<>();
-        for (org.chatbot.flow.IntentOption opt : block.intents()) {
-            if (opt != null && opt.name() != null) {
-                intentNames.add(opt.name());
-            }
-        }
-        String detectedIntent = null;
-        if (!intentNames.isEmpty()) {
-            try {
-                var detected = intentDetector.detectIntent(userText, intentNames);
-                if (detected.isPresent()) {
-                    detectedIntent = detected.get();
-                } else {
-                    log.info("LLM returned no intent for input '{}'", userText);
-                }
-            } catch (Exception e) {
-                log.warn("LLM intent detection failed: {}", e.toString());
-                detectedIntent = null;
-            }
-        }
-
+    private Transition resolveNextFromIntentOptions(CompiledBlock block, String userText, String detectedIntent) {
         if (detectedIntent != null && !detectedIntent.isBlank()) {
-            for (org.chatbot.flow.IntentOption opt : block.intents()) {
-                if (opt != null && opt.name() != null && opt.name().equalsIgnoreCase(detectedIntent)) {
-                    return opt.next();
-                }
+            IntentTarget option = block.intentByName(detectedIntent);
+            if (option != null) {
+                cascade.record(IntentCascade.Stage.LLM);
+                return option.target();
             }
         }
 
-        String lower = userText == null ? "" : userText.toLowerCase();
-        for (org.chatbot.flow.IntentOption opt : block.intents()) {
-            if (opt != null && opt.keywords() != null) {
-                for (String kw : opt.keywords()) {
-                    if (kw != null && !kw.isBlank() && lower.contains(kw.toLowerCase())) {
-                        return opt.next();
-                    }
-                }
-            }
+        int option = block.intentKeywords().firstMatch(userText == null ? "" : userText);
+        if (option == KeywordAutomaton.NO_MATCH) {
+            option = block.intentFuzzyKeywords().firstMatch(userText);
         }
-
-        if (block.fallback() != null && !block.fallback().isBlank()) {
-            return block.fallback();
+        if (option != KeywordAutomaton.NO_MATCH) {
+            cascade.record(IntentCascade.Stage.KEYWORD);
+            return block.intentOptions().get(option).target();
         }
 
-        return null;
+        cascade.record(IntentCascade.Stage.FALLBACK);
+        return block.fallback();
     }
 
 }
\ No newline at end of file
@@ -1,24 +1,166 @@
 package org.chatbot.engine;
 
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.configuration.FlowActivatedEvent;
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.CompiledFlow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-// Keeps in memory up to which block (stage) of the conversation each user has reached by sessionId.
+// Keeps track of up to which block (stage) of the conversation each user has reached by sessionId.
+// The positions themselves live in the configured ConversationStateStore (chatbot.state.store=memory|jdbc).
+// A client can send a conversation id in a header of the STOMP CONNECT frame (chatbot.state.conversation-header).
+// Positions are then stored under that id instead of the STOMP session id, so a client that reconnects with the
+// same id, possibly to another node, continues where it left off; they are kept after the disconnect and only
+// removed by the idle (and, with jdbc, row) TTL.
+// Conversation ids are issued by newConversationId: a random part and its HMAC-SHA256 under
+// chatbot.state.conversation-secret. Ids that do not carry a valid signature are ignored, so a client cannot pick
+// another user's id; it can only come back to one it was given. All nodes must share the secret; without one a
+// random secret is used, and ids are only accepted by the node that issued them until it restarts.
 @Service
+@Slf4j
 public class ConversationStateService {
 
-    private final Map<String, String> sessionToBlock = new ConcurrentHashMap<>();
+    // Longer values cannot be a key of the conversation_state table.
+    private static final int MAX_CONVERSATION_ID_LENGTH = 255;
+    private static final String HMAC = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
 
-    public String getCurrentBlock(String sessionId) {
-        return sessionToBlock.get(sessionId);
+    private final ConversationStateStore store;
+    private final String conversationHeader;
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+    // Conversation id sent by each connected session that sent the header.
+    private final Map<String, String> conversations = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ConversationStateService(ConversationStateStore store,
+                                    @Value("${chatbot.state.conversation-header:conversation-id}") String conversationHeader,
+                                    @Value("${chatbot.state.conversation-secret:}") String conversationSecret) {
+        this.store = store;
+        this.conversationHeader = conversationHeader;
+        byte[] secret;
+        if (conversationSecret == null || conversationSecret.isBlank()) {
+            secret = new byte[32];
+            random.nextBytes(secret);
+        } else {
+            secret = conversationSecret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(secret, HMAC);
+    }
+
+    // Block of flow the session is waiting in, or null if it has not started or was stored against another flow.
+    public CompiledBlock getCurrentBlock(String sessionId, CompiledFlow flow) {
+        if (sessionId == null || flow == null) {
+            return null;
+        }
+        return store.get(keyOf(sessionId), flow);
+    }
+
+    public void setCurrentBlock(String sessionId, CompiledFlow flow, CompiledBlock block) {
+        if (sessionId != null && flow != null && block != null) {
+            store.put(keyOf(sessionId), flow, block);
+        }
     }
 
-    public void setCurrentBlock(String sessionId, String blockId) {
-        if (sessionId != null) {
-            sessionToBlock.put(sessionId, blockId);
+    // A new conversation id for a client to send when it connects.
+    public String newConversationId() {
+        byte[] id = new byte[16];
+        random.nextBytes(id);
+        String value = ENCODER.encodeToString(id);
+        return value + "." + sign(value);
+    }
+
+    // Stores the positions of sessionId under conversationId from now on, if the id was issued by newConversationId.
+    public void resume(String sessionId, String conversationId) {
+        if (sessionId == null) {
+            return;
+        }
+        String trimmed = conversationId == null ? "" : conversationId.trim();
+        if (trimmed.isEmpty() || trimmed.length() > MAX_CONVERSATION_ID_LENGTH) {
+            conversations.remove(sessionId);
+            return;
+        }
+        if (!isSigned(trimmed)) {
+            log.warn("Ignoring conversation id without a valid signature from session {}", sessionId);
+            conversations.remove(sessionId);
+            return;
         }
+        conversations.put(sessionId, trimmed);
+        // Another node may have moved the conversation since this node last saw it.
+        store.onResume(trimmed);
     }
 
-}
\ No newline at end of file
+    private boolean isSigned(String conversationId) {
+        int dot = conversationId.indexOf('.');
+        if (dot <= 0) {
+            return false;
+        }
+        byte[] expected = sign(conversationId.substring(0, dot)).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = conversationId.substring(dot + 1).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private String sign(String value) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(key);
+            return ENCODER.encodeToString(mac.doFinal(value.getBytes(StandardCharsets.US_ASCII)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC + " is not available", e);
+        }
+    }
+
+    private String keyOf(String sessionId) {
+        return conversations.getOrDefault(sessionId, sessionId);
+    }
+
+    @EventListener
+    public void onConnect(SessionConnectEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String conversationId = accessor.getFirstNativeHeader(conversationHeader);
+        if (conversationId != null) {
+            resume(accessor.getSessionId(), conversationId);
+        }
+    }
+
+    // Only sessions without a conversation id of their own are dropped: nobody can come back to them.
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        String sessionId = event.getSessionId();
+        if (sessionId != null && conversations.remove(sessionId) == null) {
+            store.onDisconnect(sessionId);
+        }
+    }
+
+    @EventListener
+    public void onFlowActivated(FlowActivatedEvent event) {
+        store.onFlowActivated(event.previous(), event.current());
+    }
+
+    // Drops sessions that have been idle for longer than chatbot.state.idle-ttl-ms.
+    @Scheduled(fixedDelayString = "${chatbot.state.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        store.evictIdle();
+    }
+
+    public ConversationStateStore.Stats stats() {
+        return store.stats();
+    }
+}
@@ -0,0 +1,33 @@
+package org.chatbot.engine;
+
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.CompiledFlow;
+
+// Where ConversationStateService keeps the position of every session in the flow.
+// Keys are STOMP session ids, or the conversation id the client sent when it connected.
+// The default implementation lives in the JVM heap; chatbot.state.store=jdbc shares it between nodes through the database.
+public interface ConversationStateStore {
+
+    // Snapshot of the store counters.
+    record Stats(int sessions, long idleEvictions, long sizeEvictions, long disconnects, long approxBytesPerSession) {}
+
+    // Block of flow the session is waiting in, or null if it has not started (or its block no longer exists).
+    CompiledBlock get(String sessionId, CompiledFlow flow);
+
+    void put(String sessionId, CompiledFlow flow, CompiledBlock block);
+
+    // The WebSocket session of sessionId was closed; it had no conversation id, so it cannot come back.
+    void onDisconnect(String sessionId);
+
+    // A client connected with the conversation id key, which may have been served by another node meanwhile.
+    default void onResume(String key) {
+    }
+
+    // A new flow replaced previous; positions should follow their block ids into current.
+    void onFlowActivated(CompiledFlow previous, CompiledFlow current);
+
+    // Drops sessions that have not been used for longer than the configured idle TTL.
+    void evictIdle();
+
+    Stats stats();
+}
@@ -0,0 +1,223 @@
+package org.chatbot.engine;
+
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.CompiledFlow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Keeps in memory up to which block (stage) of the conversation each user has reached by sessionId.
+// A session is stored as one packed long (flow version + block index of the compiled flow) and its last access time.
+// Sessions are dropped when a WebSocket without a conversation id disconnects, after idle-ttl-ms without activity,
+// and the least recently used ones are evicted once there are more than max-sessions.
+// This is the default store, and also the near-cache in front of the JDBC store.
+@Component
+@ConditionalOnProperty(name = "chatbot.state.store", havingValue = "memory", matchIfMissing = true)
+@Slf4j
+public class InMemoryConversationStateStore implements ConversationStateStore {
+
+    private static final class SessionState {
+        private static final AtomicLongFieldUpdater<SessionState> POSITION =
+                AtomicLongFieldUpdater.newUpdater(SessionState.class, "position");
+
+        volatile long position;
+        volatile long lastAccessNanos;
+
+        SessionState(long position, long now) {
+            this.position = position;
+            this.lastAccessNanos = now;
+        }
+    }
+
+    // Rough per-entry footprint with compressed oops: map node, SessionState, table slot and the id String header.
+    private static final long ENTRY_OVERHEAD_BYTES = 32 + 32 + 8 + 24 + 16;
+
+    private final Map<String, SessionState> sessions = new ConcurrentHashMap<>();
+    private final long idleTtlNanos;
+    private final int maxSessions;
+    private final LongSupplier nanoClock;
+    private final Object evictionLock = new Object();
+
+    private final LongAdder idleEvictions = new LongAdder();
+    private final LongAdder sizeEvictions = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder keyChars = new LongAdder();
+
+    @Autowired
+    public InMemoryConversationStateStore(@Value("${chatbot.state.idle-ttl-ms:1800000}") long idleTtlMillis,
+                                          @Value("${chatbot.state.max-sessions:100000}") int maxSessions) {
+        this(idleTtlMillis, maxSessions, System::nanoTime);
+    }
+
+    InMemoryConversationStateStore(long idleTtlMillis, int maxSessions, LongSupplier nanoClock) {
+        this.idleTtlNanos = TimeUnit.MILLISECONDS.toNanos(idleTtlMillis);
+        this.maxSessions = Math.max(1, maxSessions);
+        this.nanoClock = nanoClock;
+    }
+
+    private static long pack(int flowVersion, int blockIndex) {
+        return ((long) flowVersion << 32) | (blockIndex & 0xFFFFFFFFL);
+    }
+
+    private static int versionOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int indexOf(long position) {
+        return (int) position;
+    }
+
+    // Null as well when the position was stored against another flow.
+    @Override
+    public CompiledBlock get(String sessionId, CompiledFlow flow) {
+        SessionState state = sessionId == null ? null : sessions.get(sessionId);
+        if (state == null || flow == null) {
+            return null;
+        }
+        state.lastAccessNanos = nanoClock.getAsLong();
+        long position = state.position;
+        return versionOf(position) == flow.version() ? flow.block(indexOf(position)) : null;
+    }
+
+    @Override
+    public void put(String sessionId, CompiledFlow flow, CompiledBlock block) {
+        if (sessionId == null || flow == null || block == null) {
+            return;
+        }
+        long position = pack(flow.version(), block.index());
+        long now = nanoClock.getAsLong();
+        SessionState state = sessions.get(sessionId);
+        if (state != null) {
+            state.position = position;
+            state.lastAccessNanos = now;
+            return;
+        }
+        boolean[] added = new boolean[1];
+        sessions.computeIfAbsent(sessionId, id -> {
+            added[0] = true;
+            return new SessionState(position, now);
+        }).position = position;
+        if (added[0]) {
+            keyChars.add(sessionId.length());
+            if (sessions.size() > maxSessions) {
+                evictOverflow();
+            }
+        }
+    }
+
+    public boolean remove(String sessionId) {
+        if (sessionId != null && sessions.remove(sessionId) != null) {
+            keyChars.add(-sessionId.length());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onDisconnect(String sessionId) {
+        if (remove(sessionId)) {
+            disconnects.increment();
+        }
+    }
+
+    // Moves every session of previous to the same block id in the new flow; sessions whose block is gone start over.
+    // Sessions of other flows (see FlowRegistry) are left alone.
+    @Override
+    public void onFlowActivated(CompiledFlow previous, CompiledFlow current) {
+        if (previous == null) {
+            return;
+        }
+        int moved = 0;
+        int dropped = 0;
+        for (Iterator<Map.Entry<String, SessionState>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, SessionState> e = it.next();
+            SessionState state = e.getValue();
+            long position = state.position;
+            if (versionOf(position) != previous.version()) {
+                continue;
+            }
+            CompiledBlock old = previous.block(indexOf(position));
+            CompiledBlock target = old == null || current == null ? null : current.byId(old.id());
+            if (target != null) {
+                // A turn that finished meanwhile already wrote a fresh position; keep it.
+                SessionState.POSITION.compareAndSet(state, position, pack(current.version(), target.index()));
+                moved++;
+            } else {
+                it.remove();
+                keyChars.add(-e.getKey().length());
+                dropped++;
+            }
+        }
+        if (moved + dropped > 0) {
+            log.info("Conversation state remapped after flow change. moved={}, dropped={}", moved, dropped);
+        }
+    }
+
+    @Override
+    public void evictIdle() {
+        if (idleTtlNanos <= 0) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        for (Map.Entry<String, SessionState> e : sessions.entrySet()) {
+            if (now - e.getValue().lastAccessNanos > idleTtlNanos && sessions.remove(e.getKey(), e.getValue())) {
+                keyChars.add(-e.getKey().length());
+                idleEvictions.increment();
+            }
+        }
+    }
+
+    // Evicts the least recently used sessions down to 90% of max-sessions, so the O(n) scan is amortized
+    // over many inserts instead of running on every new session.
+    private void evictOverflow() {
+        synchronized (evictionLock) {
+            int excess = sessions.size() - maxSessions;
+            if (excess <= 0) {
+                return;
+            }
+            int target = Math.min(sessions.size(), excess + maxSessions / 10);
+            long[] times = new long[sessions.size()];
+            int n = 0;
+            for (SessionState state : sessions.values()) {
+                if (n == times.length) {
+                    break;
+                }
+                times[n++] = state.lastAccessNanos;
+            }
+            if (n == 0) {
+                return;
+            }
+            Arrays.sort(times, 0, n);
+            long cutoff = times[Math.min(target, n) - 1];
+            int evicted = 0;
+            for (Map.Entry<String, SessionState> e : sessions.entrySet()) {
+                if (evicted >= target) {
+                    break;
+                }
+                if (e.getValue().lastAccessNanos - cutoff <= 0 && sessions.remove(e.getKey(), e.getValue())) {
+                    keyChars.add(-e.getKey().length());
+                    evicted++;
+                }
+            }
+            sizeEvictions.add(evicted);
+        }
+    }
+
+    @Override
+    public Stats stats() {
+        int size = sessions.size();
+        long bytesPerSession = size == 0 ? 0 : ENTRY_OVERHEAD_BYTES + keyChars.sum() / size;
+        return new Stats(size, idleEvictions.sum(), sizeEvictions.sum(), disconnects.sum(), bytesPerSession);
+    }
+}
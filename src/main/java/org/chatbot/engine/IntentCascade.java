@@ -0,0 +1,105 @@
+package org.chatbot.engine;
+
+import org.chatbot.ai.LocalIntentDetector;
+import org.chatbot.ai.NgramIntentModel;
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.ConfidenceThresholds;
+import org.chatbot.flow.IntentTarget;
+import org.chatbot.flow.KeywordAutomaton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Cheap stages that run before the IntentDetector for DETECT_RESPONSE_INTENT blocks with "intents".
+// With chatbot.intent.cascade.enabled=true a message is first matched against the block's keywords and then
+// scored by the LocalIntentDetector. A stage resolves the turn when its confidence reaches the block's threshold
+// (ConfidenceThresholds, else the global defaults). Only ambiguous or low-confidence messages go on to the
+// IntentDetector, so exact keywords like "refund" never wait for an LLM round trip.
+// Keyword confidence is the share of the message covered by keywords; it is 0 when keywords of two different
+// intents occur, since only the detector can tell which one was meant.
+// The engine records the stage that resolved every such turn, with or without the cascade, so both modes can
+// be compared through stats().
+@Component
+public class IntentCascade {
+
+    public enum Stage {
+        KEYWORD,
+        LOCAL,
+        LLM,
+        FALLBACK
+    }
+
+    // Turns resolved per stage, and how many of them called the IntentDetector.
+    public record Stats(long keyword, long local, long llm, long fallback, long detectorCalls) {}
+
+    private final LocalIntentDetector localIntentDetector;
+    private final boolean enabled;
+    private final double keywordMinConfidence;
+    private final double localMinConfidence;
+    private final Map<Stage, LongAdder> resolved = new EnumMap<>(Stage.class);
+    private final LongAdder detectorCalls = new LongAdder();
+
+    @Autowired
+    public IntentCascade(LocalIntentDetector localIntentDetector,
+                         @Value("${chatbot.intent.cascade.enabled:false}") boolean enabled,
+                         @Value("${chatbot.intent.cascade.keyword-min-confidence:0.6}") double keywordMinConfidence,
+                         @Value("${chatbot.intent.cascade.local-min-confidence:0.6}") double localMinConfidence) {
+        this.localIntentDetector = localIntentDetector;
+        this.enabled = enabled;
+        this.keywordMinConfidence = keywordMinConfidence;
+        this.localMinConfidence = localMinConfidence;
+        for (Stage stage : Stage.values()) {
+            resolved.put(stage, new LongAdder());
+        }
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    // The intent option picked by the keyword or local stage, or null if the message must go to the detector.
+    // A non-null result is already counted.
+    public IntentTarget resolveCheap(CompiledBlock block, String userText) {
+        if (!enabled || !block.hasIntentOptions() || userText == null) {
+            return null;
+        }
+        ConfidenceThresholds thresholds = block.source().confidence();
+        double keywordMin = thresholds != null && thresholds.keyword() != null ? thresholds.keyword() : keywordMinConfidence;
+        double localMin = thresholds != null && thresholds.local() != null ? thresholds.local() : localMinConfidence;
+
+        KeywordAutomaton.Scan scan = block.intentKeywords().scan(userText);
+        if (scan.group() != KeywordAutomaton.NO_MATCH && !scan.ambiguous() && scan.coverage() >= keywordMin) {
+            record(Stage.KEYWORD);
+            return block.intentOptions().get(scan.group());
+        }
+
+        if (localIntentDetector != null) {
+            NgramIntentModel.Prediction prediction = localIntentDetector.predict(userText, block);
+            if (prediction != null && prediction.score() >= localMin) {
+                IntentTarget option = block.intentByName(prediction.name());
+                if (option != null) {
+                    record(Stage.LOCAL);
+                    return option;
+                }
+            }
+        }
+        return null;
+    }
+
+    public void record(Stage stage) {
+        resolved.get(stage).increment();
+    }
+
+    public void recordDetectorCall() {
+        detectorCalls.increment();
+    }
+
+    public Stats stats() {
+        return new Stats(resolved.get(Stage.KEYWORD).sum(), resolved.get(Stage.LOCAL).sum(),
+                resolved.get(Stage.LLM).sum(), resolved.get(Stage.FALLBACK).sum(), detectorCalls.sum());
+    }
+}
@@ -1,9 +1,8 @@
 package org.chatbot.engine;
 
-import org.chatbot.flow.Block;
-import org.chatbot.flow.MatchSpec;
-import org.chatbot.flow.MatchType;
-import org.chatbot.flow.Route;
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.KeywordAutomaton;
+import org.chatbot.flow.Transition;
 import org.springframework.stereotype.Component;
 
 
@@ -11,36 +10,23 @@ import org.springframework.stereotype.Component;
 @Component
 public class KeywordMatcher {
 
-    public String resolveNext(Block block, String userText) {
-        if (block == null || block.on() == null) {
+    // Returns the chain of the first matching KEYWORD route, else the first FALLBACK route, else null.
+    // When the flow was compiled with a fuzzy distance, misspelled keywords are tried before the fallback.
+    public Transition resolve(CompiledBlock block, String userText) {
+        if (block == null || !block.hasRoutes()) {
             return null;
         }
-        String text = userText == null ? "" : userText.toLowerCase();
-        // First evaluate KEYWORD and INTENT routes in order of definition.
-        for (Route r : block.on()) {
-            MatchSpec spec = r.match();
-            if (spec == null) {
-                continue;
-            }
-            MatchType type = spec.type();
-            if (type == MatchType.KEYWORD && spec.anyOf() != null) {
-                for (String keyword : spec.anyOf()) {
-                    if (keyword != null && text.contains(keyword.toLowerCase())) {
-                        return r.next();
-                    }
-                }
-            }
-            // INTENT matching is intentionally left unimplemented. A real implementation
-            // would call an external service to detect the intent and compare it with
-            // spec.getAnyOf(). For now we skip these routes.
+        // One pass of the block's keyword automaton; the lowest matching route index wins.
+        // INTENT routes are not handled here, the engine resolves them through the IntentDetector.
+        int route = block.routeKeywords().firstMatch(userText == null ? "" : userText);
+        if (route != KeywordAutomaton.NO_MATCH) {
+            return block.keywordRoutes().get(route).target();
         }
-        // If no keyword match was found, fall back to any FALLBACK route.
-        for (Route r : block.on()) {
-            MatchSpec spec = r.match();
-            if (spec != null && spec.type() == MatchType.FALLBACK) {
-                return r.next();
-            }
+        route = block.routeFuzzyKeywords().firstMatch(userText);
+        if (route != KeywordAutomaton.NO_MATCH) {
+            return block.keywordRoutes().get(route).target();
         }
-        return null;
+        // If no keyword match was found, fall back to any FALLBACK route.
+        return block.routeFallback();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package org.chatbot.engine;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Per-session mailbox for asynchronous turns.
+// A turn of a session only starts once the previous turn of the same session has completed, so the engine never
+// reads and writes the state of one session from two turns at the same time. Waiting turns are just callbacks
+// on the previous turn's future: no thread is blocked while a turn waits for its predecessor or for I/O, and
+// turns of different sessions run concurrently on the engine executor.
+@Component
+public class SessionSequencer {
+
+    private static final class Lane {
+        CompletableFuture<?> tail;
+        int pending;
+    }
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final int maxPendingPerSession;
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public SessionSequencer(@Value("${chatbot.engine.max-pending-per-session:100}") int maxPendingPerSession) {
+        this.maxPendingPerSession = Math.max(1, maxPendingPerSession);
+    }
+
+    // Starts turn once every earlier turn of sessionId has completed (successfully or not).
+    // Fails with RejectedExecutionException if the session already has max-pending-per-session turns queued.
+    public <T> CompletableFuture<T> submit(String sessionId, Supplier<CompletableFuture<T>> turn) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<?>[] previous = new CompletableFuture<?>[1];
+        boolean[] full = new boolean[1];
+        lanes.compute(sessionId, (id, lane) -> {
+            if (lane == null) {
+                lane = new Lane();
+            } else if (lane.pending >= maxPendingPerSession) {
+                full[0] = true;
+                return lane;
+            }
+            previous[0] = lane.tail;
+            lane.tail = result;
+            lane.pending++;
+            return lane;
+        });
+        if (full[0]) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Too many pending messages for session " + sessionId));
+        }
+        result.whenComplete((value, error) -> release(sessionId));
+        if (previous[0] == null) {
+            run(turn, result);
+        } else {
+            previous[0].whenComplete((value, error) -> run(turn, result));
+        }
+        return result;
+    }
+
+    private static <T> void run(Supplier<CompletableFuture<T>> turn, CompletableFuture<T> result) {
+        try {
+            turn.get().whenComplete((value, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    // Turns complete in submission order, so when the count drops to zero the last turn is done.
+    private void release(String sessionId) {
+        lanes.computeIfPresent(sessionId, (id, lane) -> --lane.pending == 0 ? null : lane);
+    }
+
+    // Number of sessions with at least one turn running or waiting.
+    public int activeSessions() {
+        return lanes.size();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+}
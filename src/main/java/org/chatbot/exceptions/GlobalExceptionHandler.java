@@ -1,5 +1,6 @@
 package org.chatbot.exceptions;
 
+import org.chatbot.flow.FlowValidationException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -9,6 +10,17 @@ import java.util.Map;
 @ControllerAdvice
 public class GlobalExceptionHandler {
 
+    // A rejected flow upload: the full analyzer report, so every problem can be fixed in one go.
+    @ExceptionHandler(FlowValidationException.class)
+    public ResponseEntity<?> handleFlowValidation(FlowValidationException e) {
+        return ResponseEntity.badRequest().body(Map.of(
+                "status", "error",
+                "message", e.getMessage(),
+                "errors", e.report().errors(),
+                "warnings", e.report().warnings()
+        ));
+    }
+
     // General handler for all errors in the application.
     @ExceptionHandler(Exception.class)
     public ResponseEntity<?> handleException(Exception e) {
@@ -6,7 +6,7 @@ import lombok.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "files")
+@Table(name = "files", indexes = @Index(name = "idx_files_name", columnList = "name"))
 @Builder
 @Getter
 @Setter
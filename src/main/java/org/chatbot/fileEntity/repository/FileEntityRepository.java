@@ -2,6 +2,7 @@ package org.chatbot.fileEntity.repository;
 
 import org.chatbot.fileEntity.model.FileEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -9,4 +10,14 @@ import java.util.Optional;
 @Repository
 public interface FileEntityRepository extends JpaRepository<FileEntity, Long> {
     Optional<FileEntity> findByActiveTrue();
+
+    @Query("select f.id from FileEntity f where f.active = true")
+    Optional<Long> findActiveId();
+
+    @Query("select f.name from FileEntity f where f.active = true")
+    Optional<String> findActiveName();
+
+    Optional<FileEntity> findFirstByNameOrderByIdDesc(String name);
+
+    boolean existsByName(String name);
 }
@@ -0,0 +1,128 @@
+package org.chatbot.fileEntity.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPOutputStream;
+
+// The active configuration file as GET /api/config serves it: its bytes, a gzip copy and an ETag, built once per
+// upload instead of reading and encoding the LONGTEXT column on every request.
+// The first request loads the active file from the database; an upload replaces the whole Document in one
+// atomic swap, so readers see either the old file or the new one, never a mix. A load that raced with an
+// upload never overwrites the uploaded document.
+// Uploads to other nodes are noticed by a freshness check: once refresh-ms have passed since the last one, a
+// single request compares the id of the active file in the database with the cached one and reloads the file
+// if it changed. Requests arriving while it checks are served the cached document.
+@Component
+public class ActiveConfigCache {
+
+    // etag is a strong validator of the JSON bytes; the gzip variant gets its own one, as its bytes differ.
+    public record Document(byte[] json, byte[] gzip, String etag, String gzipEtag) {
+
+        public static final Document NONE = new Document(null, null, null, null);
+
+        public boolean exists() {
+            return json != null;
+        }
+    }
+
+    public record Stats(long loads, long updates) {}
+
+    // fileId is null while there is no active file; checkedNanos is when it was last compared with the database.
+    private record Entry(Document document, Long fileId, long checkedNanos) {}
+
+    private final FileEntityService fileEntityService;
+    private final long refreshNanos;
+    private final LongSupplier nanoClock;
+    // null until the first request or upload.
+    private final AtomicReference<Entry> current = new AtomicReference<>();
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+    @Autowired
+    public ActiveConfigCache(FileEntityService fileEntityService,
+                             @Value("${chatbot.config.cache.refresh-ms:5000}") long refreshMillis) {
+        this(fileEntityService, refreshMillis, System::nanoTime);
+    }
+
+    ActiveConfigCache(FileEntityService fileEntityService, long refreshMillis, LongSupplier nanoClock) {
+        this.fileEntityService = fileEntityService;
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, refreshMillis));
+        this.nanoClock = nanoClock;
+    }
+
+    // Document.NONE while there is no active file.
+    public Document get() {
+        Entry entry = current.get();
+        long now = nanoClock.getAsLong();
+        if (entry != null) {
+            if (now - entry.checkedNanos() < refreshNanos) {
+                return entry.document();
+            }
+            // Claim the check, so only one request per interval queries the database.
+            Entry claimed = new Entry(entry.document(), entry.fileId(), now);
+            if (!current.compareAndSet(entry, claimed)) {
+                return current.get().document();
+            }
+            if (Objects.equals(fileEntityService.getActiveId().orElse(null), entry.fileId())) {
+                return entry.document();
+            }
+            entry = claimed;
+        }
+        loads.increment();
+        // The id is read first: if a file is activated in between, the id is older than the json, and the next
+        // check reloads it once more.
+        Long fileId = fileEntityService.getActiveId().orElse(null);
+        Entry loaded = fileEntityService.getActiveJson()
+                .map(json -> new Entry(of(json.getBytes(StandardCharsets.UTF_8)), fileId, now))
+                .orElseGet(() -> new Entry(Document.NONE, null, now));
+        return current.compareAndSet(entry, loaded) ? loaded.document() : current.get().document();
+    }
+
+    // Called after a new active file has been saved.
+    public void update(Long fileId, byte[] json) {
+        current.set(new Entry(of(json), fileId, nanoClock.getAsLong()));
+        updates.increment();
+    }
+
+    public static Document of(byte[] json) {
+        String hash = HexFormat.of().formatHex(sha256(json), 0, 16);
+        return new Document(json, gzip(json), "\"" + hash + "\"", "\"" + hash + "-gzip\"");
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public Stats stats() {
+        return new Stats(loads.sum(), updates.sum());
+    }
+}
@@ -1,6 +1,5 @@
 package org.chatbot.fileEntity.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import jakarta.transaction.Transactional;
 import org.chatbot.fileEntity.model.FileEntity;
 import org.chatbot.fileEntity.repository.FileEntityRepository;
@@ -21,22 +20,52 @@ public class FileEntityService {
     }
 
     @Transactional
-    public FileEntity saveMessage(JsonNode config, String name) {
-        fileEntityRepository.findByActiveTrue()
-                .ifPresent(prev -> prev.setActive(false));
+    public FileEntity saveMessage(String json, String name) {
+        return saveMessage(json, name, true);
+    }
+
+    // Stores the uploaded document as is, without re-serializing it.
+    // With active=false the file is only available by name (FlowRegistry) and the active one stays as it is.
+    @Transactional
+    public FileEntity saveMessage(String json, String name, boolean active) {
+        if (active) {
+            fileEntityRepository.findByActiveTrue()
+                    .ifPresent(prev -> prev.setActive(false));
+        }
 
         FileEntity fileEntity = FileEntity.builder()
                 .name(name)
-                .active(true)
-                .json(config.toString())
+                .active(active)
+                .json(json)
                 .createdAt(Instant.now())
                 .build();
 
         return fileEntityRepository.save(fileEntity);
     }
 
+    // Newest file uploaded under name, active or not.
+    public Optional<String> getLatestJson(String name) {
+        return fileEntityRepository.findFirstByNameOrderByIdDesc(name)
+                .map(FileEntity::getJson);
+    }
+
+    // Whether any file was uploaded under name, without reading it.
+    public boolean exists(String name) {
+        return fileEntityRepository.existsByName(name);
+    }
+
     public Optional<String> getActiveJson() {
         return fileEntityRepository.findByActiveTrue()
                 .map(FileEntity::getJson);
     }
+
+    // meta.name of the active file, without reading its LONGTEXT column.
+    public Optional<String> getActiveName() {
+        return fileEntityRepository.findActiveName();
+    }
+
+    // Id of the active file without reading its LONGTEXT column, to tell whether a cached copy is still current.
+    public Optional<Long> getActiveId() {
+        return fileEntityRepository.findActiveId();
+    }
 }
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.util.List;
 
 // A block from the JSON file
+// confidence optionally overrides the intent cascade thresholds of a DETECT_RESPONSE_INTENT block.
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record Block(
         String id,
@@ -12,5 +13,11 @@ public record Block(
         String next,
         List<Route> on,
         List<IntentOption> intents,
-        String fallback
-) {}
+        String fallback,
+        ConfidenceThresholds confidence
+) {
+    public Block(String id, BlockType type, String message, String next, List<Route> on,
+                 List<IntentOption> intents, String fallback) {
+        this(id, type, message, next, on, intents, fallback, null);
+    }
+}
@@ -0,0 +1,145 @@
+package org.chatbot.flow;
+
+import java.util.List;
+import java.util.Map;
+
+// Runtime form of a Block inside a CompiledFlow.
+// All references to other blocks are already resolved, so the engine never looks blocks up by id.
+// Instances are filled in by FlowCompiler and must not be changed once the flow has been published.
+public final class CompiledBlock {
+
+    private final int index;
+    private final Block source;
+
+    // Chain of messages sent when the conversation enters this block.
+    Transition entry = Transition.EMPTY;
+    // Direct reference to the block in "next", null if missing or unknown.
+    CompiledBlock next;
+
+    // Older "on" representation: KEYWORD routes in definition order, the first FALLBACK route
+    // and the INTENT routes (exact intent name -> first route that lists it).
+    boolean hasRoutes;
+    List<KeywordRoute> keywordRoutes = List.of();
+    KeywordAutomaton routeKeywords = KeywordAutomaton.EMPTY;
+    FuzzyKeywordIndex routeFuzzyKeywords = FuzzyKeywordIndex.EMPTY;
+    Transition routeFallback;
+    List<String> routeIntents = List.of();
+    Map<String, IntentTarget> routeIntentTargets = Map.of();
+
+    // Newer "intents" representation: options in definition order, lowercased name -> first option and fallback.
+    List<IntentTarget> intentOptions = List.of();
+    List<String> intentNames = List.of();
+    Map<String, IntentTarget> intentsByName = Map.of();
+    KeywordAutomaton intentKeywords = KeywordAutomaton.EMPTY;
+    FuzzyKeywordIndex intentFuzzyKeywords = FuzzyKeywordIndex.EMPTY;
+    Transition fallback;
+
+    // Every distinct chain that can follow a user message in this block.
+    List<Transition> outgoing = List.of();
+
+    CompiledBlock(int index, Block source) {
+        this.index = index;
+        this.source = source;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    public Block source() {
+        return source;
+    }
+
+    public String id() {
+        return source.id();
+    }
+
+    public BlockType type() {
+        return source.type();
+    }
+
+    public String message() {
+        return source.message();
+    }
+
+    public CompiledBlock next() {
+        return next;
+    }
+
+    public Transition entry() {
+        return entry;
+    }
+
+    public boolean isWaitPoint() {
+        return type() == BlockType.WAIT_FOR_RESPONSE || type() == BlockType.DETECT_RESPONSE_INTENT;
+    }
+
+    public boolean hasRoutes() {
+        return hasRoutes;
+    }
+
+    public List<KeywordRoute> keywordRoutes() {
+        return keywordRoutes;
+    }
+
+    // Keywords of all KEYWORD routes, grouped by index in keywordRoutes().
+    public KeywordAutomaton routeKeywords() {
+        return routeKeywords;
+    }
+
+    // Typo-tolerant index of the same keywords; empty unless the flow was compiled with a fuzzy distance.
+    public FuzzyKeywordIndex routeFuzzyKeywords() {
+        return routeFuzzyKeywords;
+    }
+
+    public Transition routeFallback() {
+        return routeFallback;
+    }
+
+    public List<String> routeIntents() {
+        return routeIntents;
+    }
+
+    public IntentTarget routeForIntent(String intent) {
+        return intent == null ? null : routeIntentTargets.get(intent);
+    }
+
+    public boolean hasIntentOptions() {
+        return source.intents() != null && !source.intents().isEmpty();
+    }
+
+    public List<IntentTarget> intentOptions() {
+        return intentOptions;
+    }
+
+    // Keywords of all intent options, grouped by index in intentOptions().
+    public KeywordAutomaton intentKeywords() {
+        return intentKeywords;
+    }
+
+    // Typo-tolerant index of the same keywords; empty unless the flow was compiled with a fuzzy distance.
+    public FuzzyKeywordIndex intentFuzzyKeywords() {
+        return intentFuzzyKeywords;
+    }
+
+    public List<String> intentNames() {
+        return intentNames;
+    }
+
+    public IntentTarget intentByName(String name) {
+        return name == null ? null : intentsByName.get(name.toLowerCase());
+    }
+
+    public Transition fallback() {
+        return fallback;
+    }
+
+    public List<Transition> outgoing() {
+        return outgoing;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledBlock[" + index + ":" + id() + "]";
+    }
+}
@@ -0,0 +1,49 @@
+package org.chatbot.flow;
+
+import java.util.Map;
+
+// Immutable, index-addressed runtime graph built from a Flow by FlowCompiler.
+// Blocks get dense int indexes in the order they appear in the JSON file.
+public final class CompiledFlow {
+
+    private final int version;
+    private final Flow source;
+    private final CompiledBlock[] blocks;
+    private final Map<String, CompiledBlock> byId;
+    private final Transition start;
+
+    CompiledFlow(int version, Flow source, CompiledBlock[] blocks, Map<String, CompiledBlock> byId, Transition start) {
+        this.version = version;
+        this.source = source;
+        this.blocks = blocks;
+        this.byId = byId;
+        this.start = start;
+    }
+
+    // Unique per compilation, so a block index can be stored together with the flow it belongs to.
+    public int version() {
+        return version;
+    }
+
+    public Flow source() {
+        return source;
+    }
+
+    public int size() {
+        return blocks.length;
+    }
+
+    public CompiledBlock block(int index) {
+        return index >= 0 && index < blocks.length ? blocks[index] : null;
+    }
+
+    // Hash lookup by block id; only needed at the edges (restoring state, tooling), never while walking the graph.
+    public CompiledBlock byId(String id) {
+        return id == null ? null : byId.get(id);
+    }
+
+    // Chain sent when a new conversation starts.
+    public Transition start() {
+        return start;
+    }
+}
@@ -0,0 +1,13 @@
+package org.chatbot.flow;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// Per-block minimum confidence for the cheap stages of the intent cascade, each in [0, 1].
+// keyword: share of the message covered by the keywords of a single intent.
+// local: score of the local classifier.
+// A missing value uses the global chatbot.intent.cascade.* default; a value above 1 disables that stage.
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ConfidenceThresholds(
+        Double keyword,
+        Double local
+) {}
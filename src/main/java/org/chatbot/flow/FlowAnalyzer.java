@@ -0,0 +1,190 @@
+package org.chatbot.flow;
+
+import org.chatbot.flow.FlowReport.Code;
+import org.chatbot.flow.FlowReport.Issue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+// Static checks run on every flow before it is compiled and activated.
+// Errors: missing or unknown start block, blocks without id or type, duplicate ids, references to unknown blocks,
+// WRITE_MESSAGE cycles that never reach a wait point and WRITE_MESSAGE chains that send more than maxHops messages
+// in one turn. Warnings: blocks that cannot be reached from the start block.
+// Every pass visits each block and each reference a constant number of times, so the analysis is linear in the
+// size of the flow, and no pass recurses, so deep chains cannot overflow the stack.
+public final class FlowAnalyzer {
+
+    // Ids listed in the detail of a WRITE_CYCLE issue.
+    private static final int MAX_CYCLE_IDS = 10;
+
+    private FlowAnalyzer() {
+    }
+
+    public static FlowReport analyze(Flow flow, int maxHops) {
+        List<Block> blocks = flow.getBlocks() == null ? List.of() : flow.getBlocks();
+        List<Issue> errors = new ArrayList<>();
+        List<Issue> warnings = new ArrayList<>();
+
+        // Same rule as FlowCompiler: the first block with a given id wins.
+        Map<String, Integer> byId = new HashMap<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            Block b = blocks.get(i);
+            if (b == null || b.id() == null || b.id().isBlank()) {
+                errors.add(new Issue(Code.MISSING_ID, null, "blocks[" + i + "]", "block " + i + " has no id"));
+                continue;
+            }
+            if (byId.putIfAbsent(b.id(), i) != null) {
+                errors.add(new Issue(Code.DUPLICATE_ID, b.id(), "id", "block " + i + " reuses the id of block " + byId.get(b.id())));
+            }
+            if (b.type() == null) {
+                errors.add(new Issue(Code.MISSING_TYPE, b.id(), "type", "block has no type"));
+            }
+        }
+
+        Integer start = null;
+        String startId = flow.getStartBlockId();
+        if (startId == null || startId.isBlank()) {
+            errors.add(new Issue(Code.MISSING_START, null, "startBlockId", "flow has no start block"));
+        } else if ((start = byId.get(startId)) == null) {
+            errors.add(new Issue(Code.UNKNOWN_START, null, "startBlockId", "unknown block '" + startId + "'"));
+        }
+
+        for (Block b : blocks) {
+            if (b != null) {
+                forEachReference(b, (field, target) -> {
+                    if (!byId.containsKey(target)) {
+                        errors.add(new Issue(Code.UNRESOLVED_REFERENCE, b.id(), field, "unknown block '" + target + "'"));
+                    }
+                });
+            }
+        }
+
+        checkWriteChains(blocks, byId, maxHops, errors);
+        if (start != null) {
+            checkReachable(blocks, byId, start, warnings);
+        }
+        return new FlowReport(List.copyOf(errors), List.copyOf(warnings));
+    }
+
+    // Reports the blocks the engine can move to from b, as (JSON field, block id).
+    // A WRITE_MESSAGE block continues with "next"; a wait point with its route targets, intent targets and fallback.
+    private static void forEachReference(Block b, BiConsumer<String, String> action) {
+        if (b.type() == BlockType.WRITE_MESSAGE) {
+            if (b.next() != null) {
+                action.accept("next", b.next());
+            }
+            return;
+        }
+        if (b.type() == null) {
+            return;
+        }
+        if (b.on() != null) {
+            for (int i = 0; i < b.on().size(); i++) {
+                Route r = b.on().get(i);
+                if (r != null && r.next() != null) {
+                    action.accept("on[" + i + "].next", r.next());
+                }
+            }
+        }
+        if (b.intents() != null) {
+            for (int i = 0; i < b.intents().size(); i++) {
+                IntentOption opt = b.intents().get(i);
+                if (opt != null && opt.next() != null) {
+                    action.accept("intents[" + i + "].next", opt.next());
+                }
+            }
+        }
+        // The compiler ignores a blank fallback.
+        if (b.fallback() != null && !b.fallback().isBlank()) {
+            action.accept("fallback", b.fallback());
+        }
+    }
+
+    // Follows the "next" pointers between WRITE_MESSAGE blocks, the chains the engine sends in a single turn.
+    // Like FlowCompiler.linkEntries every block is walked once: a walk stops at a block whose message count is
+    // already known and the counts are filled in back to front. A walk that comes back to its own path is a cycle.
+    private static void checkWriteChains(List<Block> blocks, Map<String, Integer> byId, int maxHops, List<Issue> errors) {
+        final byte fresh = 0, onPath = 1, done = 2;
+        byte[] state = new byte[blocks.size()];
+        int[] messages = new int[blocks.size()];
+        List<Integer> path = new ArrayList<>();
+        for (int first = 0; first < blocks.size(); first++) {
+            if (state[first] != fresh || !isWrite(blocks.get(first))) {
+                continue;
+            }
+            path.clear();
+            int tail = 0;
+            Integer i = first;
+            while (true) {
+                if (i == null || !isWrite(blocks.get(i))) {
+                    break;
+                }
+                if (state[i] == done) {
+                    tail = messages[i];
+                    break;
+                }
+                if (state[i] == onPath) {
+                    errors.add(cycle(blocks, path, path.indexOf(i)));
+                    break;
+                }
+                state[i] = onPath;
+                path.add(i);
+                i = byId.get(blocks.get(i).next());
+            }
+            for (int p = path.size() - 1; p >= 0; p--) {
+                Block b = blocks.get(path.get(p));
+                int count = tail + (b.message() != null ? 1 : 0);
+                // Only the block where the limit is first crossed is reported, not every block before it.
+                if (count > maxHops && tail <= maxHops) {
+                    errors.add(new Issue(Code.CHAIN_TOO_LONG, b.id(), "next",
+                            "chain sends " + count + " messages in one turn, at most " + maxHops + " are allowed"));
+                }
+                messages[path.get(p)] = count;
+                state[path.get(p)] = done;
+                tail = count;
+            }
+        }
+    }
+
+    private static Issue cycle(List<Block> blocks, List<Integer> path, int from) {
+        StringBuilder ids = new StringBuilder();
+        for (int p = from; p < path.size() && p < from + MAX_CYCLE_IDS; p++) {
+            ids.append(blocks.get(path.get(p)).id()).append(" -> ");
+        }
+        ids.append(path.size() - from > MAX_CYCLE_IDS ? "..." : blocks.get(path.get(from)).id());
+        return new Issue(Code.WRITE_CYCLE, blocks.get(path.get(from)).id(), "next",
+                "WRITE_MESSAGE blocks loop without a wait point: " + ids);
+    }
+
+    // Breadth-first search from the start block over the same references the engine follows.
+    private static void checkReachable(List<Block> blocks, Map<String, Integer> byId, int start, List<Issue> warnings) {
+        boolean[] reached = new boolean[blocks.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        reached[start] = true;
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            forEachReference(blocks.get(queue.poll()), (field, target) -> {
+                Integer t = byId.get(target);
+                if (t != null && !reached[t]) {
+                    reached[t] = true;
+                    queue.add(t);
+                }
+            });
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            Block b = blocks.get(i);
+            // Blocks without an id or with a duplicate id are already errors.
+            if (!reached[i] && b != null && b.id() != null && Integer.valueOf(i).equals(byId.get(b.id()))) {
+                warnings.add(new Issue(Code.UNREACHABLE, b.id(), null, "no path from the start block leads here"));
+            }
+        }
+    }
+
+    private static boolean isWrite(Block b) {
+        return b != null && b.type() == BlockType.WRITE_MESSAGE;
+    }
+}
@@ -0,0 +1,260 @@
+package org.chatbot.flow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Turns a Flow loaded from JSON into a CompiledFlow.
+// Block ids are resolved once here, so walking the conversation at runtime needs no string lookups.
+@Slf4j
+public final class FlowCompiler {
+
+    // Default for the most WRITE_MESSAGE messages a single turn may send.
+    public static final int DEFAULT_MAX_HOPS = 100;
+
+    private static final AtomicInteger VERSIONS = new AtomicInteger();
+
+    private FlowCompiler() {
+    }
+
+    public static CompiledFlow compile(Flow flow) {
+        return compile(flow, 0);
+    }
+
+    public static CompiledFlow compile(Flow flow, int fuzzyMaxDistance) {
+        return compile(flow, fuzzyMaxDistance, DEFAULT_MAX_HOPS);
+    }
+
+    // fuzzyMaxDistance > 0 also builds a FuzzyKeywordIndex for the keywords of every wait block.
+    // maxHops caps the messages of every flattened chain, so no turn sends more than that whatever the flow;
+    // FlowAnalyzer rejects such flows up front, this is the safety net for flows compiled without it.
+    public static CompiledFlow compile(Flow flow, int fuzzyMaxDistance, int maxHops) {
+        List<Block> source = flow.getBlocks() == null ? List.of() : flow.getBlocks();
+        CompiledBlock[] blocks = new CompiledBlock[source.size()];
+        Map<String, CompiledBlock> byId = new HashMap<>();
+        for (int i = 0; i < blocks.length; i++) {
+            Block b = source.get(i);
+            blocks[i] = new CompiledBlock(i, b);
+            // Same rule as Flow.byId: the first block with a given id wins.
+            if (b.id() != null) {
+                byId.putIfAbsent(b.id(), blocks[i]);
+            }
+        }
+        for (CompiledBlock b : blocks) {
+            b.next = byId.get(b.source().next());
+        }
+        linkEntries(blocks, Math.max(1, maxHops));
+        for (CompiledBlock b : blocks) {
+            if (b.isWaitPoint()) {
+                compileRoutes(b, byId, fuzzyMaxDistance);
+                compileIntents(b, byId, fuzzyMaxDistance);
+                collectOutgoing(b);
+            }
+        }
+        return new CompiledFlow(VERSIONS.incrementAndGet(), flow, blocks, byId, resolve(flow.getStartBlockId(), byId, Transition.EMPTY));
+    }
+
+    // Flattens every WRITE_MESSAGE chain once. Blocks are walked along next until a block that is already done
+    // (or not a WRITE_MESSAGE); the chain of the first block on that path, i.e. the messages of the path followed
+    // by the chain it ran into, is then copied once into one array, and every block on the path gets a window of
+    // it. So each block is visited once and each path copies at most maxHops messages of the chain it joins.
+    // A chain longer than maxHops messages is cut after maxHops and then stops nowhere, like a chain that ends.
+    private static void linkEntries(CompiledBlock[] blocks, int maxHops) {
+        int truncated = 0;
+        final byte fresh = 0, onPath = 1, done = 2;
+        byte[] state = new byte[blocks.length];
+        List<CompiledBlock> path = new ArrayList<>();
+        for (CompiledBlock first : blocks) {
+            if (state[first.index()] != fresh) {
+                continue;
+            }
+            path.clear();
+            Transition tail;
+            CompiledBlock b = first;
+            while (true) {
+                if (b == null) {
+                    tail = Transition.EMPTY;
+                    break;
+                }
+                if (state[b.index()] == done) {
+                    tail = b.entry;
+                    break;
+                }
+                if (state[b.index()] == onPath) {
+                    log.warn("WRITE_MESSAGE cycle detected at block '{}', chain is cut there", b.id());
+                    tail = Transition.EMPTY;
+                    break;
+                }
+                if (b.type() != BlockType.WRITE_MESSAGE) {
+                    b.entry = b.isWaitPoint() ? new Transition(List.of(), Replies.EMPTY, b) : Transition.EMPTY;
+                    state[b.index()] = done;
+                    tail = b.entry;
+                    break;
+                }
+                state[b.index()] = onPath;
+                path.add(b);
+                b = b.next;
+            }
+            List<CompiledBlock> writes = new ArrayList<>(path.size() + tail.writes().size());
+            List<String> texts = new ArrayList<>(path.size());
+            for (CompiledBlock p : path) {
+                if (p.message() != null) {
+                    writes.add(p);
+                    texts.add(p.message());
+                }
+            }
+            writes.addAll(tail.writes());
+            List<CompiledBlock> chainWrites = List.copyOf(writes);
+            Replies chainMessages = Replies.concat(texts, tail.messages());
+            int from = texts.size();
+            Transition entry = tail;
+            for (int i = path.size() - 1; i >= 0; i--) {
+                CompiledBlock p = path.get(i);
+                if (p.message() != null) {
+                    from--;
+                    int to = chainWrites.size();
+                    CompiledBlock stop = tail.stop();
+                    if (to - from > maxHops) {
+                        to = from + maxHops;
+                        stop = null;
+                        truncated++;
+                    }
+                    entry = new Transition(chainWrites.subList(from, to), chainMessages.slice(from, to), stop);
+                }
+                p.entry = entry;
+                state[p.index()] = done;
+            }
+        }
+        if (truncated > 0) {
+            log.warn("{} WRITE_MESSAGE chains are longer than {} messages and were cut", truncated, maxHops);
+        }
+    }
+
+    private static void compileRoutes(CompiledBlock b, Map<String, CompiledBlock> byId, int fuzzyMaxDistance) {
+        List<Route> on = b.source().on();
+        if (on == null) {
+            return;
+        }
+        b.hasRoutes = true;
+        List<KeywordRoute> keywordRoutes = new ArrayList<>();
+        List<String> routeIntents = new ArrayList<>();
+        Map<String, IntentTarget> routeIntentTargets = new HashMap<>();
+        KeywordAutomaton.Builder automaton = KeywordAutomaton.builder();
+        FuzzyKeywordIndex.Builder fuzzy = FuzzyKeywordIndex.builder(fuzzyMaxDistance);
+        for (Route r : on) {
+            MatchSpec spec = r.match();
+            if (spec == null) {
+                continue;
+            }
+            if (spec.type() == MatchType.KEYWORD && spec.anyOf() != null) {
+                List<String> keywords = new ArrayList<>();
+                for (String kw : spec.anyOf()) {
+                    if (kw != null) {
+                        keywords.add(kw.toLowerCase());
+                        automaton.add(kw.toLowerCase(), keywordRoutes.size());
+                        fuzzy.add(kw, keywordRoutes.size());
+                    }
+                }
+                keywordRoutes.add(new KeywordRoute(List.copyOf(keywords), resolve(r.next(), byId, null)));
+            } else if (spec.type() == MatchType.INTENT && spec.anyOf() != null) {
+                routeIntents.addAll(spec.anyOf());
+                for (String intent : spec.anyOf()) {
+                    if (intent != null) {
+                        routeIntentTargets.putIfAbsent(intent, new IntentTarget(intent, List.of(), resolve(r.next(), byId, null)));
+                    }
+                }
+            } else if (spec.type() == MatchType.FALLBACK && b.routeFallback == null) {
+                b.routeFallback = resolve(r.next(), byId, null);
+            }
+        }
+        b.keywordRoutes = List.copyOf(keywordRoutes);
+        b.routeKeywords = automaton.build();
+        b.routeFuzzyKeywords = fuzzy.build();
+        b.routeIntents = Collections.unmodifiableList(routeIntents);
+        b.routeIntentTargets = Map.copyOf(routeIntentTargets);
+    }
+
+    private static void compileIntents(CompiledBlock b, Map<String, CompiledBlock> byId, int fuzzyMaxDistance) {
+        List<IntentOption> intents = b.source().intents();
+        if (intents != null && !intents.isEmpty()) {
+            List<IntentTarget> options = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            Map<String, IntentTarget> byName = new HashMap<>();
+            KeywordAutomaton.Builder automaton = KeywordAutomaton.builder();
+            FuzzyKeywordIndex.Builder fuzzy = FuzzyKeywordIndex.builder(fuzzyMaxDistance);
+            for (IntentOption opt : intents) {
+                if (opt == null) {
+                    continue;
+                }
+                List<String> keywords = new ArrayList<>();
+                if (opt.keywords() != null) {
+                    for (String kw : opt.keywords()) {
+                        if (kw != null && !kw.isBlank()) {
+                            keywords.add(kw.toLowerCase());
+                            automaton.add(kw.toLowerCase(), options.size());
+                            fuzzy.add(kw, options.size());
+                        }
+                    }
+                }
+                IntentTarget target = new IntentTarget(opt.name(), List.copyOf(keywords), resolve(opt.next(), byId, null));
+                options.add(target);
+                if (opt.name() != null) {
+                    names.add(opt.name());
+                    byName.putIfAbsent(opt.name().toLowerCase(), target);
+                }
+            }
+            b.intentOptions = List.copyOf(options);
+            b.intentNames = List.copyOf(names);
+            b.intentsByName = Map.copyOf(byName);
+            b.intentKeywords = automaton.build();
+            b.intentFuzzyKeywords = fuzzy.build();
+        }
+        String fallback = b.source().fallback();
+        if (fallback != null && !fallback.isBlank()) {
+            b.fallback = resolve(fallback, byId, null);
+        }
+    }
+
+    private static void collectOutgoing(CompiledBlock b) {
+        List<Transition> outgoing = new ArrayList<>();
+        for (KeywordRoute r : b.keywordRoutes) {
+            addOutgoing(outgoing, r.target());
+        }
+        for (IntentTarget t : b.routeIntentTargets.values()) {
+            addOutgoing(outgoing, t.target());
+        }
+        addOutgoing(outgoing, b.routeFallback);
+        for (IntentTarget t : b.intentOptions) {
+            addOutgoing(outgoing, t.target());
+        }
+        addOutgoing(outgoing, b.fallback);
+        b.outgoing = List.copyOf(outgoing);
+    }
+
+    private static void addOutgoing(List<Transition> outgoing, Transition t) {
+        if (t == null) {
+            return;
+        }
+        for (Transition existing : outgoing) {
+            if (existing == t) {
+                return;
+            }
+        }
+        outgoing.add(t);
+    }
+
+    // A missing id yields ifNull; an id that points nowhere yields an empty chain, just like the old
+    // engine loop that stopped as soon as Flow.byId returned null.
+    private static Transition resolve(String id, Map<String, CompiledBlock> byId, Transition ifNull) {
+        if (id == null) {
+            return ifNull;
+        }
+        CompiledBlock target = byId.get(id);
+        return target == null ? Transition.EMPTY : target.entry;
+    }
+}
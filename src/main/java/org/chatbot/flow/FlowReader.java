@@ -0,0 +1,97 @@
+package org.chatbot.flow;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads an uploaded flow file in one pass with the Jackson streaming parser.
+// Only meta.name, startBlockId and blocks are picked out of the document; every other field is skipped without
+// being materialized, and each block is bound straight from the token stream, so no JsonNode tree is built.
+// Structural problems are reported as JsonParseException with the location in the file.
+public final class FlowReader {
+
+    // meta.name is null when missing or blank; the caller decides how to report that.
+    public record Result(String name, Flow flow) {}
+
+    private final ObjectMapper mapper;
+    private final ObjectReader blockReader;
+
+    public FlowReader(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.blockReader = mapper.readerFor(Block.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    public Result read(byte[] json) throws IOException {
+        try (JsonParser p = mapper.getFactory().createParser(json)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "The configuration must be a JSON object");
+            }
+            String name = null;
+            Flow flow = new Flow();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                switch (field) {
+                    case "meta" -> name = readName(p);
+                    case "startBlockId" -> flow.setStartBlockId(value == JsonToken.VALUE_NULL ? null : scalar(p, field));
+                    case "blocks" -> flow.setBlocks(readBlocks(p));
+                    default -> p.skipChildren();
+                }
+            }
+            if (p.nextToken() != null) {
+                throw new JsonParseException(p, "Unexpected content after the configuration object");
+            }
+            return new Result(name == null || name.isBlank() ? null : name, flow);
+        }
+    }
+
+    private static String readName(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        String name = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            if ("name".equals(field) && value.isScalarValue()) {
+                name = p.getValueAsString();
+            } else {
+                p.skipChildren();
+            }
+        }
+        return name;
+    }
+
+    private List<Block> readBlocks(JsonParser p) throws IOException {
+        if (p.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (p.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(p, "Field blocks must be an array");
+        }
+        List<Block> blocks = new ArrayList<>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "Block " + blocks.size() + " must be an object");
+            }
+            blocks.add(blockReader.readValue(p));
+        }
+        return blocks;
+    }
+
+    private static String scalar(JsonParser p, String field) throws IOException {
+        if (!p.currentToken().isScalarValue()) {
+            throw new JsonParseException(p, "Field " + field + " must be a string");
+        }
+        return p.getValueAsString();
+    }
+}
@@ -0,0 +1,29 @@
+package org.chatbot.flow;
+
+import java.util.List;
+
+// Result of FlowAnalyzer.analyze: a flow with errors is rejected, warnings are only logged.
+public record FlowReport(
+        List<Issue> errors,
+        List<Issue> warnings
+) {
+
+    public enum Code {
+        MISSING_START,         // startBlockId is empty
+        UNKNOWN_START,         // startBlockId names no block
+        MISSING_ID,            // block without an id
+        DUPLICATE_ID,          // a later block reuses an id, only the first one is ever used
+        MISSING_TYPE,          // block without a type
+        UNRESOLVED_REFERENCE,  // next / fallback / route or intent target names no block
+        WRITE_CYCLE,           // WRITE_MESSAGE blocks whose next pointers loop without reaching a wait point
+        CHAIN_TOO_LONG,        // more WRITE_MESSAGE messages in a row than one turn may send
+        UNREACHABLE            // no path from the start block leads here
+    }
+
+    // blockId is the block the issue was found in (null for flow-level issues), field the JSON field at fault.
+    public record Issue(Code code, String blockId, String field, String detail) {}
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+}
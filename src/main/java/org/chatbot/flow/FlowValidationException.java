@@ -0,0 +1,24 @@
+package org.chatbot.flow;
+
+// Thrown when a flow is rejected by FlowAnalyzer; the report lists every error and warning.
+public class FlowValidationException extends RuntimeException {
+
+    private final FlowReport report;
+
+    public FlowValidationException(FlowReport report) {
+        super(summary(report));
+        this.report = report;
+    }
+
+    public FlowReport report() {
+        return report;
+    }
+
+    private static String summary(FlowReport report) {
+        FlowReport.Issue first = report.errors().get(0);
+        String where = first.blockId() != null ? " in block '" + first.blockId() + "'" : "";
+        String field = first.field() != null ? " (" + first.field() + ")" : "";
+        return "Flow rejected with " + report.errors().size() + " error(s), first: "
+                + first.code() + where + field + ": " + first.detail();
+    }
+}
@@ -0,0 +1,346 @@
+package org.chatbot.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Typo-tolerant counterpart of KeywordAutomaton, built once per block when the flow is compiled with a fuzzy
+// max distance > 0. Keywords are matched against windows of whole words of the user text (as many words as the
+// keyword has) with an optimal string alignment distance, so "delivry" finds "delivery" and "refnud" finds
+// "refund" (a swap of two neighbouring letters counts as one edit).
+// SymSpell-style: every keyword is indexed under all strings obtained by deleting up to maxDistance chars.
+// A window generates its own deletes and only keywords sharing one of them are verified, so the cost of a lookup
+// depends on the length of the text, not on the number of keywords. Deletes are stored as 64-bit hashes in an
+// open-addressing table with CSR postings; a hash collision only adds a candidate that fails verification.
+// The allowed distance grows with the keyword: none below 4 chars, 1 below 8 chars, then up to maxDistance.
+// Lookups work in per-thread scratch buffers and do not allocate.
+public final class FuzzyKeywordIndex {
+
+    public static final FuzzyKeywordIndex EMPTY = new Builder(0).build();
+    // Deletes grow as length^distance, so larger distances are not supported.
+    public static final int MAX_SUPPORTED_DISTANCE = 2;
+    private static final int MAX_WORDS = 8;
+    // Shorter keywords are left to exact matching.
+    private static final int MIN_FUZZY_LENGTH = 4;
+
+    private static final class Scratch {
+        char[] text = new char[128];
+        int[] wordStart = new int[32];
+        int[] wordEnd = new int[32];
+        int[] previous = new int[34];
+        int[] row = new int[34];
+        int[] next = new int[34];
+        int bestGroup;
+        int bestDistance;
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final int maxDistance;
+    // Keyword k: chars keywordChars[keywordStart[k] .. keywordStart[k + 1]), its group and allowed distance.
+    private final char[] keywordChars;
+    private final int[] keywordStart;
+    private final int[] keywordGroup;
+    private final int[] keywordDistance;
+    // Bit n set if some keyword has n words.
+    private final int wordCounts;
+    // Longest keyword; a window longer than this plus maxDistance cannot match any keyword.
+    private final int maxKeywordLength;
+    private final long[] keys;
+    private final int[] slotStart;
+    private final int[] postings;
+    private final int mask;
+
+    private FuzzyKeywordIndex(int maxDistance, char[] keywordChars, int[] keywordStart, int[] keywordGroup,
+                              int[] keywordDistance, int wordCounts, int maxKeywordLength, long[] keys, int[] slotStart,
+                              int[] postings) {
+        this.maxDistance = maxDistance;
+        this.keywordChars = keywordChars;
+        this.keywordStart = keywordStart;
+        this.keywordGroup = keywordGroup;
+        this.keywordDistance = keywordDistance;
+        this.wordCounts = wordCounts;
+        this.maxKeywordLength = maxKeywordLength;
+        this.keys = keys;
+        this.slotStart = slotStart;
+        this.postings = postings;
+        this.mask = keys.length - 1;
+    }
+
+    public static Builder builder(int maxDistance) {
+        return new Builder(maxDistance);
+    }
+
+    public boolean isEmpty() {
+        return keywordGroup.length == 0;
+    }
+
+    public int size() {
+        return keywordGroup.length;
+    }
+
+    // Returns the group of the closest keyword within its allowed distance of some word window of text
+    // (ties go to the lowest group), or KeywordAutomaton.NO_MATCH.
+    public int firstMatch(CharSequence text) {
+        if (text == null || isEmpty()) {
+            return KeywordAutomaton.NO_MATCH;
+        }
+        Scratch s = SCRATCH.get();
+        int words = normalize(text, s);
+        s.bestGroup = Integer.MAX_VALUE;
+        s.bestDistance = Integer.MAX_VALUE;
+        for (int n = 1; n <= Math.min(words, MAX_WORDS); n++) {
+            if ((wordCounts & (1 << n)) == 0) {
+                continue;
+            }
+            for (int w = 0; w + n <= words; w++) {
+                int from = s.wordStart[w];
+                int to = s.wordEnd[w + n - 1];
+                // Too short or too long for any keyword: skip before generating its O(length^2) deletes.
+                if (to - from < MIN_FUZZY_LENGTH - maxDistance || to - from > maxKeywordLength + maxDistance) {
+                    continue;
+                }
+                // Every string obtained by deleting up to maxDistance chars of the window.
+                probe(s, from, to, -1, -1);
+                for (int i = from; i < to; i++) {
+                    probe(s, from, to, i, -1);
+                    if (maxDistance >= 2) {
+                        for (int j = i + 1; j < to; j++) {
+                            probe(s, from, to, i, j);
+                        }
+                    }
+                }
+            }
+        }
+        return s.bestGroup == Integer.MAX_VALUE ? KeywordAutomaton.NO_MATCH : s.bestGroup;
+    }
+
+    // Verifies the keywords indexed under one delete of text[from, to) and keeps the best in s.
+    private void probe(Scratch s, int from, int to, int skip1, int skip2) {
+        int slot = find(hash(s.text, from, to, skip1, skip2));
+        if (slot < 0) {
+            return;
+        }
+        for (int p = slotStart[slot]; p < slotStart[slot + 1]; p++) {
+            int k = postings[p];
+            int allowed = keywordDistance[k];
+            int distance = distance(s, from, to, k, Math.min(allowed, s.bestDistance));
+            if (distance <= allowed && (distance < s.bestDistance
+                    || distance == s.bestDistance && keywordGroup[k] < s.bestGroup)) {
+                s.bestDistance = distance;
+                s.bestGroup = keywordGroup[k];
+            }
+        }
+    }
+
+    private int find(long key) {
+        int slot = slot(key, mask);
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                return slot;
+            }
+            if (k == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Optimal string alignment distance between text[from, to) and keyword k, or limit + 1 once it exceeds limit.
+    private int distance(Scratch s, int from, int to, int k, int limit) {
+        int kFrom = keywordStart[k];
+        int m = keywordStart[k + 1] - kFrom;
+        int n = to - from;
+        if (Math.abs(m - n) > limit) {
+            return limit + 1;
+        }
+        if (s.row.length < m + 1) {
+            s.previous = new int[m + 1];
+            s.row = new int[m + 1];
+            s.next = new int[m + 1];
+        }
+        int[] previous = s.previous;
+        int[] row = s.row;
+        int[] next = s.next;
+        for (int j = 0; j <= m; j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            char a = s.text[from + i - 1];
+            next[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= m; j++) {
+                char b = keywordChars[kFrom + j - 1];
+                int cost = a == b ? 0 : 1;
+                int v = Math.min(Math.min(row[j] + 1, next[j - 1] + 1), row[j - 1] + cost);
+                if (i > 1 && j > 1 && a == keywordChars[kFrom + j - 2] && s.text[from + i - 2] == b) {
+                    v = Math.min(v, previous[j - 2] + 1);
+                }
+                next[j] = v;
+                rowMin = Math.min(rowMin, v);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] t = previous;
+            previous = row;
+            row = next;
+            next = t;
+        }
+        return row[m];
+    }
+
+    // Lowercases text into s.text keeping only letters and digits, with one space between words, and records
+    // where every word starts and ends. Returns the number of words.
+    private static int normalize(CharSequence text, Scratch s) {
+        int length = text.length();
+        if (s.text.length < length + 1) {
+            s.text = new char[length + 1];
+        }
+        char[] out = s.text;
+        int words = 0;
+        int pos = 0;
+        boolean inWord = false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord) {
+                    if (words == s.wordStart.length) {
+                        s.wordStart = Arrays.copyOf(s.wordStart, words * 2);
+                        s.wordEnd = Arrays.copyOf(s.wordEnd, words * 2);
+                    }
+                    if (pos > 0) {
+                        out[pos++] = ' ';
+                    }
+                    s.wordStart[words] = pos;
+                    inWord = true;
+                }
+                out[pos++] = Character.toLowerCase(c);
+                s.wordEnd[words] = pos;
+            } else if (inWord) {
+                inWord = false;
+                words++;
+            }
+        }
+        return inWord ? words + 1 : words;
+    }
+
+    private static long hash(char[] chars, int from, int to, int skip1, int skip2) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            if (i != skip1 && i != skip2) {
+                h = (h ^ chars[i]) * 0x100000001b3L;
+            }
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    // Collects keywords and freezes them into the array form above.
+    public static final class Builder {
+
+        private final int maxDistance;
+        private final List<String> keywords = new ArrayList<>();
+        private final List<Integer> wordCounts = new ArrayList<>();
+        private final List<Integer> groups = new ArrayList<>();
+        private final Scratch scratch = new Scratch();
+
+        private Builder(int maxDistance) {
+            this.maxDistance = Math.max(0, Math.min(MAX_SUPPORTED_DISTANCE, maxDistance));
+        }
+
+        // Keywords are normalized like the user text. Keywords shorter than four chars, without letters or
+        // digits, or with more than eight words are ignored.
+        public Builder add(String keyword, int group) {
+            if (keyword == null || group < 0 || maxDistance == 0) {
+                return this;
+            }
+            int words = normalize(keyword, scratch);
+            if (words == 0 || words > MAX_WORDS || scratch.wordEnd[words - 1] < MIN_FUZZY_LENGTH) {
+                return this;
+            }
+            keywords.add(new String(scratch.text, 0, scratch.wordEnd[words - 1]));
+            wordCounts.add(words);
+            groups.add(group);
+            return this;
+        }
+
+        public FuzzyKeywordIndex build() {
+            int count = keywords.size();
+            int[] keywordStart = new int[count + 1];
+            int[] keywordGroup = new int[count];
+            int[] keywordDistance = new int[count];
+            StringBuilder chars = new StringBuilder();
+            int wordCountBits = 0;
+            int maxKeywordLength = 0;
+            Map<Long, List<Integer>> deletes = new HashMap<>();
+            for (int k = 0; k < count; k++) {
+                char[] keyword = keywords.get(k).toCharArray();
+                int n = keyword.length;
+                int d = Math.min(maxDistance, n / 4);
+                maxKeywordLength = Math.max(maxKeywordLength, n);
+                keywordStart[k] = chars.length();
+                chars.append(keyword);
+                keywordGroup[k] = groups.get(k);
+                keywordDistance[k] = d;
+                wordCountBits |= 1 << wordCounts.get(k);
+                addDelete(deletes, hash(keyword, 0, n, -1, -1), k);
+                for (int i = 0; i < n; i++) {
+                    addDelete(deletes, hash(keyword, 0, n, i, -1), k);
+                    if (d >= 2) {
+                        for (int j = i + 1; j < n; j++) {
+                            addDelete(deletes, hash(keyword, 0, n, i, j), k);
+                        }
+                    }
+                }
+            }
+            keywordStart[count] = chars.length();
+
+            int capacity = Integer.highestOneBit(Math.max(4, deletes.size() * 2) - 1) << 1;
+            long[] keys = new long[capacity];
+            int[] sizes = new int[capacity];
+            List<List<Integer>> bySlot = new ArrayList<>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                bySlot.add(null);
+            }
+            for (Map.Entry<Long, List<Integer>> e : deletes.entrySet()) {
+                int slot = slot(e.getKey(), capacity - 1);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                keys[slot] = e.getKey();
+                sizes[slot] = e.getValue().size();
+                bySlot.set(slot, e.getValue());
+            }
+            int[] slotStart = new int[capacity + 1];
+            for (int i = 0; i < capacity; i++) {
+                slotStart[i + 1] = slotStart[i] + sizes[i];
+            }
+            int[] postings = new int[slotStart[capacity]];
+            for (int i = 0; i < capacity; i++) {
+                List<Integer> list = bySlot.get(i);
+                if (list != null) {
+                    for (int j = 0; j < list.size(); j++) {
+                        postings[slotStart[i] + j] = list.get(j);
+                    }
+                }
+            }
+            return new FuzzyKeywordIndex(maxDistance, chars.toString().toCharArray(), keywordStart, keywordGroup,
+                    keywordDistance, wordCountBits, maxKeywordLength, keys, slotStart, postings);
+        }
+
+        private static void addDelete(Map<Long, List<Integer>> deletes, long hash, int keyword) {
+            List<Integer> list = deletes.computeIfAbsent(hash, h -> new ArrayList<>());
+            if (list.isEmpty() || list.get(list.size() - 1) != keyword) {
+                list.add(keyword);
+            }
+        }
+    }
+}
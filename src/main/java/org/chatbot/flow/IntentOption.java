@@ -4,9 +4,15 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.util.List;
 
 // Describes a possible intent: name, keywords, and next block.
+// examples are optional sample user messages; the local intent classifier trains on them along with the keywords.
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record IntentOption(
         String name,
         List<String> keywords,
-        String next
-) {}
\ No newline at end of file
+        String next,
+        List<String> examples
+) {
+    public IntentOption(String name, List<String> keywords, String next) {
+        this(name, keywords, next, null);
+    }
+}
@@ -0,0 +1,11 @@
+package org.chatbot.flow;
+
+import java.util.List;
+
+// Precomputed intent entry of a compiled block: intent name, lowercased keywords and the resolved target.
+// target is null when the intent has no "next" configured.
+public record IntentTarget(
+        String name,
+        List<String> keywords,
+        Transition target
+) {}
@@ -0,0 +1,247 @@
+package org.chatbot.flow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Aho-Corasick automaton over the keywords of one block, built once when the flow is compiled.
+// Every keyword belongs to a group (the index of its route or intent option). firstMatch scans the user text
+// in a single pass and returns the lowest group that has a keyword inside the text, which keeps the
+// "first route in definition order wins" rule of the old per-keyword String.contains loop.
+// Keywords are expected to be lowercased already; the text is lowercased char by char while scanning.
+public final class KeywordAutomaton {
+
+    public static final int NO_MATCH = -1;
+    public static final KeywordAutomaton EMPTY = new Builder().build();
+
+    // Transitions in CSR form: the edges of state s are labels/targets[edgeStart[s] .. edgeStart[s + 1]),
+    // sorted by label so a lookup is a binary search.
+    private final int[] edgeStart;
+    private final char[] labels;
+    private final int[] targets;
+    private final int[] fail;
+    // Lowest group reported by a state, including everything reachable through its fail links.
+    private final int[] minGroup;
+    // For scan: group of the keyword ending exactly at a state (Integer.MAX_VALUE if none), the state's depth
+    // (that keyword's length) and the nearest state on its fail chain that ends a keyword (0 if none).
+    private final int[] ownGroup;
+    private final int[] depth;
+    private final int[] output;
+
+    // Every keyword occurrence of a text summed up for confidence scoring: the lowest matching group, whether
+    // keywords of more than one group occur, and how many of the text's chars the occurrences cover.
+    // length counts from the first to the last letter or digit, so surrounding spaces and punctuation are ignored.
+    public record Scan(int group, boolean ambiguous, int covered, int length) {
+
+        public static final Scan NONE = new Scan(NO_MATCH, false, 0, 0);
+
+        // Share of the text made of keywords, in [0, 1]: 1 for a message that is just a keyword.
+        public double coverage() {
+            return length == 0 ? 0 : Math.min(1.0, (double) covered / length);
+        }
+    }
+
+    private KeywordAutomaton(int[] edgeStart, char[] labels, int[] targets, int[] fail, int[] minGroup,
+                             int[] ownGroup, int[] depth, int[] output) {
+        this.edgeStart = edgeStart;
+        this.labels = labels;
+        this.targets = targets;
+        this.fail = fail;
+        this.minGroup = minGroup;
+        this.ownGroup = ownGroup;
+        this.depth = depth;
+        this.output = output;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Returns the lowest group with a keyword contained in text, or NO_MATCH.
+    public int firstMatch(CharSequence text) {
+        int best = minGroup[0];
+        if (best == 0 || text == null) {
+            return toResult(best);
+        }
+        int state = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int next = step(state, c);
+            while (next < 0 && state != 0) {
+                state = fail[state];
+                next = step(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            int g = minGroup[state];
+            if (g < best) {
+                best = g;
+                if (best == 0) {
+                    break;
+                }
+            }
+        }
+        return toResult(best);
+    }
+
+    // Like firstMatch, but looks at every occurrence instead of stopping at the first one. Overlapping occurrences
+    // are counted once; covered may come out slightly low when a keyword contains another one, never too high.
+    // The empty keyword is ignored here.
+    public Scan scan(CharSequence text) {
+        if (text == null) {
+            return Scan.NONE;
+        }
+        int group = Integer.MAX_VALUE;
+        boolean ambiguous = false;
+        int covered = 0;
+        int coveredUntil = 0;
+        int first = -1;
+        int last = -1;
+        int state = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char raw = text.charAt(i);
+            if (Character.isLetterOrDigit(raw)) {
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+            char c = Character.toLowerCase(raw);
+            int next = step(state, c);
+            while (next < 0 && state != 0) {
+                state = fail[state];
+                next = step(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            int longest = 0;
+            for (int s = ownGroup[state] != Integer.MAX_VALUE ? state : output[state]; s > 0; s = output[s]) {
+                int g = ownGroup[s];
+                if (group != Integer.MAX_VALUE && g != group) {
+                    ambiguous = true;
+                }
+                group = Math.min(group, g);
+                longest = Math.max(longest, depth[s]);
+            }
+            if (longest > 0) {
+                covered += i + 1 - Math.max(i + 1 - longest, coveredUntil);
+                coveredUntil = i + 1;
+            }
+        }
+        return new Scan(toResult(group), ambiguous, covered, first < 0 ? 0 : last - first + 1);
+    }
+
+    private static int toResult(int group) {
+        return group == Integer.MAX_VALUE ? NO_MATCH : group;
+    }
+
+    private int step(int state, char c) {
+        int lo = edgeStart[state];
+        int hi = edgeStart[state + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char label = labels[mid];
+            if (label < c) {
+                lo = mid + 1;
+            } else if (label > c) {
+                hi = mid - 1;
+            } else {
+                return targets[mid];
+            }
+        }
+        return -1;
+    }
+
+    // Collects keywords into a trie and freezes it into the array form above.
+    public static final class Builder {
+
+        private final List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        private final List<Integer> groups = new ArrayList<>();
+
+        private Builder() {
+            newState();
+        }
+
+        public Builder add(String keyword, int group) {
+            if (keyword == null || group < 0) {
+                return this;
+            }
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                Integer next = children.get(state).get(c);
+                if (next == null) {
+                    next = newState();
+                    children.get(state).put(c, next);
+                }
+                state = next;
+            }
+            groups.set(state, Math.min(groups.get(state), group));
+            return this;
+        }
+
+        public KeywordAutomaton build() {
+            int n = children.size();
+            int[] edgeStart = new int[n + 1];
+            for (int s = 0; s < n; s++) {
+                edgeStart[s + 1] = edgeStart[s] + children.get(s).size();
+            }
+            char[] labels = new char[edgeStart[n]];
+            int[] targets = new int[edgeStart[n]];
+            for (int s = 0; s < n; s++) {
+                int e = edgeStart[s];
+                for (Map.Entry<Character, Integer> edge : children.get(s).entrySet()) {
+                    labels[e] = edge.getKey();
+                    targets[e] = edge.getValue();
+                    e++;
+                }
+            }
+            int[] fail = new int[n];
+            int[] minGroup = new int[n];
+            int[] ownGroup = new int[n];
+            int[] depth = new int[n];
+            int[] output = new int[n];
+            for (int s = 0; s < n; s++) {
+                minGroup[s] = groups.get(s);
+                ownGroup[s] = groups.get(s);
+            }
+            KeywordAutomaton partial = new KeywordAutomaton(edgeStart, labels, targets, fail, minGroup,
+                    ownGroup, depth, output);
+            // Breadth-first, so the fail target of a state is always finished before the state itself.
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+                int child = targets[e];
+                fail[child] = 0;
+                minGroup[child] = Math.min(minGroup[child], minGroup[0]);
+                depth[child] = 1;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int s = queue.poll();
+                for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+                    int child = targets[e];
+                    char c = labels[e];
+                    int f = fail[s];
+                    int next = partial.step(f, c);
+                    while (next < 0 && f != 0) {
+                        f = fail[f];
+                        next = partial.step(f, c);
+                    }
+                    fail[child] = next < 0 ? 0 : next;
+                    minGroup[child] = Math.min(minGroup[child], minGroup[fail[child]]);
+                    depth[child] = depth[s] + 1;
+                    int link = fail[child];
+                    output[child] = link != 0 && ownGroup[link] != Integer.MAX_VALUE ? link : output[link];
+                    queue.add(child);
+                }
+            }
+            return partial;
+        }
+
+        private int newState() {
+            children.add(new TreeMap<>());
+            groups.add(Integer.MAX_VALUE);
+            return children.size() - 1;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package org.chatbot.flow;
+
+import java.util.List;
+
+// Precomputed KEYWORD route of a compiled block: lowercased keywords and the resolved target.
+// target is null when the route has no "next" configured.
+public record KeywordRoute(
+        List<String> keywords,
+        Transition target
+) {}
@@ -0,0 +1,132 @@
+package org.chatbot.flow;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+// The messages of a Transition, with their WebSocket payloads rendered once when the flow is compiled.
+// payload(i) is message i as a ChatOut JSON object from the bot, batchPayload() all of them as one ChatOut[] array,
+// the same JSON Jackson would write for them (byte for byte, except that characters outside the BMP are written as
+// UTF-8 rather than as escaped surrogate pairs). WRITE_MESSAGE texts are fixed per flow version, so replies
+// can be sent without building and serializing ChatOut objects on every turn. The batch array is only joined
+// the first time it is asked for, so flows compiled while batching is off never build it.
+// The chains of a flow share their arrays: a Replies is a window [from, to) of them.
+// Equal to any List with the same texts.
+public final class Replies extends AbstractList<String> implements RandomAccess {
+
+    public static final Replies EMPTY = new Replies(new String[0], new byte[0][], 0, 0);
+
+    // Sender of every reply; the same value the controller puts in ChatOut.
+    public static final String SENDER = "BOT";
+
+    private static final byte[] PREFIX = ("{\"sender\":\"" + SENDER + "\",\"content\":").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final String[] texts;
+    private final byte[][] payloads;
+    private final int from;
+    private final int to;
+    // Built on first use; racing callers build identical arrays, so the last write winning is harmless.
+    private volatile byte[] batchPayload;
+
+    private Replies(String[] texts, byte[][] payloads, int from, int to) {
+        this.texts = texts;
+        this.payloads = payloads;
+        this.from = from;
+        this.to = to;
+    }
+
+    public static Replies of(List<String> texts) {
+        byte[][] payloads = new byte[texts.size()][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = render(texts.get(i));
+        }
+        return new Replies(texts.toArray(new String[0]), payloads, 0, payloads.length);
+    }
+
+    // head followed by the replies of tail, reusing the payloads tail already rendered.
+    static Replies concat(List<String> head, Replies tail) {
+        int size = head.size() + tail.size();
+        String[] texts = new String[size];
+        byte[][] payloads = new byte[size][];
+        for (int i = 0; i < head.size(); i++) {
+            texts[i] = head.get(i);
+            payloads[i] = render(head.get(i));
+        }
+        System.arraycopy(tail.texts, tail.from, texts, head.size(), tail.size());
+        System.arraycopy(tail.payloads, tail.from, payloads, head.size(), tail.size());
+        return new Replies(texts, payloads, 0, size);
+    }
+
+    // Replies from (inclusive) to to (exclusive), sharing this one's arrays.
+    Replies slice(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("slice [" + from + ", " + to + ") of " + size());
+        }
+        return new Replies(texts, payloads, this.from + from, this.from + to);
+    }
+
+    private static byte[] render(String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(PREFIX.length + (text == null ? 4 : text.length() + 8));
+        out.writeBytes(PREFIX);
+        if (text == null) {
+            out.writeBytes(NULL);
+        } else {
+            out.write('"');
+            out.writeBytes(JsonStringEncoder.getInstance().quoteAsUTF8(text));
+            out.write('"');
+        }
+        out.write('}');
+        return out.toByteArray();
+    }
+
+    private byte[] join() {
+        int size = 2 + Math.max(0, to - from - 1);
+        for (int i = from; i < to; i++) {
+            size += payloads[i].length;
+        }
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(size);
+        batch.write('[');
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                batch.write(',');
+            }
+            batch.writeBytes(payloads[i]);
+        }
+        batch.write(']');
+        return batch.toByteArray();
+    }
+
+    // Shared arrays: callers must not modify them.
+    public byte[] payload(int index) {
+        return payloads[from + checkIndex(index)];
+    }
+
+    public byte[] batchPayload() {
+        byte[] batch = batchPayload;
+        if (batch == null) {
+            batch = join();
+            batchPayload = batch;
+        }
+        return batch;
+    }
+
+    @Override
+    public String get(int index) {
+        return texts[from + checkIndex(index)];
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    private int checkIndex(int index) {
+        return Objects.checkIndex(index, to - from);
+    }
+}
@@ -0,0 +1,16 @@
+package org.chatbot.flow;
+
+import java.util.List;
+
+// A pre-flattened chain of WRITE_MESSAGE blocks and the block where the conversation stops to wait for the user.
+// writes holds only the blocks that actually send a message, messages holds their texts in the same order,
+// with the reply payloads already rendered.
+// stop is null when the chain simply ends (no next block or an unknown id).
+public record Transition(
+        List<CompiledBlock> writes,
+        Replies messages,
+        CompiledBlock stop
+) {
+
+    public static final Transition EMPTY = new Transition(List.of(), Replies.EMPTY, null);
+}
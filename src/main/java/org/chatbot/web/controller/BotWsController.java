@@ -3,25 +3,45 @@ package org.chatbot.web.controller;
 import org.chatbot.web.DTO.ChatIn;
 import org.chatbot.web.DTO.ChatOut;
 import org.chatbot.engine.ChatFlowEngine;
+import org.chatbot.flow.Replies;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.MimeTypeUtils;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Controller
+@Slf4j
 public class BotWsController {
 
+    private static final String USER_PREFIX = "/user/";
+    private static final String REPLIES = "/queue/replies";
+
     private final ChatFlowEngine engine;
     private final SimpMessageSendingOperations messagingTemplate;
+    // When true, user messages go through ChatFlowEngine.onUserMessageAsync and replies are sent
+    // when the turn completes, so the inbound channel thread is released immediately.
+    private final boolean async;
+    // When true, all replies of a turn are sent as one frame holding a ChatOut[] array instead of one frame
+    // holding a ChatOut per reply.
+    private final boolean batch;
 
     @Autowired
-    public BotWsController(ChatFlowEngine engine, SimpMessageSendingOperations messagingTemplate) {
+    public BotWsController(ChatFlowEngine engine, SimpMessageSendingOperations messagingTemplate,
+                           @Value("${chatbot.engine.async:false}") boolean async,
+                           @Value("${chatbot.replies.batch:false}") boolean batch) {
         this.engine = engine;
         this.messagingTemplate = messagingTemplate;
+        this.async = async;
+        this.batch = batch;
     }
 
     // Creates headers for a specific WebSocket session.
@@ -33,18 +53,27 @@ public class BotWsController {
         return headerAccessor.getMessageHeaders();
     }
 
+    // Headers for a payload that is already JSON, so no message converter has to run.
+    private org.springframework.messaging.MessageHeaders createJsonHeaders(String sessionId) {
+        org.springframework.messaging.simp.SimpMessageHeaderAccessor headerAccessor =
+                org.springframework.messaging.simp.SimpMessageHeaderAccessor.create();
+        headerAccessor.setSessionId(sessionId);
+        headerAccessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        headerAccessor.setLeaveMutable(true);
+        return headerAccessor.getMessageHeaders();
+    }
+
     // Start chat upon initial client connection.
     @MessageMapping("/chat.init")
     public void initChat(@Header("simpSessionId") String sessionId) {
-        if (sessionId != null) {
-            List<String> initial = engine.start(sessionId);
-            for (String m : initial) {
-                // Send the message to the user identified by the session ID. The
-                // headers ensure the sessionId is used as the user identifier.
-                messagingTemplate.convertAndSendToUser(sessionId, "/queue/replies",
-                        new ChatOut("BOT", m), createHeaders(sessionId));
-            }
+        if (sessionId == null) {
+            return;
         }
+        if (async) {
+            whenDone(sessionId, engine.startAsync(sessionId, replies -> sendReplies(sessionId, replies)));
+            return;
+        }
+        sendReplies(sessionId, engine.start(sessionId));
     }
 
     // Processes the messages sent by the user.
@@ -54,10 +83,58 @@ public class BotWsController {
         if (sessionId == null) {
             return;
         }
-        List<String> replies = engine.onUserMessage(sessionId, message.text());
+        if (async) {
+            whenDone(sessionId, engine.onUserMessageAsync(sessionId, message.text(),
+                    replies -> sendReplies(sessionId, replies)));
+            return;
+        }
+        sendReplies(sessionId, engine.onUserMessage(sessionId, message.text()));
+    }
+
+    // The replies are sent by the turn itself (see ChatFlowEngine.onUserMessageAsync), so they leave in the
+    // order of the turns; only failures are handled here.
+    private void whenDone(String sessionId, CompletableFuture<List<String>> turn) {
+        turn.whenComplete((replies, error) -> {
+            if (error != null) {
+                log.error("Failed to process message for session {}", sessionId, error);
+            }
+        });
+    }
+
+    // Replies of a compiled flow come with their JSON already rendered and are sent as they are; any other list
+    // is converted to ChatOut objects and serialized by the message converter.
+    private void sendReplies(String sessionId, List<String> replies) {
+        if (replies.isEmpty()) {
+            return;
+        }
+        if (replies instanceof Replies rendered) {
+            if (batch) {
+                sendJson(sessionId, rendered.batchPayload());
+            } else {
+                for (int i = 0; i < rendered.size(); i++) {
+                    sendJson(sessionId, rendered.payload(i));
+                }
+            }
+            return;
+        }
+        if (batch) {
+            ChatOut[] frame = new ChatOut[replies.size()];
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = new ChatOut(Replies.SENDER, replies.get(i));
+            }
+            messagingTemplate.convertAndSendToUser(sessionId, REPLIES, frame, createHeaders(sessionId));
+            return;
+        }
         for (String m : replies) {
-            messagingTemplate.convertAndSendToUser(sessionId, "/queue/replies",
-                    new ChatOut("BOT", m), createHeaders(sessionId));
+            // Send the message to the user identified by the session ID. The
+            // headers ensure the sessionId is used as the user identifier.
+            messagingTemplate.convertAndSendToUser(sessionId, REPLIES,
+                    new ChatOut(Replies.SENDER, m), createHeaders(sessionId));
         }
     }
+
+    // Same user destination convertAndSendToUser would resolve, without the conversion step.
+    private void sendJson(String sessionId, byte[] json) {
+        messagingTemplate.send(USER_PREFIX + sessionId + REPLIES, MessageBuilder.createMessage(json, createJsonHeaders(sessionId)));
+    }
 }
@@ -0,0 +1,27 @@
+package org.chatbot.web.controller;
+
+import org.chatbot.engine.ConversationStateService;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+//Issues conversation ids. A client sends one in the conversation-id header of its STOMP CONNECT frame to keep
+//its place in the flow across reconnects; only ids issued here are accepted.
+@RestController
+@RequestMapping(value = "/api/conversations", produces = MediaType.APPLICATION_JSON_VALUE)
+public class ConversationController {
+
+    private final ConversationStateService conversationStateService;
+
+    public ConversationController(ConversationStateService conversationStateService) {
+        this.conversationStateService = conversationStateService;
+    }
+
+    @PostMapping
+    public Map<String, String> newConversation() {
+        return Map.of("conversationId", conversationStateService.newConversationId());
+    }
+}
@@ -0,0 +1,109 @@
+package org.chatbot.web.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.chatbot.conversationMessage.service.ConversationExportService;
+import org.chatbot.conversationMessage.service.ConversationHistoryService;
+import org.chatbot.fileEntity.service.FileEntityService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.zip.GZIPOutputStream;
+
+//Export of conversation messages for analytics: GET /api/history/export?format=ndjson|csv&from=&to=&flow=&archived=
+//The response is written while the rows are read (see ConversationExportService), gzip'd on the fly when the
+//client accepts it. flow limits the export to the messages of sessions that were on the flow with that meta.name,
+//selected by name or as the active flow (see FlowRegistry); messages written before messages recorded their flow
+//have none and are only in unfiltered exports.
+@RestController
+@RequestMapping("/api/history/export")
+@Slf4j
+public class ConversationExportController {
+
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    static final MediaType CSV = MediaType.parseMediaType("text/csv;charset=UTF-8");
+
+    private final ConversationExportService exportService;
+    private final FileEntityService fileEntityService;
+
+    public ConversationExportController(ConversationExportService exportService, FileEntityService fileEntityService) {
+        this.exportService = exportService;
+        this.fileEntityService = fileEntityService;
+    }
+
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(required = false) String flow,
+            @RequestParam(defaultValue = "false") boolean archived,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        ConversationExportService.Format exportFormat = format(format);
+        Instant start = from == null ? Instant.EPOCH : from;
+        Instant end = to == null ? ConversationHistoryService.END_OF_TIME : to;
+        if (!start.isBefore(end)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        ConversationExportService.Filter filter =
+                new ConversationExportService.Filter(start, end, flowName(flow), archived);
+        boolean gzip = FileEntityController.acceptsGzip(acceptEncoding);
+
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream compressed = new GZIPOutputStream(out, 8192);
+                write(filter, exportFormat, compressed);
+                compressed.finish();
+            } else {
+                write(filter, exportFormat, out);
+            }
+        };
+        String extension = exportFormat == ConversationExportService.Format.CSV ? "csv" : "ndjson";
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(exportFormat == ConversationExportService.Format.CSV ? CSV : NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename("conversations." + extension).build().toString())
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    private void write(ConversationExportService.Filter filter, ConversationExportService.Format format,
+                       OutputStream out) throws IOException {
+        long rows = exportService.export(filter, format, out);
+        log.info("Exported {} conversation messages as {} ({} to {}, flow={}, archived={})",
+                rows, format, filter.from(), filter.to(), filter.flow() == null ? "all" : filter.flow(),
+                filter.archived());
+    }
+
+    private static ConversationExportService.Format format(String format) {
+        for (ConversationExportService.Format f : ConversationExportService.Format.values()) {
+            if (f.name().equalsIgnoreCase(format)) {
+                return f;
+            }
+        }
+        throw new IllegalArgumentException("format must be ndjson or csv");
+    }
+
+    // Null for all flows. Checked against the stored files rather than FlowRegistry, whose cache is for the flows
+    // sessions are using.
+    private String flowName(String flow) {
+        if (flow == null || flow.isBlank()) {
+            return null;
+        }
+        String name = flow.trim();
+        if (!fileEntityService.exists(name)) {
+            throw new IllegalArgumentException("Unknown flow: " + name);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,57 @@
+package org.chatbot.web.controller;
+
+import org.chatbot.conversationMessage.service.ConversationHistoryService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+
+//Read API for support staff: session transcripts and the messages of a block, in pages.
+//from / to are ISO-8601 instants (to is exclusive), after is the "next" cursor of the previous page and
+//content=true adds the message texts. Messages are oldest first; order=desc returns the newest first, which is how
+//the end of an active conversation is read (from the in-memory RecentMessageCache).
+@RestController
+@RequestMapping(value = "/api/history", produces = MediaType.APPLICATION_JSON_VALUE)
+public class ConversationHistoryController {
+
+    private final ConversationHistoryService historyService;
+
+    public ConversationHistoryController(ConversationHistoryService historyService) {
+        this.historyService = historyService;
+    }
+
+    @GetMapping("/sessions/{sessionId}")
+    public ConversationHistoryService.Page<?> getTranscript(
+            @PathVariable String sessionId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean content,
+            @RequestParam(defaultValue = "asc") String order) {
+        return historyService.transcript(sessionId, new ConversationHistoryService.Query(from, to, after, limit, content, descending(order)));
+    }
+
+    @GetMapping("/blocks/{blockId}")
+    public ConversationHistoryService.Page<?> getBlockMessages(
+            @PathVariable String blockId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean content,
+            @RequestParam(defaultValue = "asc") String order) {
+        return historyService.atBlock(blockId, new ConversationHistoryService.Query(from, to, after, limit, content, descending(order)));
+    }
+
+    private static boolean descending(String order) {
+        if ("desc".equalsIgnoreCase(order)) {
+            return true;
+        }
+        if ("asc".equalsIgnoreCase(order)) {
+            return false;
+        }
+        throw new IllegalArgumentException("order must be asc or desc");
+    }
+}
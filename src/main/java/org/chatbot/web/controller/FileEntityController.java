@@ -1,18 +1,27 @@
 package org.chatbot.web.controller;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.chatbot.configuration.FlowConfigService;
+import org.chatbot.configuration.FlowRegistry;
 import org.chatbot.fileEntity.model.FileEntity;
+import org.chatbot.fileEntity.service.ActiveConfigCache;
 import org.chatbot.fileEntity.service.FileEntityService;
-import org.chatbot.flow.Flow;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.FlowReader;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/config")
@@ -20,34 +29,73 @@ public class FileEntityController {
 
     private final FileEntityService fileEntityService;
     private final FlowConfigService flowConfigService;
-    private final ObjectMapper objectMapper;
+    private final FlowRegistry flowRegistry;
+    private final ActiveConfigCache activeConfigCache;
+    private final FlowReader flowReader;
+    private final DistributionSummary uploadSize;
+    private final Timer parseTimer;
+    private final Timer compileTimer;
 
     @Autowired
     public FileEntityController(FileEntityService fileEntityService,
                                 FlowConfigService flowConfigService,
-                                ObjectMapper objectMapper) {
+                                FlowRegistry flowRegistry,
+                                ActiveConfigCache activeConfigCache,
+                                ObjectMapper objectMapper,
+                                MeterRegistry meterRegistry) {
         this.fileEntityService = fileEntityService;
         this.flowConfigService = flowConfigService;
-        this.objectMapper = objectMapper;
+        this.flowRegistry = flowRegistry;
+        this.activeConfigCache = activeConfigCache;
+        this.flowReader = new FlowReader(objectMapper);
+        this.uploadSize = DistributionSummary.builder("chatbot.config.upload.size")
+                .description("Size of uploaded flow files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.parseTimer = Timer.builder("chatbot.config.upload.parse")
+                .description("Time to parse and validate an uploaded flow file")
+                .register(meterRegistry);
+        this.compileTimer = Timer.builder("chatbot.config.upload.compile")
+                .description("Time to compile an uploaded flow")
+                .register(meterRegistry);
     }
 
     // Accepts a new JSON file and saves it as the active chatbot configuration.
+    // With activate=false the file is only stored under its meta.name, for sessions that select it by name.
+    // The body is read once as bytes: the streaming FlowReader builds the Flow from them without a JsonNode tree,
+    // and the flow is compiled before anything is saved. The file is stored as those bytes decoded to text, the one
+    // copy the LONGTEXT column needs; the document is never re-serialized.
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> uploadChatMessageConfiguration(@RequestBody JsonNode config) throws JsonProcessingException {
-        String name = config.path("meta").path("name").asText(null);
-        if (name == null || name.isBlank()) {
+    public ResponseEntity<?> uploadChatMessageConfiguration(@RequestBody byte[] config,
+                                                            @RequestParam(defaultValue = "true") boolean activate)
+            throws IOException {
+        uploadSize.record(config.length);
+        long start = System.nanoTime();
+        FlowReader.Result upload;
+        try {
+            upload = flowReader.read(config);
+        } finally {
+            parseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        String name = upload.name();
+        if (name == null) {
             return ResponseEntity.badRequest().body(Map.of(
                     "status", "error",
                     "message", "Field meta.name is required in the JSON"
             ));
         }
 
-        FileEntity saved = fileEntityService.saveMessage(config, name);
+        start = System.nanoTime();
+        CompiledFlow flow = flowConfigService.compile(upload.flow());
+        compileTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
-        // FlowConfigService вече може сам да се справи с валидирането.
-        Flow flow = objectMapper.treeToValue(config, Flow.class);
-        flowConfigService.setFlow(flow);
+        FileEntity saved = fileEntityService.saveMessage(new String(config, StandardCharsets.UTF_8), name, activate);
+        if (activate) {
+            activeConfigCache.update(saved.getId(), config);
+            flowConfigService.activate(flow, name);
+        }
+        flowRegistry.replace(name, flow);
 
         return ResponseEntity.ok(Map.of(
                 "status", "success",
@@ -57,20 +105,83 @@ public class FileEntityController {
         ));
     }
 
-    //returns the active JSON
+    //returns the active JSON, or the newest file with the given name
+    //The active file is served from ActiveConfigCache: gzip'd when the client accepts it, and with an ETag, so
+    //a poller that sends If-None-Match gets an empty 304 until a new file is uploaded (on any node: see
+    //ActiveConfigCache for how soon other nodes notice).
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> getChatMessageConfiguration() {
-        return fileEntityService.getActiveJson()
-                .<ResponseEntity<?>>map(json ->
-                        ResponseEntity
-                                .ok()
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .body(json)
-                )
-                .orElseGet(() -> ResponseEntity.status(404).body(Map.of(
-                        "status", "not_found",
-                        "message", "No active configuration found"
-                )));
+    public ResponseEntity<?> getChatMessageConfiguration(
+            @RequestParam(required = false) String name,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (name != null) {
+            return fileEntityService.getLatestJson(name)
+                    .<ResponseEntity<?>>map(json -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json))
+                    .orElseGet(FileEntityController::notFound);
+        }
+        ActiveConfigCache.Document document = activeConfigCache.get();
+        if (!document.exists()) {
+            return notFound();
+        }
+        boolean gzip = acceptsGzip(acceptEncoding);
+        String etag = gzip ? document.gzipEtag() : document.etag();
+        boolean notModified = matches(ifNoneMatch, etag);
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(notModified ? 304 : 200)
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (notModified) {
+            return response.build();
+        }
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.contentType(MediaType.APPLICATION_JSON).body(gzip ? document.gzip() : document.json());
+    }
+
+    private static ResponseEntity<?> notFound() {
+        return ResponseEntity.status(404).body(Map.of(
+                "status", "not_found",
+                "message", "No active configuration found"
+        ));
+    }
+
+    // If-None-Match is "*" or a list of (possibly weak) ETags.
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True if gzip (or any encoding) is listed without q=0.
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim();
+            if (coding.equalsIgnoreCase("gzip") || coding.equals("*")) {
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim();
+                    if (param.matches("q=0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
     }
 
 }
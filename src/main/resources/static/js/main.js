@@ -79,10 +79,15 @@ function sendMessage(event) {
     event.preventDefault();
 }
 
-// Handle incoming bot messages from the personal reply queue.
+// Handle incoming bot messages from the personal reply queue. A frame holds
+// either one message or, with chatbot.replies.batch=true, an array with all
+// replies of a turn.
 function onMessageReceived(payload) {
-    var message = JSON.parse(payload.body);
-    displayMessage(message.sender, message.content);
+    var body = JSON.parse(payload.body);
+    var messages = Array.isArray(body) ? body : [body];
+    for (var i = 0; i < messages.length; i++) {
+        displayMessage(messages[i].sender, messages[i].content);
+    }
 }
 
 // Compute a background colour for the avatar based on the sender's name.
@@ -0,0 +1,155 @@
+package org.chatbot.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs against a local stub of the chat completions endpoint. The stub answers "price" for every user message
+// that mentions a price and NONE otherwise, as a JSON array when asked for one.
+class BatchingIntentDetectorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final List<String> INTENTS = List.of("price", "hours");
+
+    private HttpServer server;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final List<Integer> itemsPerCall = new ArrayList<>();
+    // Answer of the stub instead of the classification, if set.
+    private volatile String override;
+    private volatile int status = 200;
+    private BatchingIntentDetector detector;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", this::answer);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (detector != null) {
+            detector.close();
+        }
+        server.stop(0);
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+        String system = request.path("messages").get(0).path("content").asText();
+        String user = request.path("messages").get(1).path("content").asText();
+        List<String> answers = new ArrayList<>();
+        for (String line : user.split("\n")) {
+            if (line.startsWith("User message: ")) {
+                answers.add(line.contains("price") ? "price" : "NONE");
+            }
+        }
+        calls.incrementAndGet();
+        synchronized (itemsPerCall) {
+            itemsPerCall.add(answers.size());
+        }
+        String content = override != null ? override
+                : system.contains("JSON array") ? MAPPER.writeValueAsString(answers) : answers.get(0);
+        byte[] body = MAPPER.writeValueAsBytes(Map.of("choices", List.of(Map.of("message", Map.of("content", content)))));
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private BatchingIntentDetector newDetector(long windowMillis, int maxBatchSize) {
+        OpenAIIntentDetector openAI = new OpenAIIntentDetector("test-key", "test-model",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions", 2000, 5000);
+        detector = new BatchingIntentDetector(openAI, windowMillis, maxBatchSize);
+        return detector;
+    }
+
+    @Test
+    void testConcurrentCallsShareOneRequest() throws Exception {
+        BatchingIntentDetector batching = newDetector(200, 16);
+        List<CompletableFuture<Optional<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(batching.detectIntentAsync(i % 2 == 0 ? "what is the price " + i : "hello " + i, INTENTS));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            Optional<String> expected = i % 2 == 0 ? Optional.of("price") : Optional.empty();
+            assertEquals(expected, results.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(List.of(5), itemsPerCall);
+        assertEquals(new BatchingIntentDetector.Stats(5, 1, 5), batching.stats());
+    }
+
+    @Test
+    void testFullBatchIsSentWithoutWaitingForTheWindow() throws Exception {
+        BatchingIntentDetector batching = newDetector(60_000, 2);
+        CompletableFuture<Optional<String>> first = batching.detectIntentAsync("price?", INTENTS);
+        CompletableFuture<Optional<String>> second = batching.detectIntentAsync("hi", INTENTS);
+
+        assertEquals(Optional.of("price"), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Optional.empty(), second.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(2), itemsPerCall);
+    }
+
+    @Test
+    void testSingleCallUsesTheSingleItemPrompt() {
+        BatchingIntentDetector batching = newDetector(10, 16);
+
+        assertEquals(Optional.of("price"), batching.detectIntent("the price please", INTENTS));
+        assertEquals(1, calls.get());
+        assertEquals(List.of(1), itemsPerCall);
+    }
+
+    @Test
+    void testAnswersThatDoNotMatchTheItemsFailEveryCaller() {
+        BatchingIntentDetector batching = newDetector(60_000, 3);
+        override = "[\"price\", \"NONE\"]";
+        List<CompletableFuture<Optional<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(batching.detectIntentAsync("price " + i, INTENTS));
+        }
+
+        for (CompletableFuture<Optional<String>> result : results) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, e.getCause());
+        }
+    }
+
+    @Test
+    void testAFailedBatchCountsOnceForTheBreaker() throws Exception {
+        newDetector(60_000, 5);
+        CircuitBreaker breaker = new CircuitBreaker(2, 60_000);
+        ResilientIntentDetector resilient = new ResilientIntentDetector(detector, 5000, 0, 0, breaker);
+        status = 500;
+        List<CompletableFuture<Optional<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(resilient.detectIntentAsync("price " + i, INTENTS));
+        }
+        for (CompletableFuture<Optional<String>> result : results) {
+            assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(5, resilient.stats().failures());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+}
@@ -0,0 +1,107 @@
+package org.chatbot.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.chatbot.configuration.FlowActivatedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CachingIntentDetectorTest {
+
+    private IntentDetector delegate;
+    private AtomicLong clock;
+    private CachingIntentDetector cache;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(IntentDetector.class);
+        clock = new AtomicLong();
+        cache = new CachingIntentDetector(delegate, 2, 1000, 100, clock::get);
+    }
+
+    @Test
+    void testRepeatedTextIsServedFromCache() {
+        when(delegate.detectIntent("What is the price?", List.of("price", "hours"))).thenReturn(Optional.of("price"));
+
+        assertEquals(Optional.of("price"), cache.detectIntent("What is the price?", List.of("price", "hours")));
+        // Same text after normalization and the same candidate set in a different order.
+        assertEquals(Optional.of("price"), cache.detectIntent("  what IS the   price? ", List.of("hours", "price")));
+
+        verify(delegate, times(1)).detectIntent(anyString(), anyList());
+        assertEquals(1, cache.stats().hits());
+        assertEquals(1, cache.stats().misses());
+    }
+
+    @Test
+    void testDifferentCandidateSetIsADifferentKey() {
+        when(delegate.detectIntent(anyString(), anyList())).thenReturn(Optional.of("price"));
+
+        cache.detectIntent("price", List.of("price"));
+        cache.detectIntent("price", List.of("price", "hours"));
+
+        verify(delegate, times(2)).detectIntent(anyString(), anyList());
+    }
+
+    @Test
+    void testNegativeResultsUseTheirOwnTtl() {
+        when(delegate.detectIntent(anyString(), anyList())).thenReturn(Optional.empty());
+
+        cache.detectIntent("hello", List.of("price"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Optional.empty(), cache.detectIntent("hello", List.of("price")));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(60));
+        cache.detectIntent("hello", List.of("price"));
+
+        verify(delegate, times(2)).detectIntent(anyString(), anyList());
+        assertEquals(1, cache.stats().expirations());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        when(delegate.detectIntent(anyString(), anyList())).thenReturn(Optional.of("price"));
+
+        cache.detectIntent("a", List.of("price"));
+        cache.detectIntent("b", List.of("price"));
+        cache.detectIntent("a", List.of("price"));
+        cache.detectIntent("c", List.of("price"));
+        cache.detectIntent("a", List.of("price"));
+        cache.detectIntent("b", List.of("price"));
+
+        // "b" was the least recently used entry when "c" was added.
+        verify(delegate, times(2)).detectIntent(eq("b"), anyList());
+        verify(delegate, times(1)).detectIntent(eq("a"), anyList());
+        assertEquals(2, cache.stats().evictions());
+        assertEquals(2, cache.stats().size());
+    }
+
+    @Test
+    void testFlowChangeClearsCache() {
+        when(delegate.detectIntent(anyString(), anyList())).thenReturn(Optional.of("price"));
+
+        cache.detectIntent("price", List.of("price"));
+        cache.onFlowActivated(new FlowActivatedEvent(null, null));
+        cache.detectIntent("price", List.of("price"));
+
+        verify(delegate, times(2)).detectIntent(anyString(), anyList());
+    }
+
+    @Test
+    void testClosingTheOutermostDetectorClosesTheWholeChain() {
+        ResilientIntentDetector resilient = new ResilientIntentDetector(delegate, 1000, 0, 0, new CircuitBreaker(3, 1000));
+        CachingIntentDetector chain = new CachingIntentDetector(
+                new MeteredIntentDetector(resilient, "openai", new SimpleMeterRegistry()), 2, 1000, 100);
+
+        chain.close();
+
+        verify(delegate).close();
+        // The resilient detector's timer is gone, so it can no longer start a detection.
+        assertThrows(RuntimeException.class, () -> resilient.detectIntentAsync("hi", List.of("price")).join());
+    }
+}
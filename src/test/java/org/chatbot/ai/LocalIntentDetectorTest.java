@@ -0,0 +1,113 @@
+package org.chatbot.ai;
+
+import org.chatbot.configuration.FlowActivatedEvent;
+import org.chatbot.configuration.FlowConfigService;
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
+import org.chatbot.flow.IntentOption;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalIntentDetectorTest {
+
+    private FlowConfigService flowConfigService;
+    private LocalIntentDetector detector;
+    private CompiledFlow flow;
+
+    @BeforeEach
+    void setUp() {
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(
+                new IntentOption("price", List.of("price", "cost", "how much", "amount"), "answer",
+                        List.of("is it expensive", "what do I pay")),
+                new IntentOption("hours", List.of("hours", "working hours", "opening hours"), "answer",
+                        List.of("when are you open", "are you open on sunday")),
+                new IntentOption("delivery", List.of("delivery", "ship", "shipping"), "answer")
+        ), "answer");
+        Block answer = new Block("answer", BlockType.WRITE_MESSAGE, "ok", null, null, null, null);
+        flowConfigService = new FlowConfigService(null, event -> { }, 0, FlowCompiler.DEFAULT_MAX_HOPS);
+        flowConfigService.setFlow(new Flow("detect", List.of(detect, answer)));
+        flow = flowConfigService.getCompiledFlow();
+        detector = new LocalIntentDetector(flowConfigService, 0.3);
+    }
+
+    private List<String> candidates() {
+        return flow.byId("detect").intentNames();
+    }
+
+    @Test
+    void testClassifiesParaphrasesOfKeywordsAndExamples() {
+        assertEquals(Optional.of("price"), detector.detectIntent("How much does it cost?", candidates()));
+        assertEquals(Optional.of("hours"), detector.detectIntent("When are you OPEN tomorrow", candidates()));
+        assertEquals(Optional.of("delivery"), detector.detectIntent("do you ship abroad", candidates()));
+        // Typos still share most trigrams with the keyword.
+        assertEquals(Optional.of("delivery"), detector.detectIntent("delivry", candidates()));
+    }
+
+    @Test
+    void testUnrelatedTextHasNoIntent() {
+        assertEquals(Optional.empty(), detector.detectIntent("tell me a joke", candidates()));
+        assertEquals(Optional.empty(), detector.detectIntent("", candidates()));
+        // Only the block's own candidate list finds its model.
+        assertEquals(Optional.empty(), detector.detectIntent("price", List.of("price", "hours", "delivery")));
+    }
+
+    @Test
+    void testScoresAreCosineSimilarities() {
+        NgramIntentModel.Prediction exact = detector.predict("price", flow.byId("detect"));
+        NgramIntentModel.Prediction partial = detector.predict("what is the price of this thing", flow.byId("detect"));
+
+        assertEquals("price", exact.name());
+        assertEquals(0, exact.intent());
+        assertTrue(exact.score() > 0 && exact.score() <= 1);
+        assertTrue(partial.score() < exact.score());
+    }
+
+    @Test
+    void testModelsFollowTheActiveFlow() {
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(
+                new IntentOption("weather", List.of("weather", "forecast"), "answer")
+        ), "answer");
+        Block answer = new Block("answer", BlockType.WRITE_MESSAGE, "ok", null, null, null, null);
+        CompiledFlow previous = flow;
+        flowConfigService.setFlow(new Flow("detect", List.of(detect, answer)));
+        detector.onFlowActivated(new FlowActivatedEvent(previous, flowConfigService.getCompiledFlow()));
+
+        List<String> weather = flowConfigService.getCompiledFlow().byId("detect").intentNames();
+        assertEquals(Optional.of("weather"), detector.detectIntent("what's the forecast", weather));
+        assertNull(detector.predict("price", flow.byId("detect")));
+        assertEquals(Optional.empty(), detector.detectIntent("price", candidates()));
+    }
+
+    @Test
+    void testBlocksOfAnotherFlowWithTheSameIntentsHaveNoModel() {
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(
+                new IntentOption("price", List.of("tariff"), "answer"),
+                new IntentOption("hours", List.of("schedule"), "answer"),
+                new IntentOption("delivery", List.of("courier"), "answer")
+        ), "answer");
+        Block answer = new Block("answer", BlockType.WRITE_MESSAGE, "ok", null, null, null, null);
+        CompiledFlow named = FlowCompiler.compile(new Flow("detect", List.of(detect, answer)));
+        assertEquals(candidates(), named.byId("detect").intentNames());
+
+        assertNull(detector.predict("how much", named.byId("detect")));
+        assertEquals(Optional.empty(), detector.detectIntent("how much", named.byId("detect").intentNames()));
+        assertEquals("price", detector.predict("how much", flow.byId("detect")).name());
+    }
+
+    @Test
+    void testTrigramsArePaddedAndNormalized() {
+        NgramIntentModel model = NgramIntentModel.train(List.of("a", "b"), List.of(List.of("Hi, there!"), List.of("HI there")));
+
+        // " hi there " -> " hi", "hi ", "i t", " th", "the", "her", "ere", "re " in both documents.
+        assertEquals(8, model.features());
+        assertEquals(1.0, model.predict("hi there").score(), 1e-6);
+    }
+}
@@ -0,0 +1,64 @@
+package org.chatbot.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class MeteredIntentDetectorTest {
+
+    private static final List<String> INTENTS = List.of("price", "hours");
+
+    private IntentDetector delegate;
+    private SimpleMeterRegistry registry;
+    private MeteredIntentDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(IntentDetector.class);
+        registry = new SimpleMeterRegistry();
+        detector = new MeteredIntentDetector(delegate, "openai", registry);
+    }
+
+    private long count(String outcome) {
+        return registry.get("chatbot.intent.detection").tag("detector", "openai").tag("outcome", outcome).timer().count();
+    }
+
+    @Test
+    void testOutcomesAreCountedSeparately() {
+        when(delegate.detectIntent("how much", INTENTS)).thenReturn(Optional.of("price"));
+        when(delegate.detectIntent("hello", INTENTS)).thenReturn(Optional.empty());
+        when(delegate.detectIntent("boom", INTENTS)).thenThrow(new IllegalStateException("down"));
+
+        assertEquals(Optional.of("price"), detector.detectIntent("how much", INTENTS));
+        assertEquals(Optional.empty(), detector.detectIntent("hello", INTENTS));
+        assertThrows(IllegalStateException.class, () -> detector.detectIntent("boom", INTENTS));
+
+        assertEquals(1, count("HIT"));
+        assertEquals(1, count("NONE"));
+        assertEquals(1, count("ERROR"));
+    }
+
+    @Test
+    void testAsyncDetectionIsRecordedWhenItCompletes() {
+        CompletableFuture<Optional<String>> pending = new CompletableFuture<>();
+        when(delegate.detectIntentAsync("how much", INTENTS)).thenReturn(pending);
+        when(delegate.detectIntentAsync("later", INTENTS))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("timeout")));
+
+        CompletableFuture<Optional<String>> result = detector.detectIntentAsync("how much", INTENTS);
+        assertEquals(0, count("HIT"));
+        pending.complete(Optional.of("price"));
+
+        assertEquals(Optional.of("price"), result.join());
+        assertEquals(1, count("HIT"));
+        assertTrue(detector.detectIntentAsync("later", INTENTS).isCompletedExceptionally());
+        assertEquals(1, count("ERROR"));
+    }
+}
@@ -0,0 +1,199 @@
+package org.chatbot.ai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs against a local stub of the chat completions endpoint that always answers "price", after a configurable
+// delay and with a configurable status. Delays queued in delaysMillis are used first, one per request.
+class ResilientIntentDetectorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final List<String> INTENTS = List.of("price", "hours");
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicLong delayMillis = new AtomicLong();
+    private final AtomicInteger status = new AtomicInteger(200);
+    private final Queue<Long> delaysMillis = new ConcurrentLinkedQueue<>();
+    private ResilientIntentDetector detector;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/v1/chat/completions", this::answer);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (detector != null) {
+            detector.close();
+        }
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        calls.incrementAndGet();
+        Long queued = delaysMillis.poll();
+        try {
+            Thread.sleep(queued != null ? queued : delayMillis.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] body = MAPPER.writeValueAsBytes(Map.of("choices", List.of(Map.of("message", Map.of("content", "price")))));
+        exchange.sendResponseHeaders(status.get(), body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private OpenAIIntentDetector openAI() {
+        return new OpenAIIntentDetector("test-key", "test-model",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions", 1000, 5000);
+    }
+
+    private ResilientIntentDetector newDetector(long budgetMillis, long slowCallMillis, long hedgeDelayMillis, CircuitBreaker breaker) {
+        detector = new ResilientIntentDetector(openAI(), budgetMillis, slowCallMillis, hedgeDelayMillis, breaker);
+        return detector;
+    }
+
+    @Test
+    void testAnswerWithinBudgetIsReturned() {
+        ResilientIntentDetector resilient = newDetector(2000, 0, 0, new CircuitBreaker(3, 60_000));
+
+        assertEquals(Optional.of("price"), resilient.detectIntent("how much", INTENTS));
+        assertEquals(CircuitBreaker.State.CLOSED, resilient.stats().breakerState());
+    }
+
+    @Test
+    void testAnsweredCallsCancelTheirTimers() throws Exception {
+        ResilientIntentDetector resilient = newDetector(60_000, 0, 30_000, new CircuitBreaker(3, 60_000));
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Optional.of("price"), resilient.detectIntent("how much " + i, INTENTS));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (resilient.pendingTimers() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, resilient.pendingTimers());
+    }
+
+    @Test
+    void testSlowEndpointFallsBackWhenTheBudgetRunsOut() throws Exception {
+        delayMillis.set(2000);
+        ResilientIntentDetector resilient = newDetector(100, 0, 0, new CircuitBreaker(3, 60_000));
+
+        long start = System.nanoTime();
+        CompletableFuture<Optional<String>> intent = resilient.detectIntentAsync("how much", INTENTS);
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> intent.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, error.getCause());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(1, resilient.stats().budgetExceeded());
+    }
+
+    @Test
+    void testBreakerOpensAfterConsecutiveFailuresAndRecovers() throws Exception {
+        status.set(500);
+        AtomicLong now = new AtomicLong();
+        ResilientIntentDetector resilient = newDetector(2000, 0, 0, new CircuitBreaker(3, 1000, now::get));
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture<Optional<String>> failed = resilient.detectIntentAsync("how much", INTENTS);
+            assertThrows(Exception.class, () -> failed.get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, resilient.stats().breakerState());
+
+        // While open, the endpoint is not called and the answer is immediate.
+        CompletableFuture<Optional<String>> shortCircuited = resilient.detectIntentAsync("how much", INTENTS);
+        assertTrue(shortCircuited.isCompletedExceptionally());
+        assertEquals(3, calls.get());
+        assertEquals(1, resilient.stats().shortCircuited());
+
+        // After the open period a successful trial call closes the circuit again.
+        status.set(200);
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+        assertEquals(Optional.of("price"), resilient.detectIntentAsync("how much", INTENTS).get(1, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.CLOSED, resilient.stats().breakerState());
+    }
+
+    @Test
+    void testSlowCallsOpenTheBreaker() {
+        delayMillis.set(150);
+        ResilientIntentDetector resilient = newDetector(2000, 50, 0, new CircuitBreaker(2, 60_000));
+
+        assertEquals(Optional.of("price"), resilient.detectIntent("how much", INTENTS));
+        assertEquals(Optional.of("price"), resilient.detectIntent("how much", INTENTS));
+
+        assertEquals(CircuitBreaker.State.OPEN, resilient.stats().breakerState());
+        assertEquals(2, resilient.stats().slowCalls());
+    }
+
+    @Test
+    void testHedgedRequestAnswersWhenTheFirstOneHangs() throws Exception {
+        delaysMillis.add(3000L);
+        ResilientIntentDetector resilient = newDetector(2000, 0, 50, new CircuitBreaker(3, 60_000));
+
+        long start = System.nanoTime();
+        Optional<String> intent = resilient.detectIntentAsync("how much", INTENTS).get(1, TimeUnit.SECONDS);
+
+        assertEquals(Optional.of("price"), intent);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(2, calls.get());
+        assertEquals(1, resilient.stats().hedges());
+    }
+
+    @Test
+    void testFallbacksAreNotCachedInFrontOfTheDetector() throws Exception {
+        delaysMillis.add(2000L);
+        AtomicLong now = new AtomicLong();
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000, now::get);
+        CachingIntentDetector cache = new CachingIntentDetector(newDetector(100, 0, 0, breaker), 100, 60_000, 60_000);
+
+        // The budget runs out, and the late answer then opens the breaker: both fail instead of caching "no intent".
+        CompletableFuture<Optional<String>> timedOut = cache.detectIntentAsync("how much", INTENTS);
+        assertThrows(ExecutionException.class, () -> timedOut.get(1, TimeUnit.SECONDS));
+        assertEquals(0, cache.stats().size());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (breaker.state() != CircuitBreaker.State.OPEN && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        CompletableFuture<Optional<String>> rejected = cache.detectIntentAsync("how much", INTENTS);
+        assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+        assertEquals(0, cache.stats().size());
+
+        // Once the endpoint answers in time again the real intent is returned and cached.
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+        assertEquals(Optional.of("price"), cache.detectIntentAsync("how much", INTENTS).get(1, TimeUnit.SECONDS));
+        assertEquals(Optional.of("price"), cache.detectIntentAsync("how much", INTENTS).get(1, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+        assertEquals(1, cache.stats().hits());
+    }
+}
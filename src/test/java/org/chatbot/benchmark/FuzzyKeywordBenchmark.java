@@ -0,0 +1,120 @@
+package org.chatbot.benchmark;
+
+import org.chatbot.engine.KeywordMatcher;
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.CompiledBlock;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
+import org.chatbot.flow.MatchSpec;
+import org.chatbot.flow.MatchType;
+import org.chatbot.flow.Route;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the per-turn cost of KeywordMatcher on one WAIT_FOR_RESPONSE block with many keywords, with exact
+ * matching only and with the typo-tolerant index, for messages that contain a keyword, contain a misspelled
+ * keyword, or match nothing (the worst case, every window is probed). Also reports how long the flow takes to
+ * compile and how many bytes a turn allocates.
+ *
+ * <p>Not a unit test. Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.chatbot.benchmark.FuzzyKeywordBenchmark \
+ *     -Dexec.args="5000 2 200000"
+ * </pre>
+ * Arguments: keywords in the block, fuzzy max distance, measured turns per case.
+ */
+public class FuzzyKeywordBenchmark {
+
+    public static void main(String[] args) {
+        int keywords = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int distance = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int turns = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        Random random = new Random(42);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < keywords; i++) {
+            words.add(randomWord(random, 5 + random.nextInt(7)));
+        }
+        Flow flow = flow(words);
+        String keyword = words.get(keywords / 2);
+        String typo = keyword.substring(0, 2) + keyword.charAt(3) + keyword.charAt(2) + keyword.substring(4);
+        String[] texts = {
+                "hello, I would like to know about " + keyword + " please",
+                "hello, I would like to know about " + typo + " please",
+                "hello, I would like to know about something else entirely please"
+        };
+        String[] cases = {"keyword", "typo", "no match"};
+
+        System.out.printf("keywords=%d distance=%d turns=%d%n", keywords, distance, turns);
+        KeywordMatcher matcher = new KeywordMatcher();
+        for (int d : new int[] {0, distance}) {
+            long start = System.nanoTime();
+            CompiledFlow compiled = FlowCompiler.compile(flow, d);
+            long compileMillis = (System.nanoTime() - start) / 1_000_000;
+            CompiledBlock block = compiled.byId("wait");
+            System.out.printf("%s: compile %d ms, fuzzy keywords indexed %d%n",
+                    d == 0 ? "exact" : "fuzzy(" + d + ")", compileMillis, block.routeFuzzyKeywords().size());
+            for (int c = 0; c < texts.length; c++) {
+                String text = texts[c];
+                // Warm-up, then measure.
+                for (int i = 0; i < turns; i++) {
+                    matcher.resolve(block, text);
+                }
+                long bytes = allocatedBytes();
+                start = System.nanoTime();
+                int hits = 0;
+                for (int i = 0; i < turns; i++) {
+                    if (matcher.resolve(block, text) != block.routeFallback()) {
+                        hits++;
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                long allocated = allocatedBytes() - bytes;
+                System.out.printf("  %-9s %9.0f ns/turn  %6.1f B/turn  matched=%b%n",
+                        cases[c], nanos / (double) turns, allocated / (double) turns, hits > 0);
+            }
+        }
+    }
+
+    // One block with 50 KEYWORD routes sharing the keywords, plus a FALLBACK route.
+    private static Flow flow(List<String> words) {
+        int routeCount = 50;
+        List<List<String>> keywordsPerRoute = new ArrayList<>();
+        for (int r = 0; r < routeCount; r++) {
+            keywordsPerRoute.add(new ArrayList<>());
+        }
+        for (int i = 0; i < words.size(); i++) {
+            keywordsPerRoute.get(i % routeCount).add(words.get(i));
+        }
+        List<Route> routes = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+        for (int r = 0; r < routeCount; r++) {
+            routes.add(new Route(new MatchSpec(MatchType.KEYWORD, keywordsPerRoute.get(r)), "answer"));
+        }
+        routes.add(new Route(new MatchSpec(MatchType.FALLBACK, null), "fallback"));
+        blocks.add(new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null, routes, null, null));
+        blocks.add(new Block("answer", BlockType.WRITE_MESSAGE, "Found it.", "wait", null, null, null));
+        blocks.add(new Block("fallback", BlockType.WRITE_MESSAGE, "Sorry?", "wait", null, null, null));
+        return new Flow("wait", blocks);
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,141 @@
+package org.chatbot.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.chatbot.ai.IntentDetector;
+import org.chatbot.configuration.FlowConfigService;
+import org.chatbot.configuration.FlowRegistry;
+import org.chatbot.conversationMessage.service.ConversationMessageService;
+import org.chatbot.conversationMessage.service.RecentMessageCache;
+import org.chatbot.engine.ChatFlowEngine;
+import org.chatbot.engine.ConversationStateService;
+import org.chatbot.engine.InMemoryConversationStateStore;
+import org.chatbot.engine.IntentCascade;
+import org.chatbot.engine.KeywordMatcher;
+import org.chatbot.engine.SessionSequencer;
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
+import org.chatbot.flow.IntentOption;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares concurrent-session throughput of the chat engine when STOMP inbound work runs on
+ * Spring's default fixed platform pool (2 x cores) versus one virtual thread per message.
+ * Persistence and the intent detector are stubbed with fixed blocking delays that stand in for
+ * JPA inserts and the OpenAI round trip.
+ *
+ * <p>Not a unit test. Run on Java 21 with:
+ * <pre>
+ * mvn -Pjava21 test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.chatbot.benchmark.ThreadingModeBenchmark \
+ *     -Dexec.args="2000 5 1 40"
+ * </pre>
+ * Arguments: sessions, turns per session, persistence delay ms, intent detection delay ms.
+ */
+public class ThreadingModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int turns = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long dbDelayMillis = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        long llmDelayMillis = args.length > 3 ? Long.parseLong(args[3]) : 40;
+
+        ChatFlowEngine engine = createEngine(dbDelayMillis, llmDelayMillis);
+        int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+        System.out.printf("sessions=%d turns=%d dbDelay=%dms llmDelay=%dms platformPool=%d%n",
+                sessions, turns, dbDelayMillis, llmDelayMillis, poolSize);
+
+        ExecutorService platform = Executors.newFixedThreadPool(poolSize);
+        try {
+            report("platform", run(engine, platform::execute, sessions, turns), sessions, turns);
+        } finally {
+            platform.shutdownNow();
+        }
+
+        SimpleAsyncTaskExecutor virtual = new SimpleAsyncTaskExecutor("bench-virtual-");
+        try {
+            virtual.setVirtualThreads(true);
+            report("virtual", run(engine, virtual::execute, sessions, turns), sessions, turns);
+        } catch (UnsupportedOperationException e) {
+            System.out.println("virtual: skipped, requires Java 21 (" + e.getMessage() + ")");
+        } finally {
+            virtual.close();
+        }
+    }
+
+    private static long run(ChatFlowEngine engine, java.util.concurrent.Executor executor,
+                            int sessions, int turns) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(sessions);
+        long start = System.nanoTime();
+        for (int s = 0; s < sessions; s++) {
+            String sessionId = "bench-" + s + "-" + start;
+            executor.execute(() -> {
+                try {
+                    engine.start(sessionId);
+                    for (int t = 0; t < turns; t++) {
+                        engine.onUserMessage(sessionId, t % 2 == 0 ? "what is the price" : "opening hours?");
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await(10, TimeUnit.MINUTES);
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String mode, long nanos, int sessions, int turns) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-8s %8.2f s  %10.1f turns/s%n", mode, seconds, sessions * (double) turns / seconds);
+    }
+
+    private static ChatFlowEngine createEngine(long dbDelayMillis, long llmDelayMillis) {
+        Block greeting = new Block("greeting", BlockType.WRITE_MESSAGE, "Hello!", "detect", null, null, null);
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(
+                new IntentOption("price", List.of("price"), "price"),
+                new IntentOption("hours", List.of("hours"), "hours")), "fallback");
+        Block price = new Block("price", BlockType.WRITE_MESSAGE, "It is 49.", "detect", null, null, null);
+        Block hours = new Block("hours", BlockType.WRITE_MESSAGE, "9 to 5.", "detect", null, null, null);
+        Block fallback = new Block("fallback", BlockType.WRITE_MESSAGE, "Sorry?", "detect", null, null, null);
+
+        FlowConfigService flowConfigService =
+                new FlowConfigService(null, event -> { }, 0, FlowCompiler.DEFAULT_MAX_HOPS);
+        flowConfigService.setFlow(new Flow("greeting", List.of(greeting, detect, price, hours, fallback)));
+
+        ConversationMessageService messages = new ConversationMessageService(null, null, RecentMessageCache.disabled(), null,
+                new SimpleMeterRegistry()) {
+            @Override
+            public void saveUserMessage(String sessionId, String content, String blockId) {
+                sleep(dbDelayMillis);
+            }
+
+            @Override
+            public void saveBotMessage(String sessionId, String content, String blockId) {
+                sleep(dbDelayMillis);
+            }
+        };
+        IntentDetector detector = (text, intents) -> {
+            sleep(llmDelayMillis);
+            return Optional.of(text.contains("price") ? "price" : "hours");
+        };
+        FlowRegistry flows = new FlowRegistry(flowConfigService, null, event -> { }, "flow", 1);
+        return new ChatFlowEngine(flows,
+                new ConversationStateService(new InMemoryConversationStateStore(1_800_000, 100_000), "conversation-id",
+                        ""),
+                new KeywordMatcher(), messages, detector, Runnable::run, new SessionSequencer(100),
+                new IntentCascade(null, false, 1.0, 1.0), new SimpleMeterRegistry());
+    }
+
+    private static void sleep(long millis) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -0,0 +1,51 @@
+package org.chatbot.configuration;
+
+import org.chatbot.fileEntity.service.FileEntityService;
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
+import org.chatbot.flow.FlowValidationException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FlowConfigServiceTest {
+
+    // Stored before the analyzer existed: "wait" routes to a block that was deleted later.
+    private static final String LEGACY = """
+            {"startBlockId": "hello", "blocks": [
+              {"id": "hello", "type": "WRITE_MESSAGE", "message": "Hi", "next": "wait"},
+              {"id": "wait", "type": "WAIT_FOR_RESPONSE",
+               "on": [{"match": {"type": "KEYWORD", "anyOf": ["price"]}, "next": "gone"}]}]}
+            """;
+
+    @Test
+    void testStoredFlowWithAnalyzerErrorsIsStillServedOnStartup() {
+        FileEntityService files = mock(FileEntityService.class);
+        when(files.getActiveJson()).thenReturn(Optional.of(LEGACY));
+        when(files.getActiveName()).thenReturn(Optional.of("legacy"));
+        FlowConfigService service = new FlowConfigService(files, event -> { }, 0, FlowCompiler.DEFAULT_MAX_HOPS);
+
+        service.loadActiveOnStartup();
+
+        assertNotNull(service.getCompiledFlow());
+        assertEquals("hello", service.getFlow().getStartBlockId());
+        assertEquals(List.of("Hi"), service.getCompiledFlow().start().messages());
+        assertEquals("legacy", service.getActiveName());
+    }
+
+    @Test
+    void testUploadedFlowWithErrorsIsStillRejected() {
+        FlowConfigService service = new FlowConfigService(mock(FileEntityService.class), event -> { }, 0,
+                FlowCompiler.DEFAULT_MAX_HOPS);
+        Block hello = new Block("hello", BlockType.WRITE_MESSAGE, "Hi", "gone", null, null, null);
+
+        assertThrows(FlowValidationException.class, () -> service.setFlow(new Flow("hello", List.of(hello))));
+        assertNull(service.getCompiledFlow());
+    }
+}
@@ -0,0 +1,217 @@
+package org.chatbot.configuration;
+
+import org.chatbot.fileEntity.service.FileEntityService;
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class FlowRegistryTest {
+
+    private FileEntityService fileEntityService;
+    private FlowConfigService flowConfigService;
+    private final List<Object> events = new ArrayList<>();
+    private final AtomicLong clock = new AtomicLong();
+    private FlowRegistry registry;
+
+    private static String json(String message) {
+        return "{\"meta\": {\"name\": \"x\"}, \"startBlockId\": \"hello\", \"blocks\": "
+                + "[{\"id\": \"hello\", \"type\": \"WRITE_MESSAGE\", \"message\": \"" + message + "\"}]}";
+    }
+
+    private static Flow flow(String message) {
+        return new Flow("hello", List.of(new Block("hello", BlockType.WRITE_MESSAGE, message, null, null, null, null)));
+    }
+
+    private static String greeting(CompiledFlow flow) {
+        return flow.start().messages().get(0);
+    }
+
+    @BeforeEach
+    void setUp() {
+        fileEntityService = mock(FileEntityService.class);
+        when(fileEntityService.getLatestJson(any())).thenReturn(Optional.empty());
+        when(fileEntityService.getLatestJson("acme")).thenReturn(Optional.of(json("Welcome to Acme")));
+        when(fileEntityService.getLatestJson("globex")).thenReturn(Optional.of(json("Globex here")));
+        when(fileEntityService.getLatestJson("initech")).thenReturn(Optional.of(json("Initech, hi")));
+        flowConfigService = new FlowConfigService(fileEntityService, event -> { }, 0, FlowCompiler.DEFAULT_MAX_HOPS);
+        registry = new FlowRegistry(flowConfigService, fileEntityService, events::add, "flow", 2, clock::get);
+    }
+
+    @Test
+    void testSessionsWithoutAFlowUseTheActiveFlow() {
+        flowConfigService.setFlow(flow("Default"));
+
+        assertSame(flowConfigService.getCompiledFlow(), registry.forSession("s1"));
+        assertSame(flowConfigService.getCompiledFlow(), registry.forSession(null));
+    }
+
+    @Test
+    void testNamedFlowsAreLoadedOnceAndThenServedFromTheCache() {
+        registry.selectFlow("s1", " acme ");
+        registry.selectFlow("s2", "acme");
+
+        CompiledFlow acme = registry.forSession("s1");
+
+        assertEquals("Welcome to Acme", greeting(acme));
+        assertSame(acme, registry.forSession("s2"));
+        verify(fileEntityService, times(1)).getLatestJson("acme");
+        assertEquals(new FlowRegistry.Stats(1, 1, 1, 0, 2), registry.stats());
+    }
+
+    @Test
+    void testUnknownAndInvalidFlowsAreNullAndCachedToo() {
+        when(fileEntityService.getLatestJson("broken")).thenReturn(Optional.of("{\"startBlockId\": \"nowhere\"}"));
+
+        assertNull(registry.byName("nobody"));
+        assertNull(registry.byName("nobody"));
+        assertNull(registry.byName("broken"));
+        verify(fileEntityService, times(1)).getLatestJson("nobody");
+        verify(fileEntityService, times(1)).getLatestJson("broken");
+    }
+
+    @Test
+    void testUnknownNamesDoNotEvictFlowsAndAreLookedUpAgainAfterAWhile() {
+        CompiledFlow acme = registry.byName("acme");
+        CompiledFlow globex = registry.byName("globex");
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(registry.byName("nobody" + i));
+        }
+        assertSame(acme, registry.byName("acme"));
+        assertSame(globex, registry.byName("globex"));
+        assertEquals(0, registry.stats().evictions());
+
+        clock.set(TimeUnit.SECONDS.toNanos(31));
+        assertNull(registry.byName("nobody0"));
+        verify(fileEntityService, times(2)).getLatestJson("nobody0");
+    }
+
+    @Test
+    void testConcurrentLoadsReadTheFileOnceWithoutBlockingOtherNames() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(fileEntityService.getLatestJson("acme")).thenAnswer(invocation -> {
+            reading.countDown();
+            release.await();
+            return Optional.of(json("Welcome to Acme"));
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<CompiledFlow> first = executor.submit(() -> registry.byName("acme"));
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+            Future<CompiledFlow> second = executor.submit(() -> registry.byName("acme"));
+
+            // Another tenant is served while acme is still being read.
+            assertEquals("Globex here", greeting(assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> registry.byName("globex"))));
+            release.countDown();
+
+            assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+            verify(fileEntityService, times(1)).getLatestJson("acme");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testUploadDuringALoadKeepsTheOldVersionOutOfTheCache() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(fileEntityService.getLatestJson("acme")).thenAnswer(invocation -> {
+            reading.countDown();
+            release.await();
+            return Optional.of(json("Welcome to Acme"));
+        }).thenReturn(Optional.of(json("New Acme")));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<CompiledFlow> load = executor.submit(() -> registry.byName("acme"));
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+            registry.replace("acme", flowConfigService.compile(flow("New Acme")));
+            release.countDown();
+
+            assertEquals("Welcome to Acme", greeting(load.get(5, TimeUnit.SECONDS)));
+            assertEquals("New Acme", greeting(registry.byName("acme")));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testLeastRecentlyUsedFlowIsEvicted() {
+        CompiledFlow acme = registry.byName("acme");
+        clock.set(10);
+        registry.byName("globex");
+        clock.set(20);
+        // Used more recently than globex now.
+        assertSame(acme, registry.byName("acme"));
+        clock.set(30);
+
+        registry.byName("initech");
+
+        assertEquals(2, registry.stats().cached());
+        assertEquals(1, registry.stats().evictions());
+        assertSame(acme, registry.byName("acme"));
+        registry.byName("globex");
+        verify(fileEntityService, times(2)).getLatestJson("globex");
+    }
+
+    @Test
+    void testUploadReplacesOnlyCachedFlows() {
+        CompiledFlow old = registry.byName("acme");
+        CompiledFlow updated = flowConfigService.compile(flow("New Acme"));
+
+        registry.replace("acme", updated);
+        registry.replace("globex", updated);
+
+        assertSame(updated, registry.byName("acme"));
+        assertEquals(List.of(new FlowActivatedEvent(old, updated)), events);
+        assertEquals("Globex here", greeting(registry.byName("globex")));
+    }
+
+    @Test
+    void testConnectHeaderSelectsTheFlowUntilDisconnect() {
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.setSessionId("s1");
+        connect.addNativeHeader("flow", "globex");
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders());
+
+        registry.onConnect(new SessionConnectEvent(this, message));
+
+        assertEquals("Globex here", greeting(registry.forSession("s1")));
+        assertEquals("globex", registry.flowName("s1"));
+        registry.onDisconnect(new SessionDisconnectEvent(this, message, "s1", CloseStatus.NORMAL));
+        assertNull(registry.forSession("s1"));
+        assertNull(registry.flowName("s1"));
+        // Sessions on the active flow are recorded under its name.
+        flowConfigService.activate(flowConfigService.compile(flow("Default")), "default");
+        assertEquals("default", registry.flowName("s1"));
+        assertEquals(0, registry.stats().sessions());
+    }
+}
@@ -0,0 +1,44 @@
+package org.chatbot.conversationMessage.repository;
+
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureJdbc;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@AutoConfigureJdbc
+@Import(ConversationMessageBatchWriter.class)
+class ConversationMessageBatchWriterTest {
+
+    @Autowired
+    private ConversationMessageBatchWriter writer;
+
+    @Autowired
+    private ConversationMessageRepository repository;
+
+    @Test
+    void testInsertAllWritesRowsAndAssignsIds() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        ConversationMessage first = ConversationMessage.builder()
+                .sessionId("s1").sender("USER").content("price").blockId("wait").createdAt(now).build();
+        ConversationMessage second = ConversationMessage.builder()
+                .sessionId("s1").sender("BOT").content("49").blockId("price").createdAt(now).build();
+
+        writer.insertAll(List.of(first, second));
+
+        assertNotNull(first.getId());
+        assertNotNull(second.getId());
+        ConversationMessage loaded = repository.findById(second.getId()).orElseThrow();
+        assertEquals("49", loaded.getContent());
+        assertEquals("price", loaded.getBlockId());
+        assertEquals(now, loaded.getCreatedAt());
+    }
+}
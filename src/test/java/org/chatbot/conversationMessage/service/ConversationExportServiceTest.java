@@ -0,0 +1,135 @@
+package org.chatbot.conversationMessage.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.chatbot.conversationMessage.model.MessageView;
+import org.chatbot.conversationMessage.repository.ConversationArchiveRepository;
+import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class ConversationExportServiceTest {
+
+    private static final Instant T0 = Instant.parse("2025-03-01T10:00:00.123456Z");
+    private static final Instant END = ConversationHistoryService.END_OF_TIME;
+
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+
+    @Autowired
+    private ConversationMessageRepository messageRepository;
+
+    @Autowired
+    private ConversationArchiveRepository archiveRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ConversationArchiveService archiveService;
+    private ConversationExportService exportService;
+
+    @BeforeEach
+    void setUp() {
+        archiveService = new ConversationArchiveService(messageRepository, archiveRepository, mapper, 100);
+        // A fetch size below the row count, so the rows come in several round trips.
+        exportService = new ConversationExportService(dataSource, transactionManager, archiveService, 2,
+                new SimpleMeterRegistry());
+    }
+
+    private MessageView save(String sessionId, String content, String blockId, Instant at) {
+        return save(sessionId, content, blockId, null, at);
+    }
+
+    private MessageView save(String sessionId, String content, String blockId, String flowName, Instant at) {
+        return MessageView.of(messageRepository.save(ConversationMessage.builder().sessionId(sessionId).sender("USER")
+                .content(content).blockId(blockId).flowName(flowName).createdAt(at).build()));
+    }
+
+    private String export(ConversationExportService.Filter filter, ConversationExportService.Format format)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportService.export(filter, format, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private List<MessageView> parse(String ndjson) throws Exception {
+        return mapper.readerFor(MessageView.class).<MessageView>readValues(ndjson).readAll();
+    }
+
+    @Test
+    void testNdjsonHasOneMessageViewPerLine() throws Exception {
+        MessageView a = save("s1", "Hello \"there\"\nsecond line", "wait", T0);
+        MessageView b = save("s2", "ünïcode 👋", null, T0.plusSeconds(1));
+        MessageView c = save("s1", "", "end", T0.plusSeconds(2));
+
+        String ndjson = export(new ConversationExportService.Filter(Instant.EPOCH, END, null, false),
+                ConversationExportService.Format.NDJSON);
+
+        assertEquals(3, ndjson.lines().count());
+        assertEquals(List.of(a, b, c), parse(ndjson));
+    }
+
+    @Test
+    void testCsvIsQuotedWhereNeeded() throws Exception {
+        MessageView a = save("s1", "price, please", "wait", "acme", T0);
+        MessageView b = save("s1", "say \"hi\"\r\nbye", null, T0.plusSeconds(1));
+
+        String csv = export(new ConversationExportService.Filter(Instant.EPOCH, END, null, false),
+                ConversationExportService.Format.CSV);
+
+        assertEquals(ConversationExportService.CSV_HEADER + "\r\n"
+                + a.id() + ",s1,USER,wait,acme," + T0 + ",\"price, please\"\r\n"
+                + b.id() + ",s1,USER,,," + T0.plusSeconds(1) + ",\"say \"\"hi\"\"\r\nbye\"\r\n", csv);
+    }
+
+    @Test
+    void testTimeRangeAndFlowAreFiltered() throws Exception {
+        save("s1", "too early", "wait", "acme", T0);
+        MessageView inside = save("s1", "inside", "wait", "acme", T0.plusSeconds(10));
+        // Same block id in another tenant's flow, and in the active flow.
+        save("s2", "other tenant", "wait", "globex", T0.plusSeconds(11));
+        save("s3", "active flow", "wait", T0.plusSeconds(12));
+        save("s1", "too late", "wait", "acme", T0.plusSeconds(20));
+        ConversationExportService.Filter filter =
+                new ConversationExportService.Filter(T0.plusSeconds(10), T0.plusSeconds(20), "acme", false);
+
+        assertEquals(List.of(inside), parse(export(filter, ConversationExportService.Format.NDJSON)));
+        assertEquals("", export(new ConversationExportService.Filter(Instant.EPOCH, END, "initech", false),
+                ConversationExportService.Format.NDJSON));
+    }
+
+    @Test
+    void testArchivedConversationsAreAppendedWhenAsked() throws Exception {
+        MessageView old1 = save("old", "archived one", "wait", "acme", T0);
+        MessageView old2 = save("old", "archived two", "end", "acme", T0.plusSeconds(1));
+        MessageView elsewhere = save("other", "archived elsewhere", "wait", "globex", T0.plusSeconds(2));
+        archiveService.archive("other");
+        archiveService.archive("old");
+        MessageView live = save("new", "still here", "wait", T0.plusSeconds(60));
+
+        assertEquals(List.of(live), parse(export(new ConversationExportService.Filter(Instant.EPOCH, END, null, false),
+                ConversationExportService.Format.NDJSON)));
+        // Archives follow in the order they were written.
+        assertEquals(List.of(live, elsewhere, old1, old2), parse(export(
+                new ConversationExportService.Filter(Instant.EPOCH, END, null, true),
+                ConversationExportService.Format.NDJSON)));
+        assertEquals(List.of(old1, old2), parse(export(
+                new ConversationExportService.Filter(Instant.EPOCH, END, "acme", true),
+                ConversationExportService.Format.NDJSON)));
+    }
+}
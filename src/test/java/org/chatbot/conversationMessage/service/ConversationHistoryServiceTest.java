@@ -0,0 +1,201 @@
+package org.chatbot.conversationMessage.service;
+
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.chatbot.conversationMessage.model.MessageSummary;
+import org.chatbot.conversationMessage.model.MessageView;
+import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest
+class ConversationHistoryServiceTest {
+
+    private static final Instant T0 = Instant.parse("2025-03-01T10:00:00Z");
+
+    @Autowired
+    private ConversationMessageRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ConversationHistoryService history;
+
+    private ConversationMessage save(String sessionId, String sender, String content, String blockId, Instant at) {
+        return repository.save(ConversationMessage.builder()
+                .sessionId(sessionId).sender(sender).content(content).blockId(blockId).createdAt(at).build());
+    }
+
+    private static ConversationHistoryService.Query query(Instant from, Instant to, String after, Integer limit) {
+        return new ConversationHistoryService.Query(from, to, after, limit, false, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> ids(ConversationHistoryService.Page<?> page) {
+        return ((List<MessageSummary>) page.items()).stream().map(MessageSummary::id).toList();
+    }
+
+    @BeforeEach
+    void setUp() {
+        history = new ConversationHistoryService(repository, RecentMessageCache.disabled(),
+                mock(ConversationArchiveService.class), transactionManager, 2, 3);
+    }
+
+    @Test
+    void testTranscriptIsPagedInOrderAcrossEqualTimestamps() {
+        List<Long> expected = new ArrayList<>();
+        // Three messages share T0 + 1s, so pages must break ties by id.
+        expected.add(save("s1", "BOT", "Hello", "hello", T0).getId());
+        for (int i = 0; i < 3; i++) {
+            expected.add(save("s1", i % 2 == 0 ? "USER" : "BOT", "m" + i, "wait", T0.plusSeconds(1)).getId());
+        }
+        save("s2", "USER", "other session", "wait", T0.plusSeconds(1));
+        expected.add(save("s1", "BOT", "Bye", "end", T0.plusSeconds(2)).getId());
+
+        List<Long> seen = new ArrayList<>();
+        String after = null;
+        int pages = 0;
+        do {
+            ConversationHistoryService.Page<?> page = history.transcript("s1", query(null, null, after, null));
+            seen.addAll(ids(page));
+            after = page.next();
+            pages++;
+        } while (after != null);
+
+        assertEquals(expected, seen);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    void testNewestFirstPagesGoBackInTime() {
+        long first = save("s1", "BOT", "Hello", "hello", T0).getId();
+        long second = save("s1", "USER", "hi", "wait", T0.plusSeconds(1)).getId();
+        long third = save("s1", "BOT", "Bye", "end", T0.plusSeconds(1)).getId();
+        ConversationHistoryService.Query newest = new ConversationHistoryService.Query(null, null, null, null, false, true);
+
+        ConversationHistoryService.Page<?> page = history.transcript("s1", newest);
+        ConversationHistoryService.Page<?> older = history.transcript("s1",
+                new ConversationHistoryService.Query(null, null, page.next(), null, false, true));
+
+        assertEquals(List.of(third, second), ids(page));
+        assertEquals(List.of(first), ids(older));
+        assertNull(older.next());
+        assertEquals(List.of(third), ids(history.atBlock("end", newest)));
+    }
+
+    @Test
+    void testRecentPagesAreServedFromMemoryAndOlderOnesFromTheDatabase() {
+        RecentMessageCache recent = new RecentMessageCache(3, 1 << 20, 60_000);
+        history = new ConversationHistoryService(repository, recent, mock(ConversationArchiveService.class),
+                transactionManager, 2, 3);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ConversationMessage saved = save("s1", "BOT", "m" + i, "b", T0.plusSeconds(i));
+            recent.append(saved);
+            ids.add(saved.getId());
+        }
+        // Changed in the table only: a page served from memory still shows the text it was written with.
+        jdbcTemplate.update("UPDATE conversation_messages SET content = 'changed'");
+        ConversationHistoryService.Query newest = new ConversationHistoryService.Query(null, null, null, null, true, true);
+
+        ConversationHistoryService.Page<?> page = history.transcript("s1", newest);
+        ConversationHistoryService.Page<?> older = history.transcript("s1",
+                new ConversationHistoryService.Query(null, null, page.next(), null, true, true));
+
+        assertEquals(List.of("m3", "m2"), page.items().stream().map(m -> ((MessageView) m).content()).toList());
+        assertEquals(List.of("changed", "changed"), older.items().stream().map(m -> ((MessageView) m).content()).toList());
+        assertEquals(ids.get(1), ((MessageView) older.items().get(0)).id());
+        assertEquals(1, recent.stats().hits());
+        assertEquals(1, recent.stats().misses());
+    }
+
+    @Test
+    void testPagesServedFromMemoryOpenNoTransaction() {
+        RecentMessageCache recent = new RecentMessageCache(3, 1 << 20, 60_000);
+        ConversationMessageRepository noDatabase = mock(ConversationMessageRepository.class);
+        PlatformTransactionManager noTransactions = mock(PlatformTransactionManager.class);
+        history = new ConversationHistoryService(noDatabase, recent, mock(ConversationArchiveService.class),
+                noTransactions, 2, 3);
+        for (long id = 1; id <= 4; id++) {
+            recent.append(ConversationMessage.builder().id(id).sessionId("s1").sender("BOT").content("m" + id)
+                    .blockId("b").createdAt(T0.plusSeconds(id)).build());
+        }
+
+        ConversationHistoryService.Page<?> page = history.transcript("s1",
+                new ConversationHistoryService.Query(null, null, null, null, false, true));
+
+        assertEquals(List.of(4L, 3L), ids(page));
+        verifyNoInteractions(noDatabase, noTransactions);
+    }
+
+    @Test
+    void testContentIsOnlyReturnedWhenAsked() {
+        save("s1", "USER", "price?", "wait", T0);
+
+        Object summary = history.transcript("s1", ConversationHistoryService.Query.all()).items().get(0);
+        Object view = history.transcript("s1", new ConversationHistoryService.Query(null, null, null, null, true, false))
+                .items().get(0);
+
+        assertInstanceOf(MessageSummary.class, summary);
+        assertEquals(new MessageView(((MessageSummary) summary).id(), "s1", "USER", "wait", null, T0, "price?"), view);
+    }
+
+    @Test
+    void testBlockMessagesWithinATimeRange() {
+        save("s1", "USER", "a", "wait", T0);
+        long inside1 = save("s2", "USER", "b", "wait", T0.plusSeconds(10)).getId();
+        save("s3", "USER", "c", "other", T0.plusSeconds(15));
+        long inside2 = save("s3", "USER", "d", "wait", T0.plusSeconds(19)).getId();
+        save("s4", "USER", "e", "wait", T0.plusSeconds(20));
+
+        ConversationHistoryService.Page<?> page = history.atBlock("wait",
+                query(T0.plusSeconds(10), T0.plusSeconds(20), null, 10));
+
+        assertEquals(List.of(inside1, inside2), ids(page));
+        assertNull(page.next());
+    }
+
+    @Test
+    void testInvalidRequestsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> history.transcript(" ", ConversationHistoryService.Query.all()));
+        assertThrows(IllegalArgumentException.class, () -> history.transcript("s1", query(T0, T0, null, null)));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> history.atBlock("wait", query(null, null, "not-a-cursor", null)));
+        assertEquals("Invalid history cursor: not-a-cursor", e.getMessage());
+    }
+
+    @Test
+    void testCursorRoundTrip() {
+        ConversationHistoryService.Cursor cursor = new ConversationHistoryService.Cursor(T0.plusNanos(123_456_000), 42);
+
+        assertEquals(cursor, ConversationHistoryService.Cursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void testHistoryQueriesHaveCompositeIndexes() {
+        List<String> columns = jdbcTemplate.queryForList(
+                "SELECT i.INDEX_NAME || ':' || c.COLUMN_NAME FROM INFORMATION_SCHEMA.INDEXES i"
+                        + " JOIN INFORMATION_SCHEMA.INDEX_COLUMNS c ON c.INDEX_NAME = i.INDEX_NAME AND c.TABLE_NAME = i.TABLE_NAME"
+                        + " WHERE i.TABLE_NAME = 'CONVERSATION_MESSAGES' AND i.INDEX_NAME LIKE 'IDX_%'"
+                        + " ORDER BY i.INDEX_NAME, c.ORDINAL_POSITION", String.class);
+
+        assertEquals(List.of(
+                "IDX_CONVERSATION_MESSAGES_BLOCK_CREATED:BLOCK_ID",
+                "IDX_CONVERSATION_MESSAGES_BLOCK_CREATED:CREATED_AT",
+                "IDX_CONVERSATION_MESSAGES_SESSION_CREATED:SESSION_ID",
+                "IDX_CONVERSATION_MESSAGES_SESSION_CREATED:CREATED_AT"), columns);
+    }
+}
@@ -0,0 +1,38 @@
+package org.chatbot.conversationMessage.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.chatbot.configuration.FlowRegistry;
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ConversationMessageServiceTest {
+
+    @Test
+    void testMessagesRecordTheFlowTheSessionSelected() {
+        ConversationMessageRepository repository = mock(ConversationMessageRepository.class);
+        when(repository.save(any(ConversationMessage.class))).thenAnswer(inv -> inv.getArgument(0));
+        FlowRegistry flowRegistry = mock(FlowRegistry.class);
+        when(flowRegistry.flowName("s1")).thenReturn("acme");
+        ConversationMessageService service = new ConversationMessageService(repository,
+                mock(ConversationMessageWriteBehind.class), RecentMessageCache.disabled(), flowRegistry,
+                new SimpleMeterRegistry());
+
+        service.saveUserMessage("s1", "price?", "wait");
+        service.saveBotMessage("s2", "Hello", "greeting");
+
+        ArgumentCaptor<ConversationMessage> saved = ArgumentCaptor.forClass(ConversationMessage.class);
+        verify(repository, times(2)).save(saved.capture());
+        List<ConversationMessage> messages = saved.getAllValues();
+        assertEquals("acme", messages.get(0).getFlowName());
+        // s2 uses the active flow.
+        assertNull(messages.get(1).getFlowName());
+    }
+}
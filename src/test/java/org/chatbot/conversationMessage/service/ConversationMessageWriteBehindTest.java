@@ -0,0 +1,242 @@
+package org.chatbot.conversationMessage.service;
+
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.chatbot.conversationMessage.repository.ConversationMessageBatchWriter;
+import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ConversationMessageWriteBehindTest {
+
+    private final ConversationMessageBatchWriter batchWriter = mock(ConversationMessageBatchWriter.class);
+    private final ConversationMessageRepository repository = mock(ConversationMessageRepository.class);
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private ConversationMessageWriteBehind writeBehind;
+
+    @AfterEach
+    void tearDown() {
+        if (writeBehind != null) {
+            writeBehind.shutdown();
+        }
+    }
+
+    @Test
+    void testDisabledWritesSynchronously() {
+        writeBehind = create(false, 10, 5, 50, ConversationMessageWriteBehind.Backpressure.BLOCK);
+
+        writeBehind.submit(message("s1"));
+
+        verify(repository).save(any(ConversationMessage.class));
+        verifyNoInteractions(batchWriter);
+    }
+
+    @Test
+    void testFlushesFullBatchBySize() throws Exception {
+        CountDownLatch written = recordBatches(1);
+        writeBehind = create(true, 100, 3, 10_000, ConversationMessageWriteBehind.Backpressure.BLOCK);
+
+        for (int i = 0; i < 3; i++) {
+            writeBehind.submit(message("s" + i));
+        }
+
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        // shutdown() joins the flusher, so the counters are final afterwards.
+        writeBehind.shutdown();
+        assertEquals(List.of(3), batchSizes);
+        assertEquals(3, writeBehind.stats().flushed());
+    }
+
+    @Test
+    void testFlushesPartialBatchAfterInterval() throws Exception {
+        CountDownLatch written = recordBatches(1);
+        writeBehind = create(true, 100, 50, 20, ConversationMessageWriteBehind.Backpressure.BLOCK);
+
+        writeBehind.submit(message("s1"));
+        writeBehind.submit(message("s2"));
+
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(2), batchSizes);
+        assertTrue(writeBehind.stats().lastFlushNanos() >= 0);
+    }
+
+    @Test
+    void testDropBackpressureCountsDroppedMessages() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            blocked.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(batchWriter).insertAll(any());
+        writeBehind = create(true, 1, 1, 10, ConversationMessageWriteBehind.Backpressure.DROP);
+
+        // The first message is taken by the flusher, which then blocks inside insertAll.
+        writeBehind.submit(message("s1"));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        writeBehind.submit(message("s2"));
+        writeBehind.submit(message("s3"));
+        release.countDown();
+        writeBehind.shutdown();
+
+        assertEquals(1, writeBehind.stats().dropped());
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    void testShutdownFlushesQueuedMessages() {
+        recordBatches(1);
+        writeBehind = create(true, 100, 100, 60_000, ConversationMessageWriteBehind.Backpressure.BLOCK);
+
+        writeBehind.submit(message("s1"));
+        writeBehind.submit(message("s2"));
+        writeBehind.shutdown();
+
+        assertEquals(2, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(0, writeBehind.stats().queueDepth());
+    }
+
+    @Test
+    void testFlushedMessagesAreAddedToTheRecentMessages() {
+        RecentMessageCache recent = mock(RecentMessageCache.class);
+        List<ConversationMessage> appended = new ArrayList<>();
+        doAnswer(inv -> appended.addAll(inv.getArgument(0))).when(recent).appendAll(any());
+        writeBehind = new ConversationMessageWriteBehind(batchWriter, repository, recent, true, 100, 10, 10_000, 0,
+                ConversationMessageWriteBehind.Backpressure.BLOCK);
+        ConversationMessage first = message("s1");
+        ConversationMessage second = message("s1");
+
+        writeBehind.submit(first);
+        writeBehind.submit(second);
+        writeBehind.shutdown();
+
+        assertEquals(List.of(first, second), appended);
+    }
+
+    @Test
+    void testFailedBatchIsSavedRowByRow() {
+        doThrow(new DataIntegrityViolationException("bad row")).when(batchWriter).insertAll(any());
+        ConversationMessage bad = message("bad");
+        when(repository.save(any(ConversationMessage.class))).thenAnswer(inv -> {
+            if (inv.getArgument(0) == bad) {
+                throw new DataIntegrityViolationException("bad row");
+            }
+            return inv.getArgument(0);
+        });
+        writeBehind = create(true, 100, 10, 10_000, ConversationMessageWriteBehind.Backpressure.BLOCK);
+
+        writeBehind.submit(message("s1"));
+        writeBehind.submit(bad);
+        writeBehind.submit(message("s2"));
+        writeBehind.shutdown();
+
+        verify(repository, times(3)).save(any(ConversationMessage.class));
+        assertEquals(2, writeBehind.stats().flushed());
+        assertEquals(1, writeBehind.stats().failed());
+    }
+
+    @Test
+    void testShutdownDoesNotInterruptARunningInsert() throws Exception {
+        CountDownLatch inserting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        doAnswer(inv -> {
+            inserting.countDown();
+            while (!release.await(10, TimeUnit.MILLISECONDS)) {
+                interrupted.compareAndSet(false, Thread.currentThread().isInterrupted());
+            }
+            return null;
+        }).when(batchWriter).insertAll(any());
+        writeBehind = create(true, 100, 1, 10, ConversationMessageWriteBehind.Backpressure.BLOCK);
+        writeBehind.submit(message("s1"));
+        assertTrue(inserting.await(5, TimeUnit.SECONDS));
+
+        Thread stopping = new Thread(writeBehind::shutdown);
+        stopping.start();
+        // shutdown() has cleared running and is waiting for the flusher.
+        while (stopping.getState() != Thread.State.TIMED_WAITING && stopping.isAlive()) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+        stopping.join(5_000);
+
+        assertFalse(interrupted.get());
+        assertEquals(1, writeBehind.stats().flushed());
+    }
+
+    @Test
+    void testNoMessageIsLostWhenSubmittedDuringShutdown() throws Exception {
+        AtomicInteger written = new AtomicInteger();
+        doAnswer(inv -> {
+            written.addAndGet(inv.<List<?>>getArgument(0).size());
+            return null;
+        }).when(batchWriter).insertAll(any());
+        when(repository.save(any(ConversationMessage.class))).thenAnswer(inv -> {
+            written.incrementAndGet();
+            return inv.getArgument(0);
+        });
+        writeBehind = create(true, 10_000, 50, 10, ConversationMessageWriteBehind.Backpressure.BLOCK);
+        int threads = 4;
+        int perThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch started = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                started.countDown();
+                for (int i = 0; i < perThread; i++) {
+                    writeBehind.submit(message("s"));
+                }
+            });
+        }
+        started.await(5, TimeUnit.SECONDS);
+        writeBehind.shutdown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(threads * perThread, written.get());
+        assertEquals(0, writeBehind.stats().queueDepth());
+    }
+
+    private CountDownLatch recordBatches(int expected) {
+        CountDownLatch latch = new CountDownLatch(expected);
+        doAnswer(inv -> {
+            List<?> batch = inv.getArgument(0);
+            synchronized (batchSizes) {
+                batchSizes.add(batch.size());
+            }
+            latch.countDown();
+            return null;
+        }).when(batchWriter).insertAll(any());
+        return latch;
+    }
+
+    private ConversationMessageWriteBehind create(boolean enabled, int capacity, int batchSize, long flushMillis,
+                                                  ConversationMessageWriteBehind.Backpressure backpressure) {
+        return new ConversationMessageWriteBehind(batchWriter, repository, RecentMessageCache.disabled(), enabled,
+                capacity, batchSize, flushMillis, 0, backpressure);
+    }
+
+    private static ConversationMessage message(String sessionId) {
+        return ConversationMessage.builder()
+                .sessionId(sessionId)
+                .sender("BOT")
+                .content("Hello")
+                .blockId("greeting")
+                .createdAt(Instant.now())
+                .build();
+    }
+}
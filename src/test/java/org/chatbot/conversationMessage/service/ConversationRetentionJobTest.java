@@ -0,0 +1,203 @@
+package org.chatbot.conversationMessage.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.chatbot.conversationMessage.model.ConversationArchive;
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.chatbot.conversationMessage.model.MessageView;
+import org.chatbot.conversationMessage.repository.ConversationArchiveRepository;
+import org.chatbot.conversationMessage.repository.ConversationMessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest
+class ConversationRetentionJobTest {
+
+    private static final Instant NOW = Instant.parse("2025-06-01T00:00:00Z");
+    private static final Instant OLD = NOW.minus(Duration.ofDays(100));
+
+    @Autowired
+    private ConversationMessageRepository messageRepository;
+
+    @Autowired
+    private ConversationArchiveRepository archiveRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ConversationArchiveService archiveService;
+    private ConversationRetentionJob job;
+
+    @BeforeEach
+    void setUp() {
+        archiveService = new ConversationArchiveService(messageRepository, archiveRepository,
+                new ObjectMapper().findAndRegisterModules(), 2);
+        job = new ConversationRetentionJob(messageRepository, archiveService, true, Duration.ofDays(90), 3, 100,
+                Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    private MessageView save(String sessionId, String content, Instant at) {
+        ConversationMessage saved = messageRepository.save(ConversationMessage.builder()
+                .sessionId(sessionId).sender("BOT").content(content).blockId("b").createdAt(at).build());
+        return MessageView.of(saved);
+    }
+
+    private List<MessageView> conversation(String sessionId, int size, Instant start) {
+        List<MessageView> messages = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            messages.add(save(sessionId, sessionId + " line " + i + "\n\"quoted\" é", start.plusSeconds(i)));
+        }
+        return messages;
+    }
+
+    @Test
+    void testOldConversationsAreArchivedAndDeleted() {
+        List<MessageView> old = conversation("old", 5, OLD);
+        conversation("older", 1, OLD.minusSeconds(60));
+        // Started long ago but still going: left alone.
+        save("active", "first", OLD.plusSeconds(1));
+        save("active", "latest", NOW.minusSeconds(60));
+        conversation("recent", 2, NOW.minusSeconds(3600));
+
+        assertEquals(2, job.run());
+
+        assertEquals(List.of(), messageRepository.findSessionMessages("old", Instant.EPOCH, -1,
+                ConversationHistoryService.END_OF_TIME, Limit.of(10)));
+        assertEquals(old, archiveService.read("old"));
+        ConversationArchive archive = archiveRepository.findBySessionId("old").orElseThrow();
+        assertEquals(5, archive.getMessageCount());
+        assertEquals(OLD, archive.getFirstMessageAt());
+        assertEquals(old.get(4).id(), archive.getMaxMessageId());
+        assertEquals(4, messageRepository.count());
+        assertEquals(new ConversationRetentionJob.Stats(1, 2, 6, 0, job.stats().lastRunMillis()), job.stats());
+        assertEquals(0, job.run());
+    }
+
+    @Test
+    void testArchiveIsGzipNdjsonWithIsoTimestamps() throws Exception {
+        List<MessageView> old = conversation("old", 2, OLD);
+
+        job.run();
+
+        byte[] data = archiveRepository.findBySessionId("old").orElseThrow().getData();
+        String text = new String(new GZIPInputStream(new ByteArrayInputStream(data)).readAllBytes(), StandardCharsets.UTF_8);
+        String[] lines = text.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"createdAt\":\"" + OLD + "\""), lines[0]);
+        assertTrue(lines[1].contains("\"id\":" + old.get(1).id()), lines[1]);
+    }
+
+    @Test
+    void testLaterMessagesAreAppendedToTheArchive() {
+        List<MessageView> first = conversation("s1", 3, OLD);
+        archiveService.archive("s1");
+        MessageView late = save("s1", "late", OLD.plusSeconds(3600));
+
+        assertEquals(1, archiveService.archive("s1"));
+
+        List<MessageView> expected = new ArrayList<>(first);
+        expected.add(late);
+        assertEquals(expected, archiveService.read("s1"));
+        assertEquals(4, archiveRepository.findBySessionId("s1").orElseThrow().getMessageCount());
+    }
+
+    @Test
+    void testALostArchiveRaceSkipsTheSessionAndDeletesNothing() {
+        conversation("s1", 2, OLD);
+        archiveService.archive("s1");
+        save("s1", "late", OLD.plusSeconds(3600));
+        ConversationArchive current = archiveRepository.findBySessionId("s1").orElseThrow();
+        // What another node read before this one appended "late".
+        ConversationArchive stale = ConversationArchive.builder()
+                .id(current.getId()).sessionId("s1").messageCount(current.getMessageCount())
+                .firstMessageAt(current.getFirstMessageAt()).lastMessageAt(current.getLastMessageAt())
+                .maxMessageId(current.getMaxMessageId()).archivedAt(current.getArchivedAt())
+                .data(current.getData()).version(current.getVersion()).build();
+        archiveService.archive("s1");
+        entityManager.flush();
+        entityManager.clear();
+        save("s1", "later", OLD.plusSeconds(7200));
+        ConversationArchiveRepository racing = mock(ConversationArchiveRepository.class);
+        when(racing.findBySessionId("s1")).thenReturn(Optional.of(stale));
+        when(racing.save(any())).thenAnswer(invocation -> archiveRepository.save(invocation.getArgument(0)));
+        ConversationArchiveService loser = new ConversationArchiveService(messageRepository, racing,
+                new ObjectMapper().findAndRegisterModules(), 2);
+        ConversationRetentionJob loserJob = new ConversationRetentionJob(messageRepository, loser, true,
+                Duration.ofDays(90), 3, 100, Clock.fixed(NOW, ZoneOffset.UTC));
+
+        assertEquals(0, loserJob.run());
+
+        assertEquals(1, messageRepository.count());
+        assertEquals(0, loserJob.stats().failures());
+        assertEquals(3, archiveRepository.findBySessionId("s1").orElseThrow().getMessageCount());
+    }
+
+    @Test
+    void testArchiveReadsKeepOnePageAndSkipArchivesOutsideTheRange() {
+        List<MessageView> messages = conversation("s1", 5, OLD);
+        archiveService.archive("s1");
+        Comparator<MessageView> order = Comparator.comparing(MessageView::createdAt)
+                .thenComparingLong(MessageView::id);
+
+        assertEquals(messages.subList(1, 3), archiveService.read("s1", OLD, NOW,
+                m -> m.id() > messages.get(0).id(), order, 2));
+        assertEquals(List.of(messages.get(4), messages.get(3)), archiveService.read("s1", OLD, NOW,
+                m -> true, order.reversed(), 2));
+        assertEquals(List.of(), archiveService.read("s1", OLD.plusSeconds(5), NOW, m -> true, order, 2));
+        assertEquals(List.of(), archiveService.read("s1", Instant.EPOCH, OLD.minusSeconds(1), m -> true, order, 2));
+    }
+
+    @Test
+    void testArchivedTranscriptsAreStillReadableThroughTheHistory() {
+        List<MessageView> messages = conversation("s1", 5, OLD);
+        // Interrupted run: the archive exists, but the last three rows are still in the table.
+        ConversationArchive archive = ConversationArchive.builder()
+                .sessionId("s1").messageCount(4).firstMessageAt(OLD).lastMessageAt(OLD.plusSeconds(3))
+                .maxMessageId(messages.get(3).id()).archivedAt(NOW).data(archiveService.encode(messages.subList(0, 4)))
+                .build();
+        archiveRepository.save(archive);
+        messageRepository.deleteAllByIdInBatch(List.of(messages.get(0).id(), messages.get(1).id()));
+        ConversationHistoryService history = new ConversationHistoryService(messageRepository,
+                RecentMessageCache.disabled(), archiveService, transactionManager, 2, 10);
+
+        List<Object> read = new ArrayList<>();
+        String after = null;
+        do {
+            ConversationHistoryService.Page<?> page = history.transcript("s1",
+                    new ConversationHistoryService.Query(null, null, after, null, true, false));
+            read.addAll(page.items());
+            after = page.next();
+        } while (after != null);
+        ConversationHistoryService.Page<?> newest = history.transcript("s1",
+                new ConversationHistoryService.Query(null, null, null, null, false, true));
+
+        assertEquals(messages, read);
+        assertEquals(List.of(messages.get(4).summary(), messages.get(3).summary()), newest.items());
+
+        assertEquals(3, archiveService.archive("s1"));
+        assertEquals(messages, archiveService.read("s1"));
+        assertEquals(0, messageRepository.count());
+    }
+}
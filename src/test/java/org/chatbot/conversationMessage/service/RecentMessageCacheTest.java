@@ -0,0 +1,152 @@
+package org.chatbot.conversationMessage.service;
+
+import org.chatbot.conversationMessage.model.ConversationMessage;
+import org.chatbot.conversationMessage.model.MessageView;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecentMessageCacheTest {
+
+    private static final Instant T0 = Instant.parse("2025-03-01T10:00:00Z");
+    private static final Instant END = ConversationHistoryService.END_OF_TIME;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private RecentMessageCache cache(int size, long maxBytes) {
+        return new RecentMessageCache(size, maxBytes, 1000, clock::get);
+    }
+
+    private static ConversationMessage message(String sessionId, long id, int second, String content) {
+        return ConversationMessage.builder().id(id).sessionId(sessionId).sender("BOT").content(content)
+                .blockId("b").createdAt(T0.plusSeconds(second)).build();
+    }
+
+    private static void connect(RecentMessageCache cache, String sessionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        cache.onConnect(new SessionConnectEvent(cache, MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders())));
+    }
+
+    private static List<Long> ids(List<MessageView> messages) {
+        return messages == null ? null : messages.stream().map(MessageView::id).toList();
+    }
+
+    @Test
+    void testSessionsSeenFromConnectServeTheirWholeTranscript() {
+        RecentMessageCache cache = cache(10, 1 << 20);
+        connect(cache, "s1");
+        for (int i = 1; i <= 4; i++) {
+            cache.append(message("s1", i, i, "m" + i));
+        }
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), ids(cache.after("s1", Instant.EPOCH, -1, END, 10)));
+        assertEquals(List.of(3L, 4L), ids(cache.after("s1", T0.plusSeconds(2), 2, END, 10)));
+        assertEquals(List.of(4L, 3L, 2L, 1L), ids(cache.before("s1", END, Long.MIN_VALUE, Instant.EPOCH, 10)));
+        assertEquals(List.of(2L), ids(cache.before("s1", T0.plusSeconds(3), 3, T0.plusSeconds(2), 10)));
+        assertEquals("m1", cache.after("s1", Instant.EPOCH, -1, END, 1).get(0).content());
+        assertNull(cache.after("unknown", Instant.EPOCH, -1, END, 10));
+        assertEquals(new RecentMessageCache.Stats(1, 4, cache.stats().bytes(), 5, 1, 0, 0), cache.stats());
+        assertEquals(5 / 6.0, cache.stats().hitRatio(), 1e-9);
+    }
+
+    @Test
+    void testOlderMessagesOutsideTheTailAreMisses() {
+        RecentMessageCache cache = cache(3, 1 << 20);
+        connect(cache, "s1");
+        for (int i = 1; i <= 5; i++) {
+            cache.append(message("s1", i, i, "m" + i));
+        }
+
+        // The newest messages are in memory, as long as enough of them are asked for to end the page.
+        assertEquals(List.of(5L, 4L), ids(cache.before("s1", END, Long.MIN_VALUE, Instant.EPOCH, 2)));
+        assertEquals(List.of(5L, 4L), ids(cache.before("s1", END, Long.MIN_VALUE, T0.plusSeconds(4), 5)));
+        assertNull(cache.before("s1", END, Long.MIN_VALUE, Instant.EPOCH, 4));
+        // Message 2 is gone from the tail and could have the same timestamp as message 3.
+        assertNull(cache.before("s1", END, Long.MIN_VALUE, T0.plusSeconds(3), 5));
+        // Oldest first only works from a position the tail still holds.
+        assertNull(cache.after("s1", Instant.EPOCH, -1, END, 10));
+        assertEquals(List.of(4L, 5L), ids(cache.after("s1", T0.plusSeconds(3), 3, END, 10)));
+    }
+
+    @Test
+    void testTailsNotStartedByConnectMayMissOlderMessages() {
+        RecentMessageCache cache = cache(10, 1 << 20);
+        cache.append(message("s1", 7, 7, "m7"));
+        cache.append(message("s1", 8, 8, "m8"));
+
+        assertNull(cache.before("s1", END, Long.MIN_VALUE, Instant.EPOCH, 3));
+        assertEquals(List.of(8L), ids(cache.before("s1", END, Long.MIN_VALUE, Instant.EPOCH, 1)));
+        assertNull(cache.after("s1", Instant.EPOCH, -1, END, 10));
+    }
+
+    @Test
+    void testMessagesAreKeptInOrderAndUnsavedOnesIgnored() {
+        RecentMessageCache cache = cache(10, 1 << 20);
+        connect(cache, "s1");
+        cache.append(message("s1", 2, 1, "b"));
+        cache.append(message("s1", 1, 1, "a"));
+        cache.append(message("s1", 3, 0, "first"));
+        cache.append(ConversationMessage.builder().sessionId("s1").content("not saved").createdAt(T0).build());
+        cache.append(null);
+
+        assertEquals(List.of(3L, 1L, 2L), ids(cache.after("s1", Instant.EPOCH, -1, END, 10)));
+    }
+
+    @Test
+    void testLeastRecentlyUsedTailsAreEvictedOverTheMemoryCap() {
+        RecentMessageCache probe = cache(10, 1 << 20);
+        probe.append(message("x", 1, 1, "x".repeat(1000)));
+        long perSession = probe.stats().bytes();
+        RecentMessageCache cache = cache(10, perSession * 3 + perSession / 2);
+
+        for (int i = 0; i < 3; i++) {
+            clock.set(i);
+            cache.append(message("s" + i, i, i, "x".repeat(1000)));
+        }
+        clock.set(10);
+        cache.before("s0", END, Long.MIN_VALUE, Instant.EPOCH, 1);
+        clock.set(11);
+        cache.append(message("s3", 3, 3, "x".repeat(1000)));
+
+        assertNotNull(cache.before("s0", END, Long.MIN_VALUE, Instant.EPOCH, 1));
+        assertNull(cache.before("s1", END, Long.MIN_VALUE, Instant.EPOCH, 1));
+        assertEquals(3, cache.stats().sessions());
+        assertEquals(1, cache.stats().sizeEvictions());
+    }
+
+    @Test
+    void testIdleTailsAreDropped() {
+        RecentMessageCache cache = cache(10, 1 << 20);
+        connect(cache, "idle");
+        cache.append(message("busy", 1, 1, "m"));
+        clock.set(TimeUnit.MILLISECONDS.toNanos(800));
+        cache.append(message("busy", 2, 2, "m"));
+        clock.set(TimeUnit.MILLISECONDS.toNanos(1500));
+
+        cache.evictIdle();
+
+        assertEquals(1, cache.stats().sessions());
+        assertEquals(1, cache.stats().idleEvictions());
+        assertNull(cache.after("idle", Instant.EPOCH, -1, END, 10));
+    }
+
+    @Test
+    void testDisabledCacheKeepsNothing() {
+        RecentMessageCache cache = RecentMessageCache.disabled();
+        connect(cache, "s1");
+        cache.append(message("s1", 1, 1, "m"));
+
+        assertNull(cache.after("s1", Instant.EPOCH, -1, END, 10));
+        assertEquals(new RecentMessageCache.Stats(0, 0, 0, 0, 0, 0, 0), cache.stats());
+    }
+}
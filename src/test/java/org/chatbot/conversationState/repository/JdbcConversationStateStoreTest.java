@@ -0,0 +1,140 @@
+package org.chatbot.conversationState.repository;
+
+import org.chatbot.engine.ConversationStateService;
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureJdbc;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The store writes from its own thread, so the test must not hold rows in an uncommitted test transaction.
+@DataJpaTest
+@AutoConfigureJdbc
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class JdbcConversationStateStoreTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final List<JdbcConversationStateStore> stores = new ArrayList<>();
+    private CompiledFlow flow;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM conversation_state");
+        Block first = new Block("first", BlockType.WAIT_FOR_RESPONSE, null, null, null, null, null);
+        Block second = new Block("second", BlockType.WAIT_FOR_RESPONSE, null, null, null, null, null);
+        flow = FlowCompiler.compile(new Flow("first", List.of(first, second)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        stores.forEach(JdbcConversationStateStore::shutdown);
+    }
+
+    // A long flush interval keeps the background thread out of the way; the tests flush explicitly.
+    private JdbcConversationStateStore newStore() {
+        JdbcConversationStateStore store = new JdbcConversationStateStore(
+                jdbcTemplate, transactionManager, 60_000, 1000, 60_000, 2, 0);
+        stores.add(store);
+        return store;
+    }
+
+    private String storedBlock(String sessionId) {
+        List<String> ids = jdbcTemplate.queryForList(
+                "SELECT block_id FROM conversation_state WHERE session_id = ?", String.class, sessionId);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    @Test
+    void testWritesAreCoalescedUntilFlush() {
+        JdbcConversationStateStore store = newStore();
+        store.put("s1", flow, flow.byId("first"));
+        store.put("s1", flow, flow.byId("second"));
+
+        assertNull(storedBlock("s1"));
+        assertSame(flow.byId("second"), store.get("s1", flow));
+        assertEquals(1, store.pendingWrites());
+
+        store.flush();
+
+        assertEquals("second", storedBlock("s1"));
+        assertEquals(0, store.pendingWrites());
+        assertEquals(1, store.writtenRows());
+    }
+
+    @Test
+    void testAnotherNodeLoadsStateFromTheDatabase() {
+        JdbcConversationStateStore nodeA = newStore();
+        for (int i = 0; i < 5; i++) {
+            nodeA.put("s" + i, flow, flow.byId("first"));
+        }
+        nodeA.flush();
+        nodeA.put("s0", flow, flow.byId("second"));
+        nodeA.flush();
+
+        JdbcConversationStateStore nodeB = newStore();
+        CompiledFlow reloaded = FlowCompiler.compile(flow.source());
+
+        assertSame(reloaded.byId("second"), nodeB.get("s0", reloaded));
+        assertSame(reloaded.byId("first"), nodeB.get("s4", reloaded));
+        assertNull(nodeB.get("unknown", reloaded));
+        // The second read of a session is served by the near-cache.
+        nodeB.get("s0", reloaded);
+        assertEquals(3, nodeB.databaseLoads());
+    }
+
+    @Test
+    void testDisconnectKeepsTheRowUntilItExpires() {
+        JdbcConversationStateStore store = newStore();
+        store.put("s1", flow, flow.byId("first"));
+
+        store.onDisconnect("s1");
+        store.flush();
+
+        assertEquals("first", storedBlock("s1"));
+        assertSame(flow.byId("first"), store.get("s1", flow));
+    }
+
+    @Test
+    void testConversationIsResumedUnderANewSessionOnAnotherNode() {
+        JdbcConversationStateStore storeA = newStore();
+        JdbcConversationStateStore storeB = newStore();
+        ConversationStateService nodeA = new ConversationStateService(storeA, "conversation-id", "shared-secret");
+        ConversationStateService nodeB = new ConversationStateService(storeB, "conversation-id", "shared-secret");
+        String conversationId = nodeA.newConversationId();
+        nodeA.resume("stomp-1", conversationId);
+        nodeA.setCurrentBlock("stomp-1", flow, flow.byId("second"));
+        nodeA.onDisconnect(new SessionDisconnectEvent(this, MessageBuilder.withPayload(new byte[0]).build(),
+                "stomp-1", CloseStatus.NORMAL));
+        storeA.flush();
+
+        nodeB.resume("stomp-2", conversationId);
+
+        assertEquals("second", storedBlock(conversationId));
+        assertSame(flow.byId("second"), nodeB.getCurrentBlock("stomp-2", flow));
+        assertNull(storedBlock("stomp-1"));
+        assertEquals(1, storeB.databaseLoads());
+    }
+}
@@ -1,15 +1,24 @@
 package org.chatbot.engine;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.chatbot.ai.IntentDetector;
 import org.chatbot.configuration.FlowConfigService;
+import org.chatbot.configuration.FlowRegistry;
 import org.chatbot.conversationMessage.service.ConversationMessageService;
+import org.chatbot.fileEntity.service.FileEntityService;
 import org.chatbot.flow.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -36,7 +45,15 @@ public class ChatFlowEngineTest {
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
-        engine = new ChatFlowEngine(flowConfigService, stateService, keywordMatcher, messageService, intentDetector);
+        engine = newEngine(new IntentCascade(null, false, 1.0, 1.0), new SimpleMeterRegistry());
+    }
+
+    // Sessions without a flow header get the active flow, i.e. whatever the mocked FlowConfigService returns.
+    private ChatFlowEngine newEngine(IntentCascade cascade, MeterRegistry registry) {
+        FlowRegistry flows = new FlowRegistry(flowConfigService, mock(FileEntityService.class), event -> { },
+                "flow", 64);
+        return new ChatFlowEngine(flows, stateService, keywordMatcher, messageService, intentDetector, Runnable::run,
+                new SessionSequencer(100), cascade, registry);
     }
 
     /**
@@ -50,7 +67,8 @@ public class ChatFlowEngineTest {
         Block greeting = new Block("greeting", BlockType.WRITE_MESSAGE, "Hello", "wait", null, null, null);
         Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null, null, null, null);
         Flow flow = new Flow("greeting", List.of(greeting, wait));
-        when(flowConfigService.getFlow()).thenReturn(flow);
+        CompiledFlow compiled = FlowCompiler.compile(flow);
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
 
         // Act
         List<String> messages = engine.start("session1");
@@ -60,7 +78,7 @@ public class ChatFlowEngineTest {
         assertEquals("Hello", messages.get(0));
         // Verify the bot message was persisted and state was set to wait
         verify(messageService, times(1)).saveBotMessage("session1", "Hello", "greeting");
-        verify(stateService, times(1)).setCurrentBlock("session1", "wait");
+        verify(stateService, times(1)).setCurrentBlock("session1", compiled, compiled.byId("wait"));
     }
 
     /**
@@ -77,11 +95,12 @@ public class ChatFlowEngineTest {
         Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null, List.of(priceRoute), null, null);
         Block price = new Block("price", BlockType.WRITE_MESSAGE, "Price is 49", null, null, null, null);
         Flow flow = new Flow("greeting", List.of(greeting, wait, price));
-        when(flowConfigService.getFlow()).thenReturn(flow);
+        CompiledFlow compiled = FlowCompiler.compile(flow);
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
         // Simulate that the current block is the wait block
-        when(stateService.getCurrentBlock("session2")).thenReturn("wait");
+        when(stateService.getCurrentBlock("session2", compiled)).thenReturn(compiled.byId("wait"));
         // Configure keyword matcher to match on "price"
-        when(keywordMatcher.resolveNext(wait, "What is the price?")).thenReturn("price");
+        when(keywordMatcher.resolve(compiled.byId("wait"), "What is the price?")).thenReturn(compiled.byId("price").entry());
 
         // Act
         List<String> messages = engine.onUserMessage("session2", "What is the price?");
@@ -94,7 +113,7 @@ public class ChatFlowEngineTest {
         // Verify the bot message was stored
         verify(messageService, times(1)).saveBotMessage("session2", "Price is 49", "price");
         // The state should not move to a new block (next is null)
-        verify(stateService, never()).setCurrentBlock(eq("session2"), eq("price"));
+        verify(stateService, never()).setCurrentBlock(eq("session2"), eq(compiled), eq(compiled.byId("price")));
     }
 
     /**
@@ -110,8 +129,9 @@ public class ChatFlowEngineTest {
         Block priceBlock = new Block("priceBlock", BlockType.WRITE_MESSAGE, "Price is 49", null, null, null, null);
         Block fallbackBlock = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Fallback", null, null, null, null);
         Flow flow = new Flow("detect", List.of(detect, priceBlock, fallbackBlock));
-        when(flowConfigService.getFlow()).thenReturn(flow);
-        when(stateService.getCurrentBlock("sess3")).thenReturn("detect");
+        CompiledFlow compiled = FlowCompiler.compile(flow);
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess3", compiled)).thenReturn(compiled.byId("detect"));
         // LLM detects "price" intent
         when(intentDetector.detectIntent("How much?", List.of("price"))).thenReturn(Optional.of("price"));
 
@@ -123,7 +143,7 @@ public class ChatFlowEngineTest {
         // And the bot reply for price
         verify(messageService).saveBotMessage("sess3", "Price is 49", "priceBlock");
         // State should not move because priceBlock has no next
-        verify(stateService, never()).setCurrentBlock(eq("sess3"), eq("priceBlock"));
+        verify(stateService, never()).setCurrentBlock(eq("sess3"), eq(compiled), eq(compiled.byId("priceBlock")));
     }
 
     /**
@@ -140,8 +160,9 @@ public class ChatFlowEngineTest {
         Block hoursBlock = new Block("hoursBlock", BlockType.WRITE_MESSAGE, "9 to 5", null, null, null, null);
         Block fallbackBlock = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Sorry, I didn't understand.", null, null, null, null);
         Flow flow = new Flow("detect", List.of(detect, priceBlock, hoursBlock, fallbackBlock));
-        when(flowConfigService.getFlow()).thenReturn(flow);
-        when(stateService.getCurrentBlock("sess4")).thenReturn("detect");
+        CompiledFlow compiled = FlowCompiler.compile(flow);
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess4", compiled)).thenReturn(compiled.byId("detect"));
         // LLM returns empty (no intent detected)
         when(intentDetector.detectIntent(anyString(), anyList())).thenReturn(Optional.empty());
 
@@ -153,4 +174,194 @@ public class ChatFlowEngineTest {
         verify(messageService).saveUserMessage("sess4", "Hello there", "detect");
         verify(messageService).saveBotMessage("sess4", "Sorry, I didn't understand.", "fallbackBlock");
     }
-}
\ No newline at end of file
+
+    /**
+     * The asynchronous path uses detectIntentAsync and completes with the same
+     * replies and side effects as the synchronous one.
+     */
+    @Test
+    public void testOnUserMessageAsyncUsesAsyncDetector() throws Exception {
+        IntentOption priceOpt = new IntentOption("price", List.of("price"), "priceBlock");
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(priceOpt), "fallbackBlock");
+        Block priceBlock = new Block("priceBlock", BlockType.WRITE_MESSAGE, "Price is 49", "detect", null, null, null);
+        Block fallbackBlock = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Fallback", null, null, null, null);
+        Flow flow = new Flow("detect", List.of(detect, priceBlock, fallbackBlock));
+        CompiledFlow compiled = FlowCompiler.compile(flow);
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess5", compiled)).thenReturn(compiled.byId("detect"));
+        CompletableFuture<Optional<String>> detection = new CompletableFuture<>();
+        when(intentDetector.detectIntentAsync("How much?", List.of("price"))).thenReturn(detection);
+
+        CompletableFuture<List<String>> replies = engine.onUserMessageAsync("sess5", "How much?");
+
+        // Nothing is sent until the detector answers.
+        assertFalse(replies.isDone());
+        detection.complete(Optional.of("price"));
+
+        assertEquals(List.of("Price is 49"), replies.get(1, TimeUnit.SECONDS));
+        verify(intentDetector, never()).detectIntent(anyString(), anyList());
+        verify(messageService).saveUserMessage("sess5", "How much?", "detect");
+        verify(messageService).saveBotMessage("sess5", "Price is 49", "priceBlock");
+        verify(stateService).setCurrentBlock("sess5", compiled, compiled.byId("detect"));
+    }
+
+    @Test
+    public void testOnUserMessageAsyncFallsBackWhenDetectorFails() throws Exception {
+        IntentOption priceOpt = new IntentOption("price", List.of("price"), "priceBlock");
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(priceOpt), "fallbackBlock");
+        Block priceBlock = new Block("priceBlock", BlockType.WRITE_MESSAGE, "Price is 49", null, null, null, null);
+        Block fallbackBlock = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Fallback", null, null, null, null);
+        Flow flow = new Flow("detect", List.of(detect, priceBlock, fallbackBlock));
+        CompiledFlow compiled = FlowCompiler.compile(flow);
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess6", compiled)).thenReturn(compiled.byId("detect"));
+        when(intentDetector.detectIntentAsync(anyString(), anyList()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("timeout")));
+
+        assertEquals(List.of("Price is 49"), engine.onUserMessageAsync("sess6", "the price?").get(1, TimeUnit.SECONDS));
+        assertEquals(List.of("Fallback"), engine.onUserMessageAsync("sess6", "hello").get(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * A second message of the same session is not processed before the first
+     * turn (still waiting for the detector) has completed.
+     */
+    @Test
+    public void testAsyncTurnsOfOneSessionRunInOrder() throws Exception {
+        IntentOption priceOpt = new IntentOption("price", List.of("price"), "priceBlock");
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(priceOpt), "fallbackBlock");
+        Block priceBlock = new Block("priceBlock", BlockType.WRITE_MESSAGE, "Price is 49", "detect", null, null, null);
+        Block fallbackBlock = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Fallback", "detect", null, null, null);
+        Flow flow = new Flow("detect", List.of(detect, priceBlock, fallbackBlock));
+        CompiledFlow compiled = FlowCompiler.compile(flow);
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess7", compiled)).thenReturn(compiled.byId("detect"));
+        CompletableFuture<Optional<String>> detection = new CompletableFuture<>();
+        when(intentDetector.detectIntentAsync("first", List.of("price"))).thenReturn(detection);
+        when(intentDetector.detectIntentAsync("second", List.of("price")))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        CompletableFuture<List<String>> first = engine.onUserMessageAsync("sess7", "first");
+        CompletableFuture<List<String>> second = engine.onUserMessageAsync("sess7", "second");
+
+        assertFalse(second.isDone());
+        verify(messageService, never()).saveUserMessage("sess7", "second", "detect");
+
+        detection.complete(Optional.of("price"));
+
+        assertEquals(List.of("Price is 49"), first.get(1, TimeUnit.SECONDS));
+        assertEquals(List.of("Fallback"), second.get(1, TimeUnit.SECONDS));
+        var inOrder = inOrder(messageService);
+        inOrder.verify(messageService).saveBotMessage("sess7", "Price is 49", "priceBlock");
+        inOrder.verify(messageService).saveUserMessage("sess7", "second", "detect");
+    }
+
+    /**
+     * Replies are sent before the next turn of the session starts, even when
+     * the second turn completes in the callback that starts it.
+     */
+    @Test
+    public void testAsyncRepliesAreSentInTurnOrder() throws Exception {
+        IntentOption priceOpt = new IntentOption("price", List.of("price"), "priceBlock");
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(priceOpt), "fallbackBlock");
+        Block priceBlock = new Block("priceBlock", BlockType.WRITE_MESSAGE, "Price is 49", "detect", null, null, null);
+        Block fallbackBlock = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Fallback", "detect", null, null, null);
+        CompiledFlow compiled = FlowCompiler.compile(new Flow("detect", List.of(detect, priceBlock, fallbackBlock)));
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess8", compiled)).thenReturn(compiled.byId("detect"));
+        CompletableFuture<Optional<String>> detection = new CompletableFuture<>();
+        when(intentDetector.detectIntentAsync("first", List.of("price"))).thenReturn(detection);
+        when(intentDetector.detectIntentAsync("second", List.of("price")))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+        CompletableFuture<List<String>> first = engine.onUserMessageAsync("sess8", "first", sent::addAll);
+        CompletableFuture<List<String>> second = engine.onUserMessageAsync("sess8", "second", sent::addAll);
+        detection.complete(Optional.of("price"));
+        second.get(1, TimeUnit.SECONDS);
+
+        assertTrue(first.isDone());
+        assertEquals(List.of("Price is 49", "Fallback"), sent);
+    }
+
+    /**
+     * With the cascade enabled, a message that is just a keyword is resolved
+     * without the detector, while an ambiguous one still goes to it.
+     */
+    @Test
+    public void testCascadeSkipsDetectorForConfidentKeywords() {
+        IntentCascade cascade = new IntentCascade(null, true, 0.6, 0.6);
+        engine = newEngine(cascade, new SimpleMeterRegistry());
+        IntentOption refundOpt = new IntentOption("refund", List.of("refund"), "refundBlock");
+        IntentOption priceOpt = new IntentOption("price", List.of("price"), "priceBlock");
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(refundOpt, priceOpt), "fallbackBlock");
+        Block refundBlock = new Block("refundBlock", BlockType.WRITE_MESSAGE, "Refunds take 3 days", "detect", null, null, null);
+        Block priceBlock = new Block("priceBlock", BlockType.WRITE_MESSAGE, "Price is 49", "detect", null, null, null);
+        Block fallbackBlock = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Fallback", "detect", null, null, null);
+        CompiledFlow compiled = FlowCompiler.compile(new Flow("detect", List.of(detect, refundBlock, priceBlock, fallbackBlock)));
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess8", compiled)).thenReturn(compiled.byId("detect"));
+        when(intentDetector.detectIntent("refund the price difference", List.of("refund", "price")))
+                .thenReturn(Optional.of("refund"));
+
+        assertEquals(List.of("Refunds take 3 days"), engine.onUserMessage("sess8", "Refund!"));
+        verify(intentDetector, never()).detectIntent(anyString(), anyList());
+
+        // Keywords of two intents: only the detector can tell which one was meant.
+        assertEquals(List.of("Refunds take 3 days"), engine.onUserMessage("sess8", "refund the price difference"));
+        verify(intentDetector).detectIntent("refund the price difference", List.of("refund", "price"));
+
+        assertEquals(new IntentCascade.Stats(1, 0, 1, 0, 1), cascade.stats());
+    }
+
+    @Test
+    public void testBlockThresholdOverridesCascadeDefault() {
+        IntentCascade cascade = new IntentCascade(null, true, 0.6, 0.6);
+        engine = newEngine(cascade, new SimpleMeterRegistry());
+        IntentOption priceOpt = new IntentOption("price", List.of("price"), "priceBlock");
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(priceOpt), "fallbackBlock",
+                new ConfidenceThresholds(0.2, null));
+        Block priceBlock = new Block("priceBlock", BlockType.WRITE_MESSAGE, "Price is 49", "detect", null, null, null);
+        Block fallbackBlock = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Fallback", "detect", null, null, null);
+        CompiledFlow compiled = FlowCompiler.compile(new Flow("detect", List.of(detect, priceBlock, fallbackBlock)));
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess9", compiled)).thenReturn(compiled.byId("detect"));
+
+        // "price" covers 5 of 18 chars: below the global 0.6, above the block's 0.2.
+        assertEquals(List.of("Price is 49"), engine.onUserMessage("sess9", "what is the price?"));
+        verify(intentDetector, never()).detectIntent(anyString(), anyList());
+    }
+
+    @Test
+    public void testTurnsAreTimedByBlockType() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        engine = newEngine(new IntentCascade(null, false, 1.0, 1.0), registry);
+        Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null, List.of(), null, null);
+        CompiledFlow compiled = FlowCompiler.compile(new Flow("wait", List.of(wait)));
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess10", compiled)).thenReturn(compiled.byId("wait"));
+
+        engine.onUserMessage("sess10", "hello");
+        engine.onUserMessage("sess11", "hello");
+
+        assertEquals(1, registry.get("chatbot.turn").tag("block.type", "WAIT_FOR_RESPONSE").timer().count());
+        assertEquals(1, registry.get("chatbot.turn").tag("block.type", "NONE").timer().count());
+    }
+
+    @Test
+    public void testFailedAsyncTurnsAreTimedToo() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        engine = newEngine(new IntentCascade(null, false, 1.0, 1.0), registry);
+        Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null, List.of(), null, null);
+        CompiledFlow compiled = FlowCompiler.compile(new Flow("wait", List.of(wait)));
+        when(flowConfigService.getCompiledFlow()).thenReturn(compiled);
+        when(stateService.getCurrentBlock("sess12", compiled)).thenReturn(compiled.byId("wait"));
+        doThrow(new IllegalStateException("database down"))
+                .when(messageService).saveUserMessage("sess12", "hello", "wait");
+
+        CompletableFuture<List<String>> turn = engine.onUserMessageAsync("sess12", "hello");
+
+        assertThrows(CompletionException.class, turn::join);
+        assertEquals(1, registry.get("chatbot.turn").tag("block.type", "WAIT_FOR_RESPONSE").timer().count());
+    }
+}
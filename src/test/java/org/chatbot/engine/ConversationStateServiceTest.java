@@ -1,20 +1,109 @@
 package org.chatbot.engine;
 
+import org.chatbot.configuration.FlowActivatedEvent;
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
 import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
 
 public class ConversationStateServiceTest {
 
+    private static CompiledFlow flow() {
+        Block wait = new Block("block1", BlockType.WAIT_FOR_RESPONSE, null, null, null, null, null);
+        return FlowCompiler.compile(new Flow("block1", List.of(wait)));
+    }
+
     @Test
     void testSetAndGetCurrentBlock() {
-        ConversationStateService service = new ConversationStateService();
-        service.setCurrentBlock("session1", "block1");
-        assertEquals("block1", service.getCurrentBlock("session1"));
+        CompiledFlow flow = flow();
+        ConversationStateService service =
+                new ConversationStateService(new InMemoryConversationStateStore(1_800_000, 100_000), "conversation-id", "");
+        service.setCurrentBlock("session1", flow, flow.byId("block1"));
+        assertSame(flow.byId("block1"), service.getCurrentBlock("session1", flow));
     }
 
     @Test
     void testUnknownSessionReturnsNull() {
-        ConversationStateService service = new ConversationStateService();
-        assertNull(service.getCurrentBlock("unknown"));
+        ConversationStateService service =
+                new ConversationStateService(new InMemoryConversationStateStore(1_800_000, 100_000), "conversation-id", "");
+        assertNull(service.getCurrentBlock("unknown", flow()));
+    }
+
+    @Test
+    void testEventsAreForwardedToTheStore() {
+        ConversationStateStore store = mock(ConversationStateStore.class);
+        ConversationStateService service = new ConversationStateService(store, "conversation-id", "");
+        CompiledFlow previous = flow();
+        CompiledFlow current = flow();
+        Message<byte[]> message = MessageBuilder.withPayload(new byte[0]).build();
+
+        service.onDisconnect(new SessionDisconnectEvent(this, message, "session1", CloseStatus.NORMAL));
+        service.onFlowActivated(new FlowActivatedEvent(previous, current));
+
+        verify(store).onDisconnect("session1");
+        verify(store).onFlowActivated(previous, current);
+    }
+
+    @Test
+    void testConversationIdSurvivesTheDisconnectAndIsResumedByANewSession() {
+        CompiledFlow flow = flow();
+        InMemoryConversationStateStore store = new InMemoryConversationStateStore(1_800_000, 100_000);
+        ConversationStateService service = new ConversationStateService(store, "conversation-id", "");
+
+        String conversationId = service.newConversationId();
+
+        service.onConnect(connect("session1", conversationId));
+        service.setCurrentBlock("session1", flow, flow.byId("block1"));
+        service.onDisconnect(new SessionDisconnectEvent(this, connect("session1", conversationId).getMessage(),
+                "session1", CloseStatus.NORMAL));
+        service.onConnect(connect("session2", " " + conversationId + " "));
+
+        assertSame(flow.byId("block1"), service.getCurrentBlock("session2", flow));
+        assertEquals(0, store.stats().disconnects());
+        // Without the header the STOMP session id is the key, as before.
+        assertNull(service.getCurrentBlock("session3", flow));
+    }
+
+    @Test
+    void testConversationIdsWithoutAValidSignatureAreIgnored() {
+        CompiledFlow flow = flow();
+        ConversationStateService service =
+                new ConversationStateService(new InMemoryConversationStateStore(1_800_000, 100_000), "conversation-id", "");
+        ConversationStateService otherSecret =
+                new ConversationStateService(new InMemoryConversationStateStore(1_800_000, 100_000), "conversation-id", "");
+        String victim = service.newConversationId();
+        service.onConnect(connect("session1", victim));
+        service.setCurrentBlock("session1", flow, flow.byId("block1"));
+        String random = victim.substring(0, victim.indexOf('.'));
+
+        for (String forged : List.of("c-42", random, random + ".", random + "." + "A".repeat(43),
+                otherSecret.newConversationId(), victim.substring(0, victim.length() - 1) + "x")) {
+            service.onConnect(connect("session2", forged));
+            assertNull(service.getCurrentBlock("session2", flow), forged);
+        }
+        service.onConnect(connect("session2", victim));
+        assertSame(flow.byId("block1"), service.getCurrentBlock("session2", flow));
+    }
+
+    private static SessionConnectEvent connect(String sessionId, String conversationId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        accessor.addNativeHeader("conversation-id", conversationId);
+        return new SessionConnectEvent(ConversationStateServiceTest.class,
+                MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
     }
 }
@@ -0,0 +1,132 @@
+package org.chatbot.engine;
+
+import org.chatbot.flow.Block;
+import org.chatbot.flow.BlockType;
+import org.chatbot.flow.CompiledFlow;
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryConversationStateStoreTest {
+
+    private static CompiledFlow flow(String... waitIds) {
+        List<Block> blocks = new ArrayList<>();
+        for (String id : waitIds) {
+            blocks.add(new Block(id, BlockType.WAIT_FOR_RESPONSE, null, null, null, null, null));
+        }
+        return FlowCompiler.compile(new Flow(waitIds[0], blocks));
+    }
+
+    @Test
+    void testSetAndGetCurrentBlock() {
+        CompiledFlow flow = flow("block1", "block2");
+        InMemoryConversationStateStore store = new InMemoryConversationStateStore(1_800_000, 100_000);
+        store.put("session1", flow, flow.byId("block2"));
+        assertSame(flow.byId("block2"), store.get("session1", flow));
+    }
+
+    @Test
+    void testUnknownSessionReturnsNull() {
+        InMemoryConversationStateStore store = new InMemoryConversationStateStore(1_800_000, 100_000);
+        assertNull(store.get("unknown", flow("block1")));
+    }
+
+    @Test
+    void testPositionFromAnotherFlowIsIgnored() {
+        CompiledFlow first = flow("block1");
+        InMemoryConversationStateStore store = new InMemoryConversationStateStore(1_800_000, 100_000);
+        store.put("session1", first, first.byId("block1"));
+        assertNull(store.get("session1", flow("block1")));
+    }
+
+    @Test
+    void testFlowActivationRemapsByBlockId() {
+        CompiledFlow previous = flow("a", "b", "c");
+        CompiledFlow current = flow("c", "a");
+        InMemoryConversationStateStore store = new InMemoryConversationStateStore(1_800_000, 100_000);
+        store.put("s1", previous, previous.byId("c"));
+        store.put("s2", previous, previous.byId("b"));
+
+        store.onFlowActivated(previous, current);
+
+        assertSame(current.byId("c"), store.get("s1", current));
+        // "b" no longer exists, so that conversation starts over.
+        assertNull(store.get("s2", current));
+        assertEquals(1, store.stats().sessions());
+    }
+
+    @Test
+    void testFlowActivationLeavesSessionsOfOtherFlowsAlone() {
+        CompiledFlow tenant = flow("a");
+        CompiledFlow previous = flow("a");
+        InMemoryConversationStateStore store = new InMemoryConversationStateStore(1_800_000, 100_000);
+        store.put("tenant", tenant, tenant.byId("a"));
+        store.put("default", previous, previous.byId("a"));
+
+        store.onFlowActivated(previous, null);
+
+        assertSame(tenant.byId("a"), store.get("tenant", tenant));
+        assertEquals(1, store.stats().sessions());
+    }
+
+    @Test
+    void testDisconnectRemovesSession() {
+        CompiledFlow flow = flow("block1");
+        InMemoryConversationStateStore store = new InMemoryConversationStateStore(1_800_000, 100_000);
+        store.put("session1", flow, flow.byId("block1"));
+
+        store.onDisconnect("session1");
+
+        assertNull(store.get("session1", flow));
+        assertEquals(0, store.stats().sessions());
+        assertEquals(1, store.stats().disconnects());
+    }
+
+    @Test
+    void testIdleSessionsAreEvicted() {
+        AtomicLong now = new AtomicLong();
+        CompiledFlow flow = flow("block1");
+        InMemoryConversationStateStore store = new InMemoryConversationStateStore(1000, 100, now::get);
+        store.put("idle", flow, flow.byId("block1"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        store.put("active", flow, flow.byId("block1"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+
+        store.evictIdle();
+
+        assertNull(store.get("idle", flow));
+        assertNotNull(store.get("active", flow));
+        assertEquals(1, store.stats().idleEvictions());
+    }
+
+    @Test
+    void testLeastRecentlyUsedSessionsAreEvictedOverMaxSize() {
+        AtomicLong now = new AtomicLong();
+        CompiledFlow flow = flow("block1");
+        InMemoryConversationStateStore store = new InMemoryConversationStateStore(0, 10, now::get);
+        for (int i = 0; i < 10; i++) {
+            now.incrementAndGet();
+            store.put("s" + i, flow, flow.byId("block1"));
+        }
+        // Touch s0 so that s1 becomes the least recently used session.
+        now.incrementAndGet();
+        store.get("s0", flow);
+        now.incrementAndGet();
+        store.put("s10", flow, flow.byId("block1"));
+
+        ConversationStateStore.Stats stats = store.stats();
+        assertTrue(stats.sessions() <= 10);
+        assertEquals(11 - stats.sessions(), stats.sizeEvictions());
+        assertNull(store.get("s1", flow));
+        assertNotNull(store.get("s0", flow));
+        assertNotNull(store.get("s10", flow));
+        assertTrue(stats.approxBytesPerSession() > 0);
+    }
+}
@@ -3,7 +3,9 @@ package org.chatbot.engine;
 import org.chatbot.flow.*;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -15,9 +17,12 @@ public class KeywordMatcherTest {
         Route route = new Route(spec, "nextBlock");
         Block block = new Block("1", BlockType.WAIT_FOR_RESPONSE, null, null, List.of(route), null, null);
 
+        Block next = new Block("nextBlock", BlockType.WRITE_MESSAGE, "Price", null, null, null, null);
+        CompiledFlow flow = FlowCompiler.compile(new Flow("1", List.of(block, next)));
+
         KeywordMatcher matcher = new KeywordMatcher();
-        String result = matcher.resolveNext(block, "What is the price?");
-        assertEquals("nextBlock", result);
+        Transition result = matcher.resolve(flow.byId("1"), "What is the price?");
+        assertSame(flow.byId("nextBlock").entry(), result);
     }
 
     @Test
@@ -26,8 +31,90 @@ public class KeywordMatcherTest {
         Route route = new Route(fallbackSpec, "fallbackBlock");
         Block block = new Block("2", BlockType.WAIT_FOR_RESPONSE, null, null, List.of(route), null, null);
 
+        Block fallback = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Sorry", null, null, null, null);
+        CompiledFlow flow = FlowCompiler.compile(new Flow("2", List.of(block, fallback)));
+
+        KeywordMatcher matcher = new KeywordMatcher();
+        Transition result = matcher.resolve(flow.byId("2"), "random text");
+        assertSame(flow.byId("fallbackBlock").entry(), result);
+    }
+
+    @Test
+    void testFuzzyMatchOnlyWhenCompiledWithDistance() {
+        MatchSpec spec = new MatchSpec(MatchType.KEYWORD, List.of("delivery"));
+        Route route = new Route(spec, "nextBlock");
+        Route fallbackRoute = new Route(new MatchSpec(MatchType.FALLBACK, null), "fallbackBlock");
+        Block block = new Block("1", BlockType.WAIT_FOR_RESPONSE, null, null, List.of(route, fallbackRoute), null, null);
+        Block next = new Block("nextBlock", BlockType.WRITE_MESSAGE, "Delivery", null, null, null, null);
+        Block fallback = new Block("fallbackBlock", BlockType.WRITE_MESSAGE, "Sorry", null, null, null, null);
+        Flow source = new Flow("1", List.of(block, next, fallback));
+        KeywordMatcher matcher = new KeywordMatcher();
+
+        CompiledFlow exact = FlowCompiler.compile(source);
+        assertSame(exact.byId("fallbackBlock").entry(), matcher.resolve(exact.byId("1"), "where is my delivry"));
+
+        CompiledFlow fuzzy = FlowCompiler.compile(source, 1);
+        assertSame(fuzzy.byId("nextBlock").entry(), matcher.resolve(fuzzy.byId("1"), "where is my delivry"));
+        assertSame(fuzzy.byId("fallbackBlock").entry(), matcher.resolve(fuzzy.byId("1"), "hello"));
+    }
+
+    /**
+     * Runs the old route loop (lowercase + String.contains per keyword, first route wins,
+     * then FALLBACK) next to the automaton-based matcher on random blocks.
+     */
+    @Test
+    void testMatchesPreviousRouteLoop() {
+        Random random = new Random(7);
+        String[] words = {"price", "cost", "refund", "ship", "shipping", "hours", "Hour", "pri", "", "no"};
         KeywordMatcher matcher = new KeywordMatcher();
-        String result = matcher.resolveNext(block, "random text");
-        assertEquals("fallbackBlock", result);
+        for (int round = 0; round < 300; round++) {
+            List<Route> routes = new ArrayList<>();
+            List<Block> blocks = new ArrayList<>();
+            int routeCount = 1 + random.nextInt(5);
+            for (int r = 0; r < routeCount; r++) {
+                String target = "t" + r;
+                blocks.add(new Block(target, BlockType.WRITE_MESSAGE, target, null, null, null, null));
+                if (random.nextInt(5) == 0) {
+                    routes.add(new Route(new MatchSpec(MatchType.FALLBACK, null), target));
+                    continue;
+                }
+                List<String> keywords = new ArrayList<>();
+                for (int k = random.nextInt(3); k >= 0; k--) {
+                    keywords.add(words[random.nextInt(words.length)]);
+                }
+                routes.add(new Route(new MatchSpec(MatchType.KEYWORD, keywords), target));
+            }
+            Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null, routes, null, null);
+            blocks.add(wait);
+            CompiledFlow flow = FlowCompiler.compile(new Flow("wait", blocks));
+
+            for (int t = 0; t < 10; t++) {
+                String text = words[random.nextInt(words.length)] + " and " + words[random.nextInt(words.length)].toUpperCase();
+                String expected = previousResolveNext(wait, text);
+                Transition actual = matcher.resolve(flow.byId("wait"), text);
+                assertSame(expected == null ? null : flow.byId(expected).entry(), actual, "text '" + text + "' routes " + routes);
+            }
+        }
+    }
+
+    private static String previousResolveNext(Block block, String userText) {
+        String text = userText == null ? "" : userText.toLowerCase();
+        for (Route r : block.on()) {
+            MatchSpec spec = r.match();
+            if (spec != null && spec.type() == MatchType.KEYWORD && spec.anyOf() != null) {
+                for (String keyword : spec.anyOf()) {
+                    if (keyword != null && text.contains(keyword.toLowerCase())) {
+                        return r.next();
+                    }
+                }
+            }
+        }
+        for (Route r : block.on()) {
+            MatchSpec spec = r.match();
+            if (spec != null && spec.type() == MatchType.FALLBACK) {
+                return r.next();
+            }
+        }
+        return null;
     }
 }
@@ -0,0 +1,111 @@
+package org.chatbot.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionSequencerTest {
+
+    @Test
+    void testTurnsOfOneSessionWaitForThePreviousTurn() {
+        SessionSequencer sequencer = new SessionSequencer(100);
+        CompletableFuture<String> firstTurn = new CompletableFuture<>();
+        List<String> started = new ArrayList<>();
+
+        CompletableFuture<String> first = sequencer.submit("s1", () -> {
+            started.add("first");
+            return firstTurn;
+        });
+        CompletableFuture<String> second = sequencer.submit("s1", () -> {
+            started.add("second");
+            return CompletableFuture.completedFuture("b");
+        });
+
+        assertEquals(List.of("first"), started);
+        assertFalse(second.isDone());
+
+        firstTurn.complete("a");
+
+        assertEquals(List.of("first", "second"), started);
+        assertEquals("a", first.join());
+        assertEquals("b", second.join());
+        assertEquals(0, sequencer.activeSessions());
+    }
+
+    @Test
+    void testOtherSessionsAreNotBlocked() {
+        SessionSequencer sequencer = new SessionSequencer(100);
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        sequencer.submit("s1", () -> slow);
+
+        CompletableFuture<String> other = sequencer.submit("s2", () -> CompletableFuture.completedFuture("ok"));
+
+        assertEquals("ok", other.join());
+        assertEquals(1, sequencer.activeSessions());
+    }
+
+    @Test
+    void testFailedTurnDoesNotStopTheQueue() {
+        SessionSequencer sequencer = new SessionSequencer(100);
+        CompletableFuture<String> failed = sequencer.submit("s1", () -> {
+            throw new IllegalStateException("boom");
+        });
+        CompletableFuture<String> next = sequencer.submit("s1", () -> CompletableFuture.completedFuture("ok"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals("ok", next.join());
+    }
+
+    @Test
+    void testTooManyPendingTurnsAreRejected() {
+        SessionSequencer sequencer = new SessionSequencer(2);
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        sequencer.submit("s1", () -> slow);
+        sequencer.submit("s1", () -> CompletableFuture.completedFuture("queued"));
+
+        CompletableFuture<String> third = sequencer.submit("s1", () -> CompletableFuture.completedFuture("x"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, third::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertEquals(1, sequencer.rejected());
+    }
+
+    @Test
+    void testConcurrentSubmissionsRunOneAtATimeInOrder() throws Exception {
+        SessionSequencer sequencer = new SessionSequencer(10_000);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> order = new ArrayList<>();
+        List<CompletableFuture<Void>> turns = new ArrayList<>();
+        try {
+            for (int i = 0; i < 500; i++) {
+                int n = i;
+                turns.add(sequencer.submit("s1", () -> CompletableFuture.runAsync(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    order.add(n);
+                    running.decrementAndGet();
+                }, pool)));
+            }
+            CompletableFuture.allOf(turns.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, maxRunning.get());
+        assertEquals(500, order.size());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i, order.get(i));
+        }
+    }
+}
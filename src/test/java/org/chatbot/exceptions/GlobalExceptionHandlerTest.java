@@ -1,9 +1,14 @@
 package org.chatbot.exceptions;
 
+import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowAnalyzer;
+import org.chatbot.flow.FlowReport;
+import org.chatbot.flow.FlowValidationException;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -21,4 +26,16 @@ class GlobalExceptionHandlerTest {
         assertTrue(((Map<?, ?>) response.getBody()).get("message").toString().contains("Error occurred"));
         assertEquals("error", ((Map<?, ?>) response.getBody()).get("status"));
     }
+
+    @Test
+    void testRejectedFlowReturnsTheFullReport() {
+        FlowReport report = FlowAnalyzer.analyze(new Flow("missing", List.of()), 100);
+        ResponseEntity<?> response = handler.handleFlowValidation(new FlowValidationException(report));
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        Map<?, ?> body = (Map<?, ?>) response.getBody();
+        assertEquals("error", body.get("status"));
+        assertEquals(report.errors(), body.get("errors"));
+        assertEquals(List.of(), body.get("warnings"));
+    }
 }
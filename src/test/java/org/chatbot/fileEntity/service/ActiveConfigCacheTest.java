@@ -0,0 +1,95 @@
+package org.chatbot.fileEntity.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ActiveConfigCacheTest {
+
+    @Test
+    void testDocumentIsLoadedOnceAndEncodedUpFront() throws Exception {
+        FileEntityService service = mock(FileEntityService.class);
+        when(service.getActiveJson()).thenReturn(Optional.of("{\"a\":1}"));
+        ActiveConfigCache cache = new ActiveConfigCache(service, 5000);
+
+        ActiveConfigCache.Document document = cache.get();
+
+        assertSame(document, cache.get());
+        verify(service, times(1)).getActiveJson();
+        verify(service, times(1)).getActiveId();
+        assertArrayEquals("{\"a\":1}".getBytes(StandardCharsets.UTF_8), document.json());
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(document.gzip()))) {
+            assertArrayEquals(document.json(), in.readAllBytes());
+        }
+        assertTrue(document.etag().matches("\"[0-9a-f]{32}\""));
+        assertEquals(document.etag().replace("\"", ""), document.gzipEtag().replace("-gzip\"", "").replace("\"", ""));
+        assertEquals(document.etag(), ActiveConfigCache.of("{\"a\":1}".getBytes(StandardCharsets.UTF_8)).etag());
+    }
+
+    @Test
+    void testMissingConfigIsCachedUntilAnUpload() {
+        FileEntityService service = mock(FileEntityService.class);
+        when(service.getActiveJson()).thenReturn(Optional.empty());
+        ActiveConfigCache cache = new ActiveConfigCache(service, 5000);
+
+        assertFalse(cache.get().exists());
+        assertFalse(cache.get().exists());
+        cache.update(1L, "{}".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(cache.get().exists());
+        verify(service, times(1)).getActiveJson();
+        assertEquals(new ActiveConfigCache.Stats(1, 1), cache.stats());
+    }
+
+    @Test
+    void testLoadThatRacedWithAnUploadDoesNotWin() {
+        FileEntityService service = mock(FileEntityService.class);
+        ActiveConfigCache cache = new ActiveConfigCache(service, 5000);
+        byte[] uploaded = "{\"new\":true}".getBytes(StandardCharsets.UTF_8);
+        // The upload lands while the first request is still reading the old file.
+        when(service.getActiveJson()).thenAnswer(inv -> {
+            cache.update(2L, uploaded);
+            return Optional.of("{\"old\":true}");
+        });
+
+        assertArrayEquals(uploaded, cache.get().json());
+        assertArrayEquals(uploaded, cache.get().json());
+    }
+
+    @Test
+    void testUploadOnAnotherNodeIsPickedUpAfterTheRefreshInterval() {
+        FileEntityService service = mock(FileEntityService.class);
+        AtomicLong now = new AtomicLong();
+        ActiveConfigCache cache = new ActiveConfigCache(service, 1000, now::get);
+        when(service.getActiveJson()).thenReturn(Optional.of("{\"v\":1}"));
+        when(service.getActiveId()).thenReturn(Optional.of(1L));
+        ActiveConfigCache.Document first = cache.get();
+
+        // Within the interval nothing is checked; after it only the id is read while it is unchanged.
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertSame(first, cache.get());
+        verify(service, times(1)).getActiveId();
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertSame(first, cache.get());
+        assertSame(first, cache.get());
+        verify(service, times(2)).getActiveId();
+        verify(service, times(1)).getActiveJson();
+
+        // Another node activates file 2.
+        when(service.getActiveJson()).thenReturn(Optional.of("{\"v\":2}"));
+        when(service.getActiveId()).thenReturn(Optional.of(2L));
+        assertSame(first, cache.get());
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+
+        assertArrayEquals("{\"v\":2}".getBytes(StandardCharsets.UTF_8), cache.get().json());
+        assertEquals(new ActiveConfigCache.Stats(2, 0), cache.stats());
+    }
+}
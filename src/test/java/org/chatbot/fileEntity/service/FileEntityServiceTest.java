@@ -28,7 +28,7 @@ class FileEntityServiceTest {
         when(mockRepo.findByActiveTrue()).thenReturn(Optional.of(inactive));
         when(mockRepo.save(Mockito.any(FileEntity.class))).thenAnswer(inv -> inv.getArgument(0));
 
-        FileEntity result = service.saveMessage(json, "TestFlow");
+        FileEntity result = service.saveMessage(json.toString(), "TestFlow");
         assertTrue(result.getActive());
         verify(mockRepo, times(1)).save(Mockito.any(FileEntity.class));
         assertFalse(inactive.getActive());
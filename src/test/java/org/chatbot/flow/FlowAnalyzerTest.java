@@ -0,0 +1,141 @@
+package org.chatbot.flow;
+
+import org.chatbot.flow.FlowReport.Code;
+import org.chatbot.flow.FlowReport.Issue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlowAnalyzerTest {
+
+    private static Block write(String id, String next) {
+        return new Block(id, BlockType.WRITE_MESSAGE, "Message " + id, next, null, null, null);
+    }
+
+    private static List<Code> codes(List<Issue> issues) {
+        return issues.stream().map(Issue::code).toList();
+    }
+
+    @Test
+    void testValidFlowHasNoIssues() {
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null,
+                List.of(new IntentOption("price", List.of("price"), "price")), "hello");
+        Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null,
+                List.of(new Route(new MatchSpec(MatchType.KEYWORD, List.of("yes")), "detect"),
+                        new Route(new MatchSpec(MatchType.FALLBACK, null), "hello")), null, null);
+        Flow flow = new Flow("hello", List.of(write("hello", "wait"), wait, detect, write("price", "wait")));
+
+        FlowReport report = FlowAnalyzer.analyze(flow, 100);
+
+        assertFalse(report.hasErrors());
+        assertEquals(List.of(), report.warnings());
+    }
+
+    @Test
+    void testStartBlockMustExist() {
+        assertEquals(List.of(Code.MISSING_START), codes(FlowAnalyzer.analyze(new Flow(null, List.of(write("a", null))), 100).errors()));
+        assertEquals(List.of(Code.UNKNOWN_START), codes(FlowAnalyzer.analyze(new Flow("b", List.of(write("a", null))), 100).errors()));
+        assertEquals(List.of(Code.MISSING_START), codes(FlowAnalyzer.analyze(new Flow(), 100).errors()));
+    }
+
+    @Test
+    void testEveryUnresolvedReferenceIsReportedWithItsField() {
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, "ignored", null,
+                List.of(new IntentOption("a", null, "detect"), new IntentOption("b", null, "nope")), "gone");
+        Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null,
+                List.of(new Route(new MatchSpec(MatchType.KEYWORD, List.of("x")), "missing")), null, " ");
+        Flow flow = new Flow("hello", List.of(write("hello", "wait"), wait, detect, write("end", "void")));
+
+        FlowReport report = FlowAnalyzer.analyze(flow, 100);
+
+        assertEquals(List.of(
+                new Issue(Code.UNRESOLVED_REFERENCE, "wait", "on[0].next", "unknown block 'missing'"),
+                new Issue(Code.UNRESOLVED_REFERENCE, "detect", "intents[1].next", "unknown block 'nope'"),
+                new Issue(Code.UNRESOLVED_REFERENCE, "detect", "fallback", "unknown block 'gone'"),
+                new Issue(Code.UNRESOLVED_REFERENCE, "end", "next", "unknown block 'void'")
+        ), report.errors());
+        assertEquals(List.of("detect", "end"), report.warnings().stream().map(Issue::blockId).toList());
+    }
+
+    @Test
+    void testBlocksNeedIdAndTypeAndUniqueIds() {
+        Block untyped = new Block("b", null, null, null, null, null, null);
+        Flow flow = new Flow("a", Arrays.asList(write("a", "b"), untyped, null, write("", null), write("a", null)));
+
+        FlowReport report = FlowAnalyzer.analyze(flow, 100);
+
+        assertEquals(List.of(Code.MISSING_TYPE, Code.MISSING_ID, Code.MISSING_ID, Code.DUPLICATE_ID), codes(report.errors()));
+        assertEquals("blocks[2]", report.errors().get(1).field());
+        assertEquals(List.of(), report.warnings());
+    }
+
+    @Test
+    void testWriteCyclesWithoutAWaitPointAreRejectedOnce() {
+        // intro -> a -> b -> c -> a, entered through the chain and again from the wait block.
+        Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null,
+                List.of(new Route(new MatchSpec(MatchType.FALLBACK, null), "b")), null, null);
+        Flow flow = new Flow("wait", List.of(wait, write("c", "a"), write("intro", "a"), write("a", "b"), write("b", "c")));
+
+        FlowReport report = FlowAnalyzer.analyze(flow, 100);
+
+        assertEquals(1, report.errors().size());
+        Issue cycle = report.errors().get(0);
+        assertEquals(Code.WRITE_CYCLE, cycle.code());
+        assertTrue(cycle.detail().endsWith("c -> a -> b -> c"), cycle.detail());
+    }
+
+    @Test
+    void testCyclesThroughAWaitPointAreFine() {
+        Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null,
+                List.of(new Route(new MatchSpec(MatchType.FALLBACK, null), "a")), null, null);
+        Flow flow = new Flow("a", List.of(write("a", "b"), write("b", "wait"), wait));
+
+        assertFalse(FlowAnalyzer.analyze(flow, 100).hasErrors());
+    }
+
+    @Test
+    void testLongChainsAreReportedWhereTheyCrossTheLimit() {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            blocks.add(write("w" + i, i < 9 ? "w" + (i + 1) : null));
+        }
+
+        assertFalse(FlowAnalyzer.analyze(new Flow("w0", blocks), 10).hasErrors());
+        List<Issue> errors = FlowAnalyzer.analyze(new Flow("w0", blocks), 4).errors();
+        assertEquals(List.of(new Issue(Code.CHAIN_TOO_LONG, "w5", "next",
+                "chain sends 5 messages in one turn, at most 4 are allowed")), errors);
+    }
+
+    @Test
+    void testDeepFlowsAreAnalyzedWithoutRecursion() {
+        int size = 200_000;
+        List<Block> blocks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            blocks.add(i % 2 == 0
+                    ? write("b" + i, "b" + (i + 1))
+                    : new Block("b" + i, BlockType.WAIT_FOR_RESPONSE, null, null,
+                            List.of(new Route(new MatchSpec(MatchType.FALLBACK, null), "b" + ((i + 1) % size))), null, null));
+        }
+
+        FlowReport report = FlowAnalyzer.analyze(new Flow("b0", blocks), 100);
+
+        assertFalse(report.hasErrors());
+        assertEquals(List.of(), report.warnings());
+    }
+
+    @Test
+    void testExceptionSummarizesTheFirstError() {
+        FlowReport report = FlowAnalyzer.analyze(new Flow("a", List.of(write("a", "x"), write("b", "y"))), 100);
+
+        FlowValidationException e = new FlowValidationException(report);
+
+        assertSame(report, e.report());
+        assertEquals("Flow rejected with 2 error(s), first: UNRESOLVED_REFERENCE in block 'a' (next): unknown block 'x'",
+                e.getMessage());
+        assertEquals(List.of(Code.UNREACHABLE), codes(report.warnings()));
+    }
+}
@@ -0,0 +1,98 @@
+package org.chatbot.flow;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlowCompilerTest {
+
+    /**
+     * A chain of WRITE_MESSAGE blocks is flattened into a single transition that
+     * ends on the wait block, and every block gets its dense index.
+     */
+    @Test
+    void testWriteChainIsFlattenedUpToWaitBlock() {
+        Block a = new Block("a", BlockType.WRITE_MESSAGE, "Hello", "b", null, null, null);
+        Block b = new Block("b", BlockType.WRITE_MESSAGE, "How can I help?", "wait", null, null, null);
+        Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null, null, null, null);
+
+        CompiledFlow flow = FlowCompiler.compile(new Flow("a", List.of(a, b, wait)));
+
+        assertEquals(3, flow.size());
+        assertEquals(2, flow.byId("wait").index());
+        assertSame(flow.byId("b"), flow.byId("a").next());
+        assertEquals(List.of("Hello", "How can I help?"), flow.start().messages());
+        assertEquals(List.of(flow.block(0), flow.block(1)), flow.start().writes());
+        assertSame(flow.byId("wait"), flow.start().stop());
+    }
+
+    @Test
+    void testWriteMessageCycleIsCut() {
+        Block a = new Block("a", BlockType.WRITE_MESSAGE, "A", "b", null, null, null);
+        Block b = new Block("b", BlockType.WRITE_MESSAGE, "B", "a", null, null, null);
+
+        CompiledFlow flow = FlowCompiler.compile(new Flow("a", List.of(a, b)));
+
+        assertEquals(List.of("A", "B"), flow.start().messages());
+        assertNull(flow.start().stop());
+    }
+
+    @Test
+    void testChainsAreCutAfterMaxHopsMessages() {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            // Every other block has no message and does not count.
+            blocks.add(new Block("w" + i, BlockType.WRITE_MESSAGE, i % 2 == 0 ? "M" + i : null, "w" + (i + 1), null, null, null));
+        }
+        blocks.add(new Block("w10", BlockType.WAIT_FOR_RESPONSE, null, null, null, null, null));
+
+        CompiledFlow flow = FlowCompiler.compile(new Flow("w0", blocks), 0, 3);
+
+        assertEquals(List.of("M0", "M2", "M4"), flow.start().messages());
+        assertNull(flow.start().stop());
+        // Chains that fit keep their wait block.
+        assertEquals(List.of("M4", "M6", "M8"), flow.byId("w4").entry().messages());
+        assertSame(flow.byId("w10"), flow.byId("w3").entry().stop());
+    }
+
+    @Test
+    void testUnknownIdsResolveToEmptyChain() {
+        IntentOption opt = new IntentOption("price", List.of("Price"), "missing");
+        Block detect = new Block("detect", BlockType.DETECT_RESPONSE_INTENT, null, null, null, List.of(opt), null);
+
+        CompiledFlow flow = FlowCompiler.compile(new Flow("nowhere", List.of(detect)));
+
+        assertSame(Transition.EMPTY, flow.start());
+        CompiledBlock compiled = flow.byId("detect");
+        assertSame(Transition.EMPTY, compiled.intentByName("PRICE").target());
+        assertEquals(List.of("price"), compiled.intentOptions().get(0).keywords());
+        assertNull(compiled.fallback());
+    }
+
+    /**
+     * Wait blocks carry their precomputed route tables and the distinct chains
+     * that can follow a user message.
+     */
+    @Test
+    void testRoutesAreResolvedAndOutgoingChainsCollected() {
+        Route keyword = new Route(new MatchSpec(MatchType.KEYWORD, List.of("Price")), "price");
+        Route intent = new Route(new MatchSpec(MatchType.INTENT, List.of("pricing")), "price");
+        Route fallback = new Route(new MatchSpec(MatchType.FALLBACK, null), "sorry");
+        Block wait = new Block("wait", BlockType.DETECT_RESPONSE_INTENT, null, null, List.of(keyword, intent, fallback), null, null);
+        Block price = new Block("price", BlockType.WRITE_MESSAGE, "49", "wait", null, null, null);
+        Block sorry = new Block("sorry", BlockType.WRITE_MESSAGE, "Sorry", "wait", null, null, null);
+
+        CompiledFlow flow = FlowCompiler.compile(new Flow("wait", List.of(wait, price, sorry)));
+        CompiledBlock compiled = flow.byId("wait");
+
+        assertEquals(List.of("price"), compiled.keywordRoutes().get(0).keywords());
+        assertEquals(List.of("pricing"), compiled.routeIntents());
+        assertSame(flow.byId("price").entry(), compiled.routeForIntent("pricing").target());
+        assertSame(flow.byId("sorry").entry(), compiled.routeFallback());
+        assertEquals(List.of(flow.byId("price").entry(), flow.byId("sorry").entry()), compiled.outgoing());
+        assertSame(compiled, flow.byId("price").entry().stop());
+    }
+}
@@ -0,0 +1,73 @@
+package org.chatbot.flow;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlowReaderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final FlowReader reader = new FlowReader(mapper);
+
+    private FlowReader.Result read(String json) throws IOException {
+        return reader.read(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testReadsTheSameFlowAsTreeBinding() throws Exception {
+        String json = """
+                {
+                  "meta": {"name": "Support", "version": 3, "authors": [{"n": "x"}]},
+                  "layout": {"zoom": 1.5, "nodes": [[1, 2], [3, 4]]},
+                  "startBlockId": "ask",
+                  "blocks": [
+                    {"id": "ask", "type": "DETECT_RESPONSE_INTENT", "fallback": "bye", "editor": {"x": 10},
+                     "intents": [{"name": "price", "keywords": ["price"], "next": "bye", "examples": ["how much"]}],
+                     "confidence": {"keyword": 0.8}},
+                    {"id": "wait", "type": "WAIT_FOR_RESPONSE",
+                     "on": [{"match": {"type": "KEYWORD", "anyOf": ["yes"]}, "next": "bye"}]},
+                    {"id": "bye", "type": "WRITE_MESSAGE", "message": "Bye!"}
+                  ]
+                }
+                """;
+
+        FlowReader.Result result = read(json);
+
+        assertEquals("Support", result.name());
+        assertEquals(mapper.readValue(json, Flow.class), result.flow());
+        assertEquals(0.8, result.flow().byId("ask").confidence().keyword());
+    }
+
+    @Test
+    void testMissingOrBlankNameIsNull() throws Exception {
+        assertNull(read("{\"blocks\": []}").name());
+        assertNull(read("{\"meta\": {\"name\": \"  \"}}").name());
+        assertNull(read("{\"meta\": \"Support\"}").name());
+        assertNull(read("{\"meta\": {\"name\": {\"first\": \"x\"}}}").name());
+        assertEquals("7", read("{\"meta\": {\"name\": 7}}").name());
+    }
+
+    @Test
+    void testMissingFieldsLeaveAnEmptyFlow() throws Exception {
+        Flow flow = read("{\"meta\": {\"name\": \"a\"}, \"blocks\": null}").flow();
+
+        assertNull(flow.getStartBlockId());
+        assertNull(flow.getBlocks());
+    }
+
+    @Test
+    void testStructuralErrorsAreRejected() {
+        assertThrows(JsonParseException.class, () -> read("[]"));
+        assertThrows(JsonParseException.class, () -> read("{\"blocks\": {\"id\": \"a\"}}"));
+        assertThrows(JsonParseException.class, () -> read("{\"blocks\": [\"a\"]}"));
+        assertThrows(JsonParseException.class, () -> read("{\"startBlockId\": [\"a\"]}"));
+        assertThrows(JsonParseException.class, () -> read("{\"blocks\": []} {}"));
+        assertThrows(IOException.class, () -> read("{\"blocks\": [{\"id\": \"a\"}"));
+        assertThrows(IOException.class, () -> read("{\"blocks\": [{\"id\": \"a\", \"type\": \"NOPE\"}]}"));
+    }
+}
@@ -0,0 +1,156 @@
+package org.chatbot.flow;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FuzzyKeywordIndexTest {
+
+    @Test
+    void testMisspelledKeywordsAreFound() {
+        FuzzyKeywordIndex index = FuzzyKeywordIndex.builder(2)
+                .add("refund", 0)
+                .add("delivery", 1)
+                .add("opening hours", 2)
+                .build();
+
+        assertEquals(1, index.firstMatch("where is my delivry?"));
+        // A swap of neighbouring letters is one edit.
+        assertEquals(0, index.firstMatch("I want a REFNUD"));
+        assertEquals(2, index.firstMatch("what are your openin hour"));
+        assertEquals(KeywordAutomaton.NO_MATCH, index.firstMatch("tell me a joke"));
+    }
+
+    @Test
+    void testAllowedDistanceGrowsWithKeywordLength() {
+        FuzzyKeywordIndex index = FuzzyKeywordIndex.builder(2)
+                .add("ship", 0)
+                .add("price", 1)
+                .add("shipping", 2)
+                .build();
+
+        // Under four chars nothing is fuzzy; "ship" and "price" allow one edit, "shipping" two.
+        assertEquals(0, index.firstMatch("shipp"));
+        assertEquals(KeywordAutomaton.NO_MATCH, index.firstMatch("prxxe cost"));
+        assertEquals(1, index.firstMatch("prise"));
+        assertEquals(2, index.firstMatch("shiping"));
+        assertEquals(2, index.firstMatch("shpiing"));
+        assertEquals(KeywordAutomaton.NO_MATCH, index.firstMatch("sleeping"));
+    }
+
+    @Test
+    void testClosestKeywordWinsThenLowestGroup() {
+        FuzzyKeywordIndex index = FuzzyKeywordIndex.builder(1)
+                .add("cart", 0)
+                .add("card", 1)
+                .add("cards", 2)
+                .build();
+
+        assertEquals(2, index.firstMatch("my cards"));
+        assertEquals(0, index.firstMatch("carx"));
+    }
+
+    @Test
+    void testDistanceZeroBuildsNothing() {
+        FuzzyKeywordIndex index = FuzzyKeywordIndex.builder(0).add("delivery", 0).build();
+
+        assertTrue(index.isEmpty());
+        assertEquals(KeywordAutomaton.NO_MATCH, index.firstMatch("delivry"));
+    }
+
+    @Test
+    void testLongWordsAreSkippedWithoutProbing() {
+        FuzzyKeywordIndex index = FuzzyKeywordIndex.builder(2)
+                .add("delivery", 0)
+                .build();
+        String longWord = "a".repeat(20_000);
+
+        // Probing every delete of a 20k char window would take hours; it cannot match an 8 char keyword anyway.
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertEquals(KeywordAutomaton.NO_MATCH, index.firstMatch(longWord));
+            assertEquals(0, index.firstMatch(longWord + " delivry"));
+        });
+    }
+
+    /**
+     * Compares the index with a brute force optimal string alignment check of
+     * every keyword against every word of random single-word texts.
+     */
+    @Test
+    void testMatchesBruteForce() {
+        Random random = new Random(11);
+        for (int round = 0; round < 300; round++) {
+            String[] keywords = new String[1 + random.nextInt(8)];
+            FuzzyKeywordIndex.Builder builder = FuzzyKeywordIndex.builder(2);
+            for (int i = 0; i < keywords.length; i++) {
+                keywords[i] = randomWord(random, 4 + random.nextInt(6));
+                builder.add(keywords[i], i);
+            }
+            FuzzyKeywordIndex index = builder.build();
+            for (int t = 0; t < 20; t++) {
+                String word = random.nextBoolean()
+                        ? mutate(keywords[random.nextInt(keywords.length)], random)
+                        : randomWord(random, 2 + random.nextInt(9));
+                int expected = KeywordAutomaton.NO_MATCH;
+                int best = Integer.MAX_VALUE;
+                for (int i = 0; i < keywords.length; i++) {
+                    int d = osa(word, keywords[i]);
+                    if (d <= Math.min(2, keywords[i].length() / 4) && d < best) {
+                        best = d;
+                        expected = i;
+                    }
+                }
+                assertEquals(expected, index.firstMatch(word), word);
+            }
+        }
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append("abcde".charAt(random.nextInt(5)));
+        }
+        return sb.toString();
+    }
+
+    private static String mutate(String word, Random random) {
+        StringBuilder sb = new StringBuilder(word);
+        for (int edits = random.nextInt(3); edits > 0 && sb.length() > 1; edits--) {
+            int i = random.nextInt(sb.length() - 1);
+            switch (random.nextInt(4)) {
+                case 0 -> sb.deleteCharAt(i);
+                case 1 -> sb.insert(i, 'x');
+                case 2 -> sb.setCharAt(i, 'y');
+                default -> {
+                    char c = sb.charAt(i);
+                    sb.setCharAt(i, sb.charAt(i + 1));
+                    sb.setCharAt(i + 1, c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int osa(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
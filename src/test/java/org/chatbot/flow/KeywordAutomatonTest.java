@@ -0,0 +1,141 @@
+package org.chatbot.flow;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeywordAutomatonTest {
+
+    @Test
+    void testLowestGroupWinsRegardlessOfPosition() {
+        KeywordAutomaton automaton = KeywordAutomaton.builder()
+                .add("refund", 1)
+                .add("price", 0)
+                .build();
+
+        assertEquals(0, automaton.firstMatch("I want a refund, what is the price?"));
+        assertEquals(1, automaton.firstMatch("REFUND please"));
+        assertEquals(KeywordAutomaton.NO_MATCH, automaton.firstMatch("hello"));
+    }
+
+    @Test
+    void testOverlappingKeywordsAreFoundThroughFailLinks() {
+        KeywordAutomaton automaton = KeywordAutomaton.builder()
+                .add("hers", 0)
+                .add("she", 1)
+                .add("he", 2)
+                .build();
+
+        assertEquals(1, automaton.firstMatch("ushe"));
+        assertEquals(0, automaton.firstMatch("ushers"));
+        assertEquals(2, automaton.firstMatch("ahe"));
+    }
+
+    @Test
+    void testScanReportsCoverageAndAmbiguity() {
+        KeywordAutomaton automaton = KeywordAutomaton.builder()
+                .add("refund", 0)
+                .add("price", 1)
+                .add("how much", 1)
+                .build();
+
+        KeywordAutomaton.Scan exact = automaton.scan("  Refund! ");
+        assertEquals(0, exact.group());
+        assertFalse(exact.ambiguous());
+        assertEquals(1.0, exact.coverage(), 1e-9);
+
+        KeywordAutomaton.Scan sameGroup = automaton.scan("how much, what price");
+        assertEquals(1, sameGroup.group());
+        assertFalse(sameGroup.ambiguous());
+        assertEquals(13, sameGroup.covered());
+        assertEquals(20, sameGroup.length());
+
+        KeywordAutomaton.Scan both = automaton.scan("refund the price");
+        assertEquals(0, both.group());
+        assertTrue(both.ambiguous());
+
+        assertEquals(KeywordAutomaton.NO_MATCH, automaton.scan("hello").group());
+        assertEquals(0.0, automaton.scan("hello").coverage());
+    }
+
+    @Test
+    void testScanCountsOverlappingKeywordsOnce() {
+        KeywordAutomaton automaton = KeywordAutomaton.builder()
+                .add("hers", 0)
+                .add("she", 0)
+                .add("he", 0)
+                .build();
+
+        // "she" and "hers" overlap in "shers": all five chars are covered, none twice.
+        KeywordAutomaton.Scan scan = automaton.scan("shers");
+        assertEquals(5, scan.covered());
+        assertEquals(1.0, scan.coverage(), 1e-9);
+    }
+
+    @Test
+    void testEmptyKeywordMatchesEverything() {
+        KeywordAutomaton automaton = KeywordAutomaton.builder()
+                .add("price", 0)
+                .add("", 3)
+                .build();
+
+        assertEquals(3, automaton.firstMatch(""));
+        assertEquals(3, automaton.firstMatch("anything"));
+        assertEquals(0, automaton.firstMatch("price"));
+        assertEquals(KeywordAutomaton.NO_MATCH, KeywordAutomaton.EMPTY.firstMatch("price"));
+    }
+
+    /**
+     * Compares the automaton with the per-keyword String.contains loop it replaces
+     * on random keyword sets and texts over a small alphabet, so overlaps are frequent.
+     */
+    @Test
+    void testMatchesContainsLoopOnRandomInput() {
+        Random random = new Random(42);
+        String alphabet = "abcAB é";
+        for (int round = 0; round < 500; round++) {
+            List<List<String>> groups = new ArrayList<>();
+            KeywordAutomaton.Builder builder = KeywordAutomaton.builder();
+            int groupCount = 1 + random.nextInt(6);
+            for (int g = 0; g < groupCount; g++) {
+                List<String> keywords = new ArrayList<>();
+                int keywordCount = 1 + random.nextInt(4);
+                for (int k = 0; k < keywordCount; k++) {
+                    String kw = randomText(random, alphabet, 1 + random.nextInt(4)).toLowerCase();
+                    keywords.add(kw);
+                    builder.add(kw, g);
+                }
+                groups.add(keywords);
+            }
+            KeywordAutomaton automaton = builder.build();
+            for (int t = 0; t < 20; t++) {
+                String text = randomText(random, alphabet, random.nextInt(20));
+                assertEquals(containsLoop(groups, text), automaton.firstMatch(text), "text '" + text + "' keywords " + groups);
+            }
+        }
+    }
+
+    private static int containsLoop(List<List<String>> groups, String text) {
+        String lower = text.toLowerCase();
+        for (int g = 0; g < groups.size(); g++) {
+            for (String kw : groups.get(g)) {
+                if (lower.contains(kw)) {
+                    return g;
+                }
+            }
+        }
+        return KeywordAutomaton.NO_MATCH;
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package org.chatbot.flow;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.chatbot.web.DTO.ChatOut;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RepliesTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void testPayloadsAreWhatJacksonWritesForChatOut() throws Exception {
+        List<String> texts = Arrays.asList("Hello!", "Quotes \" and \\ back\nslash\t\u0001", "Здравей 👋 </script>", "", null);
+
+        Replies replies = Replies.of(texts);
+
+        ChatOut[] expected = texts.stream().map(t -> new ChatOut(Replies.SENDER, t)).toArray(ChatOut[]::new);
+        for (int i = 0; i < texts.size(); i++) {
+            assertEquals(mapper.valueToTree(expected[i]), mapper.readTree(replies.payload(i)), texts.get(i));
+        }
+        assertEquals(mapper.valueToTree(expected), mapper.readTree(replies.batchPayload()));
+        // Jackson escapes surrogate pairs, everything else is identical.
+        assertArrayEquals(mapper.writeValueAsBytes(expected[1]), replies.payload(1));
+        assertEquals(new String(mapper.writeValueAsBytes(expected[2]), StandardCharsets.UTF_8).replace("\\uD83D\\uDC4B", "👋"),
+                new String(replies.payload(2), StandardCharsets.UTF_8));
+        assertArrayEquals("[]".getBytes(), Replies.EMPTY.batchPayload());
+    }
+
+    @Test
+    void testRepliesAreAListOfTheirTexts() {
+        Replies tail = Replies.of(List.of("x", "b", "c")).slice(1, 3);
+        Replies replies = Replies.concat(List.of("a"), tail);
+
+        assertEquals(List.of("b", "c"), tail);
+        assertEquals(List.of("a", "b", "c"), replies);
+        assertEquals(List.of("a", "b", "c").hashCode(), replies.hashCode());
+        assertSame(tail.payload(1), replies.payload(2));
+        assertEquals(List.of("a", "b"), replies.slice(0, 2));
+        assertEquals(List.of("c"), replies.slice(1, 3).slice(1, 2));
+        assertEquals("[{\"sender\":\"BOT\",\"content\":\"a\"},{\"sender\":\"BOT\",\"content\":\"b\"}]",
+                new String(replies.slice(0, 2).batchPayload()));
+        assertEquals("[{\"sender\":\"BOT\",\"content\":\"b\"}]", new String(replies.slice(1, 2).batchPayload()));
+        assertThrows(IndexOutOfBoundsException.class, () -> replies.slice(1, 2).get(1));
+    }
+
+    @Test
+    void testCompiledChainsCarryRenderedReplies() {
+        Block a = new Block("a", BlockType.WRITE_MESSAGE, "Hi", "b", null, null, null);
+        Block b = new Block("b", BlockType.WRITE_MESSAGE, "Ask me", "wait", null, null, null);
+        Block wait = new Block("wait", BlockType.WAIT_FOR_RESPONSE, null, null, null, null, null);
+
+        CompiledFlow flow = FlowCompiler.compile(new Flow("a", List.of(a, b, wait)));
+
+        assertEquals("[{\"sender\":\"BOT\",\"content\":\"Hi\"},{\"sender\":\"BOT\",\"content\":\"Ask me\"}]",
+                new String(flow.start().messages().batchPayload()));
+        assertSame(flow.byId("b").entry().messages().payload(0), flow.start().messages().payload(1));
+    }
+}
@@ -6,12 +6,21 @@ import org.chatbot.web.DTO.ChatOut;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.MockitoAnnotations;
+import org.chatbot.flow.Replies;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.util.MimeTypeUtils;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -20,12 +29,15 @@ public class BotWsControllerTest {
     private ChatFlowEngine engine;
     private SimpMessageSendingOperations messaging;
     private BotWsController controller;
+    @Captor
+    private ArgumentCaptor<Consumer<List<String>>> send;
 
     @BeforeEach
     void setUp() {
+        MockitoAnnotations.openMocks(this);
         engine = mock(ChatFlowEngine.class);
         messaging = mock(SimpMessageSendingOperations.class);
-        controller = new BotWsController(engine, messaging);
+        controller = new BotWsController(engine, messaging, false, false);
     }
 
     @Test
@@ -64,4 +76,63 @@ public class BotWsControllerTest {
         verifyNoInteractions(engine);
         verifyNoInteractions(messaging);
     }
+
+    @Test
+    void testAsyncModeSendsRepliesWhenTurnCompletes() {
+        CompletableFuture<List<String>> turn = new CompletableFuture<>();
+        when(engine.onUserMessageAsync(eq("sid"), eq("price"), send.capture())).thenReturn(turn);
+        BotWsController asyncController = new BotWsController(engine, messaging, true, false);
+
+        asyncController.handleUserMessage(new ChatIn("price"), "sid");
+
+        verify(engine, never()).onUserMessage(anyString(), anyString());
+        verifyNoInteractions(messaging);
+
+        // The engine sends the replies as part of the turn.
+        send.getValue().accept(List.of("The price is 49"));
+        turn.complete(List.of("The price is 49"));
+
+        ArgumentCaptor<ChatOut> captor = ArgumentCaptor.forClass(ChatOut.class);
+        verify(messaging)
+                .convertAndSendToUser(eq("sid"), eq("/queue/replies"), captor.capture(), any(MessageHeaders.class));
+        assertEquals("The price is 49", captor.getValue().content());
+    }
+
+    @Test
+    void testRenderedRepliesAreSentAsTheyAre() {
+        Replies replies = Replies.of(List.of("Hello", "How can I help?"));
+        when(engine.start("sid")).thenReturn(replies);
+
+        controller.initChat("sid");
+
+        ArgumentCaptor<Message<?>> captor = ArgumentCaptor.forClass(Message.class);
+        verify(messaging, times(2)).send(eq("/user/sid/queue/replies"), captor.capture());
+        verify(messaging, never()).convertAndSendToUser(anyString(), anyString(), any(), any(MessageHeaders.class));
+        Message<?> first = captor.getAllValues().get(0);
+        assertSame(replies.payload(0), first.getPayload());
+        assertEquals("sid", SimpMessageHeaderAccessor.getSessionId(first.getHeaders()));
+        assertEquals(MimeTypeUtils.APPLICATION_JSON, first.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+    }
+
+    @Test
+    void testBatchModeSendsOneFramePerTurn() {
+        BotWsController batching = new BotWsController(engine, messaging, false, true);
+        Replies replies = Replies.of(List.of("Hello", "How can I help?"));
+        when(engine.start("sid")).thenReturn(replies);
+        when(engine.onUserMessage("sid", "price")).thenReturn(List.of("The price is 49", "Anything else?"));
+        when(engine.onUserMessage("sid", "nothing")).thenReturn(List.of());
+
+        batching.initChat("sid");
+        batching.handleUserMessage(new ChatIn("price"), "sid");
+        batching.handleUserMessage(new ChatIn("nothing"), "sid");
+
+        ArgumentCaptor<Message<?>> frame = ArgumentCaptor.forClass(Message.class);
+        verify(messaging).send(eq("/user/sid/queue/replies"), frame.capture());
+        assertSame(replies.batchPayload(), frame.getValue().getPayload());
+        ArgumentCaptor<ChatOut[]> converted = ArgumentCaptor.forClass(ChatOut[].class);
+        verify(messaging).convertAndSendToUser(eq("sid"), eq("/queue/replies"), converted.capture(), any(MessageHeaders.class));
+        assertEquals(List.of(new ChatOut("BOT", "The price is 49"), new ChatOut("BOT", "Anything else?")),
+                List.of(converted.getValue()));
+        verifyNoMoreInteractions(messaging);
+    }
 }
@@ -0,0 +1,80 @@
+package org.chatbot.web.controller;
+
+import org.chatbot.conversationMessage.service.ConversationExportService;
+import org.chatbot.conversationMessage.service.ConversationHistoryService;
+import org.chatbot.fileEntity.service.FileEntityService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ConversationExportControllerTest {
+
+    private final ConversationExportService exportService = mock(ConversationExportService.class);
+    private final FileEntityService fileEntityService = mock(FileEntityService.class);
+    private final ConversationExportController controller =
+            new ConversationExportController(exportService, fileEntityService);
+
+    private static byte[] run(ResponseEntity<StreamingResponseBody> response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void testExportIsGzippedOnTheFlyWhenAccepted() throws Exception {
+        doAnswer(inv -> {
+            inv.<OutputStream>getArgument(2).write("{\"id\":1}\n".getBytes(StandardCharsets.UTF_8));
+            return 1L;
+        }).when(exportService).export(any(), eq(ConversationExportService.Format.NDJSON), any());
+
+        ResponseEntity<StreamingResponseBody> response =
+                controller.export("ndjson", null, null, null, false, "gzip, deflate");
+        byte[] body = run(response);
+
+        assertEquals("gzip", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(ConversationExportController.NDJSON, response.getHeaders().getContentType());
+        assertEquals("{\"id\":1}\n",
+                new String(new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes(), StandardCharsets.UTF_8));
+        verify(exportService).export(eq(new ConversationExportService.Filter(Instant.EPOCH,
+                ConversationHistoryService.END_OF_TIME, null, false)), any(), any());
+    }
+
+    @Test
+    void testFlowIsCheckedAgainstTheStoredFiles() throws Exception {
+        when(fileEntityService.exists("acme")).thenReturn(true);
+        Instant from = Instant.parse("2025-03-01T00:00:00Z");
+        Instant to = Instant.parse("2025-03-02T00:00:00Z");
+
+        ResponseEntity<StreamingResponseBody> response = controller.export("CSV", from, to, " acme ", true, null);
+        run(response);
+
+        assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(ConversationExportController.CSV, response.getHeaders().getContentType());
+        verify(exportService).export(eq(new ConversationExportService.Filter(from, to, "acme", true)),
+                eq(ConversationExportService.Format.CSV), any());
+        verify(fileEntityService, never()).getLatestJson(any());
+    }
+
+    @Test
+    void testInvalidRequestsAreRejectedBeforeStreaming() {
+        Instant now = Instant.now();
+
+        assertThrows(IllegalArgumentException.class, () -> controller.export("xml", null, null, null, false, null));
+        assertThrows(IllegalArgumentException.class, () -> controller.export("csv", now, now, null, false, null));
+        assertThrows(IllegalArgumentException.class, () -> controller.export("csv", null, null, "nobody", false, null));
+        verifyNoInteractions(exportService);
+    }
+}
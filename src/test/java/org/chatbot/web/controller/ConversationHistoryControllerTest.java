@@ -0,0 +1,31 @@
+package org.chatbot.web.controller;
+
+import org.chatbot.conversationMessage.service.ConversationHistoryService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+public class ConversationHistoryControllerTest {
+
+    private final ConversationHistoryService historyService = mock(ConversationHistoryService.class);
+    private final ConversationHistoryController controller = new ConversationHistoryController(historyService);
+
+    @Test
+    void testRequestParametersArePassedAsQuery() {
+        Instant from = Instant.parse("2025-03-01T00:00:00Z");
+        ConversationHistoryService.Page<String> page = new ConversationHistoryService.Page<>(List.of("x"), "next");
+        doReturn(page).when(historyService).transcript("s1",
+                new ConversationHistoryService.Query(from, null, "cursor", 50, true, true));
+        doReturn(page).when(historyService).atBlock("wait", ConversationHistoryService.Query.all());
+
+        assertSame(page, controller.getTranscript("s1", from, null, "cursor", 50, true, "DESC"));
+        assertSame(page, controller.getBlockMessages("wait", null, null, null, null, false, "asc"));
+        assertThrows(IllegalArgumentException.class,
+                () -> controller.getBlockMessages("wait", null, null, null, null, false, "sideways"));
+    }
+}
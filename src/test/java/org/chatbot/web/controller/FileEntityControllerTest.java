@@ -3,18 +3,34 @@ package org.chatbot.web.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.chatbot.configuration.FlowConfigService;
+import org.chatbot.configuration.FlowRegistry;
 import org.chatbot.fileEntity.model.FileEntity;
+import org.chatbot.fileEntity.service.ActiveConfigCache;
 import org.chatbot.fileEntity.service.FileEntityService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.chatbot.flow.CompiledFlow;
 import org.chatbot.flow.Flow;
+import org.chatbot.flow.FlowCompiler;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Optional;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class FileEntityControllerTest {
@@ -29,7 +45,12 @@ public class FileEntityControllerTest {
         fileService = mock(FileEntityService.class);
         flowConfigService = mock(FlowConfigService.class);
         mapper = new ObjectMapper();
-        controller = new FileEntityController(fileService, flowConfigService, mapper);
+        controller = newController(mock(FlowRegistry.class), new SimpleMeterRegistry());
+    }
+
+    private FileEntityController newController(FlowRegistry flowRegistry, SimpleMeterRegistry registry) {
+        return new FileEntityController(fileService, flowConfigService, flowRegistry,
+                new ActiveConfigCache(fileService, 5000), mapper, registry);
     }
 
     @Test
@@ -37,9 +58,9 @@ public class FileEntityControllerTest {
         ObjectNode json = mapper.createObjectNode();
         ObjectNode meta = mapper.createObjectNode();
         json.set("meta", meta);
-        ResponseEntity<?> response = controller.uploadChatMessageConfiguration(json);
+        ResponseEntity<?> response = controller.uploadChatMessageConfiguration(mapper.writeValueAsBytes(json), true);
 
-        assertEquals(400, response.getStatusCodeValue());
+        assertEquals(400, response.getStatusCode().value());
         assertTrue(((Map<?, ?>) response.getBody()).get("message").toString().contains("meta.name"));
     }
 
@@ -51,23 +72,77 @@ public class FileEntityControllerTest {
         json.set("meta", meta);
 
         FileEntity saved = FileEntity.builder().id(1L).name("TestFlow").build();
-        when(fileService.saveMessage(any(), any())).thenReturn(saved);
+        when(fileService.saveMessage(anyString(), any(), anyBoolean())).thenReturn(saved);
         when(flowConfigService.getFlow()).thenReturn(new Flow());
 
-        ResponseEntity<?> response = controller.uploadChatMessageConfiguration(json);
+        ResponseEntity<?> response = controller.uploadChatMessageConfiguration(mapper.writeValueAsBytes(json), true);
 
-        assertEquals(200, response.getStatusCodeValue());
-        verify(fileService).saveMessage(json, "TestFlow");
+        assertEquals(200, response.getStatusCode().value());
+        verify(fileService).saveMessage(json.toString(), "TestFlow", true);
         assertEquals("success", ((Map<?, ?>) response.getBody()).get("status"));
     }
 
+    @Test
+    void testUploadStoresTheBytesAsSentAndActivatesTheCompiledFlow() throws Exception {
+        String json = """
+                {"meta": {"name": "Shop", "tags": ["a", {"b": 1}]},
+                 "startBlockId": "hello",
+                 "blocks": [{"id": "hello", "type": "WRITE_MESSAGE", "message": "Hi", "ui": {"x": 1}}]}
+                """;
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        controller = newController(mock(FlowRegistry.class), registry);
+        CompiledFlow compiled = FlowCompiler.compile(new Flow());
+        when(flowConfigService.compile(any())).thenReturn(compiled);
+        when(fileService.saveMessage(anyString(), any(), anyBoolean()))
+                .thenReturn(FileEntity.builder().id(2L).name("Shop").build());
+
+        ResponseEntity<?> response = controller.uploadChatMessageConfiguration(json.getBytes(StandardCharsets.UTF_8), true);
+
+        assertEquals(200, response.getStatusCode().value());
+        ArgumentCaptor<Flow> flow = ArgumentCaptor.forClass(Flow.class);
+        InOrder order = inOrder(flowConfigService, fileService);
+        order.verify(flowConfigService).compile(flow.capture());
+        order.verify(fileService).saveMessage(json, "Shop", true);
+        order.verify(flowConfigService).activate(compiled, "Shop");
+        assertEquals("hello", flow.getValue().getStartBlockId());
+        assertEquals("Hi", flow.getValue().byId("hello").message());
+        assertEquals(json.length(), registry.get("chatbot.config.upload.size").summary().totalAmount());
+        assertEquals(1, registry.get("chatbot.config.upload.parse").timer().count());
+    }
+
+    @Test
+    void testUploadWithoutActivateOnlyStoresTheNamedFlow() throws Exception {
+        FlowRegistry flowRegistry = mock(FlowRegistry.class);
+        controller = newController(flowRegistry, new SimpleMeterRegistry());
+        CompiledFlow compiled = FlowCompiler.compile(new Flow());
+        when(flowConfigService.compile(any())).thenReturn(compiled);
+        when(fileService.saveMessage(anyString(), any(), anyBoolean()))
+                .thenReturn(FileEntity.builder().id(3L).name("acme").build());
+
+        ResponseEntity<?> response = controller.uploadChatMessageConfiguration(
+                "{\"meta\": {\"name\": \"acme\"}}".getBytes(StandardCharsets.UTF_8), false);
+
+        assertEquals(200, response.getStatusCode().value());
+        verify(fileService).saveMessage(anyString(), eq("acme"), eq(false));
+        verify(flowConfigService, never()).activate(any(), any());
+        verify(flowRegistry).replace("acme", compiled);
+    }
+
+    @Test
+    void testMalformedUploadIsRejectedBeforeAnythingIsSaved() {
+        byte[] json = "{\"meta\": {\"name\": \"Shop\"}, \"blocks\": [{\"id\": \"a\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> controller.uploadChatMessageConfiguration(json, true));
+        verifyNoInteractions(fileService, flowConfigService);
+    }
+
     @Test
     void testGetConfigWhenNotFound() {
         when(fileService.getActiveJson()).thenReturn(Optional.empty());
 
-        ResponseEntity<?> response = controller.getChatMessageConfiguration();
+        ResponseEntity<?> response = controller.getChatMessageConfiguration(null, null, null);
 
-        assertEquals(404, response.getStatusCodeValue());
+        assertEquals(404, response.getStatusCode().value());
     }
 
     @Test
@@ -75,9 +150,58 @@ public class FileEntityControllerTest {
         String json = "{\"meta\":{\"name\":\"TestFlow\"}}";
         when(fileService.getActiveJson()).thenReturn(Optional.of(json));
 
-        ResponseEntity<?> response = controller.getChatMessageConfiguration();
+        ResponseEntity<?> response = controller.getChatMessageConfiguration(null, null, null);
+
+        assertEquals(200, response.getStatusCode().value());
+        assertArrayEquals(json.getBytes(StandardCharsets.UTF_8), (byte[]) response.getBody());
+    }
+
+    @Test
+    void testActiveConfigIsCachedAndRevalidatedWithItsETag() {
+        String json = "{\"meta\":{\"name\":\"TestFlow\"}}";
+        when(fileService.getActiveJson()).thenReturn(Optional.of(json));
+
+        String etag = controller.getChatMessageConfiguration(null, null, null).getHeaders().getETag();
+        ResponseEntity<?> revalidated = controller.getChatMessageConfiguration(null, null, "W/\"other\", " + etag);
+
+        assertEquals(304, revalidated.getStatusCode().value());
+        assertNull(revalidated.getBody());
+        assertEquals(etag, revalidated.getHeaders().getETag());
+        verify(fileService, times(1)).getActiveJson();
+    }
+
+    @Test
+    void testGzipIsServedWhenAccepted() throws Exception {
+        String json = "{\"meta\":{\"name\":\"TestFlow\"}}";
+        when(fileService.getActiveJson()).thenReturn(Optional.of(json));
+
+        ResponseEntity<?> gzip = controller.getChatMessageConfiguration(null, "br, gzip;q=0.8", null);
+        ResponseEntity<?> plain = controller.getChatMessageConfiguration(null, "gzip;q=0, br", null);
+
+        assertEquals("gzip", gzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream((byte[]) gzip.getBody()))) {
+            assertEquals(json, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertNull(plain.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertNotEquals(gzip.getHeaders().getETag(), plain.getHeaders().getETag());
+        assertEquals(304, controller.getChatMessageConfiguration(null, "gzip", gzip.getHeaders().getETag()).getStatusCode().value());
+        assertEquals(200, controller.getChatMessageConfiguration(null, null, gzip.getHeaders().getETag()).getStatusCode().value());
+    }
 
-        assertEquals(200, response.getStatusCodeValue());
-        assertEquals(json, response.getBody());
+    @Test
+    void testActivatingUploadReplacesTheCachedConfig() throws Exception {
+        when(fileService.getActiveJson()).thenReturn(Optional.of("{\"meta\":{\"name\":\"Old\"}}"));
+        when(fileService.saveMessage(anyString(), any(), anyBoolean())).thenReturn(FileEntity.builder().id(4L).build());
+        String oldEtag = controller.getChatMessageConfiguration(null, null, null).getHeaders().getETag();
+        byte[] upload = "{\"meta\":{\"name\":\"New\"}}".getBytes(StandardCharsets.UTF_8);
+
+        controller.uploadChatMessageConfiguration(upload, false);
+        assertEquals(304, controller.getChatMessageConfiguration(null, null, oldEtag).getStatusCode().value());
+        controller.uploadChatMessageConfiguration(upload, true);
+
+        ResponseEntity<?> response = controller.getChatMessageConfiguration(null, null, oldEtag);
+        assertEquals(200, response.getStatusCode().value());
+        assertArrayEquals(upload, (byte[]) response.getBody());
+        verify(fileService, times(1)).getActiveJson();
     }
 }